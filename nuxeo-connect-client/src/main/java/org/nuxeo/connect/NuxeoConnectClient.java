@@ -39,7 +39,7 @@ public class NuxeoConnectClient {
 
     public static final String PROTOCOL_VERSION_OVERRIDE = "org.nuxeo.connect.protol.version.override";
 
-    protected static PackageManager packageManager = null;
+    protected static volatile PackageManager packageManager = null;
 
     protected static CallbackHolder cbHolder = new DefaultCallbackHolder();
 
@@ -94,11 +94,17 @@ public class NuxeoConnectClient {
     }
 
     /**
+     * Since 1.7.6, the shared package manager is not modified anymore when asking for another target platform: a view
+     * bound to the given target platform is returned instead.
+     *
      * @since 1.7.2
+     * @see PackageManagerImpl#forTargetPlatform(String)
      */
     public static synchronized PackageManager getPackageManager(String currentTargetPlatform) {
         if (packageManager == null) {
             packageManager = new PackageManagerImpl(currentTargetPlatform);
+        } else if (packageManager instanceof PackageManagerImpl) {
+            return ((PackageManagerImpl) packageManager).forTargetPlatform(currentTargetPlatform);
         } else {
             packageManager.setCurrentTargetPlatform(currentTargetPlatform);
         }
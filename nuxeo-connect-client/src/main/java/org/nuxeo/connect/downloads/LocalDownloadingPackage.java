@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -76,9 +77,16 @@ public class LocalDownloadingPackage extends PackageDescriptor implements Downlo
 
     protected File file = null;
 
-    private boolean completed = false;
+    private volatile boolean completed = false;
 
-    private boolean serverError = false;
+    private volatile boolean serverError = false;
+
+    /**
+     * Completed once the download is terminated, successfully or not.
+     *
+     * @since 1.7.6
+     */
+    protected final CompletableFuture<DownloadingPackage> completion = new CompletableFuture<>();
 
     public LocalDownloadingPackage(PackageDescriptor descriptor) {
         super(descriptor);
@@ -186,9 +194,19 @@ public class LocalDownloadingPackage extends PackageDescriptor implements Downlo
             ConnectDownloadManager cdm = NuxeoConnectClient.getDownloadManager();
             cdm.removeDownloadingPackage(getId());
             completed = true;
+            completion.complete(this);
         }
     }
 
+    /**
+     * @return a future completed once the download is terminated, successfully or not, after the downloaded package
+     *         was registered into the {@link PackageUpdateService}
+     * @since 1.7.6
+     */
+    public CompletableFuture<DownloadingPackage> getCompletion() {
+        return completion;
+    }
+
     protected void registerDownloadedPackage() {
         PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
         try {
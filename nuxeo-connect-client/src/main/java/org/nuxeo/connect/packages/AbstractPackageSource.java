@@ -48,12 +48,18 @@ public abstract class AbstractPackageSource implements PackageSource {
     @Override
     public List<DownloadablePackage> listPackages(PackageType type, String currentTargetPlatform) {
         List<DownloadablePackage> all = listPackages();
-        return all.stream().filter(pkg -> {
-            // the TP filter only applies on remote packages
-            return (pkg.getPackageState() != PackageState.REMOTE || StringUtils.isBlank(currentTargetPlatform)
-                    || TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(pkg, currentTargetPlatform))
-                    && (type == null || type.equals(pkg.getType()));
-        }).collect(Collectors.toList());
+        return all.stream().filter(pkg -> accept(pkg, type, currentTargetPlatform)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return true if the package is of the given type and, if remote, compatible with the given target platform
+     * @since 1.7.6
+     */
+    protected static boolean accept(DownloadablePackage pkg, PackageType type, String currentTargetPlatform) {
+        // the TP filter only applies on remote packages
+        return (pkg.getPackageState() != PackageState.REMOTE || StringUtils.isBlank(currentTargetPlatform)
+                || TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(pkg, currentTargetPlatform))
+                && (type == null || type.equals(pkg.getType()));
     }
 
     @Override
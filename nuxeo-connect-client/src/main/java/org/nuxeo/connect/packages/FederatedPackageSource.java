@@ -0,0 +1,373 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.update.PackageType;
+
+/**
+ * {@link PackageSource} federating several sources, typically a private mirror in front of the Connect server, which
+ * are queried concurrently.
+ * <p>
+ * Each source is given a priority and a timeout. Sources answering late or failing are skipped with a warning; after
+ * {@link #MAX_CONSECUTIVE_FAILURES} consecutive failures a source is not queried anymore for {@link #RETRY_DELAY_MS}.
+ * Latency and failures are tracked per source, see {@link #getHealth(String)}. The latency is only reported, for
+ * monitoring: it does not change the order of the sources, so that the merge stays deterministic.
+ * <p>
+ * Merge policy: when several sources provide a package with the same id, the one from the source with the highest
+ * priority wins, sources with the same priority being ordered by registration. A lookup by id returns as soon as all
+ * the sources with a higher priority than the answering one are done.
+ * <p>
+ * Sources are queried by at most {@link #MAX_THREADS} daemon threads, released when idle; {@link #close()} stops them
+ * once the source is not used anymore.
+ *
+ * @since 1.7.6
+ */
+public class FederatedPackageSource extends AbstractPackageSource implements Closeable {
+
+    protected static final Log log = LogFactory.getLog(FederatedPackageSource.class);
+
+    public static final long DEFAULT_TIMEOUT_MS = 30000;
+
+    public static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    public static final long RETRY_DELAY_MS = 60000;
+
+    public static final int MAX_THREADS = 8;
+
+    protected static final AtomicInteger poolNumber = new AtomicInteger();
+
+    /**
+     * Members by decreasing priority then registration order.
+     */
+    protected final List<Member> members = new CopyOnWriteArrayList<>();
+
+    protected final ThreadPoolExecutor executor;
+
+    protected static class Member {
+
+        protected final PackageSource source;
+
+        protected final int priority;
+
+        protected final long timeoutMs;
+
+        protected final SourceHealth health = new SourceHealth();
+
+        protected Member(PackageSource source, int priority, long timeoutMs) {
+            this.source = source;
+            this.priority = priority;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    protected static class Answer<T> {
+
+        protected final T result;
+
+        protected final long durationMs;
+
+        protected Answer(T result, long durationMs) {
+            this.result = result;
+            this.durationMs = durationMs;
+        }
+    }
+
+    /**
+     * Health and latency of a federated source.
+     */
+    public static class SourceHealth {
+
+        protected long latencyMs = -1;
+
+        protected int consecutiveFailures;
+
+        protected long totalFailures;
+
+        protected long lastFailureTime;
+
+        protected synchronized void success(long durationMs) {
+            // exponentially weighted moving average
+            latencyMs = latencyMs < 0 ? durationMs : (3 * latencyMs + durationMs) / 4;
+            consecutiveFailures = 0;
+        }
+
+        protected synchronized void failure() {
+            consecutiveFailures++;
+            totalFailures++;
+            lastFailureTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the average latency in milliseconds, -1 if the source never answered
+         */
+        public synchronized long getLatencyMs() {
+            return latencyMs;
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public synchronized long getTotalFailures() {
+            return totalFailures;
+        }
+
+        /**
+         * @return false if the source failed too many times in a row recently
+         */
+        public synchronized boolean isAvailable() {
+            return consecutiveFailures < MAX_CONSECUTIVE_FAILURES
+                    || System.currentTimeMillis() - lastFailureTime > RETRY_DELAY_MS;
+        }
+    }
+
+    public FederatedPackageSource(String id, String name) {
+        this.id = id;
+        this.name = name;
+        String namePrefix = "ConnectFederationThread-" + poolNumber.incrementAndGet() + '-';
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Adds a source with the {@link #DEFAULT_TIMEOUT_MS default timeout}.
+     */
+    public FederatedPackageSource addSource(PackageSource source, int priority) {
+        return addSource(source, priority, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param priority sources with a higher priority win the merge
+     * @param timeoutMs maximum time to wait for an answer of the source
+     */
+    public synchronized FederatedPackageSource addSource(PackageSource source, int priority, long timeoutMs) {
+        int pos = 0;
+        while (pos < members.size() && members.get(pos).priority >= priority) {
+            pos++;
+        }
+        members.add(pos, new Member(source, priority, timeoutMs));
+        return this;
+    }
+
+    /**
+     * @return the federated sources, by decreasing priority
+     */
+    public List<PackageSource> getSources() {
+        List<PackageSource> sources = new ArrayList<>();
+        for (Member member : members) {
+            sources.add(member.source);
+        }
+        return sources;
+    }
+
+    /**
+     * @return the health of the given federated source, null if unknown
+     */
+    public SourceHealth getHealth(String sourceId) {
+        for (Member member : members) {
+            if (member.source.getId().equals(sourceId)) {
+                return member.health;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<DownloadablePackage> listPackages() {
+        return listPackages(null, null);
+    }
+
+    @Override
+    public List<DownloadablePackage> listPackages(PackageType type, String currentTargetPlatform) {
+        return merge(queryAll(source -> source.listPackages(type, currentTargetPlatform)));
+    }
+
+    @Override
+    public Collection<? extends DownloadablePackage> listPackagesByName(String packageName,
+            String currentTargetPlatform) {
+        return merge(queryAll(source -> source.listPackagesByName(packageName, currentTargetPlatform)));
+    }
+
+    @Override
+    public List<DownloadablePackage> listStudioPackages(String currentTargetPlatform) {
+        return merge(queryAll(source -> source.listStudioPackages(currentTargetPlatform)));
+    }
+
+    @Override
+    public DownloadablePackage getPackageById(String packageId) {
+        long start = System.currentTimeMillis();
+        Map<Member, Future<Answer<DownloadablePackage>>> futures = submit(
+                source -> source.getPackageById(packageId));
+        for (Map.Entry<Member, Future<Answer<DownloadablePackage>>> entry : futures.entrySet()) {
+            DownloadablePackage pkg = get(entry.getKey(), entry.getValue(), start);
+            if (pkg != null) {
+                // lower priority sources are not awaited
+                for (Future<Answer<DownloadablePackage>> future : futures.values()) {
+                    future.cancel(true);
+                }
+                return pkg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queries the generations of the available sources concurrently, with their timeout, as for the other queries.
+     *
+     * @return a combination of the generations of the sources which answered, -1 if one of them does not maintain it
+     */
+    @Override
+    public long getGeneration() {
+        long start = System.currentTimeMillis();
+        Map<Member, Future<Answer<Long>>> futures = submit(PackageSource::getGeneration);
+        long generation = 17;
+        for (Map.Entry<Member, Future<Answer<Long>>> entry : futures.entrySet()) {
+            Long sourceGeneration = get(entry.getKey(), entry.getValue(), start);
+            if (sourceGeneration == null) {
+                // skipped, as by the listings
+                continue;
+            }
+            if (sourceGeneration < 0) {
+                futures.values().forEach(future -> future.cancel(true));
+                return -1;
+            }
+            generation = 31 * (31 * generation + entry.getKey().source.getId().hashCode()) + sourceGeneration;
+        }
+        return generation & Long.MAX_VALUE;
+    }
+
+    @Override
+    public void flushCache() {
+        for (Member member : members) {
+            member.source.flushCache();
+        }
+    }
+
+    /**
+     * Stops the querying threads, interrupting the pending queries. The source must not be queried anymore.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the answers of the available sources, by decreasing priority
+     */
+    protected <T> List<T> queryAll(Function<PackageSource, T> query) {
+        long start = System.currentTimeMillis();
+        List<T> results = new ArrayList<>();
+        for (Map.Entry<Member, Future<Answer<T>>> entry : submit(query).entrySet()) {
+            T result = get(entry.getKey(), entry.getValue(), start);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    protected <T> Map<Member, Future<Answer<T>>> submit(Function<PackageSource, T> query) {
+        Map<Member, Future<Answer<T>>> futures = new LinkedHashMap<>();
+        for (Member member : members) {
+            if (!member.health.isAvailable()) {
+                log.debug("Skipping unhealthy package source " + member.source.getId());
+                continue;
+            }
+            futures.put(member, executor.submit(() -> {
+                long start = System.currentTimeMillis();
+                T result = query.apply(member.source);
+                return new Answer<>(result, System.currentTimeMillis() - start);
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * @return the answer of the given source, null if it failed or timed out
+     */
+    protected <T> T get(Member member, Future<Answer<T>> future, long start) {
+        long remaining = start + member.timeoutMs - System.currentTimeMillis();
+        try {
+            Answer<T> answer = future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            member.health.success(answer.durationMs);
+            return answer.result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            member.health.failure();
+            log.warn(String.format("Package source %s did not answer within %sms, skipped", member.source.getId(),
+                    member.timeoutMs));
+        } catch (ExecutionException e) {
+            member.health.failure();
+            log.warn("Package source " + member.source.getId() + " failed, skipped: " + e.getCause());
+            log.debug(e, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        }
+        return null;
+    }
+
+    /**
+     * Merges the given lists by package id, the first occurrence of an id winning.
+     */
+    protected static List<DownloadablePackage> merge(List<? extends Collection<? extends DownloadablePackage>> lists) {
+        if (lists.isEmpty()) {
+            return new ArrayList<>();
+        } else if (lists.size() == 1) {
+            return new ArrayList<>(lists.get(0));
+        }
+        Map<String, DownloadablePackage> packagesById = new LinkedHashMap<>();
+        for (Collection<? extends DownloadablePackage> list : lists) {
+            for (DownloadablePackage pkg : list) {
+                packagesById.putIfAbsent(pkg.getId(), pkg);
+            }
+        }
+        return new ArrayList<>(packagesById.values());
+    }
+
+}
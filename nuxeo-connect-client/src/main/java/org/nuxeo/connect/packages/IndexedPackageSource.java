@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages;
+
+/**
+ * A {@link PackageSource} maintaining a {@link LocalPackageIndex} of its packages, so that lookups by id or by name do
+ * not require to list them again.
+ *
+ * @since 1.7.6
+ */
+public interface IndexedPackageSource extends PackageSource {
+
+    /**
+     * @return the up to date index of the packages of this source, or null if it cannot be maintained; callers must
+     *         then fall back on {@link #listPackages()}
+     */
+    LocalPackageIndex getIndex();
+
+}
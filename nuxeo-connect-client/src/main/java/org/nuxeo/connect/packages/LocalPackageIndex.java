@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.update.PackageState;
+import org.nuxeo.connect.update.Version;
+
+/**
+ * Index of local packages by id and by name, keeping track of the installed ones.
+ * <p>
+ * The index is loaded once with {@link #reset(Collection)} then maintained through {@link #add(DownloadablePackage)},
+ * {@link #remove(String)} and {@link #setState(String, PackageState)}, typically from a
+ * {@link org.nuxeo.connect.update.PackageUpdateListener}. Versions of a given name are kept sorted.
+ * <p>
+ * Each change increases the {@link #getGeneration() generation} of the index, so that callers can tell whether
+ * something they computed from it is still up to date. Generations are unique across indexes, so that a replaced index
+ * is not mistaken for its predecessor.
+ *
+ * @since 1.7.6
+ */
+public class LocalPackageIndex {
+
+    protected static final Comparator<DownloadablePackage> VERSION_COMPARATOR = Comparator.comparing(
+            DownloadablePackage::getVersion);
+
+    protected static final AtomicLong generations = new AtomicLong();
+
+    protected final Map<String, DownloadablePackage> packagesById = new LinkedHashMap<>();
+
+    /**
+     * Package name => packages sorted by version
+     */
+    protected final Map<String, List<DownloadablePackage>> packagesByName = new HashMap<>();
+
+    protected final Set<String> installedIds = new HashSet<>();
+
+    protected long generation = generations.incrementAndGet();
+
+    public synchronized void reset(Collection<? extends DownloadablePackage> packages) {
+        generation = generations.incrementAndGet();
+        packagesById.clear();
+        packagesByName.clear();
+        installedIds.clear();
+        for (DownloadablePackage pkg : packages) {
+            add(pkg);
+        }
+    }
+
+    /**
+     * Adds the given package, replacing any package with the same id.
+     */
+    public synchronized void add(DownloadablePackage pkg) {
+        remove(pkg.getId());
+        generation = generations.incrementAndGet();
+        packagesById.put(pkg.getId(), pkg);
+        List<DownloadablePackage> versions = packagesByName.computeIfAbsent(pkg.getName(), k -> new ArrayList<>());
+        int pos = Collections.binarySearch(versions, pkg, VERSION_COMPARATOR);
+        versions.add(pos < 0 ? -pos - 1 : pos, pkg);
+        if (pkg.getPackageState().isInstalled()) {
+            installedIds.add(pkg.getId());
+        }
+    }
+
+    public synchronized void remove(String id) {
+        DownloadablePackage pkg = packagesById.remove(id);
+        if (pkg == null) {
+            return;
+        }
+        generation = generations.incrementAndGet();
+        installedIds.remove(id);
+        List<DownloadablePackage> versions = packagesByName.get(pkg.getName());
+        versions.remove(pkg);
+        if (versions.isEmpty()) {
+            packagesByName.remove(pkg.getName());
+        }
+    }
+
+    /**
+     * @return false if there is no package with the given id
+     */
+    public synchronized boolean setState(String id, PackageState state) {
+        if (!packagesById.containsKey(id)) {
+            return false;
+        }
+        generation = generations.incrementAndGet();
+        if (state.isInstalled()) {
+            installedIds.add(id);
+        } else {
+            installedIds.remove(id);
+        }
+        return true;
+    }
+
+    /**
+     * @return a number increased on each change of the index, unique across indexes
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized DownloadablePackage getPackage(String id) {
+        return packagesById.get(id);
+    }
+
+    public synchronized boolean isInstalled(String id) {
+        return installedIds.contains(id);
+    }
+
+    public synchronized int size() {
+        return packagesById.size();
+    }
+
+    public synchronized List<DownloadablePackage> listPackages() {
+        return new ArrayList<>(packagesById.values());
+    }
+
+    public synchronized List<DownloadablePackage> listInstalledPackages() {
+        List<DownloadablePackage> installed = new ArrayList<>(installedIds.size());
+        for (String id : installedIds) {
+            installed.add(packagesById.get(id));
+        }
+        return installed;
+    }
+
+    /**
+     * @return the packages with the given name, sorted by version
+     */
+    public synchronized List<DownloadablePackage> listPackagesByName(String name) {
+        List<DownloadablePackage> versions = packagesByName.get(name);
+        return versions == null ? new ArrayList<>() : new ArrayList<>(versions);
+    }
+
+    /**
+     * @return the versions of the packages with the given name, sorted
+     */
+    public synchronized List<Version> getVersions(String name) {
+        List<Version> result = new ArrayList<>();
+        for (DownloadablePackage pkg : packagesByName.getOrDefault(name, Collections.emptyList())) {
+            result.add(pkg.getVersion());
+        }
+        return result;
+    }
+
+    /**
+     * @return the versions of the installed packages with the given name, sorted
+     */
+    public synchronized List<Version> getInstalledVersions(String name) {
+        List<Version> result = new ArrayList<>();
+        for (DownloadablePackage pkg : packagesByName.getOrDefault(name, Collections.emptyList())) {
+            if (installedIds.contains(pkg.getId())) {
+                result.add(pkg.getVersion());
+            }
+        }
+        return result;
+    }
+
+}
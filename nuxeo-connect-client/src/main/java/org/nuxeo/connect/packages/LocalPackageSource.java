@@ -18,27 +18,88 @@
 
 package org.nuxeo.connect.packages;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.nuxeo.connect.NuxeoConnectClient;
 import org.nuxeo.connect.data.DownloadablePackage;
 import org.nuxeo.connect.update.LocalPackage;
+import org.nuxeo.connect.update.ObservablePackageUpdateService;
 import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.PackageState;
+import org.nuxeo.connect.update.PackageUpdateListener;
 import org.nuxeo.connect.update.PackageUpdateService;
 
 /**
  * {@link PackageSource} implementation for listing packages already downloaded and potentially already installed.
+ * <p>
+ * Since 1.7.6, when the {@link PackageUpdateService} is an {@link ObservablePackageUpdateService}, the packages are
+ * kept in a {@link LocalPackageIndex} maintained from the service notifications instead of being read again on each
+ * call. Otherwise, if {@link #WATCH_STORE_PROPERTY} is enabled, they are cached until a change is detected in the
+ * package store directory by a {@link PackageStoreWatcher}. The same wrapper is kept for a given {@link LocalPackage}
+ * across reloads.
  *
  * @author <a href="mailto:td@nuxeo.com">Thierry Delprat</a>
  */
-public class LocalPackageSource extends AbstractPackageSource implements PackageSource {
+public class LocalPackageSource extends AbstractPackageSource implements IndexedPackageSource, Closeable {
 
     protected static final Log log = LogFactory.getLog(LocalPackageSource.class);
 
+    /**
+     * Enables the caching of the local packages of a {@link PackageUpdateService} which does not notify its changes,
+     * the cache being invalidated by the file system events in {@link PackageUpdateService#getDataDir()}. Disabled by
+     * default since those events are delivered asynchronously: a change made by the service may not be seen by an
+     * immediately following call.
+     *
+     * @since 1.7.6
+     */
+    public static final String WATCH_STORE_PROPERTY = "org.nuxeo.connect.client.localPackages.watch";
+
+    /**
+     * Published last by {@link #rebuildIndex}, so that the other fields are up to date once it is seen.
+     *
+     * @since 1.7.6
+     */
+    protected volatile LocalPackageIndex index;
+
+    /**
+     * The service feeding {@link #index}.
+     *
+     * @since 1.7.6
+     */
+    protected volatile PackageUpdateService indexedService;
+
+    /**
+     * Watcher of the package store, if {@link #indexedService} does not notify its changes.
+     *
+     * @since 1.7.6
+     */
+    protected volatile PackageStoreWatcher storeWatcher;
+
+    /**
+     * @since 1.7.6
+     */
+    protected PackageUpdateListener indexListener;
+
+    /**
+     * The service whose package store could not be watched: it is not tried again.
+     *
+     * @since 1.7.6
+     */
+    protected volatile PackageUpdateService unwatchableService;
+
     public LocalPackageSource() {
         id = "local";
         name = "Local";
@@ -46,6 +107,10 @@ public class LocalPackageSource extends AbstractPackageSource implements Package
 
     @Override
     public List<DownloadablePackage> listPackages() {
+        LocalPackageIndex localIndex = getIndex();
+        if (localIndex != null) {
+            return localIndex.listPackages();
+        }
         List<DownloadablePackage> result = new ArrayList<>();
         PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
         try {
@@ -61,6 +126,10 @@ public class LocalPackageSource extends AbstractPackageSource implements Package
 
     @Override
     public LocalPackageAsDownloadablePackage getPackageById(String packageId) {
+        LocalPackageIndex localIndex = getIndex();
+        if (localIndex != null) {
+            return (LocalPackageAsDownloadablePackage) localIndex.getPackage(packageId);
+        }
         PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
         LocalPackageAsDownloadablePackage pkg = null;
         try {
@@ -74,4 +143,251 @@ public class LocalPackageSource extends AbstractPackageSource implements Package
         return pkg;
     }
 
+    @Override
+    public Collection<? extends DownloadablePackage> listPackagesByName(String packageName, String targetPlatform) {
+        LocalPackageIndex localIndex = getIndex();
+        if (localIndex != null) {
+            // local packages are never filtered on target platform
+            return localIndex.listPackagesByName(packageName);
+        }
+        return super.listPackagesByName(packageName, targetPlatform);
+    }
+
+    /**
+     * @return the index of the local packages, or null if the current {@link PackageUpdateService} does not notify its
+     *         changes and its package store is not watched
+     * @since 1.7.6
+     */
+    @Override
+    public LocalPackageIndex getIndex() {
+        PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
+        LocalPackageIndex current = index;
+        if (current != null && pus == indexedService) {
+            PackageStoreWatcher watcher = storeWatcher;
+            if (watcher == null || !watcher.pollChanges()) {
+                return current;
+            }
+            return rebuildIndex(pus, current);
+        }
+        if (current == null && !isIndexable(pus)) {
+            return null;
+        }
+        return rebuildIndex(pus, null);
+    }
+
+    /**
+     * @return true if an index can be created for the given service
+     * @since 1.7.6
+     */
+    protected boolean isIndexable(PackageUpdateService pus) {
+        if (pus instanceof ObservablePackageUpdateService) {
+            return true;
+        }
+        return pus != null && pus != unwatchableService
+                && Boolean.parseBoolean(NuxeoConnectClient.getProperty(WATCH_STORE_PROPERTY, "false"));
+    }
+
+    /**
+     * Refreshes or creates the index of the given service, unless another thread did it meanwhile.
+     *
+     * @param stale the index seen as changed, null if there was no index for the service
+     * @since 1.7.6
+     */
+    protected synchronized LocalPackageIndex rebuildIndex(PackageUpdateService pus, LocalPackageIndex stale) {
+        LocalPackageIndex current = index;
+        if (current != null && pus == indexedService) {
+            if (current != stale) {
+                return current;
+            }
+            if (storeWatcher.isValid()) {
+                try {
+                    current.reset(wrap(pus.getPackages(), current));
+                    return current;
+                } catch (PackageException e) {
+                    log.error("Error when getting local packages", e);
+                }
+            }
+        }
+        releaseIndex();
+        if (pus instanceof ObservablePackageUpdateService) {
+            return createObservedIndex((ObservablePackageUpdateService) pus);
+        }
+        if (isIndexable(pus)) {
+            return createWatchedIndex(pus);
+        }
+        return null;
+    }
+
+    /**
+     * @return the generation of the index of the local packages or, if there is no index, a stamp of the
+     *         {@link PackageUpdateService#getRegistry() registry} of the service; -1 if there is none
+     * @see LocalPackageIndex#getGeneration()
+     * @since 1.7.6
+     */
+    @Override
+    public long getGeneration() {
+        LocalPackageIndex localIndex = getIndex();
+        return localIndex != null ? localIndex.getGeneration()
+                : getRegistryStamp(NuxeoConnectClient.getPackageUpdateService());
+    }
+
+    /**
+     * Computes a stamp of the registry file of the given service, which is written whenever a package is added,
+     * removed or changes state: reading its attributes is much cheaper than listing the packages.
+     *
+     * @return the stamp of the registry, -1 if the service has no readable registry
+     * @since 1.7.6
+     */
+    protected static long getRegistryStamp(PackageUpdateService pus) {
+        if (pus == null) {
+            return -1;
+        }
+        long stamp = System.identityHashCode(pus);
+        try {
+            File registry = pus.getRegistry();
+            if (registry == null) {
+                return -1;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(registry.toPath(), BasicFileAttributes.class);
+            stamp = 31 * stamp + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            stamp = 31 * stamp + attributes.size();
+            if (attributes.fileKey() != null) {
+                // the registry may be replaced rather than written in place
+                stamp = 31 * stamp + attributes.fileKey().hashCode();
+            }
+        } catch (NoSuchFileException e) {
+            // no package registered yet
+        } catch (IOException | RuntimeException e) {
+            log.debug("Cannot read the package registry", e);
+            return -1;
+        }
+        return stamp & Long.MAX_VALUE;
+    }
+
+    protected LocalPackageIndex createObservedIndex(ObservablePackageUpdateService observableService) {
+        LocalPackageIndex newIndex = new LocalPackageIndex();
+        PackageUpdateListener listener = new IndexUpdater(newIndex);
+        // listen before loading so that no change is missed
+        observableService.addPackageUpdateListener(listener);
+        try {
+            newIndex.reset(wrap(observableService.getPackages(), null));
+        } catch (PackageException e) {
+            log.error("Error when getting local packages", e);
+            observableService.removePackageUpdateListener(listener);
+            return null;
+        }
+        indexedService = observableService;
+        indexListener = listener;
+        index = newIndex;
+        return newIndex;
+    }
+
+    protected LocalPackageIndex createWatchedIndex(PackageUpdateService pus) {
+        PackageStoreWatcher watcher;
+        try {
+            // watch before loading so that no change is missed
+            watcher = newStoreWatcher(pus.getDataDir());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot watch the package store, local packages are not cached: " + pus.getDataDir(), e);
+            unwatchableService = pus;
+            return null;
+        }
+        LocalPackageIndex newIndex = new LocalPackageIndex();
+        try {
+            newIndex.reset(wrap(pus.getPackages(), null));
+        } catch (PackageException e) {
+            log.error("Error when getting local packages", e);
+            IOUtils.closeQuietly(watcher);
+            return null;
+        }
+        indexedService = pus;
+        storeWatcher = watcher;
+        index = newIndex;
+        return newIndex;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    protected PackageStoreWatcher newStoreWatcher(File dir) throws IOException {
+        return new PackageStoreWatcher(dir);
+    }
+
+    /**
+     * Releases the index, if any, stopping to listen to the service or to watch the package store. It is created again
+     * on the next call.
+     *
+     * @since 1.7.6
+     */
+    @Override
+    public synchronized void close() {
+        releaseIndex();
+        unwatchableService = null;
+    }
+
+    protected void releaseIndex() {
+        index = null;
+        if (indexListener != null) {
+            ((ObservablePackageUpdateService) indexedService).removePackageUpdateListener(indexListener);
+            indexListener = null;
+        }
+        if (storeWatcher != null) {
+            IOUtils.closeQuietly(storeWatcher);
+            storeWatcher = null;
+        }
+        indexedService = null;
+    }
+
+    /**
+     * @param previous the index to take the existing wrappers from, if any
+     */
+    protected static List<DownloadablePackage> wrap(List<LocalPackage> pkgs, LocalPackageIndex previous) {
+        List<DownloadablePackage> packages = new ArrayList<>(pkgs.size());
+        for (LocalPackage pkg : pkgs) {
+            DownloadablePackage wrapper = previous != null ? previous.getPackage(pkg.getId()) : null;
+            if (!(wrapper instanceof LocalPackageAsDownloadablePackage)
+                    || ((LocalPackageAsDownloadablePackage) wrapper).localPackage != pkg) {
+                wrapper = new LocalPackageAsDownloadablePackage(pkg);
+            }
+            packages.add(wrapper);
+        }
+        return packages;
+    }
+
+    /**
+     * Maintains a {@link LocalPackageIndex} from the {@link PackageUpdateService} notifications.
+     *
+     * @since 1.7.6
+     */
+    protected static class IndexUpdater implements PackageUpdateListener {
+
+        protected final LocalPackageIndex index;
+
+        protected IndexUpdater(LocalPackageIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public void packageAdded(LocalPackage pkg) {
+            index.add(new LocalPackageAsDownloadablePackage(pkg));
+        }
+
+        @Override
+        public void packageRemoved(String id) {
+            index.remove(id);
+        }
+
+        @Override
+        public void packageStateChanged(LocalPackage pkg, PackageState state) {
+            DownloadablePackage indexed = index.getPackage(pkg.getId());
+            if (indexed instanceof LocalPackageAsDownloadablePackage
+                    && ((LocalPackageAsDownloadablePackage) indexed).localPackage == pkg) {
+                index.setState(pkg.getId(), state);
+            } else {
+                // unknown package or another instance: index the notified one
+                index.add(new LocalPackageAsDownloadablePackage(pkg));
+            }
+        }
+    }
+
 }
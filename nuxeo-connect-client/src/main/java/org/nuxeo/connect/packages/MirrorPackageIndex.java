@@ -0,0 +1,201 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.JSONException;
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.update.Package;
+import org.nuxeo.connect.update.PackageException;
+
+/**
+ * Read-only binary index of package descriptors, memory-mapped from a file written by
+ * {@link #write(File, Collection)}.
+ * <p>
+ * Layout, big-endian:
+ *
+ * <pre>
+ * int magic, int version, int count
+ * count x (int idOffset, int descriptorOffset, int descriptorLength)   sorted by package id
+ * ids:         short length + UTF-8 bytes, at idOffset
+ * descriptors: UTF-8 JSON of the {@link PackageDescriptor}, at descriptorOffset
+ * </pre>
+ *
+ * Ids are looked up by binary search directly in the mapped file; descriptors are parsed on first access and kept.
+ *
+ * @since 1.7.6
+ */
+public class MirrorPackageIndex {
+
+    public static final int MAGIC = 0x4E58504B; // NXPK
+
+    public static final int VERSION = 1;
+
+    protected static final int HEADER_SIZE = 12;
+
+    protected static final int SLOT_SIZE = 12;
+
+    protected final ByteBuffer buffer;
+
+    protected final int count;
+
+    protected final AtomicReferenceArray<PackageDescriptor> descriptors;
+
+    protected MirrorPackageIndex(ByteBuffer buffer) throws PackageException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new PackageException("Not a package index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new PackageException("Unsupported package index version: " + buffer.getInt(4));
+        }
+        count = buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * SLOT_SIZE > buffer.limit()) {
+            throw new PackageException("Corrupted package index");
+        }
+        descriptors = new AtomicReferenceArray<>(count);
+    }
+
+    /**
+     * Maps the given index file.
+     */
+    public static MirrorPackageIndex open(File file) throws PackageException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new MirrorPackageIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new PackageException("Cannot read package index " + file, e);
+        }
+    }
+
+    /**
+     * Writes an index of the given packages, replacing the given file atomically.
+     */
+    public static void write(File file, Collection<? extends Package> packages) throws IOException {
+        List<Package> sorted = new ArrayList<>(packages);
+        sorted.sort(Comparator.comparing(Package::getId));
+        List<byte[]> ids = new ArrayList<>(sorted.size());
+        List<byte[]> jsons = new ArrayList<>(sorted.size());
+        long size = HEADER_SIZE + (long) sorted.size() * SLOT_SIZE;
+        for (Package pkg : sorted) {
+            PackageDescriptor descriptor = pkg instanceof PackageDescriptor ? (PackageDescriptor) pkg
+                    : new PackageDescriptor(pkg);
+            byte[] id = pkg.getId().getBytes(StandardCharsets.UTF_8);
+            byte[] json = descriptor.serializeAsJSON().getBytes(StandardCharsets.UTF_8);
+            ids.add(id);
+            jsons.add(json);
+            size += 2 + id.length + json.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Package index too large");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(sorted.size());
+        int offset = HEADER_SIZE + sorted.size() * SLOT_SIZE;
+        for (int i = 0; i < sorted.size(); i++) {
+            int idOffset = offset;
+            int descriptorOffset = idOffset + 2 + ids.get(i).length;
+            out.putInt(idOffset).putInt(descriptorOffset).putInt(jsons.get(i).length);
+            offset = descriptorOffset + jsons.get(i).length;
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            out.putShort((short) ids.get(i).length).put(ids.get(i)).put(jsons.get(i));
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), out.array());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getId(int slot) {
+        int idOffset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+        int length = buffer.getShort(idOffset) & 0xFFFF;
+        return decode(idOffset + 2, length);
+    }
+
+    /**
+     * @return the slot of the given package id, -1 if not found
+     */
+    public int find(String id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = getId(mid).compareTo(id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the descriptor of the given slot, shared by the callers: it must not be modified
+     * @throws PackageException if the descriptor is corrupted
+     */
+    public PackageDescriptor getPackage(int slot) throws PackageException {
+        PackageDescriptor descriptor = descriptors.get(slot);
+        if (descriptor == null) {
+            int descriptorOffset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+            int length = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 8);
+            try {
+                descriptor = AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                        decode(descriptorOffset, length));
+            } catch (JSONException e) {
+                throw new PackageException("Corrupted descriptor of " + getId(slot), e);
+            }
+            if (!descriptors.compareAndSet(slot, null, descriptor)) {
+                descriptor = descriptors.get(slot);
+            }
+        }
+        return descriptor;
+    }
+
+    protected String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
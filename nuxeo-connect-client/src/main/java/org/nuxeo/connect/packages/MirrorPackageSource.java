@@ -0,0 +1,213 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.nuxeo.connect.NuxeoConnectClient;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.DownloadingPackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.downloads.ConnectDownloadManager;
+import org.nuxeo.connect.update.AlreadyExistsPackageException;
+import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.PackageState;
+import org.nuxeo.connect.update.PackageUpdateService;
+
+/**
+ * {@link PackageSource} implementation for packages available in a local mirror directory, to be registered as a
+ * remote source.
+ * <p>
+ * The directory contains the package zips, named after the package ids ({@code <id>.zip}), and a
+ * {@link MirrorPackageIndex} of their descriptors ({@value #INDEX_FILE_NAME}), memory-mapped when the source is
+ * created. Packages are listed as {@link PackageState#REMOTE} and {@link PackageManager#download(String)} takes them
+ * from the mirror instead of the Connect server.
+ *
+ * @since 1.7.6
+ */
+public class MirrorPackageSource extends AbstractPackageSource {
+
+    protected static final Log log = LogFactory.getLog(MirrorPackageSource.class);
+
+    public static final String INDEX_FILE_NAME = "packages.idx";
+
+    public static final String PACKAGE_FILE_EXTENSION = ".zip";
+
+    protected final File dir;
+
+    protected final MirrorPackageIndex index;
+
+    protected volatile List<DownloadablePackage> packages;
+
+    public MirrorPackageSource(File dir) throws PackageException {
+        this("mirror-" + dir.getName(), dir);
+    }
+
+    public MirrorPackageSource(String id, File dir) throws PackageException {
+        this.id = id;
+        name = "Mirror " + dir.getPath();
+        this.dir = dir;
+        index = MirrorPackageIndex.open(new File(dir, INDEX_FILE_NAME));
+    }
+
+    /**
+     * Writes the index of the given packages into the given mirror directory.
+     */
+    public static void writeIndex(File dir, List<? extends DownloadablePackage> packages) throws IOException {
+        MirrorPackageIndex.write(new File(dir, INDEX_FILE_NAME), packages);
+    }
+
+    @Override
+    public List<DownloadablePackage> listPackages() {
+        if (packages == null) {
+            List<DownloadablePackage> result = new ArrayList<>(index.size());
+            for (int slot = 0; slot < index.size(); slot++) {
+                DownloadablePackage pkg = getPackage(slot);
+                if (pkg != null) {
+                    result.add(pkg);
+                }
+            }
+            packages = Collections.unmodifiableList(result);
+        }
+        return new ArrayList<>(packages);
+    }
+
+    /**
+     * @return 0, the index of a mirror being read-only
+     */
+    @Override
+    public long getGeneration() {
+        return 0;
+    }
+
+    @Override
+    public DownloadablePackage getPackageById(String packageId) {
+        int slot = index.find(packageId);
+        return slot < 0 ? null : getPackage(slot);
+    }
+
+    /**
+     * @return a copy of the indexed descriptor, null if it cannot be read
+     */
+    protected DownloadablePackage getPackage(int slot) {
+        try {
+            // the indexed descriptor is shared
+            PackageDescriptor pkg = new PackageDescriptor(index.getPackage(slot));
+            pkg.setPackageState(PackageState.REMOTE);
+            return pkg;
+        } catch (PackageException e) {
+            log.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the zip of the given package, null if not in the mirror
+     */
+    public File getPackageFile(String packageId) {
+        if (index.find(packageId) < 0) {
+            return null;
+        }
+        File file = new File(dir, packageId + PACKAGE_FILE_EXTENSION);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Copies the zip of the given package to the download storage and registers it into the
+     * {@link PackageUpdateService}, synchronously.
+     *
+     * @return the completed download, null if the package is not in the mirror
+     * @throws PackageException if the descriptor of the package cannot be read from the index
+     */
+    public DownloadingPackage download(String packageId) throws PackageException {
+        File file = getPackageFile(packageId);
+        if (file == null) {
+            return null;
+        }
+        PackageDescriptor descriptor;
+        try {
+            descriptor = index.getPackage(index.find(packageId));
+        } catch (PackageException e) {
+            throw new PackageException(String.format("Cannot download %s from %s: %s", packageId, dir,
+                    e.getMessage()), e);
+        }
+        MirrorDownloadingPackage download = new MirrorDownloadingPackage(descriptor);
+        ConnectDownloadManager cdm = NuxeoConnectClient.getDownloadManager();
+        File target = new File(cdm.getDownloadedBundleLocalStorage(), packageId);
+        try {
+            // the service may consume the file
+            Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
+            pus.addPackage(target);
+            download.setPackageState(PackageState.DOWNLOADED);
+            log.info("Added " + packageId + " from " + dir);
+        } catch (AlreadyExistsPackageException e) {
+            log.error(e.getMessage());
+            download.setPackageState(PackageState.DOWNLOADED);
+        } catch (IOException | PackageException e) {
+            log.debug(e, e);
+            download.setErrorMessage(e.getMessage());
+        }
+        return download;
+    }
+
+    /**
+     * An already terminated download from a mirror.
+     */
+    protected static class MirrorDownloadingPackage extends PackageDescriptor implements DownloadingPackage {
+
+        protected MirrorDownloadingPackage(DownloadablePackage descriptor) {
+            super(descriptor);
+            setPackageState(PackageState.REMOTE);
+        }
+
+        @Override
+        public boolean isDigestOk() {
+            return false;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return true;
+        }
+
+        @Override
+        public int getDownloadProgress() {
+            return 100;
+        }
+
+        @Override
+        public boolean isServerError() {
+            return false;
+        }
+    }
+
+}
@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.nuxeo.connect.NuxeoConnectClient;
 import org.nuxeo.connect.data.DownloadablePackage;
@@ -43,8 +45,19 @@ public class PackageListCache {
      */
     public static final String CONNECT_CLIENT_CACHE_MINUTES_PROPERTY = "org.nuxeo.ecm.connect.client.cache";
 
+    protected static final AtomicLong generations = new AtomicLong();
+
     protected Map<String, PackageListCacheEntry> cache = new HashMap<>();
 
+    /**
+     * Hash of the packages of each cached list, to tell whether a list fetched again changed.
+     *
+     * @since 1.7.6
+     */
+    protected Map<String, Long> hashes = new HashMap<>();
+
+    protected long generation = generations.incrementAndGet();
+
     // in minutes
     protected int cache_duration = 5;
 
@@ -53,26 +66,56 @@ public class PackageListCache {
         cache_duration = Integer.parseInt(cacheParam);
     }
 
-    public void add(List<DownloadablePackage> pkgs, String type) {
+    public synchronized void add(List<DownloadablePackage> pkgs, String type) {
         cache.put(type, new PackageListCacheEntry(pkgs));
+        long hash = PackageManagerImpl.hashPackages(pkgs);
+        Long previous = hashes.put(type, hash);
+        // a list fetched again with the same packages is not a change
+        if (hash != (previous != null ? previous : PackageManagerImpl.hashPackages(new ArrayList<>()))) {
+            generation = generations.incrementAndGet();
+        }
     }
 
     /**
      * @since 1.4.18
      */
-    public void add(DownloadablePackage pkg) {
+    public synchronized void add(DownloadablePackage pkg) {
         PackageListCacheEntry packageListCacheEntry = cache.get(pkg.getType().toString());
         if (packageListCacheEntry == null) {
             packageListCacheEntry = new PackageListCacheEntry();
             cache.put(pkg.getType().toString(), packageListCacheEntry);
         }
         packageListCacheEntry.getPackageCacheEntries().add(new PackageCacheEntry(pkg));
+        if (!packageListCacheEntry.isExpired(cache_duration)) {
+            // otherwise the list is not served until fetched again
+            hashes.merge(pkg.getType().toString(), PackageManagerImpl.hashPackage(pkg), Long::sum);
+            generation = generations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a number changed whenever the served packages change: when a list fetched again has other packages, when
+     * a package is added to a list or when a list expires, since it is then fetched again. This method has no side
+     * effect, an expired list is not fetched again.
+     *
+     * @return the generation of the cached packages, unique across caches
+     * @since 1.7.6
+     */
+    public synchronized long getGeneration() {
+        long expired = 0;
+        for (Entry<String, PackageListCacheEntry> entry : cache.entrySet()) {
+            if (entry.getValue().isExpired(cache_duration)) {
+                // order insensitive
+                expired += PackageManagerImpl.mix(entry.getKey().hashCode());
+            }
+        }
+        return expired == 0 ? generation : PackageManagerImpl.mix(31 * generation + expired) & Long.MAX_VALUE;
     }
 
     /**
      * @return an empty list if no entry in cache or if entry is expired
      */
-    public List<DownloadablePackage> getFromCache(String type) {
+    public synchronized List<DownloadablePackage> getFromCache(String type) {
         PackageListCacheEntry entry = cache.get(type);
         if (entry == null || entry.isExpired(cache_duration)) {
             return new ArrayList<>();
@@ -83,7 +126,7 @@ public class PackageListCache {
     /**
      * @since 1.4.18
      */
-    public DownloadablePackage getPackageByID(String packageId) {
+    public synchronized DownloadablePackage getPackageByID(String packageId) {
         for (PackageListCacheEntry entry : cache.values()) {
             for (PackageCacheEntry pkgEntry : entry.getPackageCacheEntries()) {
                 if (packageId.equals(pkgEntry.getPackage().getId())) {
@@ -115,7 +158,7 @@ public class PackageListCache {
      * @see #isExpired(PackageListCacheEntry)
      * @since 1.4.18
      */
-    public boolean isExpired(PackageType type) {
+    public synchronized boolean isExpired(PackageType type) {
         PackageListCacheEntry packageListCacheForType = cache.get(type.toString());
         return packageListCacheForType == null || packageListCacheForType.isExpired(cache_duration);
     }
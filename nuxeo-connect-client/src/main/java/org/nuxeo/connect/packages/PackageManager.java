@@ -21,6 +21,7 @@
 
 package org.nuxeo.connect.packages;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +31,7 @@ import org.nuxeo.connect.data.DownloadingPackage;
 import org.nuxeo.connect.packages.dependencies.DependencyException;
 import org.nuxeo.connect.packages.dependencies.DependencyResolution;
 import org.nuxeo.connect.packages.dependencies.DependencyResolver;
+import org.nuxeo.connect.packages.dependencies.ResolutionRequest;
 import org.nuxeo.connect.update.Package;
 import org.nuxeo.connect.update.PackageException;
 import org.nuxeo.connect.update.PackageType;
@@ -57,6 +59,11 @@ public interface PackageManager extends BasePackageManager {
      */
     public static final String P2CUDF_DEPENDENCY_RESOLVER = "p2cudf";
 
+    /**
+     * @since 1.7.6
+     */
+    public static final String SAT_DEPENDENCY_RESOLVER = "sat";
+
     /**
      * @since 1.4
      */
@@ -90,7 +97,11 @@ public interface PackageManager extends BasePackageManager {
     List<DownloadablePackage> listPackages(PackageType pkgType, String targetPlatform);
 
     /**
-     * Search for packages. (Currently not implemented)
+     * Search for packages whose name, title, description, vendor or classifier contain terms starting with each of the
+     * terms of the given expression. Most relevant packages come first, matches on the name ranking higher than
+     * matches on the title, vendor, classifier and description.
+     *
+     * @return the matching packages among {@link #listPackages()}, or all of them if the expression is blank
      */
     List<DownloadablePackage> searchPackages(String searchExpr);
 
@@ -154,6 +165,16 @@ public interface PackageManager extends BasePackageManager {
      */
     List<DownloadablePackage> listUpdatePackages(PackageType type, String targetPlatform);
 
+    /**
+     * Checks whether some locally present packages of the given {@link PackageType} have a higher version compatible
+     * with the given target platform, or whether some hotfixes for the current target platform are not installed if
+     * {@link PackageType} is null or is explicitly {@value PackageType#HOT_FIX}. Unlike
+     * {@link #listUpdatePackages(PackageType, String)}, no dependency resolution is done.
+     *
+     * @since 1.7.6
+     */
+    UpdateAvailability checkUpdates(PackageType type, String targetPlatform);
+
     /**
      * Lists most recent version of {@link DownloadablePackage} available only on the connect server (ie no local
      * version).
@@ -297,7 +318,8 @@ public interface PackageManager extends BasePackageManager {
     void registerSource(PackageSource source, boolean local);
 
     /**
-     * Get the Download descriptor for a given package id
+     * Get the Download descriptor for a given package id. Since 1.7.6, the packages available in a registered
+     * {@link MirrorPackageSource} are taken from it.
      *
      * @param packageId
      */
@@ -326,6 +348,34 @@ public interface PackageManager extends BasePackageManager {
      */
     void install(List<String> packageIds, Map<String, String> params) throws PackageException;
 
+    /**
+     * Installation of the packages to install of the given resolution, ordered with {@link #order}. All the install
+     * and uninstall tasks are validated concurrently before any is run. The packages to remove are then uninstalled,
+     * one at a time, and each install task is run once the packages it depends on are installed, the packages which do
+     * not depend on each other being installed concurrently. On failure, the installed packages are uninstalled and
+     * the removed ones are installed again.
+     *
+     * @param res Resolution of the packages to install
+     * @param params Installation parameters (as collected via Wizard's form)
+     * @see ParallelInstallExecutor
+     * @since 1.7.6
+     */
+    void install(DependencyResolution res, Map<String, String> params) throws PackageException;
+
+    /**
+     * Downloads the packages to install of the given resolution which are not yet local and installs each package as
+     * soon as it and the packages it depends on are downloaded and installed, while the other downloads go on. When
+     * packages are to be removed, they are uninstalled, one at a time, once every download succeeded and every install
+     * task validated, and no install is started before. On failure, the installation is undone as with
+     * {@link #install(DependencyResolution, Map)}.
+     *
+     * @param res Resolution of the packages to install
+     * @param params Installation parameters (as collected via Wizard's form)
+     * @see PipelinedInstallExecutor
+     * @since 1.7.6
+     */
+    void downloadAndInstall(DependencyResolution res, Map<String, String> params) throws PackageException;
+
     /**
      * Flushes the caches used on remote {@link PackageSource}
      */
@@ -494,6 +544,18 @@ public interface PackageManager extends BasePackageManager {
      */
     List<String> getNonCompliantList(List<String> packages, String targetPlatform) throws PackageException;
 
+    /**
+     * Checks the given packages against several target platforms at once, looking up each package only once.
+     *
+     * @param packages Package ids or names
+     * @param targetPlatforms The target platforms to be compliant with.
+     * @return Non compliant packages for each target platform, in the given order. Empty lists if none.
+     * @throws PackageException if one of the packages is not found
+     * @since 1.7.6
+     */
+    Map<String, List<String>> getNonCompliantLists(List<String> packages, Collection<String> targetPlatforms)
+            throws PackageException;
+
     /**
      * @param requestPkgStr
      * @param targetPlatform
@@ -562,6 +624,15 @@ public interface PackageManager extends BasePackageManager {
     DependencyResolution resolveDependencies(List<String> pkgInstall, List<String> pkgRemove, List<String> pkgUpgrade,
             String targetPlatform, boolean allowSNAPSHOT, boolean doKeep, boolean isSubResolution);
 
+    /**
+     * Resolves the given requests against a single snapshot of the packages, concurrently. The requests with the same
+     * installed packages and target platform share the package graph.
+     *
+     * @return the resolutions, in the order of the requests
+     * @since 1.7.6
+     */
+    List<DependencyResolution> resolveDependencies(List<ResolutionRequest> requests);
+
     /**
      * @since public since 1.4.21, was protected before that
      */
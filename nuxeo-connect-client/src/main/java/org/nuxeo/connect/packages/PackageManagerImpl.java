@@ -21,8 +21,11 @@
 
 package org.nuxeo.connect.packages;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -31,33 +34,57 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.connect.NuxeoConnectClient;
 import org.nuxeo.connect.connector.ConnectServerError;
 import org.nuxeo.connect.data.DownloadablePackage;
 import org.nuxeo.connect.data.DownloadingPackage;
+import org.nuxeo.connect.data.PackageDescriptor;
 import org.nuxeo.connect.downloads.ConnectDownloadManager;
 import org.nuxeo.connect.packages.dependencies.CUDFHelper;
+import org.nuxeo.connect.packages.dependencies.CUDFUniverse;
 import org.nuxeo.connect.packages.dependencies.DependencyException;
 import org.nuxeo.connect.packages.dependencies.DependencyResolution;
 import org.nuxeo.connect.packages.dependencies.DependencyResolver;
 import org.nuxeo.connect.packages.dependencies.LegacyDependencyResolver;
 import org.nuxeo.connect.packages.dependencies.P2CUDFDependencyResolver;
-import org.nuxeo.connect.packages.dependencies.TargetPlatformFilterHelper;
+import org.nuxeo.connect.packages.dependencies.PackageGraph;
+import org.nuxeo.connect.packages.dependencies.ResolutionCache;
+import org.nuxeo.connect.packages.dependencies.ResolutionListener;
+import org.nuxeo.connect.packages.dependencies.ResolutionMetrics;
+import org.nuxeo.connect.packages.dependencies.ResolutionRequest;
+import org.nuxeo.connect.packages.dependencies.SATDependencyResolver;
 import org.nuxeo.connect.registration.ConnectRegistrationService;
 import org.nuxeo.connect.update.LocalPackage;
 import org.nuxeo.connect.update.Package;
 import org.nuxeo.connect.update.PackageDependency;
 import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.PackageId;
+import org.nuxeo.connect.update.PackageState;
 import org.nuxeo.connect.update.PackageType;
 import org.nuxeo.connect.update.PackageUpdateService;
 import org.nuxeo.connect.update.PackageVisibility;
+import org.nuxeo.connect.update.ValidationStatus;
 import org.nuxeo.connect.update.Version;
+import org.nuxeo.connect.update.VersionIndex;
 import org.nuxeo.connect.update.VersionRange;
 import org.nuxeo.connect.update.task.Task;
 
@@ -71,11 +98,15 @@ public class PackageManagerImpl implements PackageManager {
 
     protected static final Log log = LogFactory.getLog(PackageManagerImpl.class);
 
-    protected List<PackageSource> localSources = new ArrayList<>();
+    /**
+     * Copy-on-write source lists: readers iterate over a stable snapshot without locking, registrations are serialized
+     * on {@link #sourcesNames}. They are shared with the target platform views.
+     */
+    protected List<PackageSource> localSources = new CopyOnWriteArrayList<>();
 
-    protected List<PackageSource> remoteSources = new ArrayList<>();
+    protected List<PackageSource> remoteSources = new CopyOnWriteArrayList<>();
 
-    protected List<String> sourcesNames = new ArrayList<>();
+    protected List<String> sourcesNames = new CopyOnWriteArrayList<>();
 
     /**
      * @deprecated Since 1.4.25. Unused.
@@ -83,9 +114,69 @@ public class PackageManagerImpl implements PackageManager {
     @Deprecated
     protected Map<String, DownloadablePackage> cachedPackageList = null;
 
-    protected DependencyResolver resolver;
+    protected volatile DependencyResolver resolver;
+
+    /**
+     * @since 1.7.6
+     */
+    protected volatile String resolverType;
+
+    private volatile String currentTargetPlatform;
+
+    /**
+     * @since 1.7.6
+     */
+    protected final PackageSearchIndex searchIndex = new PackageSearchIndex();
+
+    /**
+     * Version of the catalog the {@link #searchIndex} was last updated with, guarded by the index monitor
+     *
+     * @since 1.7.6
+     */
+    protected List<?> searchIndexVersion;
+
+    /**
+     * @since 1.7.6
+     */
+    public static final int DEFAULT_INSTALL_PARALLELISM = Math.min(4, Runtime.getRuntime().availableProcessors());
 
-    private String currentTargetPlatform;
+    /**
+     * @since 1.7.6
+     */
+    protected volatile int installParallelism = DEFAULT_INSTALL_PARALLELISM;
+
+    /**
+     * The package manager owning the sources, {@code this} if not a target platform view.
+     *
+     * @since 1.7.6
+     */
+    protected final PackageManagerImpl registry;
+
+    /**
+     * Target platform views, by target platform. Only used on the registry.
+     *
+     * @since 1.7.6
+     */
+    protected final ConcurrentMap<String, PackageManagerImpl> targetPlatformViews = new ConcurrentHashMap<>();
+
+    /**
+     * Shared with the target platform views.
+     *
+     * @since 1.7.6
+     */
+    protected final ResolutionCache resolutionCache;
+
+    /**
+     * Shared with the target platform views.
+     *
+     * @since 1.7.6
+     */
+    protected final List<ResolutionListener> resolutionListeners;
+
+    /**
+     * @since 1.7.6
+     */
+    protected final CUDFUniverse cudfUniverse = new CUDFUniverse();
 
     @Override
     public List<PackageSource> getAllSources() {
@@ -107,6 +198,9 @@ public class PackageManagerImpl implements PackageManager {
      * @since 1.7.2
      */
     public PackageManagerImpl(String currentTargetPlatform) {
+        registry = this;
+        resolutionCache = new ResolutionCache();
+        resolutionListeners = new CopyOnWriteArrayList<>();
         registerSource(new RemotePackageSource(), false);
         registerSource(new DownloadingPackageSource(), true);
         registerSource(new LocalPackageSource(), true);
@@ -114,11 +208,70 @@ public class PackageManagerImpl implements PackageManager {
         this.currentTargetPlatform = currentTargetPlatform;
     }
 
+    /**
+     * Creates a view of the given registry bound to the given target platform: the sources are shared, the resolver
+     * and the current target platform are not.
+     *
+     * @since 1.7.6
+     */
+    protected PackageManagerImpl(PackageManagerImpl registry, String targetPlatform) {
+        this.registry = registry;
+        localSources = registry.localSources;
+        remoteSources = registry.remoteSources;
+        sourcesNames = registry.sourcesNames;
+        resolutionCache = registry.resolutionCache;
+        resolutionListeners = registry.resolutionListeners;
+        resolverType = registry.resolverType;
+        resolver = newResolver(resolverType);
+        currentTargetPlatform = targetPlatform;
+    }
+
+    /**
+     * Creates a package manager over the given fixed sources, with the resolver type and the current target platform
+     * of the given one, sharing its resolution cache.
+     *
+     * @since 1.7.6
+     */
+    protected PackageManagerImpl(PackageManagerImpl template, PackageSource localSource, PackageSource remoteSource) {
+        registry = this;
+        resolutionCache = template.resolutionCache;
+        resolutionListeners = template.resolutionListeners;
+        registerSource(localSource, true);
+        registerSource(remoteSource, false);
+        resolverType = template.resolverType;
+        resolver = newResolver(resolverType);
+        currentTargetPlatform = template.currentTargetPlatform;
+    }
+
+    /**
+     * Returns a package manager sharing the sources of this one, whose current target platform is the given one. Use
+     * it instead of {@link #setCurrentTargetPlatform(String)} when the package manager is shared between threads.
+     *
+     * @return this package manager if its current target platform already is the given one, otherwise a view which is
+     *         created once per target platform
+     * @since 1.7.6
+     */
+    public PackageManagerImpl forTargetPlatform(String targetPlatform) {
+        if (StringUtils.equals(targetPlatform, currentTargetPlatform)) {
+            return this;
+        }
+        if (registry != this) {
+            return registry.forTargetPlatform(targetPlatform);
+        }
+        return targetPlatformViews.computeIfAbsent(StringUtils.defaultString(targetPlatform),
+                k -> new PackageManagerImpl(this, targetPlatform));
+    }
+
     @Override
     public String getCurrentTargetPlatform() {
         return currentTargetPlatform;
     }
 
+    /**
+     * @deprecated since 1.7.6, this changes the target platform for all the threads sharing this package manager, use
+     *             {@link #forTargetPlatform(String)} instead
+     */
+    @Deprecated
     @Override
     public void setCurrentTargetPlatform(String currentTargetPlatform) {
         this.currentTargetPlatform = currentTargetPlatform;
@@ -129,21 +282,61 @@ public class PackageManagerImpl implements PackageManager {
      */
     @Override
     public void setResolver(String resolverType) {
-        if (P2CUDF_DEPENDENCY_RESOLVER.equals(resolverType)) {
-            resolver = new P2CUDFDependencyResolver(this);
-        } else if (LEGACY_DEPENDENCY_RESOLVER.equals(resolverType)) {
-            resolver = new LegacyDependencyResolver(this);
-        } else {
+        if (!P2CUDF_DEPENDENCY_RESOLVER.equals(resolverType) && !LEGACY_DEPENDENCY_RESOLVER.equals(resolverType)
+                && !SAT_DEPENDENCY_RESOLVER.equals(resolverType)) {
             log.warn("Resolver " + resolverType + "is not supported - fallback on default resolver "
                     + DEFAULT_DEPENDENCY_RESOLVER);
-            resolver = new P2CUDFDependencyResolver(this);
+            resolverType = DEFAULT_DEPENDENCY_RESOLVER;
         }
+        this.resolverType = resolverType;
+        resolver = newResolver(resolverType);
+        // views will pick the new resolver type when re-created
+        targetPlatformViews.clear();
+    }
+
+    /**
+     * @return the dependency resolver set by {@link #setResolver(String)}
+     * @since 1.7.6
+     */
+    public DependencyResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * @param resolverType one of the supported resolver types
+     * @since 1.7.6
+     */
+    protected DependencyResolver newResolver(String resolverType) {
+        if (LEGACY_DEPENDENCY_RESOLVER.equals(resolverType)) {
+            return new LegacyDependencyResolver(this);
+        } else if (SAT_DEPENDENCY_RESOLVER.equals(resolverType)) {
+            return new SATDependencyResolver(this);
+        }
+        return new P2CUDFDependencyResolver(this);
     }
 
     public void resetSources() {
-        localSources.clear();
-        remoteSources.clear();
-        sourcesNames.clear();
+        List<PackageSource> sources;
+        synchronized (sourcesNames) {
+            sources = getAllSources();
+            localSources.clear();
+            remoteSources.clear();
+            sourcesNames.clear();
+        }
+        // release the resources held by the sources: update listeners and store watchers, federation threads
+        for (PackageSource source : sources) {
+            if (source instanceof Closeable) {
+                try {
+                    ((Closeable) source).close();
+                } catch (IOException e) {
+                    log.warn("Cannot close package source " + source.getId(), e);
+                }
+            }
+        }
+        synchronized (searchIndex) {
+            searchIndex.clear();
+            searchIndexVersion = null;
+        }
         if (cachedPackageList != null) {
             cachedPackageList.clear();
         }
@@ -272,6 +465,11 @@ public class PackageManagerImpl implements PackageManager {
     public List<DownloadablePackage> findLocalPackages(String packageName) {
         List<DownloadablePackage> pkgs = new ArrayList<>();
         for (PackageSource source : localSources) {
+            LocalPackageIndex index = getIndex(source);
+            if (index != null) {
+                pkgs.addAll(index.listPackagesByName(packageName));
+                continue;
+            }
             for (DownloadablePackage pkg : source.listPackages()) {
                 if (pkg.getName().equals(packageName)) {
                     pkgs.add(pkg);
@@ -285,6 +483,11 @@ public class PackageManagerImpl implements PackageManager {
     public List<Version> findLocalPackageVersions(String packageName) {
         List<Version> versions = new ArrayList<>();
         for (PackageSource source : localSources) {
+            LocalPackageIndex index = getIndex(source);
+            if (index != null) {
+                versions.addAll(index.getVersions(packageName));
+                continue;
+            }
             for (DownloadablePackage pkg : source.listPackages()) {
                 if (pkg.getName().equals(packageName)) {
                     versions.add(pkg.getVersion());
@@ -298,6 +501,11 @@ public class PackageManagerImpl implements PackageManager {
     public List<Version> findLocalPackageInstalledVersions(String packageName) {
         List<Version> versions = new ArrayList<>();
         for (PackageSource source : localSources) {
+            LocalPackageIndex index = getIndex(source);
+            if (index != null) {
+                versions.addAll(index.getInstalledVersions(packageName));
+                continue;
+            }
             for (DownloadablePackage pkg : source.listPackages()) {
                 if (pkg.getName().equals(packageName) && pkg.getPackageState().isInstalled()) {
                     versions.add(pkg.getVersion());
@@ -307,6 +515,18 @@ public class PackageManagerImpl implements PackageManager {
         return versions;
     }
 
+    /**
+     * @return the installed versions of the given package matching the given range, by ascending version
+     * @since 1.7.6
+     */
+    protected NavigableSet<Version> findLocalPackageInstalledVersions(String packageName, VersionRange range) {
+        NavigableMap<Version, Version> versions = new TreeMap<>();
+        for (Version version : findLocalPackageInstalledVersions(packageName)) {
+            versions.put(version, version);
+        }
+        return VersionIndex.subMap(versions, range).navigableKeySet();
+    }
+
     @Override
     public DownloadablePackage findPackageById(String packageId) {
         DownloadablePackage pkg = findPackageById(packageId, localSources);
@@ -372,15 +592,13 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public List<Version> getAvailableVersion(String pkgName, VersionRange range, String targetPlatform) {
-        List<Version> versions = new ArrayList<>();
+        NavigableSet<Version> versions = new TreeSet<>();
         for (PackageSource source : getAllSources()) {
             for (DownloadablePackage pkg : source.listPackagesByName(pkgName, targetPlatform)) {
-                if (range.matchVersion(pkg.getVersion()) && !versions.contains(pkg.getVersion())) {
-                    versions.add(pkg.getVersion());
-                }
+                versions.add(pkg.getVersion());
             }
         }
-        return versions;
+        return new ArrayList<>(VersionIndex.subSet(versions, range));
     }
 
     @Override
@@ -405,20 +623,41 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public List<DownloadablePackage> searchPackages(String searchExpr) {
-        return null;
+        if (StringUtils.isBlank(searchExpr)) {
+            return listPackages();
+        }
+        // the catalog is only listed again when the generation of a source changed, outside of the index lock so that
+        // the concurrent searches are not blocked
+        List<?> version = Arrays.asList(getUniverseFingerprint(), currentTargetPlatform);
+        synchronized (searchIndex) {
+            if (version.equals(searchIndexVersion)) {
+                return searchIndex.search(searchExpr);
+            }
+        }
+        List<DownloadablePackage> packages = listPackages();
+        synchronized (searchIndex) {
+            if (!version.equals(searchIndexVersion)) {
+                searchIndex.update(packages);
+                searchIndexVersion = version;
+            }
+            return searchIndex.search(searchExpr);
+        }
     }
 
     @Override
     public void registerSource(PackageSource source, boolean local) {
         String name = source.getName();
-        if (!sourcesNames.contains(name)) {
-            if (local) {
-                localSources.add(source);
+        synchronized (sourcesNames) {
+            if (!sourcesNames.contains(name)) {
+                sourcesNames.add(name);
+                if (local) {
+                    localSources.add(source);
+                } else {
+                    remoteSources.add(source);
+                }
             } else {
-                remoteSources.add(source);
+                log.warn("Already registered a package source named " + name);
             }
-        } else {
-            log.warn("Already registered a package source named " + name);
         }
     }
 
@@ -426,6 +665,11 @@ public class PackageManagerImpl implements PackageManager {
     public List<DownloadablePackage> listInstalledPackages() {
         List<DownloadablePackage> res = new ArrayList<>();
         for (PackageSource source : localSources) {
+            LocalPackageIndex index = getIndex(source);
+            if (index != null) {
+                res.addAll(index.listInstalledPackages());
+                continue;
+            }
             for (DownloadablePackage pkg : source.listPackages()) {
                 if (pkg.getPackageState().isInstalled()) {
                     res.add(pkg);
@@ -541,6 +785,57 @@ public class PackageManagerImpl implements PackageManager {
         return toUpdate;
     }
 
+    @Override
+    public UpdateAvailability checkUpdates(PackageType type, String targetPlatform) {
+        CUDFUniverse universe = getCUDFUniverse();
+        List<DownloadablePackage> candidates = new ArrayList<>();
+        // consistent view of the universe, which may be updated concurrently
+        synchronized (universe) {
+            Set<String> installedNames = universe.getInstalledNames();
+            for (String name : installedNames) {
+                Version installedVersion = null;
+                DownloadablePackage latest = null;
+                for (DownloadablePackage pkg : universe.getPackages(name)) {
+                    if (pkg.getPackageState().isInstalled()) {
+                        if (type == null || pkg.getType() == type) {
+                            installedVersion = pkg.getVersion();
+                        }
+                    } else if (isUpdateCandidate(universe, pkg, targetPlatform)
+                            && (latest == null || pkg.getVersion().greaterThan(latest.getVersion()))) {
+                        latest = pkg;
+                    }
+                }
+                if (installedVersion != null && latest != null && latest.getVersion().greaterThan(installedVersion)) {
+                    candidates.add(latest);
+                }
+            }
+            if (type == null || type == PackageType.HOT_FIX) {
+                // last version of the hot-fixes not installed yet, always for the current target platform
+                Map<String, DownloadablePackage> hotfixes = new HashMap<>();
+                for (DownloadablePackage pkg : universe.getPackages(PackageType.HOT_FIX)) {
+                    if (!installedNames.contains(pkg.getName())
+                            && isUpdateCandidate(universe, pkg, currentTargetPlatform)) {
+                        hotfixes.merge(pkg.getName(), pkg,
+                                (pkg1, pkg2) -> pkg2.getVersion().greaterThan(pkg1.getVersion()) ? pkg2 : pkg1);
+                    }
+                }
+                candidates.addAll(hotfixes.values());
+            }
+        }
+        Collections.sort(candidates, new PackageComparator());
+        return new UpdateAvailability(candidates);
+    }
+
+    /**
+     * @return whether the given package can replace an installed one with the given target platform, following the
+     *         filtering of {@link CUDFHelper}
+     * @since 1.7.6
+     */
+    protected boolean isUpdateCandidate(CUDFUniverse universe, DownloadablePackage pkg, String targetPlatform) {
+        return universe.isCompatibleWithTargetPlatform(pkg, targetPlatform) && (CUDFHelper.defaultAllowSNAPSHOT
+                || !pkg.getVersion().isSnapshot() || pkg.getType() == PackageType.STUDIO);
+    }
+
     @Override
     public List<DownloadablePackage> listPrivatePackages(PackageType pkgType, String targetPlatform) {
         List<DownloadablePackage> allPackages = getAllPackages(getAllSources(), pkgType, targetPlatform);
@@ -561,10 +856,38 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public DownloadingPackage download(String packageId) throws ConnectServerError {
+        DownloadingPackage mirrorDownload = downloadFromMirror(packageId, remoteSources);
+        if (mirrorDownload != null) {
+            return mirrorDownload;
+        }
         ConnectRegistrationService crs = NuxeoConnectClient.getConnectRegistrationService();
         return crs.getConnector().getDownload(packageId);
     }
 
+    /**
+     * @return the download of the given package from the first {@link MirrorPackageSource} providing it, null if none
+     * @since 1.7.6
+     */
+    protected DownloadingPackage downloadFromMirror(String packageId, List<PackageSource> sources)
+            throws ConnectServerError {
+        for (PackageSource source : sources) {
+            DownloadingPackage download = null;
+            if (source instanceof MirrorPackageSource) {
+                try {
+                    download = ((MirrorPackageSource) source).download(packageId);
+                } catch (PackageException e) {
+                    throw new ConnectServerError(e.getMessage(), e);
+                }
+            } else if (source instanceof FederatedPackageSource) {
+                download = downloadFromMirror(packageId, ((FederatedPackageSource) source).getSources());
+            }
+            if (download != null) {
+                return download;
+            }
+        }
+        return null;
+    }
+
     @Override
     public List<DownloadingPackage> download(List<String> packageIds) throws ConnectServerError {
         List<DownloadingPackage> downloadings = new ArrayList<>();
@@ -595,6 +918,139 @@ public class PackageManagerImpl implements PackageManager {
         }
     }
 
+    @Override
+    public void install(DependencyResolution res, Map<String, String> params) throws PackageException {
+        try {
+            order(res);
+        } catch (DependencyException e) {
+            throw new PackageException(e.getMessage(), e);
+        }
+        PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
+        List<LocalPackage> orderedPackages = new ArrayList<>();
+        List<Task> tasks = new ArrayList<>();
+        List<Task> uninstallTasks;
+        synchronized (pus) {
+            for (String packageId : res.getOrderedPackageIdsToInstall()) {
+                LocalPackage pkg = pus.getPackage(packageId);
+                if (pkg == null) {
+                    throw new PackageException("Package not found: " + packageId);
+                }
+                orderedPackages.add(pkg);
+                tasks.add(pkg.getInstallTask());
+            }
+            uninstallTasks = getUninstallTasks(res, pus);
+        }
+        new ParallelInstallExecutor(installParallelism, pus).run(orderedPackages, tasks, uninstallTasks, params);
+    }
+
+    /**
+     * @return the uninstall tasks of the packages to remove of the given ordered resolution, in uninstallation order
+     * @since 1.7.6
+     */
+    protected List<Task> getUninstallTasks(DependencyResolution res, PackageUpdateService pus)
+            throws PackageException {
+        List<Task> uninstallTasks = new ArrayList<>();
+        for (String packageId : res.getOrderedPackageIdsToRemove()) {
+            LocalPackage pkg = pus.getPackage(packageId);
+            if (pkg == null) {
+                throw new PackageException("Package not found: " + packageId);
+            }
+            uninstallTasks.add(pkg.getUninstallTask());
+        }
+        return uninstallTasks;
+    }
+
+    @Override
+    public void downloadAndInstall(DependencyResolution res, Map<String, String> params) throws PackageException {
+        try {
+            order(res);
+        } catch (DependencyException e) {
+            throw new PackageException(e.getMessage(), e);
+        }
+        PackageUpdateService pus = NuxeoConnectClient.getPackageUpdateService();
+        List<DownloadablePackage> orderedPackages = new ArrayList<>();
+        List<CompletableFuture<Task>> tasks = new ArrayList<>();
+        List<CompletableFuture<DownloadingPackage>> downloads = new ArrayList<>();
+        try {
+            for (String packageId : res.getOrderedPackageIdsToInstall()) {
+                DownloadablePackage pkg = getPackage(packageId);
+                if (pkg == null) {
+                    throw new PackageException("Package not found: " + packageId);
+                }
+                orderedPackages.add(pkg);
+                Task installTask;
+                synchronized (pus) {
+                    LocalPackage localPackage = pus.getPackage(packageId);
+                    installTask = localPackage != null ? localPackage.getInstallTask() : null;
+                }
+                if (installTask != null) {
+                    tasks.add(CompletableFuture.completedFuture(installTask));
+                    continue;
+                }
+                DownloadingPackage download;
+                try {
+                    download = download(packageId);
+                } catch (ConnectServerError e) {
+                    throw new PackageException("Download failed for " + packageId, e);
+                }
+                if (download == null) {
+                    throw new PackageException("Download failed for " + packageId);
+                }
+                CompletableFuture<DownloadingPackage> completion = PipelinedInstallExecutor.whenCompleted(download);
+                downloads.add(completion);
+                tasks.add(completion.thenApply(d -> getInstallTask(pus, d)));
+            }
+            List<Task> uninstallTasks;
+            synchronized (pus) {
+                uninstallTasks = getUninstallTasks(res, pus);
+            }
+            new PipelinedInstallExecutor(installParallelism, pus).install(orderedPackages, tasks, uninstallTasks,
+                    params);
+        } finally {
+            // stops polling the downloads which are not terminated
+            downloads.forEach(completion -> completion.cancel(false));
+        }
+    }
+
+    /**
+     * @return the install task of the given downloaded package, once registered
+     * @since 1.7.6
+     */
+    protected Task getInstallTask(PackageUpdateService pus, DownloadingPackage download) {
+        try {
+            synchronized (pus) {
+                LocalPackage localPackage = pus.getPackage(download.getId());
+                if (localPackage == null) {
+                    throw new PackageException("Download failed for " + download.getId() + ": "
+                            + download.getErrorMessage());
+                }
+                return localPackage.getInstallTask();
+            }
+        } catch (PackageException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * @return the maximum number of packages installed concurrently by {@link #install(DependencyResolution, Map)}
+     * @since 1.7.6
+     */
+    public int getInstallParallelism() {
+        return installParallelism;
+    }
+
+    /**
+     * @param installParallelism the maximum number of packages installed concurrently by
+     *            {@link #install(DependencyResolution, Map)}, 1 to install them one at a time
+     * @since 1.7.6
+     */
+    public void setInstallParallelism(int installParallelism) {
+        if (installParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + installParallelism);
+        }
+        this.installParallelism = installParallelism;
+    }
+
     /**
      * @deprecated Since 1.4.25. Unused.
      */
@@ -628,8 +1084,23 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public DownloadablePackage getLocalPackage(String pkgId) {
-        List<DownloadablePackage> pkgs = listLocalPackages();
-        return getPkgInList(pkgs, pkgId);
+        for (PackageSource source : localSources) {
+            LocalPackageIndex index = getIndex(source);
+            DownloadablePackage pkg = index != null ? index.getPackage(pkgId)
+                    : getPkgInList(source.listPackages(), pkgId);
+            if (pkg != null) {
+                return pkg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the index maintained by the given source, null if none
+     * @since 1.7.6
+     */
+    protected LocalPackageIndex getIndex(PackageSource source) {
+        return source instanceof IndexedPackageSource ? ((IndexedPackageSource) source).getIndex() : null;
     }
 
     @Override
@@ -760,6 +1231,109 @@ public class PackageManagerImpl implements PackageManager {
         for (PackageSource source : getAllSources()) {
             source.flushCache();
         }
+        resolutionCache.clear();
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    /**
+     * Registers a listener notified of the resolutions computed by this package manager and its views, to export their
+     * {@link DependencyResolution#getMetrics() metrics}.
+     *
+     * @since 1.7.6
+     */
+    public void addResolutionListener(ResolutionListener listener) {
+        resolutionListeners.add(listener);
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public void removeResolutionListener(ResolutionListener listener) {
+        resolutionListeners.remove(listener);
+    }
+
+    /**
+     * @return the universe of {@link #listAllPackages()}, updated if the packages changed since the last call
+     * @since 1.7.6
+     */
+    public CUDFUniverse getCUDFUniverse() {
+        List<Object> version = Arrays.asList(getUniverseFingerprint(), currentTargetPlatform);
+        synchronized (cudfUniverse) {
+            if (!cudfUniverse.isUpToDate(version)) {
+                cudfUniverse.update(listAllPackages(), version);
+            }
+        }
+        return cudfUniverse;
+    }
+
+    /**
+     * Computes a fingerprint of the packages of all the sources, which changes whenever a package is added, removed or
+     * changes state or metadata. Sources maintaining a {@link PackageSource#getGeneration() generation}, as all the
+     * sources of this package but the small in-memory {@link DownloadingPackageSource}, contribute it without being
+     * listed; the other ones a hash of their package descriptors and searched fields.
+     *
+     * @since 1.7.6
+     */
+    protected long getUniverseFingerprint() {
+        long fingerprint = 17;
+        for (PackageSource source : getAllSources()) {
+            long sourceFingerprint = source.getGeneration();
+            if (sourceFingerprint < 0) {
+                sourceFingerprint = hashPackages(source.listPackages());
+            }
+            fingerprint = 31 * fingerprint + mix(source.getId().hashCode() + mix(sourceFingerprint));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return an order insensitive hash of the descriptors and searched fields of the given packages
+     * @since 1.7.6
+     */
+    protected static long hashPackages(Collection<? extends DownloadablePackage> packages) {
+        long hash = 0;
+        for (DownloadablePackage pkg : packages) {
+            hash += hashPackage(pkg);
+        }
+        return hash;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    protected static long hashPackage(DownloadablePackage pkg) {
+        return mix(CUDFUniverse.hashDescriptor(pkg) + 31L * PackageSearchIndex.getSignature(pkg).hashCode());
+    }
+
+    /**
+     * @return the settings of the given resolver which may change its resolutions, for the resolution cache key
+     * @since 1.7.6
+     */
+    protected static List<Object> getResolverConfiguration(DependencyResolver resolver) {
+        if (resolver instanceof P2CUDFDependencyResolver) {
+            P2CUDFDependencyResolver p2cudfResolver = (P2CUDFDependencyResolver) resolver;
+            return Arrays.asList(p2cudfResolver.getSolverTimeBudget(), p2cudfResolver.isPortfolioEnabled(),
+                    p2cudfResolver.isFastPathEnabled());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 64-bit finalizer of MurmurHash3.
+     */
+    protected static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 
     @Override
@@ -816,17 +1390,159 @@ public class PackageManagerImpl implements PackageManager {
     public DependencyResolution resolveDependencies(List<String> pkgInstall, List<String> pkgRemove,
             List<String> pkgUpgrade, String targetPlatform, boolean allowSNAPSHOT, boolean doKeep,
             boolean isSubResolution) {
+        DependencyResolver currentResolver = resolver;
+        List<?> cacheKey = null;
+        if (resolutionCache.isEnabled()) {
+            // the solver criteria derive from the request
+            cacheKey = Arrays.asList(getUniverseFingerprint(), currentResolver.getClass().getName(),
+                    getResolverConfiguration(currentResolver), copyOf(pkgInstall), copyOf(pkgRemove),
+                    copyOf(pkgUpgrade), StringUtils.defaultString(targetPlatform), allowSNAPSHOT, doKeep,
+                    isSubResolution);
+            DependencyResolution resolution = resolutionCache.get(cacheKey);
+            if (resolution != null) {
+                return resolution;
+            }
+        }
+        long start = System.nanoTime();
+        DependencyResolution resolution;
+        boolean resolved;
         try {
-            DependencyResolution resolution = resolver.resolve(pkgInstall, pkgRemove, pkgUpgrade, targetPlatform,
-                    allowSNAPSHOT, doKeep, isSubResolution);
-
-            log.debug(beforeAfterResolutionToString(resolution));
-            return resolution;
+            resolution = currentResolver.resolve(pkgInstall, pkgRemove, pkgUpgrade, targetPlatform, allowSNAPSHOT,
+                    doKeep, isSubResolution);
+            resolved = true;
         } catch (DependencyException e) {
-            return new DependencyResolution(e);
+            resolution = new DependencyResolution(e);
+            resolved = false;
+        }
+        if (resolution.getMetrics() == null) {
+            resolution.setMetrics(new ResolutionMetrics());
+        }
+        resolution.getMetrics().record(ResolutionMetrics.TOTAL, start);
+        if (resolved) {
+            if (log.isDebugEnabled()) {
+                log.debug(beforeAfterResolutionToString(resolution));
+                log.debug("Resolution metrics: " + resolution.getMetrics());
+            }
+            if (cacheKey != null && resolution.isOptimal()) {
+                // a solution truncated by the solver time budget may be improved by the next resolution
+                resolutionCache.put(cacheKey, resolution);
+            }
+        }
+        notifyResolutionListeners(pkgInstall, pkgRemove, pkgUpgrade, targetPlatform, allowSNAPSHOT, doKeep,
+                resolution);
+        return resolution;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    protected void notifyResolutionListeners(List<String> pkgInstall, List<String> pkgRemove,
+            List<String> pkgUpgrade, String targetPlatform, boolean allowSNAPSHOT, boolean doKeep,
+            DependencyResolution resolution) {
+        if (resolutionListeners.isEmpty()) {
+            return;
+        }
+        ResolutionRequest request = new ResolutionRequest(pkgInstall, pkgRemove, pkgUpgrade, targetPlatform);
+        request.setAllowSNAPSHOT(allowSNAPSHOT);
+        request.setDoKeep(doKeep);
+        for (ResolutionListener listener : resolutionListeners) {
+            try {
+                listener.resolved(request, resolution);
+            } catch (RuntimeException e) {
+                log.error("Resolution listener failed: " + listener, e);
+            }
         }
     }
 
+    /**
+     * Takes one snapshot of the packages for the whole batch, and creates from it one package manager per installed
+     * set. Each request is then resolved on the view of its snapshot for its target platform, so that the requests
+     * with the same installed set and target platform share the CUDF universe and its graph.
+     *
+     * @since 1.7.6
+     */
+    @Override
+    public List<DependencyResolution> resolveDependencies(List<ResolutionRequest> requests) {
+        Map<String, DownloadablePackage> catalog = getAllPackagesByID(getAllSources(), null, null);
+        Map<Set<String>, PackageManagerImpl> snapshots = new HashMap<>();
+        List<Callable<DependencyResolution>> tasks = new ArrayList<>();
+        for (ResolutionRequest request : requests) {
+            Set<String> installed = null;
+            if (request.getInstalledPackageIds() != null) {
+                installed = new HashSet<>(request.getInstalledPackageIds());
+                Set<String> unknown = new HashSet<>(installed);
+                unknown.removeAll(catalog.keySet());
+                if (!unknown.isEmpty()) {
+                    DependencyResolution resolution = new DependencyResolution(
+                            new DependencyException("Unknown installed packages: " + unknown));
+                    tasks.add(() -> resolution);
+                    continue;
+                }
+            }
+            PackageManagerImpl snapshot = snapshots.computeIfAbsent(installed, k -> newSnapshot(catalog.values(), k));
+            tasks.add(() -> snapshot.forTargetPlatform(request.getTargetPlatform()).resolveDependencies(
+                    request.getPkgInstall(), request.getPkgRemove(), request.getPkgUpgrade(),
+                    request.getTargetPlatform(), request.isAllowSNAPSHOT(), request.isDoKeep()));
+        }
+        if (tasks.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<ForkJoinTask<DependencyResolution>> futures = new ArrayList<>();
+            for (Callable<DependencyResolution> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            List<DependencyResolution> resolutions = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    resolutions.add(futures.get(i).join());
+                } catch (RuntimeException e) {
+                    // a failing request must not fail the other ones
+                    log.error("Resolution failed for " + requests.get(i), e);
+                    resolutions.add(new DependencyResolution(new DependencyException(
+                            "Resolution failed for " + requests.get(i) + ": " + e, e)));
+                }
+            }
+            return resolutions;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates a package manager over a snapshot of the given packages, where the packages of the given installed set
+     * are installed and the other ones are not.
+     *
+     * @param installedPackageIds null to keep the package states
+     * @since 1.7.6
+     */
+    protected PackageManagerImpl newSnapshot(Collection<DownloadablePackage> catalog, Set<String> installedPackageIds) {
+        List<DownloadablePackage> local = new ArrayList<>();
+        List<DownloadablePackage> remote = new ArrayList<>();
+        for (DownloadablePackage pkg : catalog) {
+            if (installedPackageIds != null
+                    && installedPackageIds.contains(pkg.getId()) != pkg.getPackageState().isInstalled()) {
+                PackageDescriptor copy = new PackageDescriptor(pkg);
+                if (installedPackageIds.contains(pkg.getId())) {
+                    copy.setPackageState(PackageState.STARTED);
+                    copy.setLocal(true);
+                } else {
+                    copy.setPackageState(PackageState.DOWNLOADED);
+                    copy.setLocal(pkg.isLocal());
+                }
+                pkg = copy;
+            }
+            (pkg.getPackageState() == PackageState.REMOTE ? remote : local).add(pkg);
+        }
+        return new PackageManagerImpl(this, new SnapshotPackageSource("snapshot-local", local),
+                new SnapshotPackageSource("snapshot-remote", remote));
+    }
+
+    private static List<String> copyOf(List<String> list) {
+        return list == null ? Collections.emptyList() : new ArrayList<>(list);
+    }
+
     @Override
     public List<DownloadablePackage> getUninstallDependencies(Package pkg, String targetPlatform) {
         List<DownloadablePackage> packagesToUninstall = new ArrayList<>();
@@ -852,28 +1568,13 @@ public class PackageManagerImpl implements PackageManager {
     @Override
     public List<DownloadablePackage> getUninstallDependencies(Package pkg) {
         // This impl is clearly not very sharp
-        List<String> pkgNamesToRemove = new ArrayList<>();
-        List<DownloadablePackage> installedPackages = listInstalledPackages();
-        int nbImpactedPackages = 0;
-        pkgNamesToRemove.add(pkg.getName());
-        while (pkgNamesToRemove.size() > nbImpactedPackages) {
-            nbImpactedPackages = pkgNamesToRemove.size();
-            for (DownloadablePackage p : installedPackages) {
-                if (!pkgNamesToRemove.contains(p.getName())) {
-                    for (PackageDependency dep : p.getDependencies()) {
-                        if (pkgNamesToRemove.contains(dep.getName())) {
-                            pkgNamesToRemove.add(p.getName());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-        pkgNamesToRemove.remove(pkg.getName());
+        PackageGraph graph = new PackageGraph(listInstalledPackages());
+        Set<String> pkgNamesToRemove = graph.getDependentNames(Collections.singleton(pkg.getName()),
+                PackageGraph.DEPENDS, true);
         List<DownloadablePackage> packagesToUninstall = new ArrayList<>();
         for (String pkgName : pkgNamesToRemove) {
             for (Version v : findLocalPackageInstalledVersions(pkgName)) {
-                DownloadablePackage p = getLocalPackage(pkgName + "-" + v.toString());
+                DownloadablePackage p = getLocalPackage(PackageId.of(pkgName, v).toString());
                 packagesToUninstall.add(p);
             }
 
@@ -893,8 +1594,20 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public boolean isInstalled(String pkgId) {
-        DownloadablePackage pkg = getLocalPackage(pkgId);
-        return (pkg != null && pkg.getPackageState().isInstalled());
+        for (PackageSource source : localSources) {
+            LocalPackageIndex index = getIndex(source);
+            if (index != null) {
+                if (index.getPackage(pkgId) != null) {
+                    return index.isInstalled(pkgId);
+                }
+                continue;
+            }
+            DownloadablePackage pkg = getPkgInList(source.listPackages(), pkgId);
+            if (pkg != null) {
+                return pkg.getPackageState().isInstalled();
+            }
+        }
+        return false;
     }
 
     @Override
@@ -930,6 +1643,7 @@ public class PackageManagerImpl implements PackageManager {
         boolean hasChanged = true;
         Set<String> missingDeps = new HashSet<>();
         Map<String, Set<String>> optionalMissingDeps = new HashMap<>();
+        Set<String> removeIds = isRemoveList ? Collections.emptySet() : new HashSet<>(orderedRemoveList);
         while (!listToOrder.isEmpty() && hasChanged) {
             hasChanged = false;
             for (String id : listToOrder) {
@@ -965,10 +1679,11 @@ public class PackageManagerImpl implements PackageManager {
                         }
                         // else, is pkgDep satisfied in already installed pkgs and is not going to be removed or
                         // upgraded ?
-                        if (!satisfied && !hasMatchInIdList(pkgDep, listToOrder)) {
-                            for (Version version : findLocalPackageInstalledVersions(pkgDep.getName())) {
-                                if ((isRemoveList || !hasMatchInIdList(pkgDep.getName(), version, orderedRemoveList))
-                                        && pkgDep.getVersionRange().matchVersion(version)) {
+                        if (!satisfied && !hasMatchInIdList(pkgDep, listToOrder, allPackagesByID)) {
+                            for (Version version : findLocalPackageInstalledVersions(pkgDep.getName(),
+                                    pkgDep.getVersionRange())) {
+                                if (isRemoveList
+                                        || !removeIds.contains(PackageId.of(pkgDep.getName(), version).toString())) {
                                     satisfied = true;
                                     if (isOptionalPkgDep) {
                                         if (optionalMissingDeps.get(id) != null) {
@@ -985,7 +1700,7 @@ public class PackageManagerImpl implements PackageManager {
                                 // consider the pkDep as satisfied, but add it in optional missing dependencies for
                                 // logging if it is not going to be removed
                                 satisfied = true;
-                                if (!hasMatchInIdList(pkgDep, orderedRemoveList)) {
+                                if (!hasMatchInIdList(pkgDep, orderedRemoveList, allPackagesByID)) {
                                     optionalMissingDeps.computeIfAbsent(id, k -> new HashSet<>()).add(
                                             pkgDep.toString());
                                 }
@@ -1033,14 +1748,10 @@ public class PackageManagerImpl implements PackageManager {
         listToOrder.addAll(orderedMap.keySet());
     }
 
-    private boolean hasMatchInIdList(String pkgName, Version pkgVersion, List<String> pkgIdList) {
-        String pkgId = pkgName + "-" + pkgVersion;
-        return pkgIdList.contains(pkgId);
-    }
-
-    private boolean hasMatchInIdList(PackageDependency pkgDep, List<String> pkgIdList) {
+    private boolean hasMatchInIdList(PackageDependency pkgDep, List<String> pkgIdList,
+            Map<String, DownloadablePackage> packagesById) {
         for (String pkgId : pkgIdList) {
-            Package pkg = getPackage(pkgId);
+            Package pkg = getPackage(packagesById, pkgId);
             if (matchDependency(pkgDep, pkg)) {
                 return true;
             }
@@ -1077,8 +1788,9 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public String getNonCompliant(List<String> packages, String targetPlatform) throws PackageException {
+        PlatformCompatibilityChecker checker = getPlatformCompatibilityChecker();
         for (String pkg : packages) {
-            if (!matchesPlatform(pkg, targetPlatform)) {
+            if (!checker.matchesPlatform(pkg, targetPlatform)) {
                 return pkg;
             }
         }
@@ -1087,61 +1799,58 @@ public class PackageManagerImpl implements PackageManager {
 
     @Override
     public List<String> getNonCompliantList(List<String> packages, String targetPlatform) throws PackageException {
-        List<String> nonCompliant = new ArrayList<>();
-        for (String pkg : packages) {
-            if (!matchesPlatform(pkg, targetPlatform)) {
-                nonCompliant.add(pkg);
-            }
-        }
-        return nonCompliant;
+        return getPlatformCompatibilityChecker().getNonCompliantList(packages, targetPlatform);
+    }
+
+    @Override
+    public Map<String, List<String>> getNonCompliantLists(List<String> packages, Collection<String> targetPlatforms)
+            throws PackageException {
+        return getPlatformCompatibilityChecker().getNonCompliantLists(packages, targetPlatforms);
     }
 
     @Override
     public boolean matchesPlatform(String requestPkgStr, String targetPlatform) throws PackageException {
-        Map<String, DownloadablePackage> allPackagesByID = getAllPackagesByID();
-        // Try ID match first
-        if (allPackagesByID.containsKey(requestPkgStr)) {
-            return TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(allPackagesByID.get(requestPkgStr),
-                    targetPlatform);
-        }
-        // Fallback on name match
-        List<DownloadablePackage> allPackagesForName = getAllPackagesByName().get(requestPkgStr);
-        if (allPackagesForName == null) {
-            throw new PackageException("Package not found: " + requestPkgStr);
-        }
-        for (DownloadablePackage pkg : allPackagesForName) {
-            if (requestPkgStr.equals(pkg.getName())
-                    && TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(pkg, targetPlatform)) {
-                return true;
-            }
-        }
-        return false;
+        return getPlatformCompatibilityChecker().matchesPlatform(requestPkgStr, targetPlatform);
+    }
+
+    /**
+     * @return a checker working on a snapshot of the current packages
+     * @since 1.7.6
+     */
+    protected PlatformCompatibilityChecker getPlatformCompatibilityChecker() {
+        return new PlatformCompatibilityChecker(getAllPackagesByID(), this::getAllPackagesByName);
+    }
+
+    /**
+     * Same as {@link #getPackage(String)}, looking first in the given packages.
+     *
+     * @since 1.7.6
+     */
+    protected DownloadablePackage getPackage(Map<String, DownloadablePackage> packagesById, String pkgId) {
+        DownloadablePackage pkg = packagesById.get(pkgId);
+        return pkg != null ? pkg : getPackage(pkgId);
     }
 
     @Override
     public void checkOptionalDependenciesOnInstalledPackages(DependencyResolution res) {
         List<DownloadablePackage> installedPackages = listInstalledPackages();
+        Map<String, DownloadablePackage> allPackagesByID = getAllPackagesByID();
         synchronized (res) {
             Set<DownloadablePackage> packagesToReinstall = new HashSet<>();
+            Set<String> removeIds = new HashSet<>(res.getOrderedPackageIdsToRemove());
             for (DownloadablePackage installedPkg : installedPackages) {
-                if (res.getOrderedPackageIdsToRemove().contains(installedPkg.getId())) {
+                if (removeIds.contains(installedPkg.getId())) {
                     // no check to do on packages being removed
                     continue;
                 }
                 PackageDependency[] optionalDependencies = installedPkg.getOptionalDependencies();
                 for (PackageDependency pkgOptDep : optionalDependencies) {
                     // is pkgOptDep already installed ?
-                    List<Version> installedVersions = findLocalPackageInstalledVersions(pkgOptDep.getName());
-                    boolean hasAnInstalledMatch = false;
-                    for (Version version : installedVersions) {
-                        if (pkgOptDep.getVersionRange().matchVersion(version)) {
-                            hasAnInstalledMatch = true;
-                            break;
-                        }
-                    }
+                    boolean hasAnInstalledMatch = !findLocalPackageInstalledVersions(pkgOptDep.getName(),
+                            pkgOptDep.getVersionRange()).isEmpty();
                     if (!hasAnInstalledMatch) {// if not, is pkgOptDep going to be installed ?
                         for (String pkgId : res.getOrderedPackageIdsToInstall()) {
-                            DownloadablePackage pkgToInstall = getPackage(pkgId);
+                            DownloadablePackage pkgToInstall = getPackage(allPackagesByID, pkgId);
                             if (matchDependency(pkgOptDep, pkgToInstall)) {
                                 // if yes, mark installedPkg for reinstall
                                 res.addReinstallForNewlyInstalledOptional(installedPkg.getId(), pkgToInstall.getId());
@@ -1150,10 +1859,11 @@ public class PackageManagerImpl implements PackageManager {
                             }
                         }
                     } else { // if yes, is pkgOptDep going to be upgraded ?
-                        boolean hasAnUpgradingMatch = hasMatchInIdList(pkgOptDep, res.getOrderedPackageIdsToInstall());
+                        boolean hasAnUpgradingMatch = hasMatchInIdList(pkgOptDep, res.getOrderedPackageIdsToInstall(),
+                                allPackagesByID);
                         if (!hasAnUpgradingMatch) { // if not, is pkgOptDep going to be removed ?
                             for (String pkgId : res.getOrderedPackageIdsToRemove()) {
-                                DownloadablePackage pkgToRemove = getPackage(pkgId);
+                                DownloadablePackage pkgToRemove = getPackage(allPackagesByID, pkgId);
                                 if (matchDependency(pkgOptDep, pkgToRemove)) {
                                     // if yes, mark installedPkg for reinstall
                                     res.addReinstallForNewlyRemovedOptional(installedPkg.getId(), pkgToRemove.getId());
@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.update.Package;
+
+/**
+ * In-memory inverted index over the name, title, description, vendor and classifier of packages.
+ * <p>
+ * Terms are lower-cased alphanumeric tokens kept in a sorted map so that each query term is matched as a prefix with
+ * a single range lookup. Each posting records the weight of the best field the term was found in; the score of a
+ * package is the sum, over all query terms, of the best matching weight, exact term matches scoring twice as much as
+ * prefix matches. All query terms must match for a package to be returned.
+ * <p>
+ * The index is refreshed with {@link #update(Collection)}: only the packages which were added, removed or whose
+ * indexed fields changed since the previous update are (re)tokenized.
+ *
+ * @since 1.7.6
+ */
+public class PackageSearchIndex {
+
+    public static final int NAME_WEIGHT = 8;
+
+    public static final int TITLE_WEIGHT = 4;
+
+    public static final int VENDOR_WEIGHT = 2;
+
+    public static final int CLASSIFIER_WEIGHT = 2;
+
+    public static final int DESCRIPTION_WEIGHT = 1;
+
+    protected static final Comparator<Package> PACKAGE_COMPARATOR = new PackageComparator();
+
+    /**
+     * term => (package id => weight)
+     */
+    protected final NavigableMap<String, Map<String, Integer>> postings = new TreeMap<>();
+
+    protected final Map<String, IndexEntry> entries = new HashMap<>();
+
+    protected static class IndexEntry {
+
+        protected DownloadablePackage pkg;
+
+        protected final String signature;
+
+        protected final Set<String> terms;
+
+        protected IndexEntry(DownloadablePackage pkg, String signature, Set<String> terms) {
+            this.pkg = pkg;
+            this.signature = signature;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Synchronizes the index with the given catalog.
+     *
+     * @return true if the index content changed
+     */
+    public synchronized boolean update(Collection<DownloadablePackage> packages) {
+        boolean changed = false;
+        Map<String, DownloadablePackage> packagesById = new HashMap<>();
+        for (DownloadablePackage pkg : packages) {
+            packagesById.put(pkg.getId(), pkg);
+        }
+        for (Iterator<Entry<String, IndexEntry>> it = entries.entrySet().iterator(); it.hasNext();) {
+            Entry<String, IndexEntry> entry = it.next();
+            if (!packagesById.containsKey(entry.getKey())) {
+                unindex(entry.getKey(), entry.getValue());
+                it.remove();
+                changed = true;
+            }
+        }
+        for (DownloadablePackage pkg : packagesById.values()) {
+            String signature = getSignature(pkg);
+            IndexEntry entry = entries.get(pkg.getId());
+            if (entry != null && entry.signature.equals(signature)) {
+                // same indexed content, only keep the latest instance
+                entry.pkg = pkg;
+                continue;
+            }
+            if (entry != null) {
+                unindex(pkg.getId(), entry);
+            }
+            entries.put(pkg.getId(), index(pkg, signature));
+            changed = true;
+        }
+        return changed;
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the packages matching all the terms of the given expression, most relevant first. An empty list if the
+     *         expression contains no term.
+     */
+    public synchronized List<DownloadablePackage> search(String searchExpr) {
+        Set<String> queryTerms = tokenize(searchExpr);
+        if (queryTerms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, Integer> scores = null;
+        for (String queryTerm : queryTerms) {
+            Map<String, Integer> termScores = new HashMap<>();
+            for (Entry<String, Map<String, Integer>> posting : postings.subMap(queryTerm, true,
+                    queryTerm + Character.MAX_VALUE, false).entrySet()) {
+                int factor = posting.getKey().length() == queryTerm.length() ? 2 : 1;
+                for (Entry<String, Integer> hit : posting.getValue().entrySet()) {
+                    if (scores == null || scores.containsKey(hit.getKey())) {
+                        termScores.merge(hit.getKey(), hit.getValue() * factor, Math::max);
+                    }
+                }
+            }
+            if (scores != null) {
+                for (Entry<String, Integer> termScore : termScores.entrySet()) {
+                    termScore.setValue(termScore.getValue() + scores.get(termScore.getKey()));
+                }
+            }
+            scores = termScores;
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+        List<DownloadablePackage> result = new ArrayList<>(scores.size());
+        for (String pkgId : scores.keySet()) {
+            result.add(entries.get(pkgId).pkg);
+        }
+        final Map<String, Integer> finalScores = scores;
+        Collections.sort(result, (pkg1, pkg2) -> {
+            int cmp = Integer.compare(finalScores.get(pkg2.getId()), finalScores.get(pkg1.getId()));
+            return cmp != 0 ? cmp : PACKAGE_COMPARATOR.compare(pkg1, pkg2);
+        });
+        return result;
+    }
+
+    protected IndexEntry index(DownloadablePackage pkg, String signature) {
+        Map<String, Integer> weights = new HashMap<>();
+        addTerms(weights, pkg.getDescription(), DESCRIPTION_WEIGHT);
+        addTerms(weights, pkg.getClassifier(), CLASSIFIER_WEIGHT);
+        addTerms(weights, pkg.getVendor(), VENDOR_WEIGHT);
+        addTerms(weights, pkg.getTitle(), TITLE_WEIGHT);
+        addTerms(weights, pkg.getName(), NAME_WEIGHT);
+        for (Entry<String, Integer> weight : weights.entrySet()) {
+            postings.computeIfAbsent(weight.getKey(), k -> new HashMap<>()).put(pkg.getId(), weight.getValue());
+        }
+        return new IndexEntry(pkg, signature, new HashSet<>(weights.keySet()));
+    }
+
+    protected void unindex(String pkgId, IndexEntry entry) {
+        for (String term : entry.terms) {
+            Map<String, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(pkgId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    protected static void addTerms(Map<String, Integer> weights, String text, int weight) {
+        for (String term : tokenize(text)) {
+            weights.merge(term, weight, Math::max);
+        }
+    }
+
+    /**
+     * Splits the given text on non alphanumeric characters and lower-cases the resulting terms.
+     */
+    protected static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isTermChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isTermChar && start < 0) {
+                start = i;
+            } else if (!isTermChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    protected static String getSignature(DownloadablePackage pkg) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pkg.getName()).append('\0');
+        sb.append(pkg.getTitle()).append('\0');
+        sb.append(pkg.getDescription()).append('\0');
+        sb.append(pkg.getVendor()).append('\0');
+        sb.append(pkg.getClassifier());
+        return sb.toString();
+    }
+
+}
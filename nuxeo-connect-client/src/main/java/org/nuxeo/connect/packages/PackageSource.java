@@ -78,5 +78,15 @@ public interface PackageSource {
      */
     List<DownloadablePackage> listStudioPackages(String currentTargetPlatform);
 
+    /**
+     * Returns a version of the packages of this source, which changes whenever a package is added, removed, or changes
+     * state or metadata, so that data computed from the packages can be reused without listing them again.
+     *
+     * @return the generation of the packages, -1 if the source does not maintain it
+     * @since 1.7.6
+     */
+    default long getGeneration() {
+        return -1;
+    }
 
 }
@@ -0,0 +1,132 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches a package store directory and its direct sub-directories (the registry file lives in the former, the
+ * extracted packages in the latter) for changes made by any process.
+ * <p>
+ * No thread is started: pending events are drained by {@link #pollChanges()}.
+ *
+ * @since 1.7.6
+ */
+public class PackageStoreWatcher implements Closeable {
+
+    protected static final Log log = LogFactory.getLog(PackageStoreWatcher.class);
+
+    protected final Path dir;
+
+    protected final WatchService watchService;
+
+    protected volatile boolean valid = true;
+
+    public PackageStoreWatcher(File dir) throws IOException {
+        this.dir = dir.toPath();
+        watchService = this.dir.getFileSystem().newWatchService();
+        try {
+            register(this.dir);
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(this.dir, Files::isDirectory)) {
+                for (Path child : children) {
+                    register(child);
+                }
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    protected void register(Path path) throws IOException {
+        path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    }
+
+    /**
+     * Drains the pending events.
+     *
+     * @return true if something changed since the previous call, or if the store is no longer watched
+     */
+    public boolean pollChanges() {
+        if (!valid) {
+            return true;
+        }
+        boolean changed = false;
+        WatchKey key;
+        try {
+            while ((key = watchService.poll()) != null) {
+                if (!key.pollEvents().isEmpty()) {
+                    changed = true;
+                }
+                Path watched = (Path) key.watchable();
+                if (!key.reset() && watched.equals(dir)) {
+                    log.warn("Package store is no longer watched: " + dir);
+                    valid = false;
+                    return true;
+                }
+            }
+        } catch (RuntimeException e) { // ClosedWatchServiceException
+            log.debug(e, e);
+            valid = false;
+            return true;
+        }
+        if (changed) {
+            // watch the directories created since
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                for (Path child : children) {
+                    register(child);
+                }
+            } catch (IOException e) {
+                log.debug(e, e);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return false once the changes can no longer be tracked
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    @Override
+    public void close() throws IOException {
+        valid = false;
+        watchService.close();
+    }
+
+}
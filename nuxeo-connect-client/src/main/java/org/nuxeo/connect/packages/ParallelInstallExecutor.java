@@ -0,0 +1,484 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.connect.update.LocalPackage;
+import org.nuxeo.connect.update.Package;
+import org.nuxeo.connect.update.PackageDependency;
+import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.ValidationStatus;
+import org.nuxeo.connect.update.task.Task;
+
+/**
+ * Runs the install tasks of an ordered plan (see {@link PackageManager#order}) on a bounded
+ * pool, packages which do not depend on each other being installed concurrently.
+ * <p>
+ * The plan is turned into a DAG: a package depends on every package ordered before it which satisfies one of its
+ * dependencies or optional dependencies, which has the same name, or with which it conflicts. All the tasks are
+ * validated concurrently before any is run; if one of them has validation errors, nothing is run. The uninstall tasks
+ * of the packages to remove, if any, are validated along, then run one at a time before the install tasks.
+ * <p>
+ * The tasks are run outside of the registry lock, so that the file copies of independent tasks overlap: the registry
+ * updates made by a task go through the {@link org.nuxeo.connect.update.PackageUpdateService}, which serializes them.
+ * The lock, when given, is only held while the registry is read once tasks are running, for instance to get the task
+ * undoing another one.
+ * <p>
+ * On failure no new task is started and the running ones are awaited. Then, in reverse order, the failed tasks are
+ * rolled back with {@link Task#rollback()}, the packages whose install task completed are uninstalled with their
+ * uninstall task and the removed packages are installed again. The remaining packages are skipped.
+ *
+ * @since 1.7.6
+ */
+public class ParallelInstallExecutor {
+
+    protected static final Log log = LogFactory.getLog(ParallelInstallExecutor.class);
+
+    protected static final AtomicInteger poolNumber = new AtomicInteger();
+
+    protected final int parallelism;
+
+    protected final Object registryLock;
+
+    /**
+     * Creates an executor for a thread safe package registry.
+     */
+    public ParallelInstallExecutor(int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * @param registryLock the monitor held while the package registry is read during the installation, typically the
+     *            {@link org.nuxeo.connect.update.PackageUpdateService}; null if the package registry is thread safe
+     */
+    public ParallelInstallExecutor(int parallelism, Object registryLock) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.registryLock = registryLock;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Installs the given packages, ordered by dependencies.
+     */
+    public void install(List<LocalPackage> orderedPackages, Map<String, String> params) throws PackageException {
+        List<Task> tasks = new ArrayList<>(orderedPackages.size());
+        for (LocalPackage pkg : orderedPackages) {
+            tasks.add(pkg.getInstallTask());
+        }
+        run(orderedPackages, tasks, params);
+    }
+
+    /**
+     * Validates then runs the given tasks.
+     *
+     * @param orderedPackages the packages installed by the tasks, ordered by dependencies
+     * @param tasks the install task of each package
+     * @param params the user parameters or null if none
+     */
+    public void run(List<? extends Package> orderedPackages, List<Task> tasks, Map<String, String> params)
+            throws PackageException {
+        run(orderedPackages, tasks, Collections.emptyList(), params);
+    }
+
+    /**
+     * Validates all the given tasks, then runs the uninstall tasks one at a time, then the install tasks.
+     *
+     * @param orderedPackages the packages installed by the tasks, ordered by dependencies
+     * @param tasks the install task of each package
+     * @param uninstallTasks the uninstall tasks of the packages to remove, in uninstallation order
+     * @param params the user parameters or null if none
+     */
+    public void run(List<? extends Package> orderedPackages, List<Task> tasks, List<Task> uninstallTasks,
+            Map<String, String> params) throws PackageException {
+        if (orderedPackages.size() != tasks.size()) {
+            throw new IllegalArgumentException("Expected one task per package");
+        }
+        if (tasks.isEmpty() && uninstallTasks.isEmpty()) {
+            return;
+        }
+        List<List<Integer>> dependents = getDependents(orderedPackages);
+        ExecutorService executor = newExecutor(Math.min(parallelism, tasks.size() + uninstallTasks.size()));
+        try {
+            validate(orderedPackages, tasks, uninstallTasks, executor);
+            uninstall(uninstallTasks);
+            execute(orderedPackages, tasks, dependents, uninstallTasks, params, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected ExecutorService newExecutor(int nbThreads) {
+        String namePrefix = "ConnectInstallThread-" + poolNumber.incrementAndGet() + '-';
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadFactory);
+    }
+
+    /**
+     * @return for each package index, the indexes of the packages which must wait for it
+     */
+    protected List<List<Integer>> getDependents(List<? extends Package> orderedPackages) {
+        List<List<Integer>> dependents = new ArrayList<>(orderedPackages.size());
+        for (int i = 0; i < orderedPackages.size(); i++) {
+            List<Integer> pkgDependents = new ArrayList<>();
+            for (int j = i + 1; j < orderedPackages.size(); j++) {
+                if (dependsOn(orderedPackages.get(j), orderedPackages.get(i))) {
+                    pkgDependents.add(j);
+                }
+            }
+            dependents.add(pkgDependents);
+        }
+        return dependents;
+    }
+
+    protected boolean dependsOn(Package pkg, Package other) {
+        if (pkg.getName().equals(other.getName())) {
+            return true;
+        }
+        return matchesAny(pkg.getDependencies(), other) || matchesAny(pkg.getOptionalDependencies(), other)
+                || matchesAny(pkg.getConflicts(), other) || matchesAny(other.getConflicts(), pkg);
+    }
+
+    protected static boolean matchesAny(PackageDependency[] pkgDeps, Package pkg) {
+        if (pkgDeps == null) {
+            return false;
+        }
+        for (PackageDependency pkgDep : pkgDeps) {
+            if (matchDependency(pkgDep, pkg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean matchDependency(PackageDependency pkgDep, Package pkg) {
+        if (pkgDep.getName().equals(pkg.getName()) && pkgDep.getVersionRange().matchVersion(pkg.getVersion())) {
+            return true;
+        }
+        if (pkg.getProvides() != null) {
+            for (PackageDependency provide : pkg.getProvides()) {
+                if (pkgDep.getName().equals(provide.getName())
+                        && pkgDep.getVersionRange().matchVersionRange(provide.getVersionRange())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validates the given tasks concurrently. No task of the installation is running yet, so the registry is only
+     * read.
+     *
+     * @throws PackageException listing the validation errors of all the tasks
+     */
+    protected void validate(List<? extends Package> orderedPackages, List<Task> tasks, List<Task> uninstallTasks,
+            ExecutorService executor) throws PackageException {
+        List<String> pkgIds = new ArrayList<>();
+        List<Future<ValidationStatus>> futures = new ArrayList<>();
+        for (Task task : uninstallTasks) {
+            pkgIds.add(getPackageId(task));
+            futures.add(executor.submit(task::validate));
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            pkgIds.add(orderedPackages.get(i).getId());
+            futures.add(executor.submit(tasks.get(i)::validate));
+        }
+        List<String> errors = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            ValidationStatus status = get(futures.get(i));
+            if (status == null) {
+                continue;
+            }
+            for (String warning : status.getWarnings()) {
+                log.warn(pkgIds.get(i) + ": " + warning);
+            }
+            for (String error : status.getErrors()) {
+                errors.add(pkgIds.get(i) + ": " + error);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new PackageException("Validation failed: " + errors);
+        }
+    }
+
+    /**
+     * Logs the validation warnings of the given task.
+     *
+     * @throws PackageException if the task has validation errors
+     */
+    protected void validate(String pkgId, Task task) throws PackageException {
+        ValidationStatus status = task.validate();
+        if (status == null) {
+            return;
+        }
+        for (String warning : status.getWarnings()) {
+            log.warn(pkgId + ": " + warning);
+        }
+        if (status.hasErrors()) {
+            throw new PackageException("Validation failed: " + pkgId + ": " + status.getErrors());
+        }
+    }
+
+    protected static <T> T get(Future<T> future) throws PackageException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PackageException("Interrupted while installing packages", e);
+        } catch (ExecutionException e) {
+            throw toPackageException(e.getCause());
+        }
+    }
+
+    protected static PackageException toPackageException(Throwable error) {
+        return error instanceof PackageException ? (PackageException) error : new PackageException(error);
+    }
+
+    protected static String getPackageId(Task task) {
+        LocalPackage pkg = task.getPackage();
+        return pkg != null ? pkg.getId() : String.valueOf(task);
+    }
+
+    /**
+     * Runs the given validated uninstall tasks one at a time. On failure, the failed task is rolled back and the
+     * packages uninstalled before are installed again.
+     */
+    protected void uninstall(List<Task> uninstallTasks) throws PackageException {
+        for (int i = 0; i < uninstallTasks.size(); i++) {
+            Task task = uninstallTasks.get(i);
+            try {
+                task.run(null);
+            } catch (PackageException | RuntimeException e) {
+                PackageException failure = toPackageException(e);
+                rollback(getPackageId(task), task, failure);
+                reinstall(uninstallTasks.subList(0, i), failure);
+                throw failure;
+            }
+        }
+    }
+
+    protected void execute(List<? extends Package> orderedPackages, List<Task> tasks, List<List<Integer>> dependents,
+            List<Task> uninstallTasks, Map<String, String> params, ExecutorService executor)
+            throws PackageException {
+        int[] pendingDependencies = new int[tasks.size()];
+        for (List<Integer> pkgDependents : dependents) {
+            for (int j : pkgDependents) {
+                pendingDependencies[j]++;
+            }
+        }
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+        int running = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            if (pendingDependencies[i] == 0) {
+                submit(completionService, tasks, i, params);
+                running++;
+            }
+        }
+        PackageException failure = null;
+        // the tasks which were run, in completion order, and those among them which failed
+        List<Integer> ran = new ArrayList<>();
+        Set<Integer> failed = new HashSet<>();
+        while (running > 0) {
+            Future<Integer> future;
+            try {
+                future = completionService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PackageException("Interrupted while installing packages", e);
+            }
+            running--;
+            int i;
+            try {
+                i = future.get();
+            } catch (ExecutionException e) {
+                TaskFailure taskFailure = (TaskFailure) e.getCause();
+                ran.add(taskFailure.index);
+                failed.add(taskFailure.index);
+                if (failure == null) {
+                    failure = taskFailure.getPackageException();
+                } else {
+                    failure.addSuppressed(taskFailure.getCause());
+                }
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PackageException("Interrupted while installing packages", e);
+            }
+            ran.add(i);
+            if (failure != null) {
+                continue;
+            }
+            for (int j : dependents.get(i)) {
+                if (--pendingDependencies[j] == 0) {
+                    submit(completionService, tasks, j, params);
+                    running++;
+                }
+            }
+        }
+        if (failure == null) {
+            return;
+        }
+        undo(orderedPackages, tasks, ran, failed, uninstallTasks, failure);
+        throw failure;
+    }
+
+    protected void submit(CompletionService<Integer> completionService, List<Task> tasks, int i,
+            Map<String, String> params) {
+        completionService.submit(() -> {
+            try {
+                tasks.get(i).run(params);
+            } catch (PackageException | RuntimeException e) {
+                throw new TaskFailure(i, e);
+            }
+            return i;
+        });
+    }
+
+    /**
+     * @return the monitor to hold while reading the package registry
+     */
+    protected Object getRegistryLock() {
+        return registryLock != null ? registryLock : this;
+    }
+
+    /**
+     * Undoes an installation which failed, the undo failures being added to the given failure.
+     *
+     * @param ran the indexes of the install tasks which were run, in completion order
+     * @param failed the indexes of the install tasks whose run failed
+     * @param uninstallTasks the uninstall tasks which were run
+     */
+    protected void undo(List<? extends Package> orderedPackages, List<Task> tasks, List<Integer> ran,
+            Set<Integer> failed, List<Task> uninstallTasks, PackageException failure) {
+        for (int k = ran.size() - 1; k >= 0; k--) {
+            int i = ran.get(k);
+            String pkgId = orderedPackages.get(i).getId();
+            if (failed.contains(i)) {
+                rollback(pkgId, tasks.get(i), failure);
+            } else {
+                revert(pkgId, tasks.get(i), true, failure);
+            }
+        }
+        reinstall(uninstallTasks, failure);
+        log.warn(String.format("Undid %d install(s) and %d uninstall(s), skipped %d package(s) after failure",
+                ran.size(), uninstallTasks.size(), tasks.size() - ran.size()));
+    }
+
+    /**
+     * Installs again the packages uninstalled by the given tasks, in reverse order.
+     */
+    protected void reinstall(List<Task> uninstallTasks, PackageException failure) {
+        for (int k = uninstallTasks.size() - 1; k >= 0; k--) {
+            Task task = uninstallTasks.get(k);
+            revert(getPackageId(task), task, false, failure);
+        }
+    }
+
+    /**
+     * Rolls back the given task, whose run failed.
+     */
+    protected void rollback(String pkgId, Task task, PackageException failure) {
+        try {
+            task.rollback();
+        } catch (PackageException | RuntimeException e) {
+            log.error("Rollback failed for " + pkgId, e);
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Reverts the given task, whose run completed, by running the opposite task of its package.
+     *
+     * @param install whether the given task is an install task, reverted by an uninstall, or an uninstall task
+     */
+    protected void revert(String pkgId, Task task, boolean install, PackageException failure) {
+        Task opposite;
+        try {
+            synchronized (getRegistryLock()) {
+                LocalPackage pkg = task.getPackage();
+                if (pkg == null) {
+                    throw new PackageException("Unknown package of the task");
+                }
+                opposite = install ? pkg.getUninstallTask() : pkg.getInstallTask();
+                validate(pkgId, opposite);
+            }
+        } catch (PackageException | RuntimeException e) {
+            log.error("Cannot revert the " + (install ? "install" : "uninstall") + " of " + pkgId, e);
+            failure.addSuppressed(e);
+            return;
+        }
+        try {
+            opposite.run(null);
+        } catch (PackageException | RuntimeException e) {
+            log.error("Cannot revert the " + (install ? "install" : "uninstall") + " of " + pkgId, e);
+            failure.addSuppressed(e);
+            rollback(pkgId, opposite, failure);
+        }
+    }
+
+    protected static class TaskFailure extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final int index;
+
+        protected TaskFailure(int index, Exception cause) {
+            super(cause);
+            this.index = index;
+        }
+
+        protected PackageException getPackageException() {
+            return toPackageException(getCause());
+        }
+    }
+
+}
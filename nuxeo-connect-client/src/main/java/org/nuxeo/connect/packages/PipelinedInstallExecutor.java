@@ -0,0 +1,394 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.connect.NuxeoConnectClient;
+import org.nuxeo.connect.data.DownloadingPackage;
+import org.nuxeo.connect.downloads.LocalDownloadingPackage;
+import org.nuxeo.connect.update.Package;
+import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.task.Task;
+
+/**
+ * Installs the packages of an ordered plan while they are still being downloaded.
+ * <p>
+ * The install task of each package is provided as a future, completed once the package is downloaded and registered
+ * into the {@link org.nuxeo.connect.update.PackageUpdateService}. A package is validated and installed as soon as its
+ * task is available and the packages it depends on (see {@link ParallelInstallExecutor}) are installed, while the
+ * other downloads go on. Each install task is validated when it becomes available, under the registry lock if any, and
+ * run outside of it as with the {@link ParallelInstallExecutor}.
+ * <p>
+ * When packages are to be removed, their uninstall tasks are validated up front, but they are only run, one at a time,
+ * once every download succeeded and every install task validated: no install is started before, so that a failed
+ * download leaves the installed packages untouched.
+ * <p>
+ * On a download, validation or install failure, no new install is started, the running ones are awaited and the
+ * installation is undone as with the {@link ParallelInstallExecutor}. The pending downloads are not cancelled.
+ * <p>
+ * The whole installation must terminate before the {@link #setTimeout(long) timeout}: past it, the install fails, the
+ * running tasks are interrupted and awaited, then the installation is undone.
+ *
+ * @since 1.7.6
+ */
+public class PipelinedInstallExecutor extends ParallelInstallExecutor {
+
+    /**
+     * Polling period for the {@link DownloadingPackage} which do not notify their completion.
+     */
+    public static final long POLLING_PERIOD_MS = 100;
+
+    /**
+     * Property holding the default installation timeout, in milliseconds. 0 or less means no limit.
+     */
+    public static final String TIMEOUT_PROPERTY = "org.nuxeo.connect.client.install.timeout";
+
+    public static final long DEFAULT_TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Single thread shared by the download pollings.
+     */
+    protected static final ScheduledThreadPoolExecutor poller = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "ConnectDownloadPoller");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        poller.setRemoveOnCancelPolicy(true);
+    }
+
+    protected enum EventType {
+        DOWNLOADED, DOWNLOAD_FAILED, INSTALLED, INSTALL_FAILED
+    }
+
+    protected static class Event {
+
+        protected final EventType type;
+
+        protected final int index;
+
+        protected final Task task;
+
+        protected final Throwable error;
+
+        protected Event(EventType type, int index, Task task, Throwable error) {
+            this.type = type;
+            this.index = index;
+            this.task = task;
+            this.error = error;
+        }
+    }
+
+    protected volatile long timeout = getDefaultTimeout();
+
+    public PipelinedInstallExecutor(int parallelism) {
+        super(parallelism);
+    }
+
+    /**
+     * @see ParallelInstallExecutor#ParallelInstallExecutor(int, Object)
+     */
+    public PipelinedInstallExecutor(int parallelism, Object registryLock) {
+        super(parallelism, registryLock);
+    }
+
+    protected static long getDefaultTimeout() {
+        String timeout = NuxeoConnectClient.getProperty(TIMEOUT_PROPERTY, null);
+        if (timeout != null) {
+            try {
+                return Long.parseLong(timeout.trim());
+            } catch (NumberFormatException e) {
+                log.warn(String.format("Invalid %s: %s, using %s", TIMEOUT_PROPERTY, timeout, DEFAULT_TIMEOUT_MS));
+            }
+        }
+        return DEFAULT_TIMEOUT_MS;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the maximum duration of an installation, in milliseconds; 0 or less means no limit
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns a future completed with the given download once it is terminated, successfully or not. Cancelling the
+     * returned future stops waiting for the download, without cancelling it.
+     */
+    public static CompletableFuture<DownloadingPackage> whenCompleted(DownloadingPackage download) {
+        if (download.isCompleted()) {
+            return CompletableFuture.completedFuture(download);
+        }
+        if (download instanceof LocalDownloadingPackage) {
+            // a dependent future, which can be cancelled without affecting the download
+            return ((LocalDownloadingPackage) download).getCompletion().thenApply(d -> d);
+        }
+        CompletableFuture<DownloadingPackage> completion = new CompletableFuture<>();
+        ScheduledFuture<?> polling = poller.scheduleWithFixedDelay(() -> {
+            try {
+                if (download.isCompleted()) {
+                    completion.complete(download);
+                }
+            } catch (RuntimeException e) {
+                completion.completeExceptionally(e);
+            }
+        }, POLLING_PERIOD_MS, POLLING_PERIOD_MS, TimeUnit.MILLISECONDS);
+        completion.whenComplete((d, e) -> polling.cancel(false));
+        return completion;
+    }
+
+    /**
+     * Installs the given packages as soon as their task is available.
+     *
+     * @param orderedPackages the packages to install, ordered by dependencies
+     * @param tasks the install task of each package, available once the package is downloaded
+     * @param params the user parameters or null if none
+     */
+    public void install(List<? extends Package> orderedPackages, List<CompletableFuture<Task>> tasks,
+            Map<String, String> params) throws PackageException {
+        install(orderedPackages, tasks, Collections.emptyList(), params);
+    }
+
+    /**
+     * Installs the given packages as soon as their task is available, after uninstalling the packages to remove once
+     * all the install tasks are available.
+     *
+     * @param orderedPackages the packages to install, ordered by dependencies
+     * @param tasks the install task of each package, available once the package is downloaded
+     * @param uninstallTasks the uninstall tasks of the packages to remove, in uninstallation order
+     * @param params the user parameters or null if none
+     */
+    public void install(List<? extends Package> orderedPackages, List<CompletableFuture<Task>> tasks,
+            List<Task> uninstallTasks, Map<String, String> params) throws PackageException {
+        if (orderedPackages.size() != tasks.size()) {
+            throw new IllegalArgumentException("Expected one task per package");
+        }
+        if (tasks.isEmpty() && uninstallTasks.isEmpty()) {
+            return;
+        }
+        List<List<Integer>> dependents = getDependents(orderedPackages);
+        int[] pendingDependencies = new int[tasks.size()];
+        for (List<Integer> pkgDependents : dependents) {
+            for (int j : pkgDependents) {
+                pendingDependencies[j]++;
+            }
+        }
+        Task[] availableTasks = new Task[tasks.size()];
+        // the tasks which were run, in completion order, and those among them which failed
+        List<Integer> ran = new ArrayList<>();
+        Set<Integer> failed = new HashSet<>();
+        List<Task> uninstalled = Collections.emptyList();
+        PackageException failure = null;
+        // the installs are held back until the packages to remove are uninstalled
+        boolean started = uninstallTasks.isEmpty();
+        int validated = 0;
+        int installed = 0;
+        int running = 0;
+        long timeout = this.timeout;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        ExecutorService executor = newExecutor(Math.min(parallelism, Math.max(1, tasks.size())));
+        try {
+            validate(Collections.emptyList(), Collections.emptyList(), uninstallTasks, executor);
+            if (tasks.isEmpty()) {
+                uninstall(uninstallTasks);
+                return;
+            }
+            BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                int index = i;
+                tasks.get(i).whenComplete((task, error) -> events.add(error == null
+                        ? new Event(EventType.DOWNLOADED, index, task, null)
+                        : new Event(EventType.DOWNLOAD_FAILED, index, null, error)));
+            }
+            while (running > 0 || (failure == null && installed < tasks.size())) {
+                Event event;
+                try {
+                    event = timeout > 0 ? events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                            : events.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PackageException("Interrupted while installing packages", e);
+                }
+                if (event == null) {
+                    failure = addFailure(failure,
+                            new PackageException(String.format("Installation timed out after %s ms", timeout)));
+                    executor.shutdownNow();
+                    awaitTermination(executor);
+                    // the events of the tasks which terminated meanwhile
+                    for (Event terminated; (terminated = events.poll()) != null;) {
+                        if (terminated.type == EventType.INSTALLED || terminated.type == EventType.INSTALL_FAILED) {
+                            ran.add(terminated.index);
+                        }
+                        if (terminated.type == EventType.INSTALL_FAILED) {
+                            failed.add(terminated.index);
+                            failure = addFailure(failure, terminated.error);
+                        }
+                    }
+                    break;
+                }
+                int i = event.index;
+                switch (event.type) {
+                case DOWNLOADED:
+                    if (failure != null) {
+                        break;
+                    }
+                    try {
+                        synchronized (getRegistryLock()) {
+                            validate(orderedPackages.get(i).getId(), event.task);
+                        }
+                    } catch (PackageException | RuntimeException e) {
+                        failure = addFailure(failure, e);
+                        break;
+                    }
+                    availableTasks[i] = event.task;
+                    if (started) {
+                        if (pendingDependencies[i] == 0) {
+                            submit(executor, events, event.task, i, params);
+                            running++;
+                        }
+                    } else if (++validated == tasks.size()) {
+                        try {
+                            uninstall(uninstallTasks);
+                        } catch (PackageException e) {
+                            // already undone
+                            failure = addFailure(failure, e);
+                            break;
+                        }
+                        uninstalled = uninstallTasks;
+                        started = true;
+                        for (int j = 0; j < tasks.size(); j++) {
+                            if (pendingDependencies[j] == 0) {
+                                submit(executor, events, availableTasks[j], j, params);
+                                running++;
+                            }
+                        }
+                    }
+                    break;
+                case INSTALLED:
+                    running--;
+                    installed++;
+                    ran.add(i);
+                    if (failure == null) {
+                        for (int j : dependents.get(i)) {
+                            if (--pendingDependencies[j] == 0 && availableTasks[j] != null) {
+                                submit(executor, events, availableTasks[j], j, params);
+                                running++;
+                            }
+                        }
+                    }
+                    break;
+                case INSTALL_FAILED:
+                    running--;
+                    ran.add(i);
+                    failed.add(i);
+                    failure = addFailure(failure, event.error);
+                    break;
+                case DOWNLOAD_FAILED:
+                    failure = addFailure(failure, event.error);
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (CompletableFuture<Task> task : tasks) {
+                // no task is built for the downloads terminated from now on
+                task.cancel(false);
+            }
+        }
+        if (failure == null) {
+            return;
+        }
+        undo(orderedPackages, Arrays.asList(availableTasks), ran, failed, uninstalled, failure);
+        throw failure;
+    }
+
+    /**
+     * Runs the given validated task outside of the registry lock.
+     */
+    protected void submit(ExecutorService executor, BlockingQueue<Event> events, Task task, int i,
+            Map<String, String> params) {
+        executor.execute(() -> {
+            Event event;
+            try {
+                task.run(params);
+                event = new Event(EventType.INSTALLED, i, task, null);
+            } catch (PackageException | RuntimeException e) {
+                event = new Event(EventType.INSTALL_FAILED, i, task, e);
+            }
+            events.add(event);
+        });
+    }
+
+    /**
+     * Waits for the interrupted tasks to terminate, so that they can be undone.
+     */
+    protected void awaitTermination(ExecutorService executor) throws PackageException {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Waiting for the interrupted install tasks to terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PackageException("Interrupted while installing packages", e);
+        }
+    }
+
+    /**
+     * @return the given failure with the given error suppressed, or the error if there was no failure yet
+     */
+    protected static PackageException addFailure(PackageException failure, Throwable error) {
+        PackageException packageException = toPackageException(error);
+        if (failure == null) {
+            return packageException;
+        }
+        failure.addSuppressed(packageException);
+        return failure;
+    }
+
+    protected static PackageException toPackageException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof PackageException ? (PackageException) error : new PackageException(error);
+    }
+
+}
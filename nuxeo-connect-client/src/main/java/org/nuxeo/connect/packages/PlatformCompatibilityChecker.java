@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.packages.dependencies.TargetPlatformFilterHelper;
+import org.nuxeo.connect.update.Package;
+import org.nuxeo.connect.update.PackageException;
+
+/**
+ * Checks many packages against one or more target platforms using lookups built once.
+ * <p>
+ * The packages by id are fetched at construction time, the packages by name only on the first request which does not
+ * match an id. Wildcard matches between a package target platform and a requested target platform are memoized since
+ * the same few target platform patterns are shared by most packages.
+ * <p>
+ * Not thread-safe: an instance is meant to be used for one batch of checks.
+ *
+ * @since 1.7.6
+ */
+public class PlatformCompatibilityChecker {
+
+    protected final Map<String, DownloadablePackage> packagesById;
+
+    protected final Supplier<Map<String, List<DownloadablePackage>>> packagesByNameSupplier;
+
+    protected Map<String, List<DownloadablePackage>> packagesByName;
+
+    /**
+     * requested target platform => (package target platform => match)
+     */
+    protected final Map<String, Map<String, Boolean>> matches = new HashMap<>();
+
+    public PlatformCompatibilityChecker(Map<String, DownloadablePackage> packagesById,
+            Supplier<Map<String, List<DownloadablePackage>>> packagesByNameSupplier) {
+        this.packagesById = packagesById;
+        this.packagesByNameSupplier = packagesByNameSupplier;
+    }
+
+    /**
+     * @return true if {@code requestPkgStr} is compliant with {@code targetPlatform}
+     * @throws PackageException if no package matches {@code requestPkgStr} by id nor by name
+     * @see PackageManager#matchesPlatform(String, String)
+     */
+    public boolean matchesPlatform(String requestPkgStr, String targetPlatform) throws PackageException {
+        return matches(getCandidates(requestPkgStr), targetPlatform);
+    }
+
+    /**
+     * @return List of non compliant packages. Empty list if none.
+     * @see PackageManager#getNonCompliantList(List, String)
+     */
+    public List<String> getNonCompliantList(List<String> packages, String targetPlatform) throws PackageException {
+        List<String> nonCompliant = new ArrayList<>();
+        for (String pkg : packages) {
+            if (!matchesPlatform(pkg, targetPlatform)) {
+                nonCompliant.add(pkg);
+            }
+        }
+        return nonCompliant;
+    }
+
+    /**
+     * Checks all the given packages against all the given target platforms, looking up each package only once.
+     *
+     * @return the non compliant packages for each target platform, in the target platforms order. Empty lists if none.
+     * @throws PackageException if one of the packages is not found
+     */
+    public Map<String, List<String>> getNonCompliantLists(List<String> packages, Collection<String> targetPlatforms)
+            throws PackageException {
+        Map<String, List<String>> nonCompliant = new LinkedHashMap<>();
+        for (String targetPlatform : targetPlatforms) {
+            nonCompliant.put(targetPlatform, new ArrayList<>());
+        }
+        for (String pkg : packages) {
+            List<DownloadablePackage> candidates = getCandidates(pkg);
+            for (Map.Entry<String, List<String>> entry : nonCompliant.entrySet()) {
+                if (!matches(candidates, entry.getKey())) {
+                    entry.getValue().add(pkg);
+                }
+            }
+        }
+        return nonCompliant;
+    }
+
+    /**
+     * @return the package with the given id if any, else the packages with the given name
+     */
+    protected List<DownloadablePackage> getCandidates(String requestPkgStr) throws PackageException {
+        // Try ID match first
+        DownloadablePackage pkg = packagesById.get(requestPkgStr);
+        if (pkg != null) {
+            List<DownloadablePackage> candidates = new ArrayList<>(1);
+            candidates.add(pkg);
+            return candidates;
+        }
+        // Fallback on name match
+        if (packagesByName == null) {
+            packagesByName = packagesByNameSupplier.get();
+        }
+        List<DownloadablePackage> allPackagesForName = packagesByName.get(requestPkgStr);
+        if (allPackagesForName == null) {
+            throw new PackageException("Package not found: " + requestPkgStr);
+        }
+        List<DownloadablePackage> candidates = new ArrayList<>(allPackagesForName.size());
+        for (DownloadablePackage candidate : allPackagesForName) {
+            if (requestPkgStr.equals(candidate.getName())) {
+                candidates.add(candidate);
+            }
+        }
+        return candidates;
+    }
+
+    protected boolean matches(List<DownloadablePackage> candidates, String targetPlatform) {
+        for (DownloadablePackage pkg : candidates) {
+            if (isCompatible(pkg, targetPlatform)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link TargetPlatformFilterHelper#isCompatibleWithTargetPlatform(Package, String)} with memoized
+     * wildcard matches.
+     */
+    protected boolean isCompatible(Package pkg, String targetPlatform) {
+        String[] targetPlatforms = pkg.getTargetPlatforms();
+        if (StringUtils.isBlank(targetPlatform) || targetPlatforms == null || targetPlatforms.length == 0) {
+            return true;
+        }
+        Map<String, Boolean> targetMatches = matches.computeIfAbsent(targetPlatform, k -> new HashMap<>());
+        for (String target : targetPlatforms) {
+            Boolean match = targetMatches.get(target);
+            if (match == null) {
+                match = TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(new String[] { target },
+                        targetPlatform);
+                targetMatches.put(target, match);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -108,6 +108,18 @@ public class RemotePackageSource extends AbstractPackageSource implements Packag
         return result;
     }
 
+    /**
+     * Returns the generation of the cache, so that the packages are not listed while they are unchanged. The expired
+     * package lists are not fetched again: they change the generation, and are fetched again by the next listing.
+     *
+     * @see PackageListCache#getGeneration()
+     * @since 1.7.6
+     */
+    @Override
+    public long getGeneration() {
+        return cache.getGeneration();
+    }
+
     @Override
     public void flushCache() {
         // memory cache
@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+
+/**
+ * An immutable in-memory package source, used to resolve against a snapshot of the packages of other sources.
+ *
+ * @since 1.7.6
+ */
+public class SnapshotPackageSource extends AbstractPackageSource {
+
+    protected static final AtomicLong generations = new AtomicLong();
+
+    protected final long generation = generations.incrementAndGet();
+
+    protected final List<DownloadablePackage> packages;
+
+    protected final Map<String, DownloadablePackage> packagesById = new HashMap<>();
+
+    protected final Map<String, List<DownloadablePackage>> packagesByName = new HashMap<>();
+
+    public SnapshotPackageSource(String id, Collection<? extends DownloadablePackage> packages) {
+        this.id = id;
+        name = id;
+        this.packages = Collections.unmodifiableList(new ArrayList<>(packages));
+        for (DownloadablePackage pkg : this.packages) {
+            packagesById.put(pkg.getId(), pkg);
+            packagesByName.computeIfAbsent(pkg.getName(), k -> new ArrayList<>()).add(pkg);
+        }
+    }
+
+    @Override
+    public List<DownloadablePackage> listPackages() {
+        return new ArrayList<>(packages);
+    }
+
+    @Override
+    public DownloadablePackage getPackageById(String packageId) {
+        return packagesById.get(packageId);
+    }
+
+    @Override
+    public Collection<? extends DownloadablePackage> listPackagesByName(String packageName, String targetPlatform) {
+        List<DownloadablePackage> pkgs = packagesByName.getOrDefault(packageName, Collections.emptyList());
+        return pkgs.stream().filter(pkg -> accept(pkg, null, targetPlatform)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return a generation unique to this snapshot, whose packages never change
+     */
+    @Override
+    public long getGeneration() {
+        return generation;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.update.PackageType;
+
+/**
+ * Result of {@link PackageManager#checkUpdates(PackageType, String)}: the packages newer than the installed ones and
+ * the hotfixes not installed yet. The candidates are not checked against the dependencies, use
+ * {@link PackageManager#listUpdatePackages(PackageType, String)} to get the actual upgrade plan.
+ *
+ * @since 1.7.6
+ */
+public class UpdateAvailability {
+
+    protected final List<DownloadablePackage> candidates;
+
+    public UpdateAvailability(List<DownloadablePackage> candidates) {
+        this.candidates = Collections.unmodifiableList(candidates);
+    }
+
+    public boolean isUpdateAvailable() {
+        return !candidates.isEmpty();
+    }
+
+    /**
+     * @return the latest version of each package to update or hotfix to install, sorted with a
+     *         {@link PackageComparator}
+     */
+    public List<DownloadablePackage> getCandidates() {
+        return candidates;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateAvailability " + candidates;
+    }
+
+}
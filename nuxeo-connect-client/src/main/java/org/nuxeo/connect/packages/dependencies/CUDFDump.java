@@ -0,0 +1,245 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.update.PackageDependency;
+
+/**
+ * Self-contained capture of a dependency resolution request, to reproduce it offline with {@link CUDFReplay}. A dump
+ * is a CUDF document, the universe and request stanzas as given to p2cudf, preceded by comment lines holding the
+ * request options, the solver criteria and the Nuxeo package behind each CUDF package, as JSON. The comments are
+ * ignored by CUDF parsers, including {@link CUDFHelper#parseCUDFFile(BufferedReader)}.
+ *
+ * @since 1.7.6
+ */
+public class CUDFDump {
+
+    public static final String HEADER = "# Nuxeo Connect CUDF dump";
+
+    protected static final String CRITERIA = "#criteria: ";
+
+    protected static final String TARGET_PLATFORM = "#targetPlatform: ";
+
+    protected static final String ALLOW_SNAPSHOT = "#allowSNAPSHOT: ";
+
+    protected static final String KEEP = "#keep: ";
+
+    protected static final String INSTALL = "#install: ";
+
+    protected static final String REMOVE = "#remove: ";
+
+    protected static final String UPGRADE = "#upgrade: ";
+
+    protected static final String ERROR = "#error: ";
+
+    protected static final String PACKAGE = "#package: ";
+
+    protected String solverCriteria;
+
+    protected String targetPlatform;
+
+    protected boolean allowSNAPSHOT;
+
+    protected boolean keep = true;
+
+    protected List<String> install = new ArrayList<>();
+
+    protected List<String> remove = new ArrayList<>();
+
+    protected List<String> upgrade = new ArrayList<>();
+
+    protected String error;
+
+    protected final Map<String, DownloadablePackage> packages = new LinkedHashMap<>();
+
+    /**
+     * Writes the request and the current mapping of the given helper. The universe is formatted package by package.
+     */
+    public static void write(CUDFHelper cudfHelper, PackageDependency[] installs, PackageDependency[] removes,
+            PackageDependency[] upgrades, String solverCriteria, Writer writer) throws IOException {
+        String request = null;
+        String error = null;
+        try {
+            request = cudfHelper.formatCUDFRequest(installs, removes, upgrades);
+        } catch (DependencyException e) {
+            error = e.getMessage();
+        }
+        Map<String, NuxeoCUDFPackage> mapping = new TreeMap<>(cudfHelper.CUDF2NuxeoMap);
+        String newLine = CUDFHelper.newLine;
+        writer.write(HEADER + newLine);
+        writer.write(CRITERIA + solverCriteria + newLine);
+        writer.write(TARGET_PLATFORM + StringUtils.defaultString(cudfHelper.getTargetPlatform()) + newLine);
+        writer.write(ALLOW_SNAPSHOT + cudfHelper.isAllowSNAPSHOT() + newLine);
+        writer.write(KEEP + cudfHelper.isKeep() + newLine);
+        writer.write(INSTALL + join(installs) + newLine);
+        writer.write(REMOVE + join(removes) + newLine);
+        writer.write(UPGRADE + join(upgrades) + newLine);
+        if (error != null) {
+            writer.write(ERROR + error.replace(newLine, " ") + newLine);
+        }
+        for (Map.Entry<String, NuxeoCUDFPackage> entry : mapping.entrySet()) {
+            writer.write(PACKAGE + entry.getKey() + " " + new PackageDescriptor(entry.getValue().pkg).serializeAsJSON()
+                    + newLine);
+        }
+        for (NuxeoCUDFPackage pkg : mapping.values()) {
+            try {
+                writer.write(cudfHelper.formatCUDF(pkg) + newLine);
+            } catch (DependencyException e) {
+                throw new IOException(e);
+            }
+        }
+        if (request != null) {
+            writer.write(request);
+        }
+    }
+
+    protected static String join(PackageDependency[] dependencies) {
+        return dependencies == null ? "" : StringUtils.join(dependencies, ", ");
+    }
+
+    protected static List<String> split(String value) {
+        if (value.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(value.trim().split("\\s*,\\s*")));
+    }
+
+    /**
+     * Reads the header of a dump. The reader is left on the first line of the CUDF universe, so that the universe is
+     * not read.
+     *
+     * @throws DependencyException if the content is not a dump
+     */
+    public static CUDFDump read(BufferedReader reader) throws IOException, DependencyException {
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) {
+            throw new DependencyException("Not a CUDF dump, missing header: " + HEADER);
+        }
+        CUDFDump dump = new CUDFDump();
+        while (true) {
+            reader.mark(1);
+            int next = reader.read();
+            if (next == -1) {
+                break;
+            }
+            reader.reset();
+            if (next != '#') {
+                break;
+            }
+            line = reader.readLine();
+            try {
+                dump.readLine(line);
+            } catch (JSONException e) {
+                throw new DependencyException("Invalid CUDF dump line: " + line, e);
+            }
+        }
+        return dump;
+    }
+
+    protected void readLine(String line) throws JSONException {
+        if (line.startsWith(CRITERIA)) {
+            solverCriteria = line.substring(CRITERIA.length());
+        } else if (line.startsWith(TARGET_PLATFORM)) {
+            String value = line.substring(TARGET_PLATFORM.length());
+            targetPlatform = StringUtils.isEmpty(value) ? null : value;
+        } else if (line.startsWith(ALLOW_SNAPSHOT)) {
+            allowSNAPSHOT = Boolean.parseBoolean(line.substring(ALLOW_SNAPSHOT.length()));
+        } else if (line.startsWith(KEEP)) {
+            keep = Boolean.parseBoolean(line.substring(KEEP.length()));
+        } else if (line.startsWith(INSTALL)) {
+            install = split(line.substring(INSTALL.length()));
+        } else if (line.startsWith(REMOVE)) {
+            remove = split(line.substring(REMOVE.length()));
+        } else if (line.startsWith(UPGRADE)) {
+            upgrade = split(line.substring(UPGRADE.length()));
+        } else if (line.startsWith(ERROR)) {
+            error = line.substring(ERROR.length());
+        } else if (line.startsWith(PACKAGE)) {
+            String value = line.substring(PACKAGE.length());
+            int p = value.indexOf(' ');
+            packages.put(value.substring(0, p),
+                    PackageDescriptor.loadFromJSON(PackageDescriptor.class, value.substring(p + 1)));
+        }
+    }
+
+    public String getSolverCriteria() {
+        return solverCriteria;
+    }
+
+    public String getTargetPlatform() {
+        return targetPlatform;
+    }
+
+    public boolean isAllowSNAPSHOT() {
+        return allowSNAPSHOT;
+    }
+
+    public boolean isKeep() {
+        return keep;
+    }
+
+    /**
+     * @return the install request, as package dependency expressions
+     */
+    public List<String> getInstall() {
+        return install;
+    }
+
+    public List<String> getRemove() {
+        return remove;
+    }
+
+    public List<String> getUpgrade() {
+        return upgrade;
+    }
+
+    /**
+     * @return the error raised while formatting the CUDF request, in which case the dump has no request stanza
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the Nuxeo packages by CUDF id (pkgName-pkgCUDFVersion)
+     */
+    public Map<String, DownloadablePackage> getPackages() {
+        return Collections.unmodifiableMap(packages);
+    }
+
+}
@@ -23,17 +23,27 @@
 package org.nuxeo.connect.packages.dependencies;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,9 +57,11 @@ import org.eclipse.equinox.p2.cudf.solver.OptimizationFunction.Criteria;
 
 import org.nuxeo.connect.data.DownloadablePackage;
 import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.PackageManagerImpl;
 import org.nuxeo.connect.update.PackageDependency;
 import org.nuxeo.connect.update.PackageType;
 import org.nuxeo.connect.update.Version;
+import org.nuxeo.connect.update.VersionIndex;
 import org.nuxeo.connect.update.VersionRange;
 
 /**
@@ -74,16 +86,16 @@ public class CUDFHelper {
     protected PackageManager pm;
 
     /**
-     * Map of all NuxeoCUDFPackage per Nuxeo version, per package name nuxeo2CUDFMap = { "pkgName", { nuxeoVersion,
-     * NuxeoCUDFPackage }}
+     * Index of all NuxeoCUDFPackage per Nuxeo version, per package name nuxeo2CUDFMap = { "pkgName", { nuxeoVersion,
+     * NuxeoCUDFPackage }}. The CUDF versions follow the order of the Nuxeo versions.
      */
-    protected Map<String, Map<Version, NuxeoCUDFPackage>> nuxeo2CUDFMap = new HashMap<>();
+    protected VersionIndex<NuxeoCUDFPackage> nuxeo2CUDFMap = new VersionIndex<>();
 
     /**
      * Map of all NuxeoCUDFPackage per CUDF unique ID (pkgName-pkgCUDFVersion) CUDF2NuxeoMap = {
      * "pkgName-pkgCUDFVersion", NuxeoCUDFPackage }
      */
-    protected Map<String, NuxeoCUDFPackage> CUDF2NuxeoMap = new HashMap<>();
+    protected Map<String, NuxeoCUDFPackage> CUDF2NuxeoMap = new LinkedHashMap<>();
 
     private String targetPlatform;
 
@@ -91,6 +103,11 @@ public class CUDFHelper {
 
     private boolean keep = true;
 
+    /**
+     * @since 1.7.6
+     */
+    protected final ResolutionMetrics metrics = new ResolutionMetrics();
+
     private static final int MATCH_ALL_CUDF_VERSION = -1;
 
     private static final int MATCH_NONE_CUDF_VERSION = -2;
@@ -112,6 +129,46 @@ public class CUDFHelper {
         }
     }
 
+    /**
+     * A CUDF version constraint: "name", "name = v", "name >= v" or "name <= v".
+     *
+     * @since 1.7.6
+     */
+    protected static class CUDFConstraint {
+
+        protected final String cudfName;
+
+        protected final int minVersion;
+
+        protected final int maxVersion;
+
+        /**
+         * @param minVersion 0 if unbounded
+         * @param maxVersion {@link Integer#MAX_VALUE} if unbounded
+         */
+        protected CUDFConstraint(String cudfName, int minVersion, int maxVersion) {
+            this.cudfName = cudfName;
+            this.minVersion = minVersion;
+            this.maxVersion = maxVersion;
+        }
+
+        protected boolean matches(int cudfVersion) {
+            return minVersion <= cudfVersion && cudfVersion <= maxVersion;
+        }
+
+        @Override
+        public String toString() {
+            if (minVersion == maxVersion) {
+                return cudfName + " = " + minVersion;
+            } else if (maxVersion != Integer.MAX_VALUE) {
+                return cudfName + " <= " + maxVersion;
+            } else if (minVersion != 0) {
+                return cudfName + " >= " + minVersion;
+            }
+            return cudfName;
+        }
+    }
+
     /**
      * @since 5.9.2
      * @param keep Whether to keep the installed packages in the resolution
@@ -124,6 +181,14 @@ public class CUDFHelper {
         this.pm = pm;
     }
 
+    /**
+     * @return the metrics of the resolution made with this helper, attached to the resolutions it builds
+     * @since 1.7.6
+     */
+    public ResolutionMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Map "name, version-classifier" to "name-classifier, version" (with -SNAPSHOT being a specific case)
      */
@@ -139,10 +204,12 @@ public class CUDFHelper {
      * @since 1.4.11
      */
     public void initMapping(PackageDependency[] installs, PackageDependency[] removes, PackageDependency[] upgrades) {
+        long start = System.nanoTime();
         nuxeo2CUDFMap.clear();
         CUDF2NuxeoMap.clear();
         Map<String, PackageDependency> upgradesMap = new HashMap<>();
-        Set<String> involvedPackages = new HashSet<>();
+        // sorted, so that the CUDF universe and the solver ties do not depend on hash ordering
+        Set<String> involvedPackages = new TreeSet<>();
         List<String> installedOrRequiredSNAPSHOTPackages = new ArrayList<>();
         if (upgrades != null) {
             computeInvolvedPackages(upgrades, upgradesMap, involvedPackages, installedOrRequiredSNAPSHOTPackages);
@@ -154,107 +221,119 @@ public class CUDFHelper {
             computeInvolvedPackages(removes, involvedPackages, installedOrRequiredSNAPSHOTPackages);
         }
 
-        // Build a map <pkgName,pkg>
-        List<DownloadablePackage> allPackages = getAllPackages();
-        Map<String, List<DownloadablePackage>> allPackagesMap = new HashMap<>();
-        for (DownloadablePackage pkg : allPackages) {
-            String key = pkg.getName();
-            List<DownloadablePackage> list;
-            if (!allPackagesMap.containsKey(key)) {
-                list = new ArrayList<>();
-                allPackagesMap.put(key, list);
-            } else {
-                list = allPackagesMap.get(key);
-            }
-            list.add(pkg);
-            // in the mean time, add installed packages to the involved packages list
-            if (keep && pkg.getPackageState().isInstalled()) {
-                involvedPackages.add(pkg.getName());
+        CUDFUniverse universe = getUniverse();
+        synchronized (universe) {
+            if (keep) {
+                // add installed packages to the involved packages list
+                involvedPackages.addAll(universe.getInstalledNames());
             }
-        }
-        for (DownloadablePackage pkg : allPackages) {
-            computeInvolvedReferences(involvedPackages, installedOrRequiredSNAPSHOTPackages, pkg, allPackagesMap);
-        }
-        installedOrRequiredSNAPSHOTPackages.addAll(getInstalledSNAPSHOTPackages());
-        // for each unique "name-classifier", sort versions so we can attribute them a "CUDF posint" version populate
-        // Nuxeo2CUDFMap and the reverse CUDF2NuxeoMap
-        for (DownloadablePackage pkg : allPackages) {
-            // ignore not involved packages
-            if (!involvedPackages.contains(pkg.getName())) {
-                if (installedOrRequiredSNAPSHOTPackages.contains(pkg.getName())) {
-                    log.error("Ignore installedOrRequiredSNAPSHOTPackage " + pkg);
-                }
-
-                // check provides
-                boolean involved = false;
-                PackageDependency[] provides = pkg.getProvides();
-                for (PackageDependency provide : provides) {
-                    if (involvedPackages.contains(provide.getName())) {
-                        involved = true;
-                        break;
-                    }
-                }
-                if (!involved) {
-                    log.debug("Ignore " + pkg + " (not involved by request)");
-                    continue;
+            metrics.setUniverseSize(universe.size());
+            computeInvolvedReferences(involvedPackages, installedOrRequiredSNAPSHOTPackages, universe);
+            installedOrRequiredSNAPSHOTPackages.addAll(universe.getInstalledSnapshotNames());
+            for (String pkgName : installedOrRequiredSNAPSHOTPackages) {
+                if (!involvedPackages.contains(pkgName)) {
+                    log.error("Ignore installedOrRequiredSNAPSHOTPackage " + universe.getPackages(pkgName));
                 }
             }
-
-            // ignore incompatible packages when a targetPlatform is set
-            if (!pkg.getPackageState().isInstalled()
-                    && !TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(pkg, targetPlatform)) {
-                log.debug("Ignore " + pkg + " (incompatible target platform)");
-                continue;
-            }
-            // Exclude SNAPSHOT by default for non Studio packages
-            if (!allowSNAPSHOT && pkg.getVersion().isSnapshot() && pkg.getType() != PackageType.STUDIO
-                    && !installedOrRequiredSNAPSHOTPackages.contains(pkg.getName())) {
-                log.debug("Ignore " + pkg + " (excluded SNAPSHOT)");
-                continue;
-            }
-
-            // SNAPSHOT upgrade requires referring the remote package
-            if (pkg.getVersion().isSnapshot() && pkg.isLocal() && upgradesMap.containsKey(pkg.getName())) {
-                PackageDependency upgrade = upgradesMap.get(pkg.getName());
-                if (upgrade.getVersionRange().matchVersion(pkg.getVersion())) {
-                    DownloadablePackage remotePackage = pm.getRemotePackage(pkg.getId());
-                    if (remotePackage != null) {
-                        log.debug(String.format("Upgrade with remote %s", remotePackage));
-                        pkg = remotePackage;
-                    }
-                }
+            // involved packages and the packages providing one of them
+            Set<DownloadablePackage> candidates = new LinkedHashSet<>();
+            for (String pkgName : involvedPackages) {
+                candidates.addAll(universe.getPackages(pkgName));
+                candidates.addAll(universe.getProviders(pkgName));
             }
-            NuxeoCUDFPackage nuxeoCUDFPackage = new NuxeoCUDFPackage(pkg);
-            // if (!keep && !involvedPackages.contains(pkg.getName())) {
-            // nuxeoCUDFPackage.setInstalled(false);
-            // }
-            Map<Version, NuxeoCUDFPackage> pkgVersions = nuxeo2CUDFMap.get(nuxeoCUDFPackage.getCUDFName());
-            if (pkgVersions == null) {
-                pkgVersions = new TreeMap<>();
-                nuxeo2CUDFMap.put(nuxeoCUDFPackage.getCUDFName(), pkgVersions);
+            // for each unique "name-classifier", sort versions so we can attribute them a "CUDF posint" version
+            // populate Nuxeo2CUDFMap and the reverse CUDF2NuxeoMap
+            for (DownloadablePackage candidate : candidates) {
+                addToMapping(candidate, universe, upgradesMap, installedOrRequiredSNAPSHOTPackages);
             }
-            pkgVersions.put(nuxeoCUDFPackage.getNuxeoVersion(), nuxeoCUDFPackage);
         }
-        for (String key : nuxeo2CUDFMap.keySet()) {
-            Map<Version, NuxeoCUDFPackage> pkgVersions = nuxeo2CUDFMap.get(key);
+        for (String key : nuxeo2CUDFMap.getNames()) {
             int posInt = 1;
-            for (Version version : pkgVersions.keySet()) {
-                NuxeoCUDFPackage pkg = pkgVersions.get(version);
+            for (NuxeoCUDFPackage pkg : nuxeo2CUDFMap.getVersions(key).values()) {
                 pkg.setCUDFVersion(posInt++);
                 CUDF2NuxeoMap.put(pkg.getCUDFName() + "-" + pkg.getCUDFVersion(), pkg);
             }
         }
+        metrics.setInvolvedPackages(CUDF2NuxeoMap.size());
+        metrics.record(ResolutionMetrics.INIT_MAPPING, start);
 
         if (log.isDebugEnabled()) {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             PrintStream out = new PrintStream(outputStream);
-            MapUtils.verbosePrint(out, "nuxeo2CUDFMap", nuxeo2CUDFMap);
+            out.println("nuxeo2CUDFMap = " + nuxeo2CUDFMap);
             MapUtils.verbosePrint(out, "CUDF2NuxeoMap", CUDF2NuxeoMap);
             log.debug(outputStream.toString());
             IOUtils.closeQuietly(out);
         }
     }
 
+    /**
+     * Maps the given package unless it is filtered out by the target platform or the SNAPSHOT policy.
+     *
+     * @since 1.7.6
+     */
+    protected void addToMapping(DownloadablePackage pkg, CUDFUniverse universe,
+            Map<String, PackageDependency> upgradesMap, List<String> installedOrRequiredSNAPSHOTPackages) {
+        // ignore incompatible packages when a targetPlatform is set
+        if (!pkg.getPackageState().isInstalled() && !universe.isCompatibleWithTargetPlatform(pkg, targetPlatform)) {
+            log.debug("Ignore " + pkg + " (incompatible target platform)");
+            return;
+        }
+        // Exclude SNAPSHOT by default for non Studio packages
+        if (!allowSNAPSHOT && pkg.getVersion().isSnapshot() && pkg.getType() != PackageType.STUDIO
+                && !installedOrRequiredSNAPSHOTPackages.contains(pkg.getName())) {
+            log.debug("Ignore " + pkg + " (excluded SNAPSHOT)");
+            return;
+        }
+
+        // SNAPSHOT upgrade requires referring the remote package
+        if (pkg.getVersion().isSnapshot() && pkg.isLocal() && upgradesMap.containsKey(pkg.getName())) {
+            PackageDependency upgrade = upgradesMap.get(pkg.getName());
+            if (upgrade.getVersionRange().matchVersion(pkg.getVersion())) {
+                DownloadablePackage remotePackage = pm.getRemotePackage(pkg.getId());
+                if (remotePackage != null) {
+                    log.debug(String.format("Upgrade with remote %s", remotePackage));
+                    pkg = remotePackage;
+                }
+            }
+        }
+        NuxeoCUDFPackage nuxeoCUDFPackage = new NuxeoCUDFPackage(pkg);
+        nuxeo2CUDFMap.put(nuxeoCUDFPackage.getCUDFName(), nuxeoCUDFPackage.getNuxeoVersion(), nuxeoCUDFPackage);
+    }
+
+    /**
+     * @return the universe to pick the involved packages from: the one maintained by the package manager if
+     *         available, otherwise a new one built from {@link #getAllPackages()}
+     * @since 1.7.6
+     */
+    protected CUDFUniverse getUniverse() {
+        if (pm instanceof PackageManagerImpl) {
+            return ((PackageManagerImpl) pm).getCUDFUniverse();
+        }
+        CUDFUniverse universe = new CUDFUniverse();
+        universe.update(getAllPackages(), null);
+        return universe;
+    }
+
+    /**
+     * Adds to the involved packages the names referenced by their "dependencies", "conflicts" and "provides", until no
+     * new name is found.
+     *
+     * @since 1.7.6
+     */
+    protected void computeInvolvedReferences(Set<String> involvedPackages,
+            List<String> installedOrRequiredSNAPSHOTPackages, CUDFUniverse universe) {
+        PackageGraph graph = universe.getGraph();
+        Set<String> added = graph.addClosure(involvedPackages,
+                PackageGraph.DEPENDS | PackageGraph.CONFLICTS | PackageGraph.PROVIDES,
+                installedOrRequiredSNAPSHOTPackages);
+        for (String name : added) {
+            if (!graph.contains(name) && universe.getProviders(name).isEmpty()) {
+                log.warn("Unknown dependency: " + name);
+            }
+        }
+    }
+
     /**
      * Parse request to compute the list of directly involved packages
      *
@@ -287,7 +366,9 @@ public class CUDFHelper {
      *
      * @param installedOrRequiredSNAPSHOTPackages
      * @since 1.4.18
+     * @deprecated since 1.7.6, use {@link #computeInvolvedReferences(Set, List, CUDFUniverse)} instead
      */
+    @Deprecated
     protected void computeInvolvedReferences(Set<String> involvedPackages,
             List<String> installedOrRequiredSNAPSHOTPackages, DownloadablePackage pkg,
             Map<String, List<DownloadablePackage>> allPackagesMap) {
@@ -306,7 +387,9 @@ public class CUDFHelper {
      * Browse the given packages' "dependencies", "conflicts" and "provides" to populate the list of involved packages
      *
      * @since 1.4.18
+     * @deprecated since 1.7.6, use {@link #computeInvolvedReferences(Set, List, CUDFUniverse)} instead
      */
+    @Deprecated
     protected void computeInvolvedReferences(Set<String> involvedPackages,
             List<String> installedOrRequiredSNAPSHOTPackages, PackageDependency[] pkgDeps,
             Map<String, List<DownloadablePackage>> allPackagesMap) {
@@ -334,6 +417,10 @@ public class CUDFHelper {
         }
     }
 
+    /**
+     * @deprecated since 1.7.6, use {@link CUDFUniverse#getInstalledSnapshotNames()} instead
+     */
+    @Deprecated
     protected List<String> getInstalledSNAPSHOTPackages() {
         List<String> installedSNAPSHOTPackages = new ArrayList<>();
         for (DownloadablePackage pkg : pm.listInstalledPackages()) {
@@ -358,10 +445,20 @@ public class CUDFHelper {
 
     /**
      * @param cudfName a package name
-     * @return all NuxeoCUDFPackage versions corresponding to the given package
+     * @return all NuxeoCUDFPackage versions corresponding to the given package, by ascending version
      */
     public Map<Version, NuxeoCUDFPackage> getCUDFPackages(String cudfName) {
-        return nuxeo2CUDFMap.get(cudfName);
+        return nuxeo2CUDFMap.getVersions(cudfName);
+    }
+
+    /**
+     * @param cudfName a package name
+     * @return the NuxeoCUDFPackage versions of the given package matching the given range, by ascending version: their
+     *         CUDF versions are consecutive
+     * @since 1.7.6
+     */
+    public NavigableMap<Version, NuxeoCUDFPackage> getCUDFPackages(String cudfName, VersionRange range) {
+        return nuxeo2CUDFMap.getVersions(cudfName, range);
     }
 
     /**
@@ -381,7 +478,8 @@ public class CUDFHelper {
     }
 
     /**
-     * @return a CUDF universe as a String
+     * @return a CUDF universe as a String, for debugging purpose: resolutions use
+     *         {@link #getCUDFStream(PackageDependency[], PackageDependency[], PackageDependency[])}
      * @throws DependencyException
      */
     public String getCUDFFile() throws DependencyException {
@@ -421,14 +519,34 @@ public class CUDFHelper {
      */
     protected String formatCUDFDeps(PackageDependency[] dependencies, boolean failOnError, boolean warnOnError,
             VersionMatchMappingPolicy versionMatchMappingPolicy) throws DependencyException {
+        StringBuilder sb = new StringBuilder();
+        for (CUDFConstraint constraint : getCUDFConstraints(dependencies, failOnError, warnOnError,
+                versionMatchMappingPolicy)) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(constraint);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Maps the given dependencies on the CUDF versions of the current mapping. A dependency can give zero, one or two
+     * constraints: a range is expressed with a lower and an upper bound constraints. A bound which is not a version
+     * of the universe is mapped according to the given policy. Each bound is looked up on its own, so the bounds of an
+     * inverted range are mapped as those of any other range.
+     *
+     * @since 1.7.6
+     */
+    protected List<CUDFConstraint> getCUDFConstraints(PackageDependency[] dependencies, boolean failOnError,
+            boolean warnOnError, VersionMatchMappingPolicy versionMatchMappingPolicy) throws DependencyException {
+        List<CUDFConstraint> constraints = new ArrayList<>();
         if (dependencies == null) {
-            return "";
+            return constraints;
         }
-        StringBuilder sb = new StringBuilder();
         for (PackageDependency packageDependency : dependencies) {
             String cudfName = NuxeoCUDFPackage.getCUDFName(packageDependency);
-            Map<Version, NuxeoCUDFPackage> versionsMap = nuxeo2CUDFMap.get(cudfName);
-            if (versionsMap == null) {
+            if (!nuxeo2CUDFMap.contains(cudfName)) {
                 String errMsg = "Missing mapping for " + packageDependency + " with target platform " + targetPlatform;
                 if (failOnError) {
                     throw new DependencyException(errMsg);
@@ -440,41 +558,43 @@ public class CUDFHelper {
                 continue;
             }
             VersionRange versionRange = packageDependency.getVersionRange();
+            Version minVersion = versionRange.getMinVersion();
+            Version maxVersion = versionRange.getMaxVersion();
             int cudfMinVersion, cudfMaxVersion;
-            if (versionRange.getMinVersion() == null) {
+            if (minVersion == null) {
                 cudfMinVersion = versionMatchMappingPolicy.whenNotDefined();
             } else {
-                CUDFPackage cudfPackage = versionsMap.get(versionRange.getMinVersion());
-                cudfMinVersion = (cudfPackage == null) ? versionMatchMappingPolicy.whenNotFound()
-                        : cudfPackage.getCUDFVersion();
+                // the bound is found when it is the earliest version from it
+                Map.Entry<Version, NuxeoCUDFPackage> earliest = nuxeo2CUDFMap.getEarliest(cudfName,
+                        new VersionRange(minVersion));
+                cudfMinVersion = earliest == null || earliest.getKey().compareTo(minVersion) != 0
+                        ? versionMatchMappingPolicy.whenNotFound() : earliest.getValue().getCUDFVersion();
             }
-            if (versionRange.getMaxVersion() == null) {
+            if (maxVersion == null) {
                 cudfMaxVersion = versionMatchMappingPolicy.whenNotDefined();
             } else {
-                CUDFPackage cudfPackage = versionsMap.get(versionRange.getMaxVersion());
-                cudfMaxVersion = (cudfPackage == null) ? versionMatchMappingPolicy.whenNotFound()
-                        : cudfPackage.getCUDFVersion();
+                // the bound is found when it is the latest version up to it
+                Map.Entry<Version, NuxeoCUDFPackage> latest = nuxeo2CUDFMap.getLatest(cudfName,
+                        new VersionRange(null, maxVersion));
+                cudfMaxVersion = latest == null || latest.getKey().compareTo(maxVersion) != 0
+                        ? versionMatchMappingPolicy.whenNotFound() : latest.getValue().getCUDFVersion();
             }
             if (cudfMinVersion == cudfMaxVersion) {
                 if (cudfMinVersion == MATCH_ALL_CUDF_VERSION) {
-                    sb.append(cudfName + ", ");
+                    constraints.add(new CUDFConstraint(cudfName, 0, Integer.MAX_VALUE));
                 } else {
-                    sb.append(cudfName + " = " + cudfMinVersion + ", ");
+                    constraints.add(new CUDFConstraint(cudfName, cudfMinVersion, cudfMinVersion));
                 }
                 continue;
             }
             if (cudfMinVersion != MATCH_ALL_CUDF_VERSION && cudfMinVersion != MATCH_NONE_CUDF_VERSION) {
-                sb.append(cudfName + " >= " + cudfMinVersion + ", ");
+                constraints.add(new CUDFConstraint(cudfName, cudfMinVersion, Integer.MAX_VALUE));
             }
             if (cudfMaxVersion != MATCH_ALL_CUDF_VERSION && cudfMaxVersion != MATCH_NONE_CUDF_VERSION) {
-                sb.append(cudfName + " <= " + cudfMaxVersion + ", ");
+                constraints.add(new CUDFConstraint(cudfName, 0, cudfMaxVersion));
             }
         }
-        if (sb.length() > 0) { // remove ending comma
-            return sb.toString().substring(0, sb.length() - 2);
-        } else {
-            return "";
-        }
+        return constraints;
     }
 
     /**
@@ -494,21 +614,29 @@ public class CUDFHelper {
         Map<String, NuxeoCUDFPackageDescription> map = new TreeMap<>();
         NuxeoCUDFPackageDescription nuxeoCUDFPkgDesc = null;
         Pattern linePattern = Pattern.compile(CUDFPackage.LINE_PATTERN);
-
-        while (reader.ready()) {
-            String line = reader.readLine();
-            if (line == null) {
-                break;
-            }
+        boolean started = false;
+        String line;
+        // read until the end of the stream, not of the buffered data, so that large files can be streamed
+        while ((line = reader.readLine()) != null) {
             line = line.trim();
-            log.debug("Parsing line >> " + line);
-            if (line.trim().isEmpty()) {
+            if (log.isTraceEnabled()) {
+                log.trace("Parsing line >> " + line);
+            }
+            if (line.startsWith("#")) {
+                // comment, such as the header of a CUDFDump
+                continue;
+            }
+            if (line.isEmpty()) {
                 if (nuxeoCUDFPkgDesc == null) {
-                    throw new DependencyException("Invalid CUDF file starting with an empty line");
+                    if (!started) {
+                        throw new DependencyException("Invalid CUDF file starting with an empty line");
+                    }
+                    continue;
                 }
                 map.put(nuxeoCUDFPkgDesc.getCUDFName() + "-" + nuxeoCUDFPkgDesc.getCUDFVersion(), nuxeoCUDFPkgDesc);
                 nuxeoCUDFPkgDesc = null;
             } else {
+                started = true;
                 Matcher m = linePattern.matcher(line);
                 if (!m.matches()) {
                     throw new DependencyException("Invalid CUDF line: " + line);
@@ -518,6 +646,10 @@ public class CUDFHelper {
                     tag += " ";
                 }
                 String value = m.group(2);
+                if (nuxeoCUDFPkgDesc == null && isRequestTag(tag)) {
+                    log.debug("Ignore request stanza " + line);
+                    continue;
+                }
                 if (nuxeoCUDFPkgDesc == null) {
                     if (!CUDFPackage.TAG_PACKAGE.equals(tag)) {
                         throw new DependencyException("Invalid CUDF file not starting with " + CUDFPackage.TAG_PACKAGE);
@@ -560,6 +692,11 @@ public class CUDFHelper {
         return map;
     }
 
+    private static boolean isRequestTag(String tag) {
+        return CUDFPackage.TAG_REQUEST.equals(tag) || CUDFPackage.TAG_INSTALL.equals(tag)
+                || CUDFPackage.TAG_REMOVE.equals(tag) || CUDFPackage.TAG_UPGRADE.equals(tag);
+    }
+
     /**
      * @param value CUDF dependencies
      * @return An array of {@link PackageDependency}
@@ -643,11 +780,79 @@ public class CUDFHelper {
     public String getCUDFFile(PackageDependency[] pkgInstall, PackageDependency[] pkgRemove,
             PackageDependency[] pkgUpgrade) throws DependencyException {
         initMapping(pkgInstall, pkgRemove, pkgUpgrade);
-        StringBuilder sb = new StringBuilder(getCUDFFile());
-        sb.append(CUDFPackage.TAG_REQUEST + newLine);
-        sb.append(CUDFPackage.TAG_INSTALL + formatCUDFDeps(pkgInstall, true, true) + newLine);
-        sb.append(CUDFPackage.TAG_REMOVE + formatCUDFDeps(pkgRemove, true, true) + newLine);
-        sb.append(CUDFPackage.TAG_UPGRADE + formatCUDFDeps(pkgUpgrade, true, true) + newLine);
+        String request = formatCUDFRequest(pkgInstall, pkgRemove, pkgUpgrade);
+        return getCUDFFile() + request;
+    }
+
+    /**
+     * Same content as {@link #getCUDFFile(PackageDependency[], PackageDependency[], PackageDependency[])} but streamed:
+     * each package stanza is only formatted when the stream reaches it, so that the whole universe is never held in
+     * memory as text. The request stanza is formatted upfront so that mapping errors are raised by this method.
+     *
+     * @return a CUDF stream with packages universe and request stanza, encoded with the platform default charset
+     * @since 1.7.6
+     */
+    public InputStream getCUDFStream(PackageDependency[] pkgInstall, PackageDependency[] pkgRemove,
+            PackageDependency[] pkgUpgrade) throws DependencyException {
+        initMapping(pkgInstall, pkgRemove, pkgUpgrade);
+        return getCUDFStream(formatCUDFRequest(pkgInstall, pkgRemove, pkgUpgrade));
+    }
+
+    /**
+     * Streams the current mapping followed by the given request stanza. The mapping is only read, so that several
+     * streams can be consumed concurrently.
+     *
+     * @param request as returned by {@link #formatCUDFRequest(PackageDependency[], PackageDependency[],
+     *            PackageDependency[])}
+     * @since 1.7.6
+     */
+    protected InputStream getCUDFStream(String cudfRequest) {
+        byte[] request = cudfRequest.getBytes();
+        Iterator<NuxeoCUDFPackage> packages = CUDF2NuxeoMap.values().iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+
+            protected boolean requestSent;
+
+            protected long bytes;
+
+            @Override
+            public boolean hasMoreElements() {
+                return packages.hasNext() || !requestSent;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!packages.hasNext()) {
+                    requestSent = true;
+                    metrics.setCUDFBytes(bytes + request.length);
+                    return new ByteArrayInputStream(request);
+                }
+                long start = System.nanoTime();
+                try {
+                    byte[] stanza = (formatCUDF(packages.next()) + newLine).getBytes();
+                    bytes += stanza.length;
+                    metrics.record(ResolutionMetrics.FORMAT_CUDF, start);
+                    return new ByteArrayInputStream(stanza);
+                } catch (DependencyException e) {
+                    // universe mapping errors are only logged
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the CUDF request stanza
+     * @throws DependencyException if a requested package is not mapped
+     * @since 1.7.6
+     */
+    protected String formatCUDFRequest(PackageDependency[] pkgInstall, PackageDependency[] pkgRemove,
+            PackageDependency[] pkgUpgrade) throws DependencyException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(CUDFPackage.TAG_REQUEST).append(newLine);
+        sb.append(CUDFPackage.TAG_INSTALL).append(formatCUDFDeps(pkgInstall, true, true)).append(newLine);
+        sb.append(CUDFPackage.TAG_REMOVE).append(formatCUDFDeps(pkgRemove, true, true)).append(newLine);
+        sb.append(CUDFPackage.TAG_UPGRADE).append(formatCUDFDeps(pkgUpgrade, true, true)).append(newLine);
         return sb.toString();
     }
 
@@ -670,16 +875,56 @@ public class CUDFHelper {
             }
         }
 
+        long start = System.nanoTime();
         DependencyResolution res = new DependencyResolution();
         completeResolution(res, details, solution);
+        metrics.record(ResolutionMetrics.BUILD_RESOLUTION, start);
+        return completeResolution(res, isSubResolution);
+    }
+
+    /**
+     * @param solution the packages installed by the solution, including the unchanged ones
+     * @param removed names of the installed packages which are not part of the solution
+     * @param changed names of the packages which are installed in another version by the solution, or were not
+     *            installed
+     * @param isSubResolution if true, do not check for optional dependencies on installed packages
+     * @return a DependencyResolution built from the given solution
+     * @since 1.7.6
+     */
+    protected DependencyResolution buildResolution(Collection<NuxeoCUDFPackage> solution, Collection<String> removed,
+            Collection<String> changed, boolean isSubResolution) throws DependencyException {
+        if (solution == null) {
+            throw new DependencyException("No solution found.");
+        }
+        long start = System.nanoTime();
+        log.debug("Removed: " + removed + ", changed: " + changed);
+        List<NuxeoCUDFPackage> sortedSolution = new ArrayList<>(solution);
+        sortedSolution.sort(Comparator.comparing((NuxeoCUDFPackage pkg) -> pkg.getCUDFName()).thenComparingInt(
+                NuxeoCUDFPackage::getCUDFVersion));
+        DependencyResolution res = new DependencyResolution();
+        completeResolution(res, removed, changed, sortedSolution);
+        metrics.record(ResolutionMetrics.BUILD_RESOLUTION, start);
+        return completeResolution(res, isSubResolution);
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    protected DependencyResolution completeResolution(DependencyResolution res, boolean isSubResolution)
+            throws DependencyException {
         if (res.isFailed()) {
             throw new DependencyException(res.failedMessage);
         }
         res.markAsSuccess();
+        res.setMetrics(metrics);
+        long start = System.nanoTime();
         if (!isSubResolution) {
             pm.checkOptionalDependenciesOnInstalledPackages(res);
+            metrics.record(ResolutionMetrics.CHECK_OPTIONAL_DEPENDENCIES, start);
+            start = System.nanoTime();
         }
         pm.order(res);
+        metrics.record(ResolutionMetrics.ORDER, start);
         return res;
     }
 
@@ -692,14 +937,6 @@ public class CUDFHelper {
      */
     protected void completeResolution(DependencyResolution res, Map<Criteria, List<String>> details,
             Collection<InstallableUnit> solution) {
-        // Complete with removals
-        for (String pkgName : details.get(Criteria.REMOVED)) {
-            NuxeoCUDFPackage pkg = getInstalledCUDFPackage(pkgName);
-            if (pkg != null) {
-                res.markPackageForRemoval(pkg.getNuxeoName(), pkg.getNuxeoVersion(), true);
-            }
-        }
-
         List<InstallableUnit> sortedSolution = new ArrayList<>(solution);
         Collections.sort(sortedSolution);
         log.debug("Solution: " + sortedSolution);
@@ -713,18 +950,39 @@ public class CUDFHelper {
             }
         }
 
+        List<NuxeoCUDFPackage> packages = new ArrayList<>();
         for (InstallableUnit iu : sortedSolution) {
             NuxeoCUDFPackage pkg = getCUDFPackage(iu.getId() + "-" + iu.getVersion());
             if (pkg == null) {
                 log.warn("Couldn't find " + pkg);
                 continue;
             }
-            if (details.get(Criteria.NEW).contains(iu.getId())
-                    || details.get(Criteria.VERSION_CHANGED).contains(iu.getId())) {
+            packages.add(pkg);
+        }
+        Set<String> changed = new HashSet<>(details.get(Criteria.NEW));
+        changed.addAll(details.get(Criteria.VERSION_CHANGED));
+        completeResolution(res, new HashSet<>(details.get(Criteria.REMOVED)), changed, packages);
+    }
+
+    /**
+     * @param solution the packages installed by the solution, sorted
+     * @since 1.7.6
+     */
+    protected void completeResolution(DependencyResolution res, Collection<String> removed,
+            Collection<String> changed, List<NuxeoCUDFPackage> solution) {
+        // Complete with removals
+        for (String pkgName : removed) {
+            NuxeoCUDFPackage pkg = getInstalledCUDFPackage(pkgName);
+            if (pkg != null) {
+                res.markPackageForRemoval(pkg.getNuxeoName(), pkg.getNuxeoVersion(), true);
+            }
+        }
+        for (NuxeoCUDFPackage pkg : solution) {
+            if (changed.contains(pkg.getCUDFName())) {
                 if (!res.addPackage(pkg.getNuxeoName(), pkg.getNuxeoVersion(), true)) {
                     log.error("Failed to add " + pkg);
                 }
-            } else if (!details.get(Criteria.REMOVED).contains(iu.getId())) {
+            } else if (!removed.contains(pkg.getCUDFName())) {
                 if (!res.addUnchangedPackage(pkg.getNuxeoName(), pkg.getNuxeoVersion())) {
                     log.error("Failed to add " + pkg);
                 }
@@ -738,6 +996,27 @@ public class CUDFHelper {
         this.targetPlatform = targetPlatform;
     }
 
+    /**
+     * @since 1.7.6
+     */
+    public String getTargetPlatform() {
+        return targetPlatform;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public boolean isAllowSNAPSHOT() {
+        return allowSNAPSHOT;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public boolean isKeep() {
+        return keep;
+    }
+
     /**
      * @since 1.4.13
      */
@@ -0,0 +1,275 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.SnapshotPackageSource;
+import org.nuxeo.connect.update.PackageState;
+
+/**
+ * Replays the dependency resolution requests captured as {@link CUDFDump}s, see
+ * {@link P2CUDFDependencyResolver#DUMP_DIRECTORY_PROPERTY}, with each of the given resolver types, timing repeated
+ * runs and comparing the resolutions. Usage:
+ *
+ * <pre>
+ * java org.nuxeo.connect.packages.dependencies.CUDFReplay [-runs N] [-resolvers p2cudf,sat,legacy] file...
+ * </pre>
+ *
+ * @since 1.7.6
+ */
+public class CUDFReplay {
+
+    protected final List<String> resolverTypes;
+
+    protected final int runs;
+
+    /**
+     * @param resolverTypes the resolver types to replay with, the first one being the reference of the comparison
+     * @param runs the number of resolutions per resolver type
+     */
+    public CUDFReplay(List<String> resolverTypes, int runs) {
+        if (resolverTypes.isEmpty() || runs < 1) {
+            throw new IllegalArgumentException("At least one resolver type and one run are expected");
+        }
+        this.resolverTypes = resolverTypes;
+        this.runs = runs;
+    }
+
+    /**
+     * Outcome of the replay of a dump with one resolver type.
+     */
+    public static class Result {
+
+        protected final String resolverType;
+
+        protected final List<Long> durations = new ArrayList<>();
+
+        protected DependencyResolution resolution;
+
+        protected DependencyException error;
+
+        public Result(String resolverType) {
+            this.resolverType = resolverType;
+        }
+
+        public String getResolverType() {
+            return resolverType;
+        }
+
+        /**
+         * @return the duration of each run, in nanoseconds
+         */
+        public List<Long> getDurations() {
+            return durations;
+        }
+
+        /**
+         * @return the resolution of the last run, null if it failed with an error
+         */
+        public DependencyResolution getResolution() {
+            return resolution;
+        }
+
+        public DependencyException getError() {
+            return error;
+        }
+
+        /**
+         * @return the shortest run duration in milliseconds, the most stable figure to compare
+         */
+        public double getMinDuration() {
+            return durations.isEmpty() ? 0 : Collections.min(durations) / 1e6;
+        }
+
+        public double getAverageDuration() {
+            return durations.stream().mapToLong(Long::longValue).average().orElse(0) / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(resolverType);
+            sb.append(String.format(": min %.2f ms, avg %.2f ms over %s runs", getMinDuration(), getAverageDuration(),
+                    durations.size()));
+            if (error != null) {
+                sb.append(", error: ").append(error.getMessage());
+            } else {
+                sb.append(resolution.isFailed() ? ", failed" : ", resolved");
+                if (resolution.getMetrics() != null) {
+                    sb.append(", ").append(resolution.getMetrics());
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    public static CUDFDump read(File file) throws IOException, DependencyException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return CUDFDump.read(reader);
+        }
+    }
+
+    /**
+     * Returns a package manager over the packages of the dump only: the installed ones in a local source, the others in
+     * a remote one.
+     */
+    protected PackageManagerImpl newPackageManager(CUDFDump dump) {
+        List<DownloadablePackage> local = new ArrayList<>();
+        List<DownloadablePackage> remote = new ArrayList<>();
+        for (DownloadablePackage pkg : dump.getPackages().values()) {
+            if (pkg.getPackageState() == PackageState.REMOTE) {
+                remote.add(pkg);
+            } else {
+                local.add(pkg);
+            }
+        }
+        PackageManagerImpl pm = new PackageManagerImpl(dump.getTargetPlatform());
+        pm.resetSources();
+        pm.registerSource(new SnapshotPackageSource("replay-local", local), true);
+        pm.registerSource(new SnapshotPackageSource("replay-remote", remote), false);
+        return pm;
+    }
+
+    /**
+     * @return the results, in the order of the resolver types
+     */
+    public List<Result> replay(CUDFDump dump) {
+        PackageManagerImpl pm = newPackageManager(dump);
+        List<Result> results = new ArrayList<>();
+        for (String resolverType : resolverTypes) {
+            pm.setResolver(resolverType);
+            DependencyResolver resolver = pm.getResolver();
+            if (resolver instanceof P2CUDFDependencyResolver) {
+                // do not capture the replayed requests
+                ((P2CUDFDependencyResolver) resolver).setDumpDirectory(null);
+            }
+            Result result = new Result(resolverType);
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                try {
+                    result.resolution = resolver.resolve(dump.getInstall(), dump.getRemove(), dump.getUpgrade(),
+                            dump.getTargetPlatform(), dump.isAllowSNAPSHOT(), dump.isKeep(), dump.getSolverCriteria(),
+                            false);
+                } catch (DependencyException e) {
+                    result.resolution = null;
+                    result.error = e;
+                    break;
+                } finally {
+                    result.durations.add(System.nanoTime() - start);
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Compares each result to the first one.
+     *
+     * @return the differences, empty if all the resolver types agree on the failure and on the packages to install and
+     *         to remove
+     */
+    public static List<String> compare(List<Result> results) {
+        List<String> differences = new ArrayList<>();
+        Result reference = results.get(0);
+        for (Result result : results.subList(1, results.size())) {
+            String prefix = result.resolverType + " vs " + reference.resolverType + ": ";
+            if ((reference.error == null) != (result.error == null)) {
+                differences.add(prefix + "error " + (result.error != null) + " vs " + (reference.error != null));
+                continue;
+            }
+            if (reference.error != null) {
+                continue;
+            }
+            if (reference.resolution.isFailed() != result.resolution.isFailed()) {
+                differences.add(prefix + "failed " + result.resolution.isFailed() + " vs "
+                        + reference.resolution.isFailed());
+                continue;
+            }
+            if (reference.resolution.isFailed()) {
+                continue;
+            }
+            List<String> install = sorted(result.resolution.getOrderedPackageIdsToInstall());
+            List<String> referenceInstall = sorted(reference.resolution.getOrderedPackageIdsToInstall());
+            if (!install.equals(referenceInstall)) {
+                differences.add(prefix + "install " + install + " vs " + referenceInstall);
+            }
+            List<String> remove = sorted(result.resolution.getRemovePackageIds());
+            List<String> referenceRemove = sorted(reference.resolution.getRemovePackageIds());
+            if (!remove.equals(referenceRemove)) {
+                differences.add(prefix + "remove " + remove + " vs " + referenceRemove);
+            }
+        }
+        return differences;
+    }
+
+    protected static List<String> sorted(List<String> ids) {
+        List<String> list = new ArrayList<>(ids);
+        Collections.sort(list);
+        return list;
+    }
+
+    public static void main(String[] args) throws IOException, DependencyException {
+        int runs = 5;
+        List<String> resolverTypes = Arrays.asList(PackageManager.P2CUDF_DEPENDENCY_RESOLVER,
+                PackageManager.SAT_DEPENDENCY_RESOLVER);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-runs".equals(args[i]) && i + 1 < args.length) {
+                runs = Integer.parseInt(args[++i]);
+            } else if ("-resolvers".equals(args[i]) && i + 1 < args.length) {
+                resolverTypes = Arrays.asList(args[++i].split(","));
+            } else {
+                files.add(new File(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: CUDFReplay [-runs N] [-resolvers p2cudf,sat,legacy] file...");
+            System.exit(1);
+        }
+        CUDFReplay replay = new CUDFReplay(resolverTypes, runs);
+        for (File file : files) {
+            CUDFDump dump = read(file);
+            System.out.println(file + ": install " + dump.getInstall() + ", remove " + dump.getRemove() + ", upgrade "
+                    + dump.getUpgrade() + ", " + dump.getPackages().size() + " packages");
+            List<Result> results = replay.replay(dump);
+            for (Result result : results) {
+                System.out.println("  " + result);
+            }
+            for (String difference : compare(results)) {
+                System.out.println("  DIFF " + difference);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.update.PackageDependency;
+import org.nuxeo.connect.update.PackageType;
+
+/**
+ * Long-lived model of the packages a {@link CUDFHelper} builds its CUDF universe from, so that each resolution only
+ * walks the packages involved by its request instead of the whole catalog.
+ * <p>
+ * The universe is refreshed with {@link #update(Collection, Object)}: only the packages which were added, removed or
+ * whose state or metadata changed since the previous update are (re)indexed. It maintains the packages by name and by
+ * type, the packages providing a given name, the installed packages, and caches the target platform compatibility of
+ * each package and the {@link PackageGraph dependency graph}. Packages are kept sorted by id, so that the CUDF
+ * universe and the ties broken by the solver do not depend on hash ordering.
+ * <p>
+ * Readers must hold the universe monitor for the duration of a consistent read.
+ *
+ * @since 1.7.6
+ */
+public class CUDFUniverse {
+
+    protected static class UniverseEntry {
+
+        protected DownloadablePackage pkg;
+
+        /**
+         * {@link CUDFUniverse#hashDescriptor(DownloadablePackage) Descriptor hash} of the indexed package
+         */
+        protected final long hash;
+
+        /**
+         * Target platform => compatibility
+         */
+        protected final Map<String, Boolean> compatibility = new HashMap<>();
+
+        protected UniverseEntry(DownloadablePackage pkg, long hash) {
+            this.pkg = pkg;
+            this.hash = hash;
+        }
+    }
+
+    protected final Map<String, UniverseEntry> entries = new TreeMap<>();
+
+    protected final Map<String, Set<String>> idsByName = new HashMap<>();
+
+    /**
+     * Provided name => ids of the packages providing it
+     */
+    protected final Map<String, Set<String>> providerIds = new HashMap<>();
+
+    protected final Set<String> installedIds = new TreeSet<>();
+
+    protected final Map<PackageType, Set<String>> idsByType = new EnumMap<>(PackageType.class);
+
+    protected Object version;
+
+    protected PackageGraph graph;
+
+    /**
+     * @return a hash of the id, state and resolution metadata of the given package: type, locality, target platforms,
+     *         dependencies, optional dependencies, conflicts and provides
+     */
+    public static long hashDescriptor(DownloadablePackage pkg) {
+        long hash = pkg.getId().hashCode();
+        hash = 31 * hash + pkg.getPackageState().getValue();
+        hash = 31 * hash + Objects.hashCode(pkg.getType());
+        hash = 31 * hash + Boolean.hashCode(pkg.isLocal());
+        hash = 31 * hash + Arrays.hashCode(pkg.getTargetPlatforms());
+        hash = 31 * hash + Arrays.hashCode(pkg.getDependencies());
+        hash = 31 * hash + Arrays.hashCode(pkg.getOptionalDependencies());
+        hash = 31 * hash + Arrays.hashCode(pkg.getConflicts());
+        hash = 31 * hash + Arrays.hashCode(pkg.getProvides());
+        return hash;
+    }
+
+    /**
+     * @return whether the universe was last updated with the given version
+     */
+    public synchronized boolean isUpToDate(Object version) {
+        return version != null && version.equals(this.version);
+    }
+
+    /**
+     * Synchronizes the universe with the given packages.
+     *
+     * @param version an opaque version of the given packages, to be checked with {@link #isUpToDate(Object)}
+     * @return true if the universe content changed
+     */
+    public synchronized boolean update(Collection<DownloadablePackage> packages, Object version) {
+        this.version = version;
+        boolean changed = false;
+        Map<String, DownloadablePackage> packagesById = new HashMap<>();
+        for (DownloadablePackage pkg : packages) {
+            packagesById.put(pkg.getId(), pkg);
+        }
+        for (Iterator<Entry<String, UniverseEntry>> it = entries.entrySet().iterator(); it.hasNext();) {
+            Entry<String, UniverseEntry> entry = it.next();
+            if (!packagesById.containsKey(entry.getKey())) {
+                unindex(entry.getValue().pkg);
+                it.remove();
+                changed = true;
+            }
+        }
+        for (DownloadablePackage pkg : packagesById.values()) {
+            UniverseEntry entry = entries.get(pkg.getId());
+            long hash = hashDescriptor(pkg);
+            if (entry != null && entry.hash == hash) {
+                // same state and metadata, only keep the latest instance
+                entry.pkg = pkg;
+                continue;
+            }
+            if (entry != null) {
+                // the indexed provides, state or type may have changed, and the cached compatibility with them
+                unindex(entry.pkg);
+            }
+            entries.put(pkg.getId(), new UniverseEntry(pkg, hash));
+            index(pkg);
+            changed = true;
+        }
+        if (changed) {
+            graph = null;
+        }
+        return changed;
+    }
+
+    /**
+     * @return the dependency graph of the packages of this universe, built once per change
+     */
+    public synchronized PackageGraph getGraph() {
+        if (graph == null) {
+            List<DownloadablePackage> packages = new ArrayList<>(entries.size());
+            for (UniverseEntry entry : entries.values()) {
+                packages.add(entry.pkg);
+            }
+            graph = new PackageGraph(packages);
+        }
+        return graph;
+    }
+
+    protected void index(DownloadablePackage pkg) {
+        idsByName.computeIfAbsent(pkg.getName(), k -> new TreeSet<>()).add(pkg.getId());
+        for (PackageDependency provide : pkg.getProvides()) {
+            providerIds.computeIfAbsent(provide.getName(), k -> new TreeSet<>()).add(pkg.getId());
+        }
+        if (pkg.getPackageState().isInstalled()) {
+            installedIds.add(pkg.getId());
+        }
+        if (pkg.getType() != null) {
+            idsByType.computeIfAbsent(pkg.getType(), k -> new TreeSet<>()).add(pkg.getId());
+        }
+    }
+
+    protected void unindex(DownloadablePackage pkg) {
+        remove(idsByName, pkg.getName(), pkg.getId());
+        for (PackageDependency provide : pkg.getProvides()) {
+            remove(providerIds, provide.getName(), pkg.getId());
+        }
+        installedIds.remove(pkg.getId());
+        Set<String> ids = idsByType.get(pkg.getType());
+        if (ids != null) {
+            ids.remove(pkg.getId());
+        }
+    }
+
+    protected static void remove(Map<String, Set<String>> index, String key, String pkgId) {
+        Set<String> ids = index.get(key);
+        if (ids != null && ids.remove(pkgId) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the packages with the given name, an empty list if none
+     */
+    public synchronized List<DownloadablePackage> getPackages(String name) {
+        return getPackages(idsByName.get(name));
+    }
+
+    /**
+     * @return the packages of the given type, an empty list if none
+     * @since 1.7.6
+     */
+    public synchronized List<DownloadablePackage> getPackages(PackageType type) {
+        return getPackages(idsByType.get(type));
+    }
+
+    /**
+     * @return the packages providing the given name, an empty list if none
+     */
+    public synchronized List<DownloadablePackage> getProviders(String name) {
+        return getPackages(providerIds.get(name));
+    }
+
+    protected List<DownloadablePackage> getPackages(Collection<String> ids) {
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<DownloadablePackage> packages = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            packages.add(entries.get(id).pkg);
+        }
+        return packages;
+    }
+
+    /**
+     * @return the names of the installed packages
+     */
+    public synchronized Set<String> getInstalledNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (String id : installedIds) {
+            names.add(entries.get(id).pkg.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the names of the installed SNAPSHOT packages
+     */
+    public synchronized List<String> getInstalledSnapshotNames() {
+        List<String> names = new ArrayList<>();
+        for (String id : installedIds) {
+            DownloadablePackage pkg = entries.get(id).pkg;
+            if (pkg.getVersion().isSnapshot()) {
+                names.add(pkg.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Cached {@link TargetPlatformFilterHelper#isCompatibleWithTargetPlatform(org.nuxeo.connect.update.Package, String)}
+     */
+    public synchronized boolean isCompatibleWithTargetPlatform(DownloadablePackage pkg, String targetPlatform) {
+        UniverseEntry entry = entries.get(pkg.getId());
+        if (entry == null || entry.pkg != pkg) {
+            return TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(pkg, targetPlatform);
+        }
+        return entry.compatibility.computeIfAbsent(StringUtils.defaultString(targetPlatform),
+                k -> TargetPlatformFilterHelper.isCompatibleWithTargetPlatform(pkg, targetPlatform));
+    }
+
+}
@@ -38,6 +38,7 @@ import org.apache.commons.logging.LogFactory;
 import org.nuxeo.connect.data.DownloadablePackage;
 import org.nuxeo.connect.packages.PackageManager;
 import org.nuxeo.connect.update.Package;
+import org.nuxeo.connect.update.PackageId;
 import org.nuxeo.connect.update.PackageState;
 import org.nuxeo.connect.update.Version;
 
@@ -55,6 +56,16 @@ public class DependencyResolution {
 
     protected boolean sorted = false;
 
+    /**
+     * @since 1.7.6
+     */
+    protected boolean optimal = true;
+
+    /**
+     * @since 1.7.6
+     */
+    protected ResolutionMetrics metrics;
+
     protected String failedMessage;
 
     protected Map<String, Version> allPackages = new HashMap<>();
@@ -93,6 +104,34 @@ public class DependencyResolution {
         markAsFailed(ex.getMessage());
     }
 
+    /**
+     * Copy constructor: the returned resolution can be sorted or altered without affecting the given one.
+     *
+     * @since 1.7.6
+     */
+    public DependencyResolution(DependencyResolution other) {
+        synchronized (other) {
+            resolution = other.resolution;
+            sorted = other.sorted;
+            optimal = other.optimal;
+            metrics = other.metrics == null ? null : new ResolutionMetrics(other.metrics);
+            failedMessage = other.failedMessage;
+            allPackages.putAll(other.allPackages);
+            newPackagesToDownload.putAll(other.newPackagesToDownload);
+            localPackagesToInstall.putAll(other.localPackagesToInstall);
+            localPackagesToUpgrade.putAll(other.localPackagesToUpgrade);
+            localPackagesToRemove.putAll(other.localPackagesToRemove);
+            localUnchangedPackages.putAll(other.localUnchangedPackages);
+            orderedInstallablePackages.addAll(other.orderedInstallablePackages);
+            orderedRemovablePackages.addAll(other.orderedRemovablePackages);
+            allPackagesToDownload.addAll(other.allPackagesToDownload);
+            other.reinstallForNewlyInstalledOptionals.forEach(
+                    (k, v) -> reinstallForNewlyInstalledOptionals.put(k, new HashSet<>(v)));
+            other.reinstallForNewlyRemovedOptionals.forEach(
+                    (k, v) -> reinstallForNewlyRemovedOptionals.put(k, new HashSet<>(v)));
+        }
+    }
+
     /**
      * @deprecated Since 1.4, use {@link #markAsFailed(String)} instead
      */
@@ -122,6 +161,37 @@ public class DependencyResolution {
         return resolution;
     }
 
+    /**
+     * @since 1.7.6
+     * @return false if the solver was stopped before proving this resolution is the best one
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public void setOptimal(boolean optimal) {
+        this.optimal = optimal;
+    }
+
+    /**
+     * @return the durations of the phases and the sizes of this resolution, or null if it was not computed by a
+     *         resolver
+     * @since 1.7.6
+     */
+    public ResolutionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public void setMetrics(ResolutionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public boolean isFailed() {
         if (resolution == null) {
             return false;
@@ -137,10 +207,11 @@ public class DependencyResolution {
         if (!allPackages.containsKey(pkgName)) { // Add package
             log.debug("addPackage " + pkgName + " " + v);
             allPackages.put(pkgName, v);
+            String id = PackageId.of(pkgName, v).toString();
             if (fifo) {
-                orderedInstallablePackages.add(pkgName + "-" + v.toString());
+                orderedInstallablePackages.add(id);
             } else {
-                orderedInstallablePackages.add(0, pkgName + "-" + v.toString());
+                orderedInstallablePackages.add(0, id);
             }
         } else if (!allPackages.get(pkgName).equals(v)) { // Version conflict
             markAsFailed("addPackage conflict " + pkgName + " " + v + " with " + allPackages.get(pkgName));
@@ -173,10 +244,11 @@ public class DependencyResolution {
     public synchronized void markPackageForRemoval(String pkgName, Version v, boolean fifo) {
         log.debug("markPackageForRemoval " + pkgName + " " + v);
         localPackagesToRemove.put(pkgName, v);
+        PackageId id = PackageId.of(pkgName, v);
         if (fifo) {
-            orderedRemovablePackages.add(pkgName + "-" + v.toString());
+            orderedRemovablePackages.add(id.toString());
         } else {
-            orderedRemovablePackages.add(0, pkgName + "-" + v.toString());
+            orderedRemovablePackages.add(0, id.toString());
         }
     }
 
@@ -186,11 +258,13 @@ public class DependencyResolution {
         localPackagesToInstall.clear();
         localUnchangedPackages.clear();
         allPackagesToDownload.clear();
-        for (String pkgName : allPackages.keySet()) {
-            String id = pkgName + "-" + allPackages.get(pkgName).toString();
-            DownloadablePackage pkg = pm.findPackageById(id);
+        // the removal list may have been changed by the callers
+        Set<String> removablePackageIds = new HashSet<>(orderedRemovablePackages);
+        for (Entry<String, Version> entry : allPackages.entrySet()) {
+            PackageId id = PackageId.of(entry.getKey(), entry.getValue());
+            DownloadablePackage pkg = pm.findPackageById(id.toString());
             List<Version> installedVersions = pm.findLocalPackageInstalledVersions(pkg.getName());
-            if (pkg.getPackageState().isInstalled() && !orderedRemovablePackages.contains(id)) {
+            if (pkg.getPackageState().isInstalled() && !removablePackageIds.contains(id.toString())) {
                 // Already installed in the wanted version and not to be removed, nothing to do
                 localUnchangedPackages.put(pkg.getName(), pkg.getVersion());
             } else {
@@ -201,7 +275,7 @@ public class DependencyResolution {
                 if (pkg.getPackageState() == PackageState.REMOTE) {
                     // Needs to be download
                     newPackagesToDownload.put(pkg.getName(), pkg.getVersion());
-                    allPackagesToDownload.add(id);
+                    allPackagesToDownload.add(id.toString());
                 } else {
                     // Already in local cache
                     localPackagesToInstall.put(pkg.getName(), pkg.getVersion());
@@ -239,7 +313,7 @@ public class DependencyResolution {
     public List<String> getUnchangedPackageIds() {
         List<String> res = new ArrayList<>();
         for (Entry<String, Version> entry : getLocalUnchangedPackages().entrySet()) {
-            res.add(entry.getKey() + "-" + entry.getValue().toString());
+            res.add(PackageId.of(entry.getKey(), entry.getValue()).toString());
         }
         Collections.sort(res);
         return res;
@@ -248,7 +322,7 @@ public class DependencyResolution {
     public List<String> getUpgradePackageIds() {
         List<String> res = new ArrayList<>();
         for (Entry<String, Version> entry : getLocalPackagesToUpgrade().entrySet()) {
-            res.add(entry.getKey() + "-" + entry.getValue().toString());
+            res.add(PackageId.of(entry.getKey(), entry.getValue()).toString());
         }
         Collections.sort(res);
         return res;
@@ -257,10 +331,10 @@ public class DependencyResolution {
     public List<String> getInstallPackageIds() {
         List<String> res = new ArrayList<>();
         for (Entry<String, Version> entry : getLocalPackagesToInstall().entrySet()) {
-            res.add(entry.getKey() + "-" + entry.getValue().toString());
+            res.add(PackageId.of(entry.getKey(), entry.getValue()).toString());
         }
         for (Entry<String, Version> entry : getNewPackagesToDownload().entrySet()) {
-            res.add(entry.getKey() + "-" + entry.getValue().toString());
+            res.add(PackageId.of(entry.getKey(), entry.getValue()).toString());
         }
         Collections.sort(res);
         return res;
@@ -286,7 +360,7 @@ public class DependencyResolution {
     public List<String> getRemovePackageIds() {
         List<String> res = new ArrayList<>();
         for (Entry<String, Version> entry : getLocalPackagesToRemove().entrySet()) {
-            res.add(entry.getKey() + "-" + entry.getValue().toString());
+            res.add(PackageId.of(entry.getKey(), entry.getValue()).toString());
         }
         Collections.sort(res);
         return res;
@@ -309,7 +383,7 @@ public class DependencyResolution {
     public List<String> getLocalToInstallIds() {
         List<String> res = new ArrayList<>();
         for (Entry<String, Version> entry : getLocalPackagesToInstall().entrySet()) {
-            res.add(entry.getKey() + "-" + entry.getValue().toString());
+            res.add(PackageId.of(entry.getKey(), entry.getValue()).toString());
         }
         Collections.sort(res);
         return res;
@@ -57,6 +57,13 @@ public class DependencySet {
         deps.put(pkgName, v);
     }
 
+    /**
+     * @since 1.7.6
+     */
+    public void unset(String pkgName) {
+        deps.remove(pkgName);
+    }
+
     public Version getTargetVersion(String pkgName) {
         return deps.get(pkgName);
     }
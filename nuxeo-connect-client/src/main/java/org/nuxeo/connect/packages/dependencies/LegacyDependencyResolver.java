@@ -21,10 +21,16 @@
 
 package org.nuxeo.connect.packages.dependencies;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.connect.NuxeoConnectClient;
 import org.nuxeo.connect.packages.PackageManager;
 import org.nuxeo.connect.update.Package;
 import org.nuxeo.connect.update.PackageDependency;
@@ -41,6 +47,14 @@ import org.nuxeo.connect.update.Version;
 @Deprecated
 public class LegacyDependencyResolver implements DependencyResolver {
 
+    /**
+     * Maximum number of partial dependency sets visited before giving up, see
+     * {@link RecursiveDependencyResolver#DEFAULT_MAX_NODES}.
+     *
+     * @since 1.7.6
+     */
+    public static final String MAX_NODES_PROPERTY = "org.nuxeo.connect.client.legacyResolver.maxNodes";
+
     protected PackageManager pm;
 
     protected static Log log = LogFactory.getLog(LegacyDependencyResolver.class);
@@ -65,14 +79,36 @@ public class LegacyDependencyResolver implements DependencyResolver {
         log.debug(choices.toString());
 
         // try to resolve
+        choices.setMaxNodes(getMaxNodes());
         DependencyResolution res = choices.tryResolve();
         if (res != null) {
             res.sort(pm);
             return res;
         }
+        if (choices.isBudgetExhausted()) {
+            throw new DependencyException(String.format(
+                    "Unable to resolve dependencies of %s within %s dependency sets (see %s)", pkgId,
+                    choices.getMaxNodes(), MAX_NODES_PROPERTY));
+        }
         throw new DependencyException("Unable to resolve dependencies");
     }
 
+    /**
+     * @since 1.7.6
+     */
+    protected int getMaxNodes() {
+        String maxNodes = NuxeoConnectClient.getProperty(MAX_NODES_PROPERTY, null);
+        if (maxNodes != null) {
+            try {
+                return Integer.parseInt(maxNodes.trim());
+            } catch (NumberFormatException e) {
+                log.warn(String.format("Invalid %s: %s, using %s", MAX_NODES_PROPERTY, maxNodes,
+                        RecursiveDependencyResolver.DEFAULT_MAX_NODES));
+            }
+        }
+        return RecursiveDependencyResolver.DEFAULT_MAX_NODES;
+    }
+
     /**
      * @since 1.4
      * @see DependencyResolver#resolve(List, List, List, String)
@@ -90,18 +126,50 @@ public class LegacyDependencyResolver implements DependencyResolver {
             throws DependencyException {
         RecursiveDependencyResolver dc = new RecursiveDependencyResolver(pkgId, pm, targetPlatform);
         String path = "/" + pkgId;
-        recurseOnAvailableChoices(pkgId, targetPlatform, dc, path);
+        recurseOnAvailableChoices(pkgId, targetPlatform, dc, path, new HashMap<>(), new HashMap<>());
         return dc;
     }
 
+    /**
+     * @deprecated Since 1.7.6. Use
+     *             {@link #recurseOnAvailableChoices(String, String, RecursiveDependencyResolver, String, Map, Map)}
+     */
+    @Deprecated
     protected void recurseOnAvailableChoices(String pkgId, String targetPlatform, RecursiveDependencyResolver dc,
             String path) throws DependencyException {
+        recurseOnAvailableChoices(pkgId, targetPlatform, dc, path, new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * Walks the dependency tree of the given package. A package already walked from another path is not walked again:
+     * its choices are already added and only the loop detection has to be done, against the names it reaches.
+     *
+     * @param expanded the names of the dependencies reached by the packages already walked, by id
+     * @param availableVersions the available versions by dependency
+     * @return the names of the dependencies reached by the given package
+     * @since 1.7.6
+     */
+    protected Set<String> recurseOnAvailableChoices(String pkgId, String targetPlatform,
+            RecursiveDependencyResolver dc, String path, Map<String, Set<String>> expanded,
+            Map<String, List<Version>> availableVersions) throws DependencyException {
+        Set<String> reached = expanded.get(pkgId);
+        if (reached != null) {
+            for (String name : reached) {
+                if (path.contains("/" + name + "/")) {
+                    throw new DependencyException(String.format(
+                            "Detected loop in dependencies: pkg=%s,dep=%s,path=%s'", pkgId, name, path));
+                }
+            }
+            return reached;
+        }
         Package pkg = pm.findPackageById(pkgId);
         if (pkg == null) {
             throw new DependencyException("Unable to find package " + pkgId);
         }
+        reached = new HashSet<>();
         for (PackageDependency dep : pkg.getDependencies()) {
-            List<Version> versions = pm.getAvailableVersion(dep.getName(), dep.getVersionRange(), targetPlatform);
+            List<Version> versions = availableVersions.computeIfAbsent(dep.toString(),
+                    k -> pm.getAvailableVersion(dep.getName(), dep.getVersionRange(), targetPlatform));
             if (versions.size() == 0) {
                 throw new DependencyException("Unable to find a compatible version for package " + dep.getName() + " ("
                         + dep.getVersionRange().toString() + ")");
@@ -110,12 +178,16 @@ public class LegacyDependencyResolver implements DependencyResolver {
                 throw new DependencyException(String.format("Detected loop in dependencies: pkg=%s,dep=%s,path=%s'",
                         pkgId, dep.getName(), path));
             }
-            dc.addDep(dep.getName(), versions);
+            // the resolver keeps and sorts the given list
+            dc.addDep(dep.getName(), new ArrayList<>(versions));
+            reached.add(dep.getName());
             for (Version v : versions) {
-                recurseOnAvailableChoices(dep.getName() + "-" + v.toString(), targetPlatform, dc,
-                        path + dep.getName() + "/");
+                reached.addAll(recurseOnAvailableChoices(dep.getName() + "-" + v.toString(), targetPlatform, dc,
+                        path + dep.getName() + "/", expanded, availableVersions));
             }
         }
+        expanded.put(pkgId, reached);
+        return reached;
     }
 
     @Override
@@ -21,13 +21,38 @@
 
 package org.nuxeo.connect.packages.dependencies;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.equinox.p2.cudf.Parser;
@@ -36,8 +61,11 @@ import org.eclipse.equinox.p2.cudf.solver.ProfileChangeRequest;
 import org.eclipse.equinox.p2.cudf.solver.SimplePlanner;
 import org.eclipse.equinox.p2.cudf.solver.SolverConfiguration;
 
+import org.nuxeo.connect.NuxeoConnectClient;
 import org.nuxeo.connect.data.DownloadablePackage;
 import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.dependencies.CUDFHelper.CUDFConstraint;
+import org.nuxeo.connect.packages.dependencies.CUDFHelper.VersionMatchMappingPolicy;
 import org.nuxeo.connect.update.PackageDependency;
 import org.nuxeo.connect.update.Version;
 
@@ -50,6 +78,11 @@ import org.nuxeo.connect.update.Version;
  * <li>mp-upgrade -> {@link #SOLVER_CRITERIA_LESS_OUTDATED}</li>
  * <li>mp-set -> {@link #SOLVER_CRITERIA_LESS_OUTDATED_WITH_REMOVE}</li>
  * </ul>
+ * The solver runs in a dedicated thread and is stopped once the {@link #getSolverTimeBudget() time budget} is
+ * exhausted, the resolution is then built from the best solution found so far and flagged as not
+ * {@link DependencyResolution#isOptimal() optimal}. Interrupting the resolving thread stops the solver and fails the
+ * resolution with a {@link DependencyException}. Install requests which unit propagation decides are resolved without
+ * solver, see {@link #resolveByPropagation(CUDFHelper, PackageDependency[], boolean)}.
  *
  * @since 1.4
  */
@@ -83,10 +116,107 @@ public class P2CUDFDependencyResolver implements DependencyResolver {
      */
     public static final String SOLVER_CRITERIA_LESS_OUTDATED_WITH_REMOVE = "+removed,-notuptodate,-changed,-new,-versionchanged";
 
+    /**
+     * Property holding the default solver time budget, in milliseconds. 0 or less means no limit.
+     *
+     * @since 1.7.6
+     */
+    public static final String SOLVER_TIME_BUDGET_PROPERTY = "org.nuxeo.connect.client.solver.timeBudget";
+
+    /**
+     * Maximum time to wait for the solver to acknowledge a stop request, in milliseconds.
+     *
+     * @since 1.7.6
+     */
+    public static final long SOLVER_STOP_TIMEOUT_MS = 5000;
+
+    /**
+     * Property enabling the {@link #getPortfolio(String) portfolio} mode by default.
+     *
+     * @since 1.7.6
+     */
+    public static final String SOLVER_PORTFOLIO_PROPERTY = "org.nuxeo.connect.client.solver.portfolio";
+
+    /**
+     * Property disabling the {@link #resolveByPropagation(CUDFHelper, PackageDependency[], boolean) resolution without
+     * solver} of the install requests decided by unit propagation. Enabled by default.
+     *
+     * @since 1.7.6
+     */
+    public static final String FAST_PATH_PROPERTY = "org.nuxeo.connect.client.solver.fastPath";
+
+    /**
+     * Property holding the directory where a {@link CUDFDump} of each resolution request is written, for offline
+     * replay with {@link CUDFReplay}. Unset by default.
+     *
+     * @since 1.7.6
+     */
+    public static final String DUMP_DIRECTORY_PROPERTY = "org.nuxeo.connect.client.solver.dumpDirectory";
+
     protected static Log log = LogFactory.getLog(P2CUDFDependencyResolver.class);
 
+    protected static final AtomicInteger dumpNumber = new AtomicInteger();
+
+    protected static final AtomicInteger solverThreadNumber = new AtomicInteger();
+
+    /**
+     * Runs the solvers, one per processor but at least two so that a portfolio still races: the resolutions and
+     * portfolio members beyond are queued, their time budget starting once they run.
+     */
+    protected static final ExecutorService solverExecutor = newSolverExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
     protected PackageManager pm;
 
+    protected volatile long solverTimeBudget = getDefaultSolverTimeBudget();
+
+    protected volatile boolean portfolioEnabled = Boolean.parseBoolean(
+            NuxeoConnectClient.getProperty(SOLVER_PORTFOLIO_PROPERTY, "false"));
+
+    protected volatile boolean fastPathEnabled = Boolean.parseBoolean(
+            NuxeoConnectClient.getProperty(FAST_PATH_PROPERTY, "true"));
+
+    protected volatile File dumpDirectory = getDefaultDumpDirectory();
+
+    protected static ExecutorService newSolverExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "ConnectSolverThread-" + solverThreadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A solver configuration of a portfolio, with its planner.
+     *
+     * @since 1.7.6
+     */
+    protected static class PortfolioMember {
+
+        protected final String criteria;
+
+        protected final SimplePlanner planner;
+
+        protected Future<PortfolioMember> completion;
+
+        /** Set once the member left the {@link #solverExecutor} queue. */
+        protected volatile boolean started;
+
+        protected boolean optimal;
+
+        protected PortfolioMember(String criteria, SimplePlanner planner) {
+            this.criteria = criteria;
+            this.planner = planner;
+        }
+    }
+
+    /**
+     * @deprecated since 1.7.6, not thread safe: each resolution now uses its own {@link CUDFHelper}
+     */
+    @Deprecated
     protected CUDFHelper cudfHelper;
 
     protected P2CUDFDependencyResolver() {
@@ -96,6 +226,112 @@ public class P2CUDFDependencyResolver implements DependencyResolver {
         this.pm = pm;
     }
 
+    protected static long getDefaultSolverTimeBudget() {
+        String timeBudget = NuxeoConnectClient.getProperty(SOLVER_TIME_BUDGET_PROPERTY, null);
+        if (timeBudget != null) {
+            try {
+                return Long.parseLong(timeBudget.trim());
+            } catch (NumberFormatException e) {
+                log.warn(String.format("Invalid %s: %s, using no limit", SOLVER_TIME_BUDGET_PROPERTY, timeBudget));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the time after which the solver is stopped and its best solution so far is used, in milliseconds. 0 or
+     *         less means no limit.
+     * @since 1.7.6
+     */
+    public long getSolverTimeBudget() {
+        return solverTimeBudget;
+    }
+
+    /**
+     * @param solverTimeBudget time after which the solver is stopped and its best solution so far is used, in
+     *            milliseconds. 0 or less means no limit.
+     * @since 1.7.6
+     */
+    public void setSolverTimeBudget(long solverTimeBudget) {
+        this.solverTimeBudget = solverTimeBudget;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public boolean isPortfolioEnabled() {
+        return portfolioEnabled;
+    }
+
+    /**
+     * @param portfolioEnabled whether to solve each request with several concurrent solver configurations
+     * @since 1.7.6
+     * @see #getPortfolio(String)
+     */
+    public void setPortfolioEnabled(boolean portfolioEnabled) {
+        this.portfolioEnabled = portfolioEnabled;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    public boolean isFastPathEnabled() {
+        return fastPathEnabled;
+    }
+
+    /**
+     * @param fastPathEnabled whether to resolve without solver the install requests decided by unit propagation
+     * @since 1.7.6
+     * @see #resolveByPropagation(CUDFHelper, PackageDependency[], boolean)
+     */
+    public void setFastPathEnabled(boolean fastPathEnabled) {
+        this.fastPathEnabled = fastPathEnabled;
+    }
+
+    protected static File getDefaultDumpDirectory() {
+        String dumpDirectory = NuxeoConnectClient.getProperty(DUMP_DIRECTORY_PROPERTY, null);
+        return StringUtils.isBlank(dumpDirectory) ? null : new File(dumpDirectory);
+    }
+
+    /**
+     * @return the directory where the resolution requests are dumped, null if they are not
+     * @since 1.7.6
+     */
+    public File getDumpDirectory() {
+        return dumpDirectory;
+    }
+
+    /**
+     * @param dumpDirectory the directory where to write a {@link CUDFDump} of each resolution request, null to disable
+     *            the capture
+     * @since 1.7.6
+     */
+    public void setDumpDirectory(File dumpDirectory) {
+        this.dumpDirectory = dumpDirectory;
+    }
+
+    /**
+     * Returns the solver criteria to run concurrently for the given criteria, the given one first. In portfolio mode,
+     * the two leading criteria, which carry the intent of the request, are kept and the following ones are rotated.
+     *
+     * @return a singleton list of the given criteria if the portfolio mode is disabled
+     * @since 1.7.6
+     */
+    protected List<String> getPortfolio(String solverCriteria) {
+        List<String> portfolio = new ArrayList<>();
+        portfolio.add(solverCriteria);
+        String[] criteria = solverCriteria.split(",");
+        if (!portfolioEnabled || criteria.length < 4) {
+            return portfolio;
+        }
+        List<String> tail = new ArrayList<>(Arrays.asList(criteria).subList(2, criteria.length));
+        for (int i = 1; i < tail.size(); i++) {
+            Collections.rotate(tail, 1);
+            portfolio.add(criteria[0] + "," + criteria[1] + "," + String.join(",", tail));
+        }
+        return portfolio;
+    }
+
     @Override
     public DependencyResolution resolve(List<String> pkgInstall, List<String> pkgRemove, List<String> pkgUpgrade,
             String targetPlatform) throws DependencyException {
@@ -150,40 +386,31 @@ public class P2CUDFDependencyResolver implements DependencyResolver {
     public DependencyResolution resolve(List<String> pkgInstall, List<String> pkgRemove, List<String> pkgUpgrade,
             String targetPlatform, boolean allowSNAPSHOT, boolean doKeep, String solverCriteria,
             boolean isSubResolution) throws DependencyException {
-        cudfHelper = new CUDFHelper(pm);
+        CUDFHelper cudfHelper = new CUDFHelper(pm);
         cudfHelper.setTargetPlatform(targetPlatform);
         cudfHelper.setAllowSNAPSHOT(allowSNAPSHOT);
         cudfHelper.setKeep(doKeep);
-        // generate CUDF package universe and request stanza
-        String cudf = cudfHelper.getCUDFFile(str2PkgDep(pkgInstall), str2PkgDep(pkgRemove), str2PkgDep(pkgUpgrade));
-        log.debug("CUDF request:\n" + cudf);
-
-        // pass to p2cudf for solving
-        ProfileChangeRequest req = new Parser().parse(IOUtils.toInputStream(cudf));
-        SolverConfiguration configuration = new SolverConfiguration(solverCriteria);
-        // Upgrade + verbose + explain is unsupported
-        // verbose + explain changes results
-        // if (log.isTraceEnabled()) {
-        // configuration.verbose = true;
-        // configuration.explain = true;
-        // }
-        SimplePlanner planner = new SimplePlanner();
-        planner.getSolutionFor(req, configuration);
-        planner.stopSolver();
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            // Hazardous wait for the solver stop
+        PackageDependency[] installs = str2PkgDep(pkgInstall);
+        PackageDependency[] removes = str2PkgDep(pkgRemove);
+        PackageDependency[] upgrades = str2PkgDep(pkgUpgrade);
+        cudfHelper.initMapping(installs, removes, upgrades);
+        File directory = dumpDirectory;
+        if (directory != null) {
+            dump(directory, cudfHelper, installs, removes, upgrades, solverCriteria);
         }
-        Collection<InstallableUnit> solution = planner.getBestSolutionFoundSoFar();
-        if (log.isTraceEnabled()) {
-            log.trace(planner.getExplanation());
+        DependencyResolution resolution = null;
+        if (fastPathEnabled && doKeep && removes.length == 0 && upgrades.length == 0
+                && SOLVER_CRITERIA_BASIC_INSTALL.equals(solverCriteria)) {
+            long start = System.nanoTime();
+            resolution = resolveByPropagation(cudfHelper, installs, isSubResolution);
+            if (resolution == null) {
+                cudfHelper.getMetrics().record(ResolutionMetrics.PROPAGATION, start);
+            }
         }
-        if (!planner.isSolutionOptimal()) {
-            log.warn("The solution found might not be optimal");
+        if (resolution == null) {
+            resolution = resolve(cudfHelper, installs, removes, upgrades, solverCriteria, isSubResolution);
         }
-        DependencyResolution resolution = cudfHelper.buildResolution(solution, planner.getSolutionDetails(),
-                isSubResolution);
+        boolean optimal = resolution.isOptimal();
         if (!doKeep) {
             // Make sub-resolution to remove all packages that are not part of
             // our target list
@@ -205,10 +432,374 @@ public class P2CUDFDependencyResolver implements DependencyResolver {
                 }
             }
             resolution = resolve(subInstall, subRemove, null, targetPlatform, allowSNAPSHOT, true);
+            resolution.setOptimal(resolution.isOptimal() && optimal);
+            resolution.getMetrics().add(cudfHelper.getMetrics());
+        }
+        resolution.getMetrics().setOptimal(resolution.isOptimal());
+        return resolution;
+    }
+
+    /**
+     * Resolves an install request without solver when unit propagation decides it: the installed packages are kept
+     * and every package to add is the only version satisfying the request or a dependency, or the latest version of
+     * its package when all the added ones are. The criteria of {@link #SOLVER_CRITERIA_BASIC_INSTALL} then select this
+     * solution.
+     *
+     * @param cudfHelper a helper whose mapping is initialized with the request
+     * @return the resolution, or null if the request involves a choice, a conflict, a "provides", a version change or
+     *         a removal, which are left to the solver
+     * @since 1.7.6
+     */
+    protected DependencyResolution resolveByPropagation(CUDFHelper cudfHelper, PackageDependency[] installs,
+            boolean isSubResolution) throws DependencyException {
+        long start = System.nanoTime();
+        Map<String, NuxeoCUDFPackage> selected = new HashMap<>();
+        Deque<NuxeoCUDFPackage> dependents = new ArrayDeque<>();
+        for (String cudfName : cudfHelper.nuxeo2CUDFMap.getNames()) {
+            for (NuxeoCUDFPackage pkg : cudfHelper.getCUDFPackages(cudfName).values()) {
+                if (pkg.getProvides().length > 0) {
+                    return null;
+                }
+                if (pkg.isInstalled()) {
+                    if (selected.put(cudfName, pkg) != null) {
+                        return null;
+                    }
+                    dependents.add(pkg);
+                }
+            }
+        }
+        Set<String> changed = new HashSet<>();
+        // whether a package was picked among several versions, whether a package is not in its latest version
+        boolean choice = false;
+        boolean outdated = false;
+        List<CUDFConstraint> constraints = cudfHelper.getCUDFConstraints(installs, true, true,
+                VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND);
+        while (true) {
+            for (CUDFConstraint constraint : constraints) {
+                NuxeoCUDFPackage pkg = selected.get(constraint.cudfName);
+                if (pkg == null) {
+                    List<NuxeoCUDFPackage> versions = new ArrayList<>(
+                            cudfHelper.getCUDFPackages(constraint.cudfName).values());
+                    int min = Math.max(constraint.minVersion, 1);
+                    int max = Math.min(constraint.maxVersion, versions.size());
+                    if (min > max) {
+                        return null;
+                    }
+                    // the latest matching version is the one preferred by the solver if the others are not forced
+                    pkg = versions.get(max - 1);
+                    choice |= min < max;
+                    outdated |= max < versions.size();
+                    if (choice && outdated) {
+                        return null;
+                    }
+                    selected.put(constraint.cudfName, pkg);
+                    changed.add(constraint.cudfName);
+                    dependents.add(pkg);
+                } else if (!constraint.matches(pkg.getCUDFVersion())) {
+                    return null;
+                }
+            }
+            if (dependents.isEmpty()) {
+                break;
+            }
+            constraints = cudfHelper.getCUDFConstraints(dependents.poll().getDependencies(), false, true,
+                    VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND);
+        }
+        for (NuxeoCUDFPackage pkg : selected.values()) {
+            for (CUDFConstraint conflict : cudfHelper.getCUDFConstraints(pkg.getConflicts(), false, false,
+                    VersionMatchMappingPolicy.NONE_WHEN_NOT_FOUND)) {
+                NuxeoCUDFPackage other = selected.get(conflict.cudfName);
+                if (other != null && other != pkg && conflict.matches(other.getCUDFVersion())) {
+                    return null;
+                }
+            }
+        }
+        log.debug("Resolved without solver");
+        cudfHelper.getMetrics().record(ResolutionMetrics.PROPAGATION, start);
+        return cudfHelper.buildResolution(selected.values(), Collections.emptySet(), changed, isSubResolution);
+    }
+
+    /**
+     * Solves the given request on the universe of the given helper, whose mapping is initialized with the request.
+     *
+     * @return the resolution, flagged as not {@link DependencyResolution#isOptimal() optimal} if the solver was stopped
+     *         before completion
+     * @since 1.7.6
+     */
+    protected DependencyResolution resolve(CUDFHelper cudfHelper, PackageDependency[] installs,
+            PackageDependency[] removes, PackageDependency[] upgrades, String solverCriteria, boolean isSubResolution)
+            throws DependencyException {
+        // generate CUDF package universe and request stanza and pass them to p2cudf for solving
+        ResolutionMetrics metrics = cudfHelper.getMetrics();
+        SimplePlanner planner;
+        boolean optimal;
+        List<String> portfolio = getPortfolio(solverCriteria);
+        if (portfolio.size() > 1) {
+            long start = System.nanoTime();
+            String request = cudfHelper.formatCUDFRequest(installs, removes, upgrades);
+            metrics.record(ResolutionMetrics.FORMAT_CUDF, start);
+            if (log.isDebugEnabled()) {
+                log.debug("CUDF request:\n" + cudfHelper.getCUDFFile() + request);
+            }
+            List<PortfolioMember> members = new ArrayList<>();
+            for (String criteria : portfolio) {
+                members.add(new PortfolioMember(criteria, new SimplePlanner()));
+            }
+            // the members parse concurrently, their parsing is part of the solving
+            long stopped = metrics.getDuration(ResolutionMetrics.STOP_SOLVER);
+            start = System.nanoTime();
+            PortfolioMember selected = solvePortfolio(cudfHelper, request, members);
+            metrics.add(ResolutionMetrics.SOLVE, System.nanoTime() - start
+                    - (metrics.getDuration(ResolutionMetrics.STOP_SOLVER) - stopped));
+            planner = selected.planner;
+            optimal = selected.optimal;
+        } else {
+            ProfileChangeRequest req;
+            long start = System.nanoTime();
+            String request = cudfHelper.formatCUDFRequest(installs, removes, upgrades);
+            metrics.record(ResolutionMetrics.FORMAT_CUDF, start);
+            if (log.isDebugEnabled()) {
+                log.debug("CUDF request:\n" + cudfHelper.getCUDFFile() + request);
+            }
+            // the universe is formatted while parsed
+            long formatted = metrics.getDuration(ResolutionMetrics.FORMAT_CUDF);
+            start = System.nanoTime();
+            try (InputStream cudf = cudfHelper.getCUDFStream(request)) {
+                req = new Parser().parse(cudf);
+            } catch (IOException e) {
+                throw new DependencyException("Cannot read CUDF request", e);
+            }
+            metrics.add(ResolutionMetrics.PARSE_CUDF, System.nanoTime() - start
+                    - (metrics.getDuration(ResolutionMetrics.FORMAT_CUDF) - formatted));
+            SolverConfiguration configuration = new SolverConfiguration(solverCriteria);
+            // Upgrade + verbose + explain is unsupported
+            // verbose + explain changes results
+            // if (log.isTraceEnabled()) {
+            // configuration.verbose = true;
+            // configuration.explain = true;
+            // }
+            planner = new SimplePlanner();
+            optimal = solve(planner, req, configuration, metrics);
+        }
+        Collection<InstallableUnit> solution = planner.getBestSolutionFoundSoFar();
+        if (log.isTraceEnabled()) {
+            log.trace(planner.getExplanation());
+        }
+        optimal &= planner.isSolutionOptimal();
+        if (!optimal) {
+            log.warn("The solution found might not be optimal");
         }
+        DependencyResolution resolution = cudfHelper.buildResolution(solution, planner.getSolutionDetails(),
+                isSubResolution);
+        resolution.setOptimal(optimal);
         return resolution;
     }
 
+    /**
+     * Runs the solver until it completes or until the {@link #getSolverTimeBudget() time budget} is exhausted, in
+     * which case it is stopped and its best solution so far is kept. The solver waits for a free solver thread, its
+     * time budget starting once it runs.
+     *
+     * @return false if the solver was stopped before completion
+     * @throws DependencyException if the resolving thread is interrupted or the solver fails
+     * @since 1.7.6
+     */
+    protected boolean solve(SimplePlanner planner, ProfileChangeRequest req, SolverConfiguration configuration,
+            ResolutionMetrics metrics) throws DependencyException {
+        // the planner returns once the solving is over
+        CountDownLatch started = new CountDownLatch(1);
+        Future<?> completion = solverExecutor.submit(() -> {
+            started.countDown();
+            planner.getSolutionFor(req, configuration);
+        });
+        try {
+            // the time budget starts once the solver is out of the queue
+            started.await();
+        } catch (InterruptedException e) {
+            completion.cancel(false);
+            stopSolver(planner, completion, metrics);
+            Thread.currentThread().interrupt();
+            throw new DependencyException("Dependency resolution interrupted", e);
+        }
+        long start = System.nanoTime();
+        long timeBudget = solverTimeBudget;
+        try {
+            if (timeBudget > 0) {
+                completion.get(timeBudget, TimeUnit.MILLISECONDS);
+            } else {
+                completion.get();
+            }
+            metrics.record(ResolutionMetrics.SOLVE, start);
+            return true;
+        } catch (TimeoutException e) {
+            metrics.record(ResolutionMetrics.SOLVE, start);
+            log.warn("Solver time budget of " + timeBudget + "ms exhausted, using the best solution found so far");
+            if (!stopSolver(planner, completion, metrics)) {
+                throw new DependencyException("Solver did not stop within " + SOLVER_STOP_TIMEOUT_MS + "ms");
+            }
+            return false;
+        } catch (InterruptedException e) {
+            stopSolver(planner, completion, metrics);
+            Thread.currentThread().interrupt();
+            throw new DependencyException("Dependency resolution interrupted", e);
+        } catch (ExecutionException e) {
+            throw new DependencyException("Dependency resolution failed", e.getCause());
+        }
+    }
+
+    /**
+     * Runs the given portfolio members concurrently, as far as the solver threads allow, on the mapped universe of the
+     * given helper. The first member completing with an optimal solution is selected and the others are stopped. When
+     * the {@link #getSolverTimeBudget() time budget}, starting once a member runs, is exhausted, or no member found an
+     * optimal solution, the first member which completed is selected, otherwise the first running member is stopped
+     * and selected with its best solution so far.
+     *
+     * @return the selected member, flagged as {@link PortfolioMember#optimal} if its solution is known to be optimal
+     * @throws DependencyException if the resolving thread is interrupted or all the members fail
+     * @since 1.7.6
+     */
+    protected PortfolioMember solvePortfolio(CUDFHelper cudfHelper, String request, List<PortfolioMember> members)
+            throws DependencyException {
+        ExecutorCompletionService<PortfolioMember> completionService = new ExecutorCompletionService<>(
+                solverExecutor);
+        CountDownLatch started = new CountDownLatch(1);
+        for (PortfolioMember member : members) {
+            member.completion = completionService.submit(() -> {
+                member.started = true;
+                started.countDown();
+                ProfileChangeRequest req;
+                try (InputStream cudf = cudfHelper.getCUDFStream(request)) {
+                    req = new Parser().parse(cudf);
+                }
+                member.planner.getSolutionFor(req, new SolverConfiguration(member.criteria));
+                return member;
+            });
+        }
+        PortfolioMember selected = null;
+        PortfolioMember completed = null;
+        Throwable failure = null;
+        try {
+            // the time budget starts once a member is out of the queue
+            started.await();
+            long timeBudget = solverTimeBudget;
+            long deadline = System.currentTimeMillis() + timeBudget;
+            for (int pending = members.size(); pending > 0 && selected == null; pending--) {
+                Future<PortfolioMember> completion;
+                if (timeBudget > 0) {
+                    completion = completionService.poll(deadline - System.currentTimeMillis(),
+                            TimeUnit.MILLISECONDS);
+                    if (completion == null) {
+                        log.warn("Solver time budget of " + timeBudget
+                                + "ms exhausted, using the best solution found so far");
+                        break;
+                    }
+                } else {
+                    completion = completionService.take();
+                }
+                try {
+                    PortfolioMember member = completion.get();
+                    if (member.planner.isSolutionOptimal()) {
+                        member.optimal = true;
+                        selected = member;
+                    } else if (completed == null) {
+                        completed = member;
+                    }
+                } catch (ExecutionException e) {
+                    log.debug("Solver failed", e.getCause());
+                    failure = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (PortfolioMember member : members) {
+                member.completion.cancel(false);
+                member.planner.stopSolver();
+            }
+            Thread.currentThread().interrupt();
+            throw new DependencyException("Dependency resolution interrupted", e);
+        }
+        if (selected == null) {
+            selected = completed;
+        }
+        for (int i = 0; selected == null && i < members.size(); i++) {
+            // the members still queued have no solution
+            if (members.get(i).started && !members.get(i).completion.isDone()) {
+                selected = members.get(i);
+                if (!stopSolver(selected.planner, selected.completion, cudfHelper.getMetrics())) {
+                    throw new DependencyException("Solver did not stop within " + SOLVER_STOP_TIMEOUT_MS + "ms");
+                }
+            }
+        }
+        for (PortfolioMember member : members) {
+            if (member != selected) {
+                member.completion.cancel(false);
+                member.planner.stopSolver();
+            }
+        }
+        if (selected == null) {
+            throw new DependencyException("Dependency resolution failed", failure);
+        }
+        log.debug("Selected solver criteria: " + selected.criteria);
+        return selected;
+    }
+
+    /**
+     * Requests the solver to stop and waits for it to release its best solution so far.
+     *
+     * @return false if the solver did not stop within {@link #SOLVER_STOP_TIMEOUT_MS}, in which case its solution must
+     *         not be read since it is still being updated
+     * @since 1.7.6
+     */
+    protected boolean stopSolver(SimplePlanner planner, Future<?> completion, ResolutionMetrics metrics) {
+        long start = System.nanoTime();
+        planner.stopSolver();
+        boolean interrupted = Thread.interrupted();
+        try {
+            completion.get(SOLVER_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            log.warn("Solver did not stop within " + SOLVER_STOP_TIMEOUT_MS + "ms");
+            return false;
+        } catch (InterruptedException e) {
+            interrupted = true;
+            return false;
+        } catch (ExecutionException e) {
+            log.debug("Solver failed while stopping", e.getCause());
+            return true;
+        } catch (CancellationException e) {
+            // removed from the queue before running
+            return true;
+        } finally {
+            metrics.record(ResolutionMetrics.STOP_SOLVER, start);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes a {@link CUDFDump} of the given request, whose mapping is initialized, in the given directory, typically
+     * the {@link #getDumpDirectory() dump directory}. Failures are only logged.
+     *
+     * @return the written file, null if it could not be written
+     * @since 1.7.6
+     */
+    protected File dump(File directory, CUDFHelper cudfHelper, PackageDependency[] installs,
+            PackageDependency[] removes, PackageDependency[] upgrades, String solverCriteria) {
+        File file = new File(directory, String.format("resolution-%tY%<tm%<td-%<tH%<tM%<tS-%d.cudf", new Date(),
+                dumpNumber.incrementAndGet()));
+        try {
+            Files.createDirectories(directory.toPath());
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                CUDFDump.write(cudfHelper, installs, removes, upgrades, solverCriteria, writer);
+            }
+            log.info("Dependency resolution request dumped to " + file);
+            return file;
+        } catch (IOException e) {
+            log.warn("Cannot dump dependency resolution request to " + file, e);
+            return null;
+        }
+    }
+
     private PackageDependency[] str2PkgDep(List<String> pkgList) {
         List<PackageDependency> list = new ArrayList<>();
         if (pkgList == null || pkgList.size() == 0) {
@@ -0,0 +1,321 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.update.PackageDependency;
+import org.nuxeo.connect.update.Version;
+
+/**
+ * Immutable dependency graph over a set of packages, with integer ids for packages and package names and CSR
+ * (compressed sparse row) adjacency arrays.
+ * <p>
+ * Edges go from a package to the names it references, by {@link #DEPENDS}, {@link #OPTIONAL_DEPENDS},
+ * {@link #CONFLICTS} or {@link #PROVIDES}, and are also indexed in reverse, from a name to the packages referencing
+ * it. Traversals combine edge kinds with a bit mask and walk names: reaching a name reaches all the packages having
+ * this name.
+ *
+ * @since 1.7.6
+ */
+public class PackageGraph {
+
+    public static final int DEPENDS = 1;
+
+    public static final int OPTIONAL_DEPENDS = 1 << 1;
+
+    public static final int CONFLICTS = 1 << 2;
+
+    public static final int PROVIDES = 1 << 3;
+
+    protected static final int KINDS = 4;
+
+    protected final DownloadablePackage[] packages;
+
+    protected final int[] packageNames;
+
+    protected final BitSet installed = new BitSet();
+
+    protected final String[] names;
+
+    protected final Map<String, Integer> nameIds = new HashMap<>();
+
+    /**
+     * name => packages, CSR
+     */
+    protected final int[] namePackageOffsets;
+
+    protected final int[] namePackages;
+
+    /**
+     * kind => package => names, CSR
+     */
+    protected final int[][] offsets = new int[KINDS][];
+
+    protected final int[][] targets = new int[KINDS][];
+
+    /**
+     * kind => edges whose version range refers to a SNAPSHOT version
+     */
+    protected final BitSet[] snapshotEdges = new BitSet[KINDS];
+
+    /**
+     * kind => name => packages, CSR
+     */
+    protected final int[][] reverseOffsets = new int[KINDS][];
+
+    protected final int[][] reverseSources = new int[KINDS][];
+
+    public PackageGraph(Collection<? extends DownloadablePackage> pkgs) {
+        packages = pkgs.toArray(new DownloadablePackage[pkgs.size()]);
+        packageNames = new int[packages.length];
+        List<String> nameList = new ArrayList<>();
+        for (int i = 0; i < packages.length; i++) {
+            packageNames[i] = nameId(packages[i].getName(), nameList);
+            if (packages[i].getPackageState().isInstalled()) {
+                installed.set(i);
+            }
+        }
+        // forward edges, which may reference names of missing packages
+        List<int[]> edgeTargets = new ArrayList<>(KINDS);
+        for (int kind = 0; kind < KINDS; kind++) {
+            int[] kindOffsets = new int[packages.length + 1];
+            int count = 0;
+            for (int i = 0; i < packages.length; i++) {
+                count += getDependencies(packages[i], kind).length;
+                kindOffsets[i + 1] = count;
+            }
+            int[] kindTargets = new int[count];
+            BitSet kindSnapshots = new BitSet();
+            for (int i = 0, edge = 0; i < packages.length; i++) {
+                for (PackageDependency dependency : getDependencies(packages[i], kind)) {
+                    if (isSnapshot(dependency)) {
+                        kindSnapshots.set(edge);
+                    }
+                    kindTargets[edge++] = nameId(dependency.getName(), nameList);
+                }
+            }
+            offsets[kind] = kindOffsets;
+            edgeTargets.add(kindTargets);
+            snapshotEdges[kind] = kindSnapshots;
+        }
+        names = nameList.toArray(new String[nameList.size()]);
+        for (int kind = 0; kind < KINDS; kind++) {
+            targets[kind] = edgeTargets.get(kind);
+        }
+        // name => packages
+        namePackageOffsets = new int[names.length + 1];
+        namePackages = new int[packages.length];
+        invert(packageNames, null, names.length, namePackageOffsets, namePackages);
+        // reverse edges
+        for (int kind = 0; kind < KINDS; kind++) {
+            reverseOffsets[kind] = new int[names.length + 1];
+            reverseSources[kind] = new int[targets[kind].length];
+            invert(targets[kind], offsets[kind], names.length, reverseOffsets[kind], reverseSources[kind]);
+        }
+    }
+
+    protected int nameId(String name, List<String> nameList) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = nameList.size();
+            nameIds.put(name, id);
+            nameList.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * Counting sort of the given edges by target.
+     *
+     * @param edgeTargets target of each edge
+     * @param sourceOffsets CSR offsets of the edges by source, or null if edge i comes from source i
+     */
+    protected static void invert(int[] edgeTargets, int[] sourceOffsets, int targetCount, int[] resultOffsets,
+            int[] resultSources) {
+        for (int target : edgeTargets) {
+            resultOffsets[target + 1]++;
+        }
+        for (int i = 0; i < targetCount; i++) {
+            resultOffsets[i + 1] += resultOffsets[i];
+        }
+        int[] next = new int[targetCount];
+        System.arraycopy(resultOffsets, 0, next, 0, targetCount);
+        int sourceCount = sourceOffsets == null ? edgeTargets.length : sourceOffsets.length - 1;
+        for (int source = 0; source < sourceCount; source++) {
+            int from = sourceOffsets == null ? source : sourceOffsets[source];
+            int to = sourceOffsets == null ? source + 1 : sourceOffsets[source + 1];
+            for (int edge = from; edge < to; edge++) {
+                resultSources[next[edgeTargets[edge]]++] = source;
+            }
+        }
+    }
+
+    protected static PackageDependency[] getDependencies(DownloadablePackage pkg, int kind) {
+        PackageDependency[] dependencies;
+        switch (kind) {
+        case 0:
+            dependencies = pkg.getDependencies();
+            break;
+        case 1:
+            dependencies = pkg.getOptionalDependencies();
+            break;
+        case 2:
+            dependencies = pkg.getConflicts();
+            break;
+        default:
+            dependencies = pkg.getProvides();
+        }
+        return dependencies == null ? new PackageDependency[0] : dependencies;
+    }
+
+    protected static boolean isSnapshot(PackageDependency dependency) {
+        Version minVersion = dependency.getVersionRange().getMinVersion();
+        Version maxVersion = dependency.getVersionRange().getMaxVersion();
+        return minVersion != null && minVersion.isSnapshot() || maxVersion != null && maxVersion.isSnapshot();
+    }
+
+    public int size() {
+        return packages.length;
+    }
+
+    /**
+     * @return whether a package of this graph has the given name
+     */
+    public boolean contains(String name) {
+        Integer id = nameIds.get(name);
+        return id != null && namePackageOffsets[id] < namePackageOffsets[id + 1];
+    }
+
+    /**
+     * Adds to the given names all the names transitively referenced by the packages having one of them, through the
+     * given kinds of edges.
+     *
+     * @param edgeKinds a combination of {@link #DEPENDS}, {@link #OPTIONAL_DEPENDS}, {@link #CONFLICTS} and
+     *            {@link #PROVIDES}
+     * @param snapshotNames if not null, receives the added names first reached through a dependency or a conflict
+     *            whose version range refers to a SNAPSHOT version
+     * @return the added names, in the order they were reached
+     */
+    public Set<String> addClosure(Set<String> names, int edgeKinds, Collection<String> snapshotNames) {
+        BitSet visited = new BitSet(this.names.length);
+        int[] queue = new int[this.names.length];
+        int head = 0;
+        int tail = 0;
+        for (String name : names) {
+            Integer id = nameIds.get(name);
+            if (id != null && !visited.get(id)) {
+                visited.set(id);
+                queue[tail++] = id;
+            }
+        }
+        Set<String> added = new LinkedHashSet<>();
+        while (head < tail) {
+            int name = queue[head++];
+            for (int p = namePackageOffsets[name]; p < namePackageOffsets[name + 1]; p++) {
+                int pkg = namePackages[p];
+                for (int kind = 0; kind < KINDS; kind++) {
+                    if ((edgeKinds & (1 << kind)) == 0) {
+                        continue;
+                    }
+                    for (int edge = offsets[kind][pkg]; edge < offsets[kind][pkg + 1]; edge++) {
+                        int target = targets[kind][edge];
+                        if (visited.get(target)) {
+                            continue;
+                        }
+                        visited.set(target);
+                        queue[tail++] = target;
+                        if (names.add(this.names[target])) {
+                            added.add(this.names[target]);
+                            if (snapshotNames != null && kind != 3 && snapshotEdges[kind].get(edge)) {
+                                snapshotNames.add(this.names[target]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @return the names transitively referencing one of the given names, through the given kinds of edges, excluding
+     *         the given names
+     * @param installedOnly whether to only walk through installed packages
+     */
+    public Set<String> getDependentNames(Collection<String> names, int edgeKinds, boolean installedOnly) {
+        BitSet visited = new BitSet(this.names.length);
+        int[] queue = new int[this.names.length];
+        int head = 0;
+        int tail = 0;
+        for (String name : names) {
+            Integer id = nameIds.get(name);
+            if (id != null && !visited.get(id)) {
+                visited.set(id);
+                queue[tail++] = id;
+            }
+        }
+        Set<String> dependents = new LinkedHashSet<>();
+        while (head < tail) {
+            int name = queue[head++];
+            for (int kind = 0; kind < KINDS; kind++) {
+                if ((edgeKinds & (1 << kind)) == 0) {
+                    continue;
+                }
+                for (int r = reverseOffsets[kind][name]; r < reverseOffsets[kind][name + 1]; r++) {
+                    int pkg = reverseSources[kind][r];
+                    int source = packageNames[pkg];
+                    if (visited.get(source) || installedOnly && !installed.get(pkg)) {
+                        continue;
+                    }
+                    visited.set(source);
+                    queue[tail++] = source;
+                    dependents.add(this.names[source]);
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * @return the packages having the given name
+     */
+    public List<DownloadablePackage> getPackages(String name) {
+        List<DownloadablePackage> result = new ArrayList<>();
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            for (int p = namePackageOffsets[id]; p < namePackageOffsets[id + 1]; p++) {
+                result.add(packages[namePackages[p]]);
+            }
+        }
+        return result;
+    }
+
+}
@@ -20,8 +20,10 @@ package org.nuxeo.connect.packages.dependencies;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.nuxeo.connect.data.DownloadablePackage;
 import org.nuxeo.connect.packages.PackageManager;
@@ -41,6 +43,10 @@ import org.nuxeo.connect.update.VersionRange;
  * The update checks is for now very limited because it does not re-run the
  * complete resolution system.
  *
+ * The sets are enumerated depth first: a partial set is pruned as soon as the
+ * packages it already reaches conflict, and the search stops after
+ * {@link #getMaxNodes()} partial sets.
+ *
  * @author <a href="mailto:td@nuxeo.com">Thierry Delprat</a>
  *
  */
@@ -64,6 +70,30 @@ public class RecursiveDependencyResolver {
 
     protected List<DownloadablePackage> installedPackages;
 
+    /**
+     * @since 1.7.6
+     */
+    public static final int DEFAULT_MAX_NODES = 100000;
+
+    /**
+     * @since 1.7.6
+     */
+    protected int maxNodes = DEFAULT_MAX_NODES;
+
+    /**
+     * Number of partial sets visited by the last {@link #tryResolve()}.
+     *
+     * @since 1.7.6
+     */
+    protected int nodes;
+
+    /**
+     * Looked up packages by id, including the missing ones.
+     *
+     * @since 1.7.6
+     */
+    protected Map<String, Package> packages = new HashMap<String, Package>();
+
     public RecursiveDependencyResolver(String packageId,
             PackageManager pm, String targetPlatform) {
         this.packageId = packageId;
@@ -86,14 +116,44 @@ public class RecursiveDependencyResolver {
         }
     }
 
+    /**
+     * @since 1.7.6
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @param maxNodes the maximum number of partial dependency sets to visit
+     *            before giving up
+     * @since 1.7.6
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @return true if the last {@link #tryResolve()} stopped because it
+     *         visited more than {@link #getMaxNodes()} partial sets
+     * @since 1.7.6
+     */
+    public boolean isBudgetExhausted() {
+        return nodes > maxNodes;
+    }
+
     public DependencyResolution tryResolve() {
         resolved = false;
-        for (String pkgName : deps.keySet()) {
+        nodes = 0;
+        if (!deps.isEmpty()) {
+            // starting from the first package enumerates all the sets, other
+            // starting points would only enumerate them again
+            String pkgName = deps.keySet().iterator().next();
+            DependencySet set = new DependencySet(deps.keySet());
             for (Version v : deps.get(pkgName)) {
-                DependencySet set = new DependencySet(deps.keySet());
-                if (!resolved) {
-                    buildDependencySet(set, pkgName, v);
+                if (resolved || isBudgetExhausted()) {
+                    break;
                 }
+                buildDependencySet(set, pkgName, v);
             }
         }
         if (resolved) {
@@ -109,14 +169,24 @@ public class RecursiveDependencyResolver {
         }
     }
 
+    /**
+     * Sets the given version and explores the remaining choices, then restores
+     * the set as it was.
+     */
     protected void buildDependencySet(DependencySet set, String packageName,
             Version v) {
+        if (++nodes > maxNodes) {
+            return;
+        }
         set.set(packageName, v);
-        if (!resolved) {
+        if (!resolved && !hasConflict(set)) {
             if (!set.isComplete()) {
                 String pkgName = set.getNextPackageName();
                 for (Version v2 : deps.get(pkgName)) {
-                    buildDependencySet(set.clone(), pkgName, v2);
+                    if (resolved || isBudgetExhausted()) {
+                        break;
+                    }
+                    buildDependencySet(set, pkgName, v2);
                 }
             } else {
                 resolution = resolve(set);
@@ -152,6 +222,101 @@ public class RecursiveDependencyResolver {
                 }
             }
         }
+        set.unset(packageName);
+    }
+
+    /**
+     * Walks the dependencies reachable from the requested package through the
+     * versions already set. Since a complete set reaches at least the same
+     * dependencies, {@link #resolve} would fail for any completion of the set
+     * if one of them doesn't match the version set, or if no candidate version
+     * of a package not set yet matches all of them.
+     *
+     * @since 1.7.6
+     */
+    protected boolean hasConflict(DependencySet set) {
+        Map<String, List<VersionRange>> pending = new HashMap<String, List<VersionRange>>();
+        if (hasConflict(getRootPackage(), set, new HashSet<String>(), pending)) {
+            return true;
+        }
+        for (String pkgName : pending.keySet()) {
+            List<Version> versions = deps.get(pkgName);
+            if (versions != null && !hasMatchingVersion(versions, pending.get(pkgName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param pending filled with the ranges required on the packages not set
+     *            yet
+     * @since 1.7.6
+     */
+    protected boolean hasConflict(Package pkg, DependencySet set,
+            Set<String> visited, Map<String, List<VersionRange>> pending) {
+        if (pkg == null || !visited.add(pkg.getId())) {
+            return false;
+        }
+        for (PackageDependency dep : pkg.getDependencies()) {
+            Version targetVersion = set.getTargetVersion(dep.getName());
+            if (targetVersion == null) {
+                List<VersionRange> ranges = pending.get(dep.getName());
+                if (ranges == null) {
+                    ranges = new ArrayList<VersionRange>();
+                    pending.put(dep.getName(), ranges);
+                }
+                ranges.add(dep.getVersionRange());
+            } else if (!dep.getVersionRange().matchVersion(targetVersion)
+                    || hasConflict(findPackage(dep.getName(), targetVersion),
+                            set, visited, pending)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    protected static boolean hasMatchingVersion(List<Version> versions,
+            List<VersionRange> ranges) {
+        for (Version v : versions) {
+            boolean match = true;
+            for (VersionRange range : ranges) {
+                if (!range.matchVersion(v)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    protected Package getRootPackage() {
+        if (!packages.containsKey(null)) {
+            packages.put(null, pm.getPackage(packageId));
+        }
+        return packages.get(null);
+    }
+
+    /**
+     * Memoized {@link PackageManager#findPackageById(String)}.
+     *
+     * @since 1.7.6
+     */
+    protected Package findPackage(String pkgName, Version v) {
+        String pkgId = pkgName + "-" + v.toString();
+        if (!packages.containsKey(pkgId)) {
+            packages.put(pkgId, pm.findPackageById(pkgId));
+        }
+        return packages.get(pkgId);
     }
 
     protected List<DownloadablePackage> getInstalledPackages() {
@@ -296,7 +461,8 @@ public class RecursiveDependencyResolver {
      */
     protected DependencyResolution resolve(String pkgId, DependencySet depSet) {
         DependencyResolution res = new DependencyResolution();
-        Package pkg = pm.getPackage(pkgId);
+        Package pkg = packageId.equals(pkgId) ? getRootPackage()
+                : pm.getPackage(pkgId);
         recurseResolve(pkg, res, depSet);
         if (!res.isFailed()) {
             res.markAsSuccess();
@@ -318,8 +484,7 @@ public class RecursiveDependencyResolver {
                     return;
                 }
             }
-            Package subPkg = pm.findPackageById(dep.getName() + "-"
-                    + targetVersion.toString());
+            Package subPkg = findPackage(dep.getName(), targetVersion);
             recurseResolve(subPkg, res, depSet);
         }
     }
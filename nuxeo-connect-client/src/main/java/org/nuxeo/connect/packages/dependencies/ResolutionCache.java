@@ -0,0 +1,179 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.connect.NuxeoConnectClient;
+
+/**
+ * Bounded cache of {@link DependencyResolution}, keyed by the request and a fingerprint of the package universe it was
+ * resolved against. Resolutions are stored and returned as copies so that callers may sort or alter them.
+ * <p>
+ * Entries are evicted when the cache exceeds its {@link #getMaxSize() maximum size}, least recently used first, or
+ * once older than the {@link #getTimeToLive() time to live}. A maximum size of 0 disables the cache.
+ *
+ * @since 1.7.6
+ */
+public class ResolutionCache {
+
+    public static final String MAX_SIZE_PROPERTY = "org.nuxeo.connect.client.resolutionCache.size";
+
+    public static final String TTL_PROPERTY = "org.nuxeo.connect.client.resolutionCache.ttl";
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    /**
+     * In milliseconds.
+     */
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    protected final int maxSize;
+
+    protected final long timeToLive;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final Map<List<?>, Entry> entries;
+
+    protected static class Entry {
+
+        protected final DependencyResolution resolution;
+
+        protected final long creationTime;
+
+        protected Entry(DependencyResolution resolution) {
+            this.resolution = resolution;
+            creationTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Creates a cache configured with the {@link #MAX_SIZE_PROPERTY} and {@link #TTL_PROPERTY} properties.
+     */
+    public ResolutionCache() {
+        this(Integer.parseInt(NuxeoConnectClient.getProperty(MAX_SIZE_PROPERTY, String.valueOf(DEFAULT_MAX_SIZE))),
+                Long.parseLong(NuxeoConnectClient.getProperty(TTL_PROPERTY, String.valueOf(DEFAULT_TTL))));
+    }
+
+    /**
+     * @param timeToLive in milliseconds
+     */
+    public ResolutionCache(int maxSize, long timeToLive) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        entries = new LinkedHashMap<List<?>, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<?>, Entry> eldest) {
+                return size() > ResolutionCache.this.maxSize;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @param key the request and universe fingerprint, whose elements must be immutable
+     * @return a copy of the cached resolution, or null if none or expired
+     */
+    public DependencyResolution get(List<?> key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        DependencyResolution resolution = null;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                entries.remove(key);
+            } else if (entry != null) {
+                resolution = entry.resolution;
+            }
+        }
+        if (resolution == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new DependencyResolution(resolution);
+    }
+
+    /**
+     * Stores a copy of the given resolution.
+     */
+    public void put(List<?> key, DependencyResolution resolution) {
+        if (!isEnabled()) {
+            return;
+        }
+        Entry entry = new Entry(new DependencyResolution(resolution));
+        synchronized (entries) {
+            entries.put(key, entry);
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                if (isExpired(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    protected boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.creationTime > timeToLive;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+}
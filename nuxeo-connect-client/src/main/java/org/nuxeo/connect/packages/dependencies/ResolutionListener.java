@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+/**
+ * Listener notified of each dependency resolution computed by a package manager, with its
+ * {@link DependencyResolution#getMetrics() metrics}, so that they can be exported. Resolutions served from the
+ * {@link ResolutionCache} are not notified. Notifications are sent from the resolving thread.
+ *
+ * @since 1.7.6
+ * @see org.nuxeo.connect.packages.PackageManagerImpl#addResolutionListener(ResolutionListener)
+ */
+public interface ResolutionListener {
+
+    /**
+     * @param request the install, remove and upgrade requests and the target platform of the resolution
+     * @param resolution the computed resolution, possibly failed
+     */
+    void resolved(ResolutionRequest request, DependencyResolution resolution);
+
+}
@@ -0,0 +1,223 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the phases of a dependency resolution and sizes of the problem it solved, attached to the
+ * {@link DependencyResolution#getMetrics() resolution}. Durations are in nanoseconds and phases are kept in their
+ * first recording order. A phase run several times, such as the CUDF formatting of the concurrent solvers of a
+ * portfolio or the phases of a sub-resolution, is cumulated.
+ *
+ * @since 1.7.6
+ */
+public class ResolutionMetrics {
+
+    /**
+     * Selection and mapping of the packages involved in the request, see
+     * {@link CUDFHelper#initMapping(org.nuxeo.connect.update.PackageDependency[],
+     * org.nuxeo.connect.update.PackageDependency[], org.nuxeo.connect.update.PackageDependency[])}.
+     */
+    public static final String INIT_MAPPING = "initMapping";
+
+    /**
+     * Resolution of an install request by unit propagation, without solver.
+     */
+    public static final String PROPAGATION = "propagation";
+
+    /**
+     * Formatting of the CUDF universe and request.
+     */
+    public static final String FORMAT_CUDF = "formatCUDF";
+
+    /**
+     * Parsing of the CUDF universe and request by p2cudf, excluding their formatting.
+     */
+    public static final String PARSE_CUDF = "parseCUDF";
+
+    /**
+     * Encoding of the mapped universe and request as clauses of the native SAT solver.
+     */
+    public static final String ENCODE = "encode";
+
+    /**
+     * Solving and optimization, until completion or until the solver time budget is exhausted.
+     */
+    public static final String SOLVE = "solve";
+
+    /**
+     * Wait for a stopped solver to release its best solution so far.
+     */
+    public static final String STOP_SOLVER = "stopSolver";
+
+    /**
+     * Mapping of the solution back to Nuxeo packages.
+     */
+    public static final String BUILD_RESOLUTION = "buildResolution";
+
+    /**
+     * See {@link org.nuxeo.connect.packages.PackageManager#checkOptionalDependenciesOnInstalledPackages(
+     * DependencyResolution)}.
+     */
+    public static final String CHECK_OPTIONAL_DEPENDENCIES = "checkOptionalDependencies";
+
+    /**
+     * See {@link org.nuxeo.connect.packages.PackageManager#order(DependencyResolution)}.
+     */
+    public static final String ORDER = "order";
+
+    /**
+     * Whole resolution as seen by the package manager.
+     */
+    public static final String TOTAL = "total";
+
+    protected final Map<String, Long> durations = new LinkedHashMap<>();
+
+    protected int universeSize;
+
+    protected int involvedPackages;
+
+    protected long cudfBytes;
+
+    protected boolean optimal = true;
+
+    public ResolutionMetrics() {
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public ResolutionMetrics(ResolutionMetrics other) {
+        synchronized (other) {
+            durations.putAll(other.durations);
+            universeSize = other.universeSize;
+            involvedPackages = other.involvedPackages;
+            cudfBytes = other.cudfBytes;
+            optimal = other.optimal;
+        }
+    }
+
+    /**
+     * Adds the time elapsed since the given {@link System#nanoTime()} to the given phase.
+     */
+    public void record(String phase, long startNanos) {
+        add(phase, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void add(String phase, long nanos) {
+        durations.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Adds the durations of the given metrics to these ones, and keeps the largest sizes.
+     */
+    public void add(ResolutionMetrics other) {
+        Map<String, Long> otherDurations;
+        synchronized (other) {
+            otherDurations = new LinkedHashMap<>(other.durations);
+        }
+        synchronized (this) {
+            otherDurations.forEach(this::add);
+            universeSize = Math.max(universeSize, other.universeSize);
+            involvedPackages = Math.max(involvedPackages, other.involvedPackages);
+            cudfBytes = Math.max(cudfBytes, other.cudfBytes);
+            optimal &= other.optimal;
+        }
+    }
+
+    /**
+     * @return the duration of the given phase in nanoseconds, 0 if it was not run
+     */
+    public synchronized long getDuration(String phase) {
+        return durations.getOrDefault(phase, 0L);
+    }
+
+    /**
+     * @return the durations in nanoseconds by phase
+     */
+    public synchronized Map<String, Long> getDurations() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(durations));
+    }
+
+    /**
+     * @return the number of packages of the universe the involved packages were picked from
+     */
+    public synchronized int getUniverseSize() {
+        return universeSize;
+    }
+
+    public synchronized void setUniverseSize(int universeSize) {
+        this.universeSize = universeSize;
+    }
+
+    /**
+     * @return the number of package versions mapped for the request
+     */
+    public synchronized int getInvolvedPackages() {
+        return involvedPackages;
+    }
+
+    public synchronized void setInvolvedPackages(int involvedPackages) {
+        this.involvedPackages = involvedPackages;
+    }
+
+    /**
+     * @return the size of the CUDF universe and request streamed to p2cudf, 0 if the solver did not use CUDF
+     */
+    public synchronized long getCUDFBytes() {
+        return cudfBytes;
+    }
+
+    public synchronized void setCUDFBytes(long cudfBytes) {
+        this.cudfBytes = cudfBytes;
+    }
+
+    /**
+     * @see DependencyResolution#isOptimal()
+     */
+    public synchronized boolean isOptimal() {
+        return optimal;
+    }
+
+    public synchronized void setOptimal(boolean optimal) {
+        this.optimal = optimal;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+            sb.append("ms, ");
+        }
+        sb.append("universe=").append(universeSize);
+        sb.append(", involved=").append(involvedPackages);
+        sb.append(", cudfBytes=").append(cudfBytes);
+        sb.append(", optimal=").append(optimal);
+        return sb.toString();
+    }
+
+}
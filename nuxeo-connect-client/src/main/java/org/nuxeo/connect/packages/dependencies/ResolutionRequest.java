@@ -0,0 +1,113 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.nuxeo.connect.packages.PackageManager;
+
+/**
+ * A request of a batch resolution, see {@link PackageManager#resolveDependencies(List)}.
+ *
+ * @since 1.7.6
+ */
+public class ResolutionRequest {
+
+    protected final List<String> pkgInstall;
+
+    protected final List<String> pkgRemove;
+
+    protected final List<String> pkgUpgrade;
+
+    protected final String targetPlatform;
+
+    protected Collection<String> installedPackageIds;
+
+    protected boolean allowSNAPSHOT = CUDFHelper.defaultAllowSNAPSHOT;
+
+    protected boolean doKeep = true;
+
+    /**
+     * @see PackageManager#resolveDependencies(List, List, List, String)
+     */
+    public ResolutionRequest(List<String> pkgInstall, List<String> pkgRemove, List<String> pkgUpgrade,
+            String targetPlatform) {
+        this.pkgInstall = pkgInstall;
+        this.pkgRemove = pkgRemove;
+        this.pkgUpgrade = pkgUpgrade;
+        this.targetPlatform = targetPlatform;
+    }
+
+    public List<String> getPkgInstall() {
+        return pkgInstall;
+    }
+
+    public List<String> getPkgRemove() {
+        return pkgRemove;
+    }
+
+    public List<String> getPkgUpgrade() {
+        return pkgUpgrade;
+    }
+
+    public String getTargetPlatform() {
+        return targetPlatform;
+    }
+
+    /**
+     * @return the ids of the packages to consider installed, null to use the installed packages
+     */
+    public Collection<String> getInstalledPackageIds() {
+        return installedPackageIds;
+    }
+
+    /**
+     * @param installedPackageIds the ids of the packages to consider installed instead of the installed packages, for
+     *            instance those of another instance profile
+     */
+    public void setInstalledPackageIds(Collection<String> installedPackageIds) {
+        this.installedPackageIds = installedPackageIds;
+    }
+
+    public boolean isAllowSNAPSHOT() {
+        return allowSNAPSHOT;
+    }
+
+    public void setAllowSNAPSHOT(boolean allowSNAPSHOT) {
+        this.allowSNAPSHOT = allowSNAPSHOT;
+    }
+
+    public boolean isDoKeep() {
+        return doKeep;
+    }
+
+    public void setDoKeep(boolean doKeep) {
+        this.doKeep = doKeep;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("install: %s, remove: %s, upgrade: %s, target platform: %s, installed: %s", pkgInstall,
+                pkgRemove, pkgUpgrade, targetPlatform, installedPackageIds == null ? "current" : installedPackageIds);
+    }
+
+}
@@ -0,0 +1,435 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.dependencies.CUDFHelper.CUDFConstraint;
+import org.nuxeo.connect.packages.dependencies.CUDFHelper.VersionMatchMappingPolicy;
+import org.nuxeo.connect.update.PackageDependency;
+
+/**
+ * This implementation solves the requests of the {@link P2CUDFDependencyResolver} with an embedded
+ * {@link SATSolver}, without going through the CUDF text format.
+ * <p>
+ * The universe is the one of {@link CUDFHelper}, so that the target platform, SNAPSHOT and "keep" rules are the same.
+ * Each mapped package version is a boolean variable: the dependencies, conflicts and provides are encoded as clauses,
+ * the "one version per package" rule as an "at most one" constraint. The solver criteria (removed, new, changed,
+ * notuptodate and versionchanged) are then optimized in lexicographic order, each optimum being bound before the next
+ * criterion is considered. The {@link #getSolverTimeBudget() time budget} applies to the whole optimization; the
+ * {@link #isPortfolioEnabled() portfolio} mode is not used.
+ *
+ * @since 1.7.6
+ */
+public class SATDependencyResolver extends P2CUDFDependencyResolver {
+
+    protected static Log log = LogFactory.getLog(SATDependencyResolver.class);
+
+    /**
+     * The problem of a resolution: package variables are numbered from 1 by CUDF name and version, the auxiliary
+     * variables follow.
+     */
+    protected static class Problem {
+
+        protected final CUDFHelper cudfHelper;
+
+        protected final SATSolver solver = new SATSolver();
+
+        protected final List<NuxeoCUDFPackage> packages = new ArrayList<>();
+
+        /**
+         * CUDF name => first variable of its versions
+         */
+        protected final Map<String, Integer> firstVariables = new TreeMap<>();
+
+        protected final Map<String, List<Provide>> provides = new HashMap<>();
+
+        /**
+         * CUDF name => literal true when one of its versions is installed
+         */
+        protected final Map<String, Integer> installedLiterals = new HashMap<>();
+
+        protected final Set<Long> conflicts = new HashSet<>();
+
+        protected Problem(CUDFHelper cudfHelper) {
+            this.cudfHelper = cudfHelper;
+        }
+
+        protected int getVersionCount(String cudfName) {
+            return cudfHelper.getCUDFPackages(cudfName).size();
+        }
+
+        protected NuxeoCUDFPackage getPackage(int var) {
+            return packages.get(var - 1);
+        }
+
+        /**
+         * @return the variables of the packages matching the given constraint, directly or through their provides
+         */
+        protected Set<Integer> getCandidates(CUDFConstraint constraint) {
+            Set<Integer> candidates = new LinkedHashSet<>();
+            Integer first = firstVariables.get(constraint.cudfName);
+            if (first != null) {
+                int max = Math.min(constraint.maxVersion, getVersionCount(constraint.cudfName));
+                for (int version = Math.max(constraint.minVersion, 1); version <= max; version++) {
+                    candidates.add(first + version - 1);
+                }
+            }
+            for (Provide provide : provides.getOrDefault(constraint.cudfName, new ArrayList<>())) {
+                if (Math.max(constraint.minVersion, provide.constraint.minVersion) <= Math.min(
+                        constraint.maxVersion, provide.constraint.maxVersion)) {
+                    candidates.add(provide.var);
+                }
+            }
+            return candidates;
+        }
+
+        protected void addConflict(int var1, int var2) {
+            if (var1 != var2 && conflicts.add((long) Math.min(var1, var2) << 32 | Math.max(var1, var2))) {
+                solver.addClause(-var1, -var2);
+            }
+        }
+
+        /**
+         * @return a literal true when one of the given literals is true, 0 if there is none
+         */
+        protected int or(List<Integer> lits) {
+            if (lits.isEmpty()) {
+                return 0;
+            } else if (lits.size() == 1) {
+                return lits.get(0);
+            }
+            int var = solver.newVariable(false);
+            int[] clause = new int[lits.size() + 1];
+            clause[0] = -var;
+            for (int i = 0; i < lits.size(); i++) {
+                clause[i + 1] = lits.get(i);
+                solver.addClause(var, -lits.get(i));
+            }
+            solver.addClause(clause);
+            return var;
+        }
+    }
+
+    protected static class Provide {
+
+        protected final int var;
+
+        protected final CUDFConstraint constraint;
+
+        protected Provide(int var, CUDFConstraint constraint) {
+            this.var = var;
+            this.constraint = constraint;
+        }
+    }
+
+    public SATDependencyResolver(PackageManager pm) {
+        super(pm);
+    }
+
+    @Override
+    protected DependencyResolution resolve(CUDFHelper cudfHelper, PackageDependency[] installs,
+            PackageDependency[] removes, PackageDependency[] upgrades, String solverCriteria, boolean isSubResolution)
+            throws DependencyException {
+        long timeBudget = solverTimeBudget;
+        long deadline = timeBudget > 0 ? System.currentTimeMillis() + timeBudget : Long.MAX_VALUE;
+        ResolutionMetrics metrics = cudfHelper.getMetrics();
+        long start = System.nanoTime();
+        Problem problem = new Problem(cudfHelper);
+        addPackages(problem);
+        addRequest(problem, installs, removes, upgrades);
+        List<int[]> criteria = getCriteria(problem, solverCriteria);
+        metrics.record(ResolutionMetrics.ENCODE, start);
+        start = System.nanoTime();
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Solving %s packages with %s variables", problem.packages.size(),
+                    problem.solver.getVariableCount()));
+        }
+        Boolean sat = problem.solver.solve(deadline);
+        if (sat == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new DependencyException("Dependency resolution interrupted");
+            }
+            log.warn("Solver time budget of " + timeBudget + "ms exhausted before a solution was found");
+        }
+        if (!Boolean.TRUE.equals(sat)) {
+            return cudfHelper.buildResolution(null, null, null, isSubResolution);
+        }
+        boolean optimal = optimize(problem.solver, criteria, deadline);
+        metrics.record(ResolutionMetrics.SOLVE, start);
+        if (!optimal) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new DependencyException("Dependency resolution interrupted");
+            }
+            log.warn("Solver time budget of " + timeBudget + "ms exhausted, using the best solution found so far");
+            log.warn("The solution found might not be optimal");
+        }
+        List<NuxeoCUDFPackage> solution = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, Integer> entry : problem.firstVariables.entrySet()) {
+            String cudfName = entry.getKey();
+            boolean wasInstalled = false;
+            boolean installed = false;
+            boolean installedChanged = false;
+            for (int var = entry.getValue(); var < entry.getValue() + problem.getVersionCount(cudfName); var++) {
+                NuxeoCUDFPackage pkg = problem.getPackage(var);
+                wasInstalled |= pkg.isInstalled();
+                if (problem.solver.getModelValue(var)) {
+                    solution.add(pkg);
+                    installed = true;
+                    installedChanged |= !pkg.isInstalled();
+                }
+            }
+            if (wasInstalled && !installed) {
+                removed.add(cudfName);
+            } else if (installedChanged) {
+                changed.add(cudfName);
+            }
+        }
+        DependencyResolution resolution = cudfHelper.buildResolution(solution, removed, changed, isSubResolution);
+        resolution.setOptimal(optimal);
+        return resolution;
+    }
+
+    /**
+     * Creates a variable per mapped package and encodes the dependencies, conflicts and provides.
+     */
+    protected void addPackages(Problem problem) throws DependencyException {
+        CUDFHelper cudfHelper = problem.cudfHelper;
+        for (String cudfName : cudfHelper.nuxeo2CUDFMap.getNames()) {
+            problem.firstVariables.put(cudfName, problem.packages.size() + 1);
+            for (NuxeoCUDFPackage pkg : cudfHelper.getCUDFPackages(cudfName).values()) {
+                problem.packages.add(pkg);
+                problem.solver.newVariable(pkg.isInstalled());
+            }
+        }
+        for (int var = 1; var <= problem.packages.size(); var++) {
+            for (CUDFConstraint provide : cudfHelper.getCUDFConstraints(problem.getPackage(var).getProvides(), false,
+                    false, VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND)) {
+                problem.provides.computeIfAbsent(provide.cudfName, k -> new ArrayList<>()).add(
+                        new Provide(var, provide));
+            }
+        }
+        for (Map.Entry<String, Integer> entry : problem.firstVariables.entrySet()) {
+            String cudfName = entry.getKey();
+            int versionCount = problem.getVersionCount(cudfName);
+            int[] versions = new int[versionCount];
+            for (int i = 0; i < versionCount; i++) {
+                versions[i] = entry.getValue() + i;
+            }
+            // implicit conflict with the other versions
+            if (versionCount > 1) {
+                problem.solver.addAtMost(versions, 1);
+            }
+            for (int var : versions) {
+                NuxeoCUDFPackage pkg = problem.getPackage(var);
+                for (CUDFConstraint dependency : cudfHelper.getCUDFConstraints(pkg.getDependencies(), false, true,
+                        VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND)) {
+                    List<Integer> clause = new ArrayList<>();
+                    clause.add(-var);
+                    clause.addAll(problem.getCandidates(dependency));
+                    problem.solver.addClause(toArray(clause));
+                }
+                for (CUDFConstraint conflict : cudfHelper.getCUDFConstraints(pkg.getConflicts(), false, false,
+                        VersionMatchMappingPolicy.NONE_WHEN_NOT_FOUND)) {
+                    for (int candidate : problem.getCandidates(conflict)) {
+                        problem.addConflict(var, candidate);
+                    }
+                }
+                // packages providing another version of this one
+                int version = pkg.getCUDFVersion();
+                for (CUDFConstraint other : new CUDFConstraint[] { new CUDFConstraint(cudfName, 0, version - 1),
+                        new CUDFConstraint(cudfName, version + 1, Integer.MAX_VALUE) }) {
+                    for (Provide provide : problem.provides.getOrDefault(cudfName, new ArrayList<>())) {
+                        if (problem.getCandidates(other).contains(provide.var)) {
+                            problem.addConflict(var, provide.var);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the request: installed packages must match the installs and upgrades and must not match the removes. An
+     * upgraded package cannot be installed in a lower version than the installed one.
+     */
+    protected void addRequest(Problem problem, PackageDependency[] installs, PackageDependency[] removes,
+            PackageDependency[] upgrades) throws DependencyException {
+        CUDFHelper cudfHelper = problem.cudfHelper;
+        for (CUDFConstraint install : cudfHelper.getCUDFConstraints(installs, true, true,
+                VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND)) {
+            problem.solver.addClause(toArray(problem.getCandidates(install)));
+        }
+        for (CUDFConstraint remove : cudfHelper.getCUDFConstraints(removes, true, true,
+                VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND)) {
+            for (int candidate : problem.getCandidates(remove)) {
+                problem.solver.addClause(-candidate);
+            }
+        }
+        for (CUDFConstraint upgrade : cudfHelper.getCUDFConstraints(upgrades, true, true,
+                VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND)) {
+            int first = problem.firstVariables.get(upgrade.cudfName);
+            int installedVersion = 0;
+            for (NuxeoCUDFPackage pkg : cudfHelper.getCUDFPackages(upgrade.cudfName).values()) {
+                if (pkg.isInstalled()) {
+                    installedVersion = Math.max(installedVersion, pkg.getCUDFVersion());
+                }
+            }
+            List<Integer> clause = new ArrayList<>();
+            for (int version = 1; version <= problem.getVersionCount(upgrade.cudfName); version++) {
+                if (version < installedVersion) {
+                    problem.solver.addClause(-(first + version - 1));
+                } else if (upgrade.matches(version)) {
+                    clause.add(first + version - 1);
+                }
+            }
+            problem.solver.addClause(toArray(clause));
+        }
+    }
+
+    /**
+     * Parses the given solver criteria, such as {@link #SOLVER_CRITERIA_BASIC_INSTALL}.
+     *
+     * @return for each criterion, in order, the literals whose number of true ones is to be minimized
+     */
+    protected List<int[]> getCriteria(Problem problem, String solverCriteria) {
+        List<int[]> criteria = new ArrayList<>();
+        for (String criterion : solverCriteria.split(",")) {
+            criterion = criterion.trim();
+            if (criterion.isEmpty()) {
+                continue;
+            }
+            boolean maximize = criterion.charAt(0) == '+';
+            String name = criterion.substring(1);
+            List<Integer> lits = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : problem.firstVariables.entrySet()) {
+                String cudfName = entry.getKey();
+                List<Integer> versions = new ArrayList<>();
+                List<Integer> installed = new ArrayList<>();
+                List<Integer> notInstalled = new ArrayList<>();
+                for (int var = entry.getValue(); var < entry.getValue() + problem.getVersionCount(cudfName); var++) {
+                    versions.add(var);
+                    (problem.getPackage(var).isInstalled() ? installed : notInstalled).add(var);
+                }
+                List<Integer> changes = new ArrayList<>(notInstalled);
+                for (int var : installed) {
+                    changes.add(-var);
+                }
+                int lit;
+                switch (name) {
+                case "removed":
+                    lit = installed.isEmpty() ? 0 : -problem.installedLiterals.computeIfAbsent(cudfName,
+                            k -> problem.or(versions));
+                    break;
+                case "new":
+                    lit = !installed.isEmpty() ? 0 : problem.installedLiterals.computeIfAbsent(cudfName,
+                            k -> problem.or(versions));
+                    break;
+                case "changed":
+                    lit = problem.or(changes);
+                    break;
+                case "notuptodate":
+                    lit = problem.or(versions.subList(0, versions.size() - 1));
+                    break;
+                case "versionchanged":
+                    lit = installed.isEmpty() ? 0 : problem.or(notInstalled);
+                    break;
+                default:
+                    log.debug("Ignored solver criterion: " + criterion);
+                    lits = null;
+                    lit = 0;
+                }
+                if (lits == null) {
+                    break;
+                }
+                if (lit != 0) {
+                    lits.add(maximize ? -lit : lit);
+                }
+            }
+            if (lits != null) {
+                criteria.add(toArray(lits));
+            }
+        }
+        return criteria;
+    }
+
+    /**
+     * Minimizes the number of true literals of each criterion in turn, starting from the last model found: each time a
+     * model is found, a strictly better one is searched until there is none, then the optimum is bound.
+     *
+     * @return true if the last model is optimal, false if the deadline was reached
+     */
+    protected boolean optimize(SATSolver solver, List<int[]> criteria, long deadline) {
+        for (int[] lits : criteria) {
+            int cost = getCost(solver, lits);
+            while (cost > 0) {
+                int mark = solver.getLearnedCount();
+                Object bound = solver.addAtMost(lits, cost - 1);
+                Boolean sat = solver.solve(deadline);
+                solver.remove(bound);
+                // the learned clauses may depend on the removed bound
+                solver.forgetLearned(mark);
+                if (sat == null) {
+                    return false;
+                } else if (!sat) {
+                    break;
+                }
+                cost = getCost(solver, lits);
+            }
+            solver.addAtMost(lits, cost);
+        }
+        return true;
+    }
+
+    protected static int getCost(SATSolver solver, int[] lits) {
+        int cost = 0;
+        for (int lit : lits) {
+            if (solver.getModelValue(Math.abs(lit)) == lit > 0) {
+                cost++;
+            }
+        }
+        return cost;
+    }
+
+    protected static int[] toArray(Collection<Integer> lits) {
+        int[] array = new int[lits.size()];
+        int i = 0;
+        for (int lit : lits) {
+            array[i++] = lit;
+        }
+        return array;
+    }
+
+}
@@ -0,0 +1,631 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact conflict-driven clause learning solver used by the {@link SATDependencyResolver}.
+ * <p>
+ * Variables are numbered from 1 and literals are given as signed variables: {@code v} or {@code -v}. Besides clauses,
+ * "at most k" cardinality constraints are propagated natively. Constraints can be removed, as well as the clauses
+ * learned since a given point, so that one instance is reused through the optimization steps. Each
+ * {@link #solve(long)} call starts over from the root level.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @since 1.7.6
+ */
+public class SATSolver {
+
+    protected static final byte TRUE = 1;
+
+    protected static final byte FALSE = -1;
+
+    protected static final byte UNASSIGNED = 0;
+
+    protected static final int RESTART_BASE = 100;
+
+    protected static final int CHECK_INTERVAL = 256;
+
+    protected abstract static class Constraint {
+
+        protected boolean removed;
+
+        /**
+         * Called once the given internal literal became true.
+         *
+         * @return whether the constraint still watches the literal
+         */
+        protected abstract boolean propagate(SATSolver solver, int lit);
+    }
+
+    protected static class Clause extends Constraint {
+
+        /**
+         * Internal literals, the two first ones are watched. For a reason clause, the first one is the implied literal.
+         */
+        protected final int[] lits;
+
+        protected Clause(int[] lits) {
+            this.lits = lits;
+        }
+
+        @Override
+        protected boolean propagate(SATSolver solver, int lit) {
+            int falseLit = lit ^ 1;
+            if (lits[0] == falseLit) {
+                lits[0] = lits[1];
+                lits[1] = falseLit;
+            }
+            if (solver.value(lits[0]) == TRUE) {
+                return true;
+            }
+            for (int i = 2; i < lits.length; i++) {
+                if (solver.value(lits[i]) != FALSE) {
+                    lits[1] = lits[i];
+                    lits[i] = falseLit;
+                    solver.watches.get(lits[1] ^ 1).add(this);
+                    return false;
+                }
+            }
+            if (solver.value(lits[0]) == FALSE) {
+                solver.conflict = lits;
+            } else {
+                solver.assign(lits[0], this);
+            }
+            return true;
+        }
+    }
+
+    protected static class AtMost extends Constraint {
+
+        protected final int[] lits;
+
+        protected final int max;
+
+        protected AtMost(int[] lits, int max) {
+            this.lits = lits;
+            this.max = max;
+        }
+
+        @Override
+        protected boolean propagate(SATSolver solver, int lit) {
+            int count = 0;
+            for (int l : lits) {
+                if (solver.value(l) == TRUE) {
+                    count++;
+                }
+            }
+            if (count < max) {
+                return true;
+            }
+            // the negation of max (or max + 1 on conflict) true literals
+            int[] reason = new int[max + 1];
+            int size = count > max ? 0 : 1;
+            for (int i = 0; size <= max; i++) {
+                if (solver.value(lits[i]) == TRUE) {
+                    reason[size++] = lits[i] ^ 1;
+                }
+            }
+            if (count > max) {
+                solver.conflict = reason;
+                return true;
+            }
+            for (int l : lits) {
+                if (solver.value(l) == UNASSIGNED) {
+                    int[] implication = reason.clone();
+                    implication[0] = l ^ 1;
+                    solver.assign(l ^ 1, new Clause(implication));
+                }
+            }
+            return true;
+        }
+    }
+
+    protected int varCount;
+
+    protected byte[] values = new byte[1];
+
+    protected byte[] phases = new byte[1];
+
+    protected int[] levels = new int[1];
+
+    protected Constraint[] reasons = new Constraint[1];
+
+    protected double[] activities = new double[1];
+
+    protected double activityIncrement = 1;
+
+    /**
+     * Internal literal => constraints to propagate when it becomes true.
+     */
+    protected final List<List<Constraint>> watches = new ArrayList<>();
+
+    protected int[] trail = new int[1];
+
+    protected int trailSize;
+
+    protected int propagated;
+
+    protected int[] levelStarts = new int[1];
+
+    protected int level;
+
+    protected int[] conflict;
+
+    protected final List<Integer> units = new ArrayList<>();
+
+    protected final List<AtMost> cardinalities = new ArrayList<>();
+
+    protected final List<Clause> learned = new ArrayList<>();
+
+    protected boolean unsatisfiable;
+
+    /**
+     * Binary max heap of the unassigned variables by activity.
+     */
+    protected int[] heap = new int[1];
+
+    protected int[] heapIndex = new int[1];
+
+    protected int heapSize;
+
+    protected boolean[] model;
+
+    protected long conflictCount;
+
+    public SATSolver() {
+        watches.add(new ArrayList<>());
+        watches.add(new ArrayList<>());
+    }
+
+    /**
+     * @param phase the value tried first for this variable
+     * @return the new variable
+     */
+    public int newVariable(boolean phase) {
+        int var = ++varCount;
+        if (var >= values.length) {
+            int length = values.length * 2;
+            values = Arrays.copyOf(values, length);
+            phases = Arrays.copyOf(phases, length);
+            levels = Arrays.copyOf(levels, length);
+            reasons = Arrays.copyOf(reasons, length);
+            activities = Arrays.copyOf(activities, length);
+            trail = Arrays.copyOf(trail, length);
+            levelStarts = Arrays.copyOf(levelStarts, length);
+            heap = Arrays.copyOf(heap, length);
+            heapIndex = Arrays.copyOf(heapIndex, length);
+        }
+        phases[var] = phase ? TRUE : FALSE;
+        watches.add(new ArrayList<>());
+        watches.add(new ArrayList<>());
+        return var;
+    }
+
+    public int getVariableCount() {
+        return varCount;
+    }
+
+    /**
+     * @return the number of conflicts met by all the {@link #solve(long)} calls
+     */
+    public long getConflictCount() {
+        return conflictCount;
+    }
+
+    protected static int toInternal(int lit) {
+        return lit > 0 ? lit << 1 : (-lit << 1) | 1;
+    }
+
+    protected byte value(int lit) {
+        byte value = values[lit >> 1];
+        return (lit & 1) == 0 ? value : (byte) -value;
+    }
+
+    /**
+     * Adds a clause. An empty clause makes the problem unsatisfiable.
+     */
+    public void addClause(int... clause) {
+        int[] lits = new int[clause.length];
+        int size = 0;
+        next: for (int lit : clause) {
+            int internal = toInternal(lit);
+            for (int i = 0; i < size; i++) {
+                if (lits[i] == internal) {
+                    continue next;
+                } else if (lits[i] == (internal ^ 1)) {
+                    // tautology
+                    return;
+                }
+            }
+            lits[size++] = internal;
+        }
+        if (size == 0) {
+            unsatisfiable = true;
+        } else if (size == 1) {
+            units.add(lits[0]);
+        } else {
+            attach(new Clause(Arrays.copyOf(lits, size)));
+        }
+    }
+
+    protected void attach(Clause clause) {
+        watches.get(clause.lits[0] ^ 1).add(clause);
+        watches.get(clause.lits[1] ^ 1).add(clause);
+    }
+
+    /**
+     * Adds a constraint requiring at most {@code max} of the given distinct literals to be true.
+     *
+     * @return the constraint, to be given to {@link #remove(Object)}
+     */
+    public Object addAtMost(int[] lits, int max) {
+        int[] internals = new int[lits.length];
+        for (int i = 0; i < lits.length; i++) {
+            internals[i] = toInternal(lits[i]);
+        }
+        AtMost atMost = new AtMost(internals, max);
+        if (max < 0) {
+            unsatisfiable = true;
+        } else if (max < lits.length) {
+            for (int lit : internals) {
+                watches.get(lit).add(atMost);
+            }
+            cardinalities.add(atMost);
+        }
+        return atMost;
+    }
+
+    /**
+     * Removes a constraint returned by {@link #addAtMost(int[], int)}. The clauses learned while it was present must be
+     * {@link #forgetLearned(int) forgotten} unless a stronger constraint replaces it.
+     */
+    public void remove(Object constraint) {
+        ((Constraint) constraint).removed = true;
+        cardinalities.remove(constraint);
+    }
+
+    /**
+     * @return a mark to give to {@link #forgetLearned(int)}
+     */
+    public int getLearnedCount() {
+        return learned.size();
+    }
+
+    /**
+     * Forgets the clauses learned since the given mark.
+     */
+    public void forgetLearned(int mark) {
+        for (int i = learned.size() - 1; i >= mark; i--) {
+            learned.remove(i).removed = true;
+        }
+    }
+
+    /**
+     * @return the value of the given variable in the last model found
+     */
+    public boolean getModelValue(int var) {
+        return model[var];
+    }
+
+    /**
+     * Searches a model satisfying all the constraints.
+     *
+     * @param deadline time in milliseconds after which the search is abandoned
+     * @return true if a model was found, false if there is none, null if the deadline was reached or the current thread
+     *         was interrupted
+     */
+    public Boolean solve(long deadline) {
+        reset();
+        if (unsatisfiable) {
+            return Boolean.FALSE;
+        }
+        for (int lit : units) {
+            if (!enqueue(lit)) {
+                return Boolean.FALSE;
+            }
+        }
+        for (Clause clause : learned) {
+            if (clause.lits.length == 1 && !enqueue(clause.lits[0])) {
+                return Boolean.FALSE;
+            }
+        }
+        for (AtMost atMost : cardinalities) {
+            if (atMost.max == 0) {
+                for (int lit : atMost.lits) {
+                    if (!enqueue(lit ^ 1)) {
+                        return Boolean.FALSE;
+                    }
+                }
+            }
+        }
+        int restart = 1;
+        long restartConflicts = luby(restart) * RESTART_BASE;
+        long steps = 0;
+        while (true) {
+            int[] conflicting = propagate();
+            if (conflicting != null) {
+                conflictCount++;
+                restartConflicts--;
+                if (level == 0) {
+                    return Boolean.FALSE;
+                }
+                learn(conflicting);
+            } else {
+                if (restartConflicts <= 0) {
+                    cancelUntil(0);
+                    restartConflicts = luby(++restart) * RESTART_BASE;
+                }
+                int var = pickBranchVariable();
+                if (var == 0) {
+                    model = new boolean[varCount + 1];
+                    for (int v = 1; v <= varCount; v++) {
+                        model[v] = values[v] == TRUE;
+                    }
+                    return Boolean.TRUE;
+                }
+                levelStarts[level++] = trailSize;
+                assign(var << 1 | (phases[var] == TRUE ? 0 : 1), null);
+            }
+            if (++steps % CHECK_INTERVAL == 0
+                    && (System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted())) {
+                return null;
+            }
+        }
+    }
+
+    protected static long luby(int i) {
+        int size = 1;
+        int seq = 0;
+        while (size < i + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != i) {
+            size = (size - 1) >> 1;
+            seq--;
+            i = i % size;
+        }
+        return 1L << seq;
+    }
+
+    protected void reset() {
+        for (int i = 0; i < trailSize; i++) {
+            values[trail[i] >> 1] = UNASSIGNED;
+        }
+        trailSize = 0;
+        propagated = 0;
+        level = 0;
+        conflict = null;
+        heapSize = 0;
+        for (int var = 1; var <= varCount; var++) {
+            heapIndex[var] = -1;
+            heapInsert(var);
+        }
+    }
+
+    protected boolean enqueue(int lit) {
+        byte value = value(lit);
+        if (value == UNASSIGNED) {
+            assign(lit, null);
+        }
+        return value != FALSE;
+    }
+
+    protected void assign(int lit, Constraint reason) {
+        int var = lit >> 1;
+        values[var] = (lit & 1) == 0 ? TRUE : FALSE;
+        levels[var] = level;
+        reasons[var] = reason;
+        trail[trailSize++] = lit;
+    }
+
+    /**
+     * @return the conflicting clause, or null
+     */
+    protected int[] propagate() {
+        while (conflict == null && propagated < trailSize) {
+            int lit = trail[propagated++];
+            List<Constraint> watchers = watches.get(lit);
+            int size = watchers.size();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                Constraint constraint = watchers.get(i);
+                if (constraint.removed) {
+                    continue;
+                }
+                if (conflict != null || constraint.propagate(this, lit)) {
+                    watchers.set(kept++, constraint);
+                }
+            }
+            for (int i = size; i < watchers.size(); i++) {
+                watchers.set(kept++, watchers.get(i));
+            }
+            watchers.subList(kept, watchers.size()).clear();
+        }
+        int[] conflicting = conflict;
+        conflict = null;
+        return conflicting;
+    }
+
+    /**
+     * Learns the first unique implication point clause of the given conflict and backjumps.
+     */
+    protected void learn(int[] conflicting) {
+        boolean[] seen = new boolean[varCount + 1];
+        List<Integer> clause = new ArrayList<>();
+        clause.add(0);
+        int pending = 0;
+        int lit = -1;
+        int index = trailSize - 1;
+        int[] reason = conflicting;
+        do {
+            for (int i = lit == -1 ? 0 : 1; i < reason.length; i++) {
+                int var = reason[i] >> 1;
+                if (!seen[var] && levels[var] > 0) {
+                    seen[var] = true;
+                    bumpActivity(var);
+                    if (levels[var] >= level) {
+                        pending++;
+                    } else {
+                        clause.add(reason[i]);
+                    }
+                }
+            }
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+            lit = trail[index--];
+            seen[lit >> 1] = false;
+            pending--;
+            if (pending > 0) {
+                reason = ((Clause) reasons[lit >> 1]).lits;
+            }
+        } while (pending > 0);
+        clause.set(0, lit ^ 1);
+        activityIncrement /= 0.95;
+
+        int[] lits = new int[clause.size()];
+        int backjumpLevel = 0;
+        for (int i = 0; i < lits.length; i++) {
+            lits[i] = clause.get(i);
+            if (i > 1 && levels[lits[i] >> 1] > levels[lits[1] >> 1]) {
+                int swap = lits[1];
+                lits[1] = lits[i];
+                lits[i] = swap;
+            }
+        }
+        if (lits.length > 1) {
+            backjumpLevel = levels[lits[1] >> 1];
+        }
+        cancelUntil(backjumpLevel);
+        Clause learnt = new Clause(lits);
+        learned.add(learnt);
+        if (lits.length > 1) {
+            attach(learnt);
+            assign(lits[0], learnt);
+        } else {
+            assign(lits[0], null);
+        }
+    }
+
+    protected void cancelUntil(int target) {
+        if (level <= target) {
+            return;
+        }
+        for (int i = trailSize - 1; i >= levelStarts[target]; i--) {
+            int var = trail[i] >> 1;
+            values[var] = UNASSIGNED;
+            reasons[var] = null;
+            if (heapIndex[var] < 0) {
+                heapInsert(var);
+            }
+        }
+        trailSize = levelStarts[target];
+        propagated = trailSize;
+        level = target;
+    }
+
+    protected void bumpActivity(int var) {
+        activities[var] += activityIncrement;
+        if (activities[var] > 1e100) {
+            for (int v = 1; v <= varCount; v++) {
+                activities[v] *= 1e-100;
+            }
+            activityIncrement *= 1e-100;
+        }
+        if (heapIndex[var] >= 0) {
+            heapUp(heapIndex[var]);
+        }
+    }
+
+    protected int pickBranchVariable() {
+        while (heapSize > 0) {
+            int var = heapRemoveMax();
+            if (values[var] == UNASSIGNED) {
+                return var;
+            }
+        }
+        return 0;
+    }
+
+    protected void heapInsert(int var) {
+        heap[heapSize] = var;
+        heapIndex[var] = heapSize;
+        heapUp(heapSize++);
+    }
+
+    protected int heapRemoveMax() {
+        int var = heap[0];
+        heapIndex[var] = -1;
+        if (--heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapDown(0);
+        }
+        return var;
+    }
+
+    protected boolean heapBefore(int var1, int var2) {
+        return activities[var1] > activities[var2] || activities[var1] == activities[var2] && var1 < var2;
+    }
+
+    protected void heapUp(int i) {
+        int var = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (!heapBefore(var, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = var;
+        heapIndex[var] = i;
+    }
+
+    protected void heapDown(int i) {
+        int var = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapBefore(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!heapBefore(heap[child], var)) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = var;
+        heapIndex[var] = i;
+    }
+
+}
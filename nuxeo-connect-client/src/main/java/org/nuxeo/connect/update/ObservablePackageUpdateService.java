@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.update;
+
+/**
+ * A {@link PackageUpdateService} notifying the changes made to its registry. Components caching local packages, like
+ * {@link org.nuxeo.connect.packages.LocalPackageSource}, only keep their cache when the service implements this
+ * interface.
+ *
+ * @since 1.7.6
+ */
+public interface ObservablePackageUpdateService extends PackageUpdateService {
+
+    void addPackageUpdateListener(PackageUpdateListener listener);
+
+    void removePackageUpdateListener(PackageUpdateListener listener);
+
+}
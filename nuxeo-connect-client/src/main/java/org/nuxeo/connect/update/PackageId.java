@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.update;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Identity of a package: its name and {@link Version}. The {@link #toString() id} and the hash code are computed once,
+ * so that the resolution structures can key on it without building and comparing {@code name-version} strings.
+ * <p>
+ * {@link #of(String, Version)} looks the instances up in a bounded cache, without allocating: the same name and
+ * version usually give the same instance, but instances must be compared with {@link #equals(Object)}.
+ *
+ * @since 1.7.6
+ */
+public final class PackageId {
+
+    /** Size of the cache, a power of two. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** Direct-mapped cache: an instance replaces the one with the same slot. */
+    private static final AtomicReferenceArray<PackageId> CACHE = new AtomicReferenceArray<>(CACHE_SIZE);
+
+    private final String name;
+
+    private final Version version;
+
+    private final int hash;
+
+    private final String id;
+
+    private PackageId(String name, Version version, int hash) {
+        this.name = name;
+        // copy the version which is mutable
+        this.version = version == null ? null : new Version(version.toString());
+        this.hash = hash;
+        id = version == null ? name : name + "-" + version;
+    }
+
+    private static int hash(String name, Version version) {
+        return 31 * name.hashCode() + (version == null ? 0 : version.hashCode());
+    }
+
+    /**
+     * @param version can be null
+     */
+    public static PackageId of(String name, Version version) {
+        int hash = hash(name, version);
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        PackageId packageId = CACHE.get(slot);
+        if (packageId == null || !packageId.matches(name, version, hash)) {
+            packageId = new PackageId(name, version, hash);
+            CACHE.set(slot, packageId);
+        }
+        return packageId;
+    }
+
+    public static PackageId of(Package pkg) {
+        return of(pkg.getName(), pkg.getVersion());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the package id, as returned by {@link Package#getId()}
+     */
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PackageId)) {
+            return false;
+        }
+        PackageId other = (PackageId) obj;
+        return matches(other.name, other.version, other.hash);
+    }
+
+    private boolean matches(String otherName, Version otherVersion, int otherHash) {
+        return hash == otherHash && name.equals(otherName)
+                && (version == null ? otherVersion == null : version.equals(otherVersion));
+    }
+
+}
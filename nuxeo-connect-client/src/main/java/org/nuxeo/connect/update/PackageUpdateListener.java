@@ -0,0 +1,47 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.update;
+
+/**
+ * Listener notified of the changes made to the local packages registry by an {@link ObservablePackageUpdateService}.
+ * Notifications are sent after the change is done, from the thread which made it.
+ *
+ * @since 1.7.6
+ */
+public interface PackageUpdateListener {
+
+    /**
+     * A package was added to the registry, see {@link PackageUpdateService#addPackage(java.io.File)}.
+     */
+    void packageAdded(LocalPackage pkg);
+
+    /**
+     * A package was removed from the registry, see {@link PackageUpdateService#removePackage(String)}.
+     */
+    void packageRemoved(String id);
+
+    /**
+     * The state of a package changed, see {@link PackageUpdateService#setPackageState(LocalPackage, PackageState)}. A
+     * {@link PackageUpdateService#reset()} must be notified as a state change of each package.
+     */
+    void packageStateChanged(LocalPackage pkg, PackageState state);
+
+}
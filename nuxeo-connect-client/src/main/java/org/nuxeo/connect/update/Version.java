@@ -16,7 +16,8 @@
  */
 package org.nuxeo.connect.update;
 
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -84,36 +85,149 @@ public class Version implements Comparable<Version> {
 
     protected boolean snapshot = false;
 
+    /**
+     * Parsed versions by version string, used as prototypes since {@link Version} is mutable.
+     *
+     * @since 1.7.6
+     */
+    private static final ConcurrentMap<String, Version> PARSED = new ConcurrentHashMap<>();
+
+    /**
+     * @since 1.7.6
+     */
+    private static final int PARSED_MAX_SIZE = 10000;
+
     public Version(String version) {
-        // Get the versionNumber
-        Matcher versionMatcher = VERSION_PATTERN.matcher(version);
-        if (versionMatcher.find()) {
-            String versionNumber = versionMatcher.group();
-            // Get the details of the version number
-            Pattern digitVersion = Pattern.compile("[0-9]+");
-            versionMatcher = digitVersion.matcher(versionNumber);
-            if (versionMatcher.find()) {
-                major = Integer.parseInt(versionMatcher.group());
-                if (versionMatcher.find()) {
-                    minor = Integer.parseInt(versionMatcher.group());
-                    if (versionMatcher.find()) {
-                        patch = Integer.parseInt(versionMatcher.group());
-                    }
-                }
+        Version parsed = PARSED.get(version);
+        if (parsed != null) {
+            major = parsed.major;
+            minor = parsed.minor;
+            patch = parsed.patch;
+            classifier = parsed.classifier;
+            snapshot = parsed.snapshot;
+            specialClassifier = parsed.specialClassifier;
+            return;
+        }
+        parse(version);
+        if (PARSED.size() >= PARSED_MAX_SIZE) {
+            PARSED.clear();
+        }
+        PARSED.putIfAbsent(version, new Version(this));
+    }
+
+    /**
+     * @since 1.7.6
+     */
+    private Version(Version version) {
+        major = version.major;
+        minor = version.minor;
+        patch = version.patch;
+        classifier = version.classifier;
+        snapshot = version.snapshot;
+        specialClassifier = version.specialClassifier;
+    }
+
+    /**
+     * Hand-written equivalent of finding {@link #VERSION_PATTERN} then splitting the classifier and the
+     * {@link #SNAPSHOT}, without regular expressions.
+     *
+     * @since 1.7.6
+     */
+    private void parse(String version) {
+        int length = version.length();
+        int start = 0;
+        while (start < length && !isDigit(version.charAt(start))) {
+            start++;
+        }
+        if (start == length) {
+            return;
+        }
+        int end = digitsEnd(version, start);
+        major = parseInt(version, start, end);
+        if (end + 1 < length && version.charAt(end) == '.' && isDigit(version.charAt(end + 1))) {
+            int from = end + 1;
+            end = digitsEnd(version, from);
+            minor = parseInt(version, from, end);
+            if (end + 1 < length && version.charAt(end) == '.' && isDigit(version.charAt(end + 1))) {
+                from = end + 1;
+                end = digitsEnd(version, from);
+                patch = parseInt(version, from, end);
             }
+        }
+        // the classifier historically starts after the length of the version number, not after its end
+        int classifierStart = end - start;
+        if (classifierStart == length) {
+            return;
+        }
+        int snapshotIndex = version.indexOf(SNAPSHOT, classifierStart);
+        String versionClassifier;
+        if (snapshotIndex < 0) {
+            versionClassifier = version.substring(classifierStart);
+        } else {
+            snapshot = true;
+            versionClassifier = version.substring(classifierStart, snapshotIndex)
+                    + version.substring(snapshotIndex + SNAPSHOT.length());
+        }
+        if (!versionClassifier.isEmpty()) {
+            classifier = versionClassifier.substring(1);
+            specialClassifier = isSpecialClassifier(classifier);
+        }
+    }
 
-            // Get the classifier, if any
-            String versionClassifier = version.substring(versionNumber.length());
-            // Determine if it's a SNAPSHOT version
-            if (versionClassifier.contains(SNAPSHOT)) {
-                snapshot = true;
-                versionClassifier = versionClassifier.replaceFirst(SNAPSHOT, "");
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int digitsEnd(String s, int from) {
+        int end = from;
+        while (end < s.length() && isDigit(s.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int parseInt(String s, int from, int to) {
+        if (to - from > 9) {
+            // may overflow
+            return Integer.parseInt(s.substring(from, to));
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + s.charAt(i) - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Equivalent of matching {@link #SPECIAL_CLASSIFIER}.
+     *
+     * @since 1.7.6
+     */
+    protected static boolean isSpecialClassifier(String classifier) {
+        for (int i = 0; i < classifier.length(); i++) {
+            char c = classifier.charAt(i);
+            // not matched by the final ".*"
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
             }
-            if (versionClassifier != null && !versionClassifier.isEmpty()) { // classifier found
-                classifier = versionClassifier.substring(1);
-                specialClassifier = SPECIAL_CLASSIFIER.matcher(classifier).matches();
+        }
+        if (classifier.startsWith("RC") || classifier.startsWith("rc") || classifier.startsWith("alpha")
+                || classifier.startsWith("ALPHA") || classifier.startsWith("beta") || classifier.startsWith("BETA")) {
+            return true;
+        }
+        if (classifier.length() < 9) {
+            return false;
+        }
+        char c = classifier.charAt(0);
+        if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+            return false;
+        }
+        for (int i = 1; i < 9; i++) {
+            if (!isDigit(classifier.charAt(i))) {
+                return false;
             }
         }
+        return true;
     }
 
     public Version(int major) {
@@ -134,7 +248,7 @@ public class Version implements Comparable<Version> {
         this.patch = patch;
         this.classifier = classifier;
         if (classifier != null) {
-            specialClassifier = SPECIAL_CLASSIFIER.matcher(classifier).matches();
+            specialClassifier = isSpecialClassifier(classifier);
         }
     }
 
@@ -176,7 +290,6 @@ public class Version implements Comparable<Version> {
 
     @Override
     public int compareTo(Version o) {
-        log.trace("Comparing " + this + " with " + o);
         int d = major - o.major;
         if (d != 0) {
             return d;
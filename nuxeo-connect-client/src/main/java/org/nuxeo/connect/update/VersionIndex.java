@@ -0,0 +1,163 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.update;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Values indexed by package name then by {@link Version}, in {@link Version#compareTo(Version) version order}, so
+ * SNAPSHOT and classifier ordering is respected. Answers the {@link VersionRange} queries in logarithmic time
+ * instead of calling {@link VersionRange#matchVersion(Version)} on each version. Versions equal to each other share
+ * one entry. Names are kept sorted, so that iterations do not depend on the insertion order.
+ * <p>
+ * Not thread safe. The versions used as keys must not be modified.
+ *
+ * @param <T> the type of the indexed values
+ * @since 1.7.6
+ */
+public class VersionIndex<T> {
+
+    protected final NavigableMap<String, NavigableMap<Version, T>> versionsByName = new TreeMap<>();
+
+    /**
+     * @return the previous value for the given name and version, null if none
+     */
+    public T put(String name, Version version, T value) {
+        return versionsByName.computeIfAbsent(name, k -> new TreeMap<>()).put(version, value);
+    }
+
+    /**
+     * @return the removed value, null if none
+     */
+    public T remove(String name, Version version) {
+        NavigableMap<Version, T> versions = versionsByName.get(name);
+        if (versions == null) {
+            return null;
+        }
+        T value = versions.remove(version);
+        if (versions.isEmpty()) {
+            versionsByName.remove(name);
+        }
+        return value;
+    }
+
+    public T get(String name, Version version) {
+        NavigableMap<Version, T> versions = versionsByName.get(name);
+        return versions == null ? null : versions.get(version);
+    }
+
+    public boolean contains(String name) {
+        return versionsByName.containsKey(name);
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(versionsByName.keySet());
+    }
+
+    /**
+     * @return the values of the given name by ascending version, null if the name is not indexed
+     */
+    public NavigableMap<Version, T> getVersions(String name) {
+        NavigableMap<Version, T> versions = versionsByName.get(name);
+        return versions == null ? null : Collections.unmodifiableNavigableMap(versions);
+    }
+
+    /**
+     * @return the values of the given name whose version matches the given range, by ascending version
+     */
+    public NavigableMap<Version, T> getVersions(String name, VersionRange range) {
+        NavigableMap<Version, T> versions = versionsByName.get(name);
+        if (versions == null) {
+            return Collections.emptyNavigableMap();
+        }
+        return Collections.unmodifiableNavigableMap(subMap(versions, range));
+    }
+
+    /**
+     * @return the entry of the latest version of the given name matching the given range, null if none
+     */
+    public Map.Entry<Version, T> getLatest(String name, VersionRange range) {
+        NavigableMap<Version, T> versions = versionsByName.get(name);
+        return versions == null ? null : subMap(versions, range).lastEntry();
+    }
+
+    /**
+     * @return the entry of the earliest version of the given name matching the given range, null if none
+     */
+    public Map.Entry<Version, T> getEarliest(String name, VersionRange range) {
+        NavigableMap<Version, T> versions = versionsByName.get(name);
+        return versions == null ? null : subMap(versions, range).firstEntry();
+    }
+
+    public void clear() {
+        versionsByName.clear();
+    }
+
+    /**
+     * @return a view of the given versions restricted to the ones matching the given range, as
+     *         {@link VersionRange#matchVersion(Version)} does
+     */
+    public static <T> NavigableMap<Version, T> subMap(NavigableMap<Version, T> versions, VersionRange range) {
+        Version min = range.getMinVersion();
+        Version max = range.getMaxVersion();
+        if (min == null && max == null) {
+            return versions;
+        } else if (max == null) {
+            return versions.tailMap(min, true);
+        } else if (min == null) {
+            return versions.headMap(max, true);
+        } else if (min.compareTo(max) > 0) {
+            return Collections.emptyNavigableMap();
+        }
+        return versions.subMap(min, true, max, true);
+    }
+
+    /**
+     * @return a view of the given versions restricted to the ones matching the given range, as
+     *         {@link VersionRange#matchVersion(Version)} does
+     */
+    public static NavigableSet<Version> subSet(NavigableSet<Version> versions, VersionRange range) {
+        Version min = range.getMinVersion();
+        Version max = range.getMaxVersion();
+        if (min == null && max == null) {
+            return versions;
+        } else if (max == null) {
+            return versions.tailSet(min, true);
+        } else if (min == null) {
+            return versions.headSet(max, true);
+        } else if (min.compareTo(max) > 0) {
+            return Collections.emptyNavigableSet();
+        }
+        return versions.subSet(min, true, max, true);
+    }
+
+    @Override
+    public String toString() {
+        return versionsByName.toString();
+    }
+
+}
@@ -24,18 +24,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
+import org.apache.commons.io.IOUtils;
 import org.eclipse.equinox.p2.cudf.Parser;
 import org.eclipse.equinox.p2.cudf.metadata.IProvidedCapability;
 import org.eclipse.equinox.p2.cudf.metadata.IRequiredCapability;
 import org.eclipse.equinox.p2.cudf.metadata.InstallableUnit;
 import org.eclipse.equinox.p2.cudf.metadata.NotRequirement;
 import org.eclipse.equinox.p2.cudf.metadata.RequiredCapability;
-import org.eclipse.equinox.p2.cudf.metadata.VersionRange;
 import org.eclipse.equinox.p2.cudf.solver.ProfileChangeRequest;
 import org.eclipse.equinox.p2.cudf.solver.SimplePlanner;
 import org.eclipse.equinox.p2.cudf.solver.SolverConfiguration;
@@ -44,8 +46,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.packages.dependencies.CUDFHelper.CUDFConstraint;
+import org.nuxeo.connect.packages.dependencies.CUDFHelper.VersionMatchMappingPolicy;
+import org.nuxeo.connect.packages.PackageManagerImpl;
 import org.nuxeo.connect.pm.tests.AbstractPackageManagerTestCase;
 import org.nuxeo.connect.pm.tests.DummyPackageSource;
+import org.nuxeo.connect.update.PackageDependency;
+import org.nuxeo.connect.update.VersionRange;
 
 /**
  * @since 1.4
@@ -138,6 +145,34 @@ public class CUDFHelperTest extends AbstractPackageManagerTestCase {
                 cudfHelper.getCUDFPackages("nuxeo-content-browser").size());
         assertEquals("There must be one nuxeo-content-browser*cmf package", 1,
                 cudfHelper.getCUDFPackages("nuxeo-content-browser*cmf").size());
+        List<Integer> cudfVersions = new ArrayList<>();
+        VersionRange range = new VersionRange("5.6.0-SNAPSHOT");
+        for (NuxeoCUDFPackage pkg : cudfHelper.getCUDFPackages("nuxeo-cmf", range).values()) {
+            cudfVersions.add(pkg.getCUDFVersion());
+        }
+        assertEquals(Arrays.asList(2, 3), cudfVersions);
+    }
+
+    @Test
+    public void testCUDFConstraints() throws Exception {
+        cudfHelper.initMapping();
+        // nuxeo-cmf 5.5.0 and 5.6.0 are the CUDF versions 1 and 3
+        List<CUDFConstraint> constraints = cudfHelper.getCUDFConstraints(
+                new PackageDependency[] { new PackageDependency("nuxeo-cmf:5.5.1:5.6.0") }, false, false,
+                VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND);
+        assertEquals("A bound not found matches all versions", 1, constraints.size());
+        assertEquals(0, constraints.get(0).minVersion);
+        assertEquals(3, constraints.get(0).maxVersion);
+
+        // each bound of an inverted range is looked up on its own
+        constraints = cudfHelper.getCUDFConstraints(
+                new PackageDependency[] { new PackageDependency("nuxeo-cmf:5.6.0:5.5.0") }, false, false,
+                VersionMatchMappingPolicy.ALL_WHEN_NOT_FOUND);
+        assertEquals(2, constraints.size());
+        assertEquals(3, constraints.get(0).minVersion);
+        assertEquals(Integer.MAX_VALUE, constraints.get(0).maxVersion);
+        assertEquals(0, constraints.get(1).minVersion);
+        assertEquals(1, constraints.get(1).maxVersion);
     }
 
     @Test
@@ -161,6 +196,34 @@ public class CUDFHelperTest extends AbstractPackageManagerTestCase {
                 new TreeSet<>(genMap.values()));
     }
 
+    @Test
+    public void testCUDFFileIsDeterministic() throws Exception {
+        cudfHelper.initMapping();
+        String cudfFile = cudfHelper.getCUDFFile();
+
+        List<DownloadablePackage> local = getDownloads("local3.json");
+        List<DownloadablePackage> remote = getDownloads("remote3.json");
+        Collections.reverse(local);
+        Collections.reverse(remote);
+        ((PackageManagerImpl) pm).resetSources();
+        pm.registerSource(new DummyPackageSource(remote, "remote3"), false);
+        pm.registerSource(new DummyPackageSource(local, "local3"), true);
+        CUDFHelper otherHelper = new CUDFHelper(pm);
+        otherHelper.setAllowSNAPSHOT(true);
+        otherHelper.initMapping();
+        assertEquals(cudfFile, otherHelper.getCUDFFile());
+    }
+
+    @Test
+    public void testGetCUDFStream() throws Exception {
+        PackageDependency[] installs = new PackageDependency[] { new PackageDependency("nuxeo-cmf:5.6.0") };
+        PackageDependency[] none = new PackageDependency[0];
+        String cudfFile = cudfHelper.getCUDFFile(installs, none, none);
+        try (InputStream cudf = cudfHelper.getCUDFStream(installs, none, none)) {
+            assertEquals(cudfFile, IOUtils.toString(cudf));
+        }
+    }
+
     private InstallableUnit getIU(String id) {
         Iterator<InstallableUnit> it = pcr.getInitialState().iterator();
         while (it.hasNext()) {
@@ -212,20 +275,26 @@ public class CUDFHelperTest extends AbstractPackageManagerTestCase {
     @Test
     public void testP2CUDFParserCheckPackages() {
         InstallableUnit iu = getIU("nuxeo-dm");
-        assertRequirement("nuxeo-dm must conflict with nuxeo-cmf in all versions", new NotRequirement(
-                new RequiredCapability("nuxeo-cmf", VersionRange.emptyRange)), iu.getRequiredCapabilities());
+        assertRequirement("nuxeo-dm must conflict with nuxeo-cmf in all versions",
+                new NotRequirement(new RequiredCapability("nuxeo-cmf",
+                        org.eclipse.equinox.p2.cudf.metadata.VersionRange.emptyRange)),
+                iu.getRequiredCapabilities());
         assertEquals("Wrong nuxeo-dm version", "1", iu.getVersion().toString());
         assertFalse("nuxeo-dm is not installed", iu.isInstalled());
 
         iu = getIU("nuxeo-social-collaboration");
-        assertRequirement("nuxeo-social-collaboration must depend on nuxeo-dm 1", new RequiredCapability("nuxeo-dm",
-                new VersionRange(new org.eclipse.equinox.p2.cudf.metadata.Version(1))), iu.getRequiredCapabilities());
+        assertRequirement("nuxeo-social-collaboration must depend on nuxeo-dm 1",
+                new RequiredCapability("nuxeo-dm", new org.eclipse.equinox.p2.cudf.metadata.VersionRange(
+                        new org.eclipse.equinox.p2.cudf.metadata.Version(1))),
+                iu.getRequiredCapabilities());
         assertEquals("Wrong nuxeo-social-collaboration version", "1", iu.getVersion().toString());
         assertFalse("nuxeo-social-collaboration is not installed", iu.isInstalled());
 
         iu = getIU("nuxeo-cmf");
-        assertRequirement("nuxeo-cmf must conflict with nuxeo-dm in all versions", new NotRequirement(
-                new RequiredCapability("nuxeo-dm", VersionRange.emptyRange)), iu.getRequiredCapabilities());
+        assertRequirement("nuxeo-cmf must conflict with nuxeo-dm in all versions",
+                new NotRequirement(new RequiredCapability("nuxeo-dm",
+                        org.eclipse.equinox.p2.cudf.metadata.VersionRange.emptyRange)),
+                iu.getRequiredCapabilities());
         assertEquals("Wrong nuxeo-cmf version", "1", iu.getVersion().toString());
         assertTrue("nuxeo-cmf is installed", iu.isInstalled());
     }
@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.pm.tests.AbstractPackageManagerTestCase;
+import org.nuxeo.connect.pm.tests.DummyPackageSource;
+import org.nuxeo.connect.update.PackageState;
+
+/**
+ * @since 1.7.6
+ */
+public class CUDFReplayTest extends AbstractPackageManagerTestCase {
+
+    protected File dumpDir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dumpDir = Files.createTempDirectory("cudf").toFile();
+        pm.registerSource(new DummyPackageSource(getDownloads("local3.json"), "local3"), true);
+        pm.registerSource(new DummyPackageSource(getDownloads("remote3.json"), "remote3"), false);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dumpDir);
+        super.tearDown();
+    }
+
+    @Test
+    public void testDumpAndReplay() throws Exception {
+        P2CUDFDependencyResolver resolver = new SATDependencyResolver(pm);
+        resolver.setDumpDirectory(dumpDir);
+        DependencyResolution resolution = resolver.resolve(Arrays.asList("nuxeo-dm-5.5.0"), null, null, "5.5.0");
+        assertFalse(resolution.toString(), resolution.isFailed());
+        File[] files = dumpDir.listFiles();
+        assertEquals(1, files.length);
+
+        CUDFDump dump = CUDFReplay.read(files[0]);
+        assertEquals("5.5.0", dump.getTargetPlatform());
+        assertEquals(1, dump.getInstall().size());
+        assertTrue(dump.getInstall().get(0).startsWith("nuxeo-dm:"));
+        assertTrue(dump.getRemove().isEmpty());
+        assertNull(dump.getError());
+        assertNotNull(dump.getSolverCriteria());
+        Map<String, PackageState> states = new HashMap<>();
+        dump.getPackages().values().forEach(pkg -> states.put(pkg.getId(), pkg.getPackageState()));
+        assertEquals(4, states.size());
+        assertEquals(PackageState.STARTED, states.get("nuxeo-cmf-5.5.0"));
+        assertEquals(PackageState.DOWNLOADED, states.get("nuxeo-dm-5.5.0"));
+
+        // the dump is a CUDF document
+        try (BufferedReader reader = Files.newBufferedReader(files[0].toPath(), StandardCharsets.UTF_8)) {
+            Map<String, NuxeoCUDFPackageDescription> universe = new CUDFHelper(pm).parseCUDFFile(reader);
+            assertEquals(dump.getPackages().keySet(), universe.keySet());
+        }
+
+        CUDFReplay replay = new CUDFReplay(Arrays.asList(PackageManager.SAT_DEPENDENCY_RESOLVER,
+                PackageManager.P2CUDF_DEPENDENCY_RESOLVER), 2);
+        List<CUDFReplay.Result> results = replay.replay(dump);
+        assertEquals(2, results.size());
+        CUDFReplay.Result result = results.get(0);
+        assertEquals(2, result.getDurations().size());
+        assertNull(result.getError());
+        assertEquals(resolution.getOrderedPackageIdsToInstall(),
+                result.getResolution().getOrderedPackageIdsToInstall());
+        assertEquals(resolution.getRemovePackageIds(), result.getResolution().getRemovePackageIds());
+        assertEquals(results.toString(), 0, CUDFReplay.compare(results).size());
+        // the replay is not captured
+        assertEquals(1, dumpDir.listFiles().length);
+    }
+
+}
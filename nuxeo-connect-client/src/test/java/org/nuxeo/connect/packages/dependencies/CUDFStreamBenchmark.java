@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.equinox.p2.cudf.Parser;
+
+import org.nuxeo.connect.NuxeoConnectClient;
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.pm.tests.DummyPackageSource;
+import org.nuxeo.connect.update.PackageDependency;
+
+/**
+ * Compares parsing the CUDF universe formatted as a single string with parsing it streamed by
+ * {@link CUDFHelper#getCUDFStream(PackageDependency[], PackageDependency[], PackageDependency[])}, then reports the
+ * share of the CUDF formatting and parsing in full resolutions by the solver, from their {@link ResolutionMetrics}.
+ * Not part of the unit tests: run its main method with the number of packages and of versions per package as
+ * arguments.
+ *
+ * @since 1.7.6
+ */
+public class CUDFStreamBenchmark {
+
+    protected static final int ROUNDS = 10;
+
+    protected static List<DownloadablePackage> newUniverse(int packages, int versions) throws Exception {
+        List<DownloadablePackage> universe = new ArrayList<>();
+        for (int i = 0; i < packages; i++) {
+            for (int v = 1; v <= versions; v++) {
+                String dependency = i == 0 ? "" : ",\"dependencies\":[\"pkg" + (i - 1) + ":1.0.0:" + v + ".0.0\"]";
+                universe.add(AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                        "{\"id\":\"pkg" + i + "-" + v + ".0.0\",\"name\":\"pkg" + i + "\",\"version\":\"" + v
+                                + ".0.0\",\"type\":\"addon\"" + dependency + "}"));
+            }
+        }
+        return universe;
+    }
+
+    protected static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int packages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.setProperty("org.nuxeo.connect.client.testMode", "true");
+        PackageManagerImpl pm = (PackageManagerImpl) NuxeoConnectClient.getPackageManager();
+        pm.resetSources();
+        pm.registerSource(new DummyPackageSource(newUniverse(packages, versions), "benchmark"), false);
+        PackageDependency[] installs = { new PackageDependency("pkg" + (packages - 1)) };
+        PackageDependency[] none = new PackageDependency[0];
+        CUDFHelper cudfHelper = new CUDFHelper(pm);
+        // warm up both paths
+        for (int i = 0; i < ROUNDS; i++) {
+            new Parser().parse(new ByteArrayInputStream(cudfHelper.getCUDFFile(installs, none, none).getBytes()));
+            try (InputStream cudf = cudfHelper.getCUDFStream(installs, none, none)) {
+                new Parser().parse(cudf);
+            }
+        }
+        long stringTime = 0, stringBytes = 0, streamTime = 0, streamBytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            new Parser().parse(new ByteArrayInputStream(cudfHelper.getCUDFFile(installs, none, none).getBytes()));
+            stringTime += System.nanoTime() - start;
+            stringBytes += allocatedBytes() - bytes;
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            try (InputStream cudf = cudfHelper.getCUDFStream(installs, none, none)) {
+                new Parser().parse(cudf);
+            }
+            streamTime += System.nanoTime() - start;
+            streamBytes += allocatedBytes() - bytes;
+        }
+        System.out.println(
+                String.format("%d packages x %d versions, average of %d rounds", packages, versions, ROUNDS));
+        System.out.println(String.format("string: %d ms, %d KB allocated", stringTime / ROUNDS / 1000000,
+                stringBytes / ROUNDS / 1024));
+        System.out.println(String.format("stream: %d ms, %d KB allocated", streamTime / ROUNDS / 1000000,
+                streamBytes / ROUNDS / 1024));
+
+        // the fast path resolves install requests without CUDF: disabled so that the solver runs
+        ((P2CUDFDependencyResolver) pm.getResolver()).setFastPathEnabled(false);
+        List<String> request = Collections.singletonList("pkg" + (packages - 1));
+        pm.resolveDependencies(request, null, null, null);
+        ResolutionMetrics metrics = new ResolutionMetrics();
+        for (int i = 0; i < ROUNDS; i++) {
+            // not served by the resolution cache
+            pm.flushCache();
+            metrics.add(pm.resolveDependencies(request, null, null, null).getMetrics());
+        }
+        long total = metrics.getDuration(ResolutionMetrics.TOTAL);
+        long cudf = metrics.getDuration(ResolutionMetrics.FORMAT_CUDF)
+                + metrics.getDuration(ResolutionMetrics.PARSE_CUDF);
+        System.out.println(String.format("resolution: %d ms, CUDF formatting and parsing: %d ms (%d%%), solving: %d ms",
+                total / ROUNDS / 1000000, cudf / ROUNDS / 1000000, total > 0 ? 100 * cudf / total : 0,
+                metrics.getDuration(ResolutionMetrics.SOLVE) / ROUNDS / 1000000));
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.packages.dependencies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.update.PackageDependency;
+
+/**
+ * @since 1.7.6
+ */
+public class CUDFUniverseTest {
+
+    protected static PackageDescriptor newPackage() throws Exception {
+        return AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                "{\"id\":\"pkgA-1.0.0\",\"name\":\"pkgA\",\"version\":\"1.0.0\",\"type\":\"addon\","
+                        + "\"targetPlatforms\":[\"server-8.10\"]}");
+    }
+
+    protected static List<DownloadablePackage> asList(DownloadablePackage pkg) {
+        return Collections.singletonList(pkg);
+    }
+
+    @Test
+    public void testMetadataChange() throws Exception {
+        CUDFUniverse universe = new CUDFUniverse();
+        PackageDescriptor pkg = newPackage();
+        assertTrue(universe.update(asList(pkg), 1));
+        assertTrue(universe.isCompatibleWithTargetPlatform(pkg, "server-8.10"));
+        assertTrue(universe.getProviders("pkgB").isEmpty());
+        PackageGraph graph = universe.getGraph();
+
+        // another instance of the same descriptor
+        PackageDescriptor sameMetadata = newPackage();
+        assertFalse(universe.update(asList(sameMetadata), 2));
+        assertSame(sameMetadata, universe.getPackages("pkgA").get(0));
+        assertSame(graph, universe.getGraph());
+
+        // same id and state, other metadata
+        PackageDescriptor otherMetadata = newPackage();
+        otherMetadata.setProvides(new PackageDependency[] { new PackageDependency("pkgB") });
+        otherMetadata.setTargetPlatforms(new String[] { "server-9.10" });
+        assertTrue(universe.update(asList(otherMetadata), 3));
+        assertEquals(1, universe.getProviders("pkgB").size());
+        assertFalse(universe.isCompatibleWithTargetPlatform(otherMetadata, "server-8.10"));
+        assertNotSame(graph, universe.getGraph());
+    }
+
+}
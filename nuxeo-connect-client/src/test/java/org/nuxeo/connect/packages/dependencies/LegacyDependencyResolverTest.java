@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.pm.tests.AbstractPackageManagerTestCase;
+import org.nuxeo.connect.pm.tests.DummyPackageSource;
+
+/**
+ * @since 1.7.6
+ */
+@SuppressWarnings("deprecation")
+public class LegacyDependencyResolverTest extends AbstractPackageManagerTestCase {
+
+    protected static final int NAMES = 25;
+
+    protected static DownloadablePackage newPackage(String name, String version, List<String> dependencies)
+            throws JSONException {
+        return AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                "{\"id\":\"" + name + "-" + version + "\",\"name\":\"" + name + "\",\"version\":\"" + version
+                        + "\",\"type\":\"addon\",\"state\":2,\"dependencies\":" + dependencies + "}");
+    }
+
+    /**
+     * Registers packages in 3 versions where each package depends on the previous one and on the one at half its
+     * index, and on the given base range. The top package depends on the base with the given range.
+     */
+    protected void registerUniverse(String baseRange, String topBaseRange) throws JSONException {
+        List<DownloadablePackage> remote = new ArrayList<>();
+        for (int v = 0; v < 3; v++) {
+            remote.add(newPackage("base", "1." + v + ".0", new ArrayList<>()));
+        }
+        for (int i = 0; i < NAMES; i++) {
+            for (int v = 0; v < 3; v++) {
+                List<String> dependencies = new ArrayList<>();
+                if (i == NAMES - 1) {
+                    dependencies.add("\"base:" + topBaseRange + "\"");
+                }
+                if (i > 0) {
+                    dependencies.add("\"pkg" + (i - 1) + ":1.0.0\"");
+                    dependencies.add("\"pkg" + (i / 2) + ":1.0.0\"");
+                }
+                dependencies.add("\"base:" + baseRange + "\"");
+                remote.add(newPackage("pkg" + i, "1." + v + ".0", dependencies));
+            }
+        }
+        pm.registerSource(new DummyPackageSource(remote, "remote"), false);
+        ((PackageManagerImpl) pm).setResolver(PackageManager.LEGACY_DEPENDENCY_RESOLVER);
+    }
+
+    @Test
+    public void testDeepDependencies() throws Exception {
+        registerUniverse("1.0.0", "1.0.0");
+        // each version of each package was expanded on every path
+        DependencyResolution resolution = pm.resolveDependencies("pkg" + (NAMES - 1) + "-1.2.0", null);
+        assertFalse(resolution.toString(), resolution.isFailed());
+        assertEquals(NAMES + 1, resolution.getOrderedPackageIdsToInstall().size());
+        assertTrue(resolution.getOrderedPackageIdsToInstall().contains("pkg" + (NAMES - 1) + "-1.2.0"));
+    }
+
+    @Test
+    public void testConflictPruning() throws Exception {
+        registerUniverse("1.0.0:1.0.0", "1.2.0");
+        // all the sets of package versions were enumerated before the conflict on the base was found
+        DependencyResolution resolution = pm.resolveDependencies("pkg" + (NAMES - 1) + "-1.2.0", null);
+        assertTrue(resolution.isFailed());
+        assertFalse(resolution.toString(), resolution.toString().contains(LegacyDependencyResolver.MAX_NODES_PROPERTY));
+    }
+
+    @Test
+    public void testNodeBudget() throws Exception {
+        registerUniverse("1.0.0", "1.0.0");
+        RecursiveDependencyResolver choices = new LegacyDependencyResolver(pm).computeAvailableChoices(
+                "pkg" + (NAMES - 1) + "-1.2.0", null);
+        choices.setMaxNodes(NAMES / 2);
+        assertNull(choices.tryResolve());
+        assertTrue(choices.isBudgetExhausted());
+        choices.setMaxNodes(RecursiveDependencyResolver.DEFAULT_MAX_NODES);
+        assertNotNull(choices.tryResolve());
+        assertFalse(choices.isBudgetExhausted());
+    }
+
+    @Test
+    public void testInvalidMaxNodes() throws Exception {
+        System.setProperty(LegacyDependencyResolver.MAX_NODES_PROPERTY, "100k");
+        try {
+            assertEquals(RecursiveDependencyResolver.DEFAULT_MAX_NODES, new LegacyDependencyResolver(pm).getMaxNodes());
+        } finally {
+            System.clearProperty(LegacyDependencyResolver.MAX_NODES_PROPERTY);
+        }
+    }
+
+}
@@ -20,15 +20,28 @@ package org.nuxeo.connect.packages.dependencies;
 
 //import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.equinox.p2.cudf.solver.ProfileChangeRequest;
+import org.eclipse.equinox.p2.cudf.solver.SimplePlanner;
+import org.eclipse.equinox.p2.cudf.solver.SolverConfiguration;
+import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
 import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.dependencies.P2CUDFDependencyResolver.PortfolioMember;
 import org.nuxeo.connect.pm.tests.AbstractPackageManagerTestCase;
 import org.nuxeo.connect.pm.tests.DummyPackageSource;
+import org.nuxeo.connect.update.PackageDependency;
 
 /**
  * @since 1.4
@@ -60,4 +73,267 @@ public class P2CUDFDependencyResolverTest extends AbstractPackageManagerTestCase
                 resolution.getOrderedPackageIdsToInstall());
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        List<DependencyResolution> notified = new ArrayList<>();
+        ResolutionListener listener = (request, res) -> notified.add(res);
+        ((PackageManagerImpl) pm).getResolutionCache().clear();
+        ((PackageManagerImpl) pm).addResolutionListener(listener);
+        try {
+            checkMetrics(notified);
+        } finally {
+            ((PackageManagerImpl) pm).removeResolutionListener(listener);
+        }
+    }
+
+    protected void checkMetrics(List<DependencyResolution> notified) {
+        DependencyResolution resolution = pm.resolveDependencies(Arrays.asList("nuxeo-dm-5.5.0"), null, null, "5.5.0");
+        assertFalse(resolution.toString(), resolution.isFailed());
+        ResolutionMetrics metrics = resolution.getMetrics();
+        assertNotNull(metrics);
+        for (String phase : new String[] { ResolutionMetrics.INIT_MAPPING, ResolutionMetrics.SOLVE,
+                ResolutionMetrics.BUILD_RESOLUTION, ResolutionMetrics.CHECK_OPTIONAL_DEPENDENCIES,
+                ResolutionMetrics.ORDER, ResolutionMetrics.TOTAL }) {
+            assertTrue(phase, metrics.getDurations().containsKey(phase));
+        }
+        assertTrue(metrics.getDuration(ResolutionMetrics.TOTAL) >= metrics.getDuration(ResolutionMetrics.SOLVE));
+        assertTrue(metrics.getInvolvedPackages() > 0);
+        assertTrue(metrics.getUniverseSize() >= metrics.getInvolvedPackages());
+        // the CUDF is only streamed to p2cudf
+        assertTrue(metrics.getCUDFBytes() > 0 || metrics.getDurations().containsKey(ResolutionMetrics.ENCODE));
+        assertEquals(resolution.isOptimal(), metrics.isOptimal());
+        assertEquals(1, notified.size());
+        assertSame(metrics, notified.get(0).getMetrics());
+
+        // a failed resolution is notified too
+        resolution = pm.resolveDependencies(Arrays.asList("nuxeo-dm-5.5.0"), Arrays.asList("nuxeo-content-browser"),
+                null, "5.5.0");
+        assertTrue(resolution.isFailed());
+        assertTrue(resolution.getMetrics().getDurations().containsKey(ResolutionMetrics.TOTAL));
+        assertEquals(2, notified.size());
+    }
+
+    /**
+     * Planner solving until stopped.
+     */
+    protected static class BlockingPlanner extends SimplePlanner {
+
+        protected final CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override
+        public Object getSolutionFor(ProfileChangeRequest req, SolverConfiguration configuration) {
+            try {
+                stopped.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        @Override
+        public void stopSolver() {
+            stopped.countDown();
+        }
+    }
+
+    @Test
+    public void testSolverTimeBudget() throws Exception {
+        P2CUDFDependencyResolver resolver = new P2CUDFDependencyResolver(pm);
+        BlockingPlanner planner = new BlockingPlanner();
+        resolver.setSolverTimeBudget(100);
+        ResolutionMetrics metrics = new ResolutionMetrics();
+        long start = System.currentTimeMillis();
+        assertFalse(resolver.solve(planner, null, null, metrics));
+        assertEquals(0, planner.stopped.getCount());
+        assertTrue(System.currentTimeMillis() - start < P2CUDFDependencyResolver.SOLVER_STOP_TIMEOUT_MS);
+        assertTrue(metrics.getDuration(ResolutionMetrics.SOLVE) >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(metrics.getDurations().containsKey(ResolutionMetrics.STOP_SOLVER));
+
+        // a solver completing within the budget is not stopped
+        planner = new BlockingPlanner();
+        planner.stopSolver();
+        resolver.setSolverTimeBudget(0);
+        assertTrue(resolver.solve(planner, null, null, new ResolutionMetrics()));
+    }
+
+    @Test
+    public void testInvalidSolverTimeBudget() throws Exception {
+        System.setProperty(P2CUDFDependencyResolver.SOLVER_TIME_BUDGET_PROPERTY, "1s");
+        try {
+            assertEquals(0, new P2CUDFDependencyResolver(pm).getSolverTimeBudget());
+        } finally {
+            System.clearProperty(P2CUDFDependencyResolver.SOLVER_TIME_BUDGET_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testSolverNotStopping() throws Exception {
+        P2CUDFDependencyResolver resolver = new P2CUDFDependencyResolver(pm);
+        resolver.setSolverTimeBudget(100);
+        // ignores the stop requests until the end of the test
+        BlockingPlanner planner = new BlockingPlanner() {
+            @Override
+            public void stopSolver() {
+            }
+        };
+        try {
+            resolver.solve(planner, null, null, new ResolutionMetrics());
+            fail("Expected DependencyException");
+        } catch (DependencyException e) {
+            // its solution is not read while it is still running
+            assertEquals(1, planner.stopped.getCount());
+        } finally {
+            planner.stopped.countDown();
+        }
+    }
+
+    @Test
+    public void testSolverCancellation() throws Exception {
+        P2CUDFDependencyResolver resolver = new P2CUDFDependencyResolver(pm);
+        BlockingPlanner planner = new BlockingPlanner();
+        Thread.currentThread().interrupt();
+        try {
+            resolver.solve(planner, null, null, new ResolutionMetrics());
+            fail("Expected DependencyException");
+        } catch (DependencyException e) {
+            assertTrue(Thread.interrupted());
+            assertEquals(0, planner.stopped.getCount());
+        }
+    }
+
+    /**
+     * Planner completing at once.
+     */
+    protected static class ImmediatePlanner extends SimplePlanner {
+
+        protected final boolean optimal;
+
+        protected ImmediatePlanner(boolean optimal) {
+            this.optimal = optimal;
+        }
+
+        @Override
+        public Object getSolutionFor(ProfileChangeRequest req, SolverConfiguration configuration) {
+            return null;
+        }
+
+        @Override
+        public boolean isSolutionOptimal() {
+            return optimal;
+        }
+    }
+
+    @Test
+    public void testPortfolioCriteria() throws Exception {
+        P2CUDFDependencyResolver resolver = new P2CUDFDependencyResolver(pm);
+        String criteria = P2CUDFDependencyResolver.SOLVER_CRITERIA_LESS_OUTDATED;
+        assertEquals(Arrays.asList(criteria), resolver.getPortfolio(criteria));
+        resolver.setPortfolioEnabled(true);
+        assertEquals(Arrays.asList(criteria, "-removed,-notuptodate,-versionchanged,-changed,-new",
+                "-removed,-notuptodate,-new,-versionchanged,-changed"), resolver.getPortfolio(criteria));
+    }
+
+    @Test
+    public void testPortfolioSelectsFirstOptimal() throws Exception {
+        P2CUDFDependencyResolver resolver = new P2CUDFDependencyResolver(pm);
+        CUDFHelper cudfHelper = new CUDFHelper(pm);
+        cudfHelper.initMapping();
+        BlockingPlanner blocking = new BlockingPlanner();
+        ImmediatePlanner optimal = new ImmediatePlanner(true);
+        List<PortfolioMember> members = Arrays.asList(new PortfolioMember("a", blocking),
+                new PortfolioMember("b", new ImmediatePlanner(false)), new PortfolioMember("c", optimal));
+        PortfolioMember selected = resolver.solvePortfolio(cudfHelper, "", members);
+        assertSame(optimal, selected.planner);
+        assertTrue(selected.optimal);
+        // the others are cancelled
+        assertEquals(0, blocking.stopped.getCount());
+    }
+
+    @Test
+    public void testPortfolioDeadline() throws Exception {
+        P2CUDFDependencyResolver resolver = new P2CUDFDependencyResolver(pm);
+        resolver.setSolverTimeBudget(100);
+        CUDFHelper cudfHelper = new CUDFHelper(pm);
+        cudfHelper.initMapping();
+        BlockingPlanner first = new BlockingPlanner();
+        BlockingPlanner second = new BlockingPlanner();
+        List<PortfolioMember> members = Arrays.asList(new PortfolioMember("a", first),
+                new PortfolioMember("b", second));
+        PortfolioMember selected = resolver.solvePortfolio(cudfHelper, "", members);
+        assertSame(first, selected.planner);
+        assertFalse(selected.optimal);
+        assertEquals(0, first.stopped.getCount());
+        assertEquals(0, second.stopped.getCount());
+
+        // a completed non optimal solution is preferred over a stopped one
+        BlockingPlanner blocking = new BlockingPlanner();
+        ImmediatePlanner completed = new ImmediatePlanner(false);
+        members = Arrays.asList(new PortfolioMember("a", blocking), new PortfolioMember("b", completed));
+        selected = resolver.solvePortfolio(cudfHelper, "", members);
+        assertSame(completed, selected.planner);
+        assertFalse(selected.optimal);
+        assertEquals(0, blocking.stopped.getCount());
+    }
+
+    /**
+     * Resolver counting the requests left to the solver.
+     */
+    protected static class CountingResolver extends SATDependencyResolver {
+
+        protected int solved;
+
+        protected CountingResolver(PackageManager pm) {
+            super(pm);
+        }
+
+        @Override
+        protected DependencyResolution resolve(CUDFHelper cudfHelper, PackageDependency[] installs,
+                PackageDependency[] removes, PackageDependency[] upgrades, String solverCriteria,
+                boolean isSubResolution) throws DependencyException {
+            solved++;
+            return super.resolve(cudfHelper, installs, removes, upgrades, solverCriteria, isSubResolution);
+        }
+    }
+
+    protected static DownloadablePackage newPackage(String id, int state, String extra) throws JSONException {
+        int index = id.indexOf('-');
+        return AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                "{\"id\":\"" + id + "\",\"name\":\"" + id.substring(0, index) + "\",\"version\":\""
+                        + id.substring(index + 1) + "\",\"type\":\"addon\",\"state\":" + state + extra + "}");
+    }
+
+    @Test
+    public void testResolveByPropagation() throws Exception {
+        pm.registerSource(new DummyPackageSource(Arrays.asList(newPackage("fastA-1.0.0", 5, "")), "fastLocal"),
+                true);
+        pm.registerSource(new DummyPackageSource(Arrays.asList(newPackage("fastB-1.0.0", 0, ""),
+                newPackage("fastB-1.1.0", 0, ",\"dependencies\":[\"fastA\"]"),
+                newPackage("fastC-1.0.0", 0, ",\"dependencies\":[\"fastB:1.0.0:1.0.0\"]"),
+                newPackage("fastD-1.0.0", 0, ",\"conflicts\":[\"fastA\"]")), "fast"), false);
+        CountingResolver resolver = new CountingResolver(pm);
+        // the latest version is picked
+        DependencyResolution resolution = resolver.resolve(Arrays.asList("fastB"), null, null, null);
+        assertEquals(0, resolver.solved);
+        assertEquals(Arrays.asList("fastB-1.1.0"), resolution.getOrderedPackageIdsToInstall());
+        assertTrue(resolution.getUnchangedPackageIds().contains("fastA-1.0.0"));
+        // the only matching version is picked
+        resolution = resolver.resolve(Arrays.asList("fastC"), null, null, null);
+        assertEquals(0, resolver.solved);
+        assertEquals(Arrays.asList("fastB-1.0.0", "fastC-1.0.0"), resolution.getOrderedPackageIdsToInstall());
+
+        // not the latest version of a package picked among several ones
+        DependencyResolution solved = resolver.resolve(Arrays.asList("fastB", "fastC"), null, null, null);
+        assertEquals(1, resolver.solved);
+        assertEquals(Arrays.asList("fastB-1.0.0", "fastC-1.0.0"), solved.getOrderedPackageIdsToInstall());
+        // a conflict
+        solved = resolver.resolve(Arrays.asList("fastD"), null, null, null);
+        assertEquals(2, resolver.solved);
+        assertEquals(Arrays.asList("fastA-1.0.0"), solved.getRemovePackageIds());
+
+        // the solver gives the same resolutions
+        resolver.setFastPathEnabled(false);
+        assertEquals(resolution.toString(), resolver.resolve(Arrays.asList("fastC"), null, null, null).toString());
+        assertEquals(3, resolver.solved);
+    }
+
 }
@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.pm.tests.AbstractPackageManagerTestCase;
+
+/**
+ * @since 1.7.6
+ */
+public class PackageGraphTest extends AbstractPackageManagerTestCase {
+
+    protected static DownloadablePackage newPackage(String name, String version, int state, String extra)
+            throws JSONException {
+        return AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                "{\"id\":\"" + name + "-" + version + "\",\"name\":\"" + name + "\",\"version\":\"" + version
+                        + "\",\"type\":\"addon\",\"state\":" + state + extra + "}");
+    }
+
+    protected static List<DownloadablePackage> getPackages() throws JSONException {
+        List<DownloadablePackage> pkgs = new ArrayList<>();
+        pkgs.add(newPackage("A", "1.0.0", 5, ",\"dependencies\":[\"B:1.0.0\"],\"optionalDependencies\":[\"E:1.0.0\"]"));
+        pkgs.add(newPackage("A", "1.0.1", 2, ",\"dependencies\":[\"C:1.0.0-SNAPSHOT\"]"));
+        pkgs.add(newPackage("B", "1.0.0", 5, ",\"conflicts\":[\"D:1.0.0\"]"));
+        pkgs.add(newPackage("C", "1.0.0-SNAPSHOT", 2, ",\"dependencies\":[\"missing:1.0.0\"]"));
+        pkgs.add(newPackage("D", "1.0.0", 2, ",\"provides\":[\"virtual:1.0.0\"]"));
+        pkgs.add(newPackage("E", "1.0.0", 2, ""));
+        pkgs.add(newPackage("F", "1.0.0", 2, ",\"dependencies\":[\"A:1.0.0\"]"));
+        return pkgs;
+    }
+
+    @Test
+    public void testClosure() throws Exception {
+        PackageGraph graph = new PackageGraph(getPackages());
+        assertEquals(7, graph.size());
+        assertTrue(graph.contains("A"));
+        assertFalse(graph.contains("missing"));
+        assertFalse(graph.contains("virtual"));
+        assertEquals(2, graph.getPackages("A").size());
+        assertTrue(graph.getPackages("missing").isEmpty());
+
+        Set<String> names = new HashSet<>(Collections.singleton("A"));
+        Set<String> snapshots = new HashSet<>();
+        Set<String> added = graph.addClosure(names, PackageGraph.DEPENDS, snapshots);
+        assertEquals(new HashSet<>(Arrays.asList("B", "C", "missing")), added);
+        assertEquals(new HashSet<>(Arrays.asList("A", "B", "C", "missing")), names);
+        assertEquals(Collections.singleton("C"), snapshots);
+
+        names = new HashSet<>(Collections.singleton("A"));
+        added = graph.addClosure(names,
+                PackageGraph.DEPENDS | PackageGraph.OPTIONAL_DEPENDS | PackageGraph.CONFLICTS | PackageGraph.PROVIDES,
+                null);
+        assertEquals(new HashSet<>(Arrays.asList("B", "C", "D", "E", "missing", "virtual")), added);
+
+        // names already given are not reported as added
+        names = new LinkedHashSet<>(Arrays.asList("F", "B"));
+        added = graph.addClosure(names, PackageGraph.DEPENDS, null);
+        assertEquals(new HashSet<>(Arrays.asList("A", "C", "missing")), added);
+    }
+
+    @Test
+    public void testDependentNames() throws Exception {
+        PackageGraph graph = new PackageGraph(getPackages());
+        assertEquals(new HashSet<>(Arrays.asList("A", "F")),
+                graph.getDependentNames(Collections.singleton("B"), PackageGraph.DEPENDS, false));
+        // F is not installed
+        assertEquals(Collections.singleton("A"),
+                graph.getDependentNames(Collections.singleton("B"), PackageGraph.DEPENDS, true));
+        // A depends on C through a package which is not installed
+        assertTrue(graph.getDependentNames(Collections.singleton("C"), PackageGraph.DEPENDS, true).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("A", "B")),
+                graph.getDependentNames(Collections.singleton("D"), PackageGraph.DEPENDS | PackageGraph.CONFLICTS,
+                        true));
+        assertTrue(graph.getDependentNames(Collections.singleton("unknown"), PackageGraph.DEPENDS, false).isEmpty());
+    }
+
+    @Test
+    public void testLargeGraph() throws Exception {
+        int size = 10000;
+        List<DownloadablePackage> pkgs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String extra = i + 1 < size ? ",\"dependencies\":[\"pkg" + (i + 1) + ":1.0.0\"]" : "";
+            pkgs.add(newPackage("pkg" + i, "1.0.0", 5, extra));
+        }
+        PackageGraph graph = new PackageGraph(pkgs);
+        Set<String> names = new HashSet<>(Collections.singleton("pkg0"));
+        assertEquals(size - 1, graph.addClosure(names, PackageGraph.DEPENDS, null).size());
+        assertEquals(size, names.size());
+        assertEquals(size - 1,
+                graph.getDependentNames(Collections.singleton("pkg" + (size - 1)), PackageGraph.DEPENDS, true).size());
+    }
+
+}
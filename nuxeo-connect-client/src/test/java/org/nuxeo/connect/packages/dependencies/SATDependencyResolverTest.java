@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.packages.dependencies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.PackageManager;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.pm.tests.AbstractPackageManagerTestCase;
+import org.nuxeo.connect.pm.tests.DummyPackageSource;
+
+/**
+ * @since 1.7.6
+ */
+public class SATDependencyResolverTest extends AbstractPackageManagerTestCase {
+
+    @Test
+    public void testSolver() throws Exception {
+        SATSolver solver = new SATSolver();
+        int a = solver.newVariable(true);
+        int b = solver.newVariable(true);
+        int c = solver.newVariable(false);
+        solver.addClause(-a, -b);
+        solver.addClause(a, c);
+        assertEquals(Boolean.TRUE, solver.solve(Long.MAX_VALUE));
+        assertFalse(solver.getModelValue(a) && solver.getModelValue(b));
+        assertTrue(solver.getModelValue(a) || solver.getModelValue(c));
+
+        // a temporary bound
+        Object atMost = solver.addAtMost(new int[] { a, c }, 0);
+        assertEquals(Boolean.FALSE, solver.solve(Long.MAX_VALUE));
+        solver.remove(atMost);
+        assertEquals(Boolean.TRUE, solver.solve(Long.MAX_VALUE));
+
+        solver.addClause(-a);
+        solver.addClause(-c);
+        assertEquals(Boolean.FALSE, solver.solve(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPigeonHoles() throws Exception {
+        int holes = 6;
+        SATSolver solver = new SATSolver();
+        int[][] vars = new int[holes + 1][holes];
+        for (int pigeon = 0; pigeon <= holes; pigeon++) {
+            for (int hole = 0; hole < holes; hole++) {
+                vars[pigeon][hole] = solver.newVariable(true);
+            }
+            solver.addClause(vars[pigeon]);
+        }
+        for (int hole = 0; hole < holes; hole++) {
+            int[] pigeons = new int[holes + 1];
+            for (int pigeon = 0; pigeon <= holes; pigeon++) {
+                pigeons[pigeon] = vars[pigeon][hole];
+            }
+            solver.addAtMost(pigeons, 1);
+        }
+        assertEquals(Boolean.FALSE, solver.solve(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        pm.registerSource(new DummyPackageSource(getDownloads("local3.json"), "local3"), true);
+        pm.registerSource(new DummyPackageSource(getDownloads("remote3.json"), "remote3"), false);
+        ((PackageManagerImpl) pm).setResolver(PackageManager.SAT_DEPENDENCY_RESOLVER);
+        DependencyResolution resolution = pm.resolveDependencies(Arrays.asList("nuxeo-dm-5.5.0"), null, null, "5.5.0");
+        assertFalse(resolution.toString(), resolution.isFailed());
+        assertTrue(resolution.isOptimal());
+        assertEquals(Arrays.asList(new String[] { "nuxeo-cmf-5.5.0", "nuxeo-content-browser-1.1.0-cmf" }),
+                resolution.getRemovePackageIds());
+        assertEquals(Arrays.asList(new String[] { "nuxeo-content-browser-1.1.0", "nuxeo-dm-5.5.0" }),
+                resolution.getOrderedPackageIdsToInstall());
+
+        // a package depending on a missing one
+        resolution = pm.resolveDependencies(Arrays.asList("nuxeo-dm-5.5.0"), Arrays.asList("nuxeo-content-browser"),
+                null, "5.5.0");
+        assertTrue(resolution.isFailed());
+    }
+
+    protected static DownloadablePackage newPackage(String name, String version, String dependencies)
+            throws JSONException {
+        return AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                "{\"id\":\"" + name + "-" + version + "\",\"name\":\"" + name + "\",\"version\":\"" + version
+                        + "\",\"type\":\"addon\",\"state\":2,\"dependencies\":" + dependencies + "}");
+    }
+
+    /**
+     * Compares the resolvers on a generated universe where each package version depends on minimal versions of lower
+     * packages, then on install, remove and upgrade scenarios of the test data. Timings are only logged.
+     */
+    @Test
+    public void testCompareResolvers() throws Exception {
+        int names = 300;
+        int versions = 5;
+        Random random = new Random(42);
+        List<DownloadablePackage> remote = new ArrayList<>();
+        for (int i = 0; i < names; i++) {
+            for (int v = 0; v < versions; v++) {
+                List<String> dependencies = new ArrayList<>();
+                for (int d = 0; i > 0 && d < 3; d++) {
+                    dependencies.add("\"pkg" + random.nextInt(i) + ":1." + random.nextInt(versions) + ".0\"");
+                }
+                remote.add(newPackage("pkg" + i, "1." + v + ".0", dependencies.toString()));
+            }
+        }
+        pm.registerSource(new DummyPackageSource(remote, "remote"), false);
+        DependencyResolution resolution = compareResolvers(
+                Arrays.asList("pkg" + (names - 1), "pkg" + (names / 2)), null, null, null);
+        assertFalse(resolution.toString(), resolution.isFailed());
+        assertTrue(resolution.getOrderedPackageIdsToInstall().containsAll(
+                Arrays.asList("pkg" + (names - 1) + "-1.4.0", "pkg" + (names / 2) + "-1.4.0")));
+
+        // install with conflicts to remove
+        ((PackageManagerImpl) pm).resetSources();
+        pm.registerSource(new DummyPackageSource(getDownloads("local3.json"), "local3"), true);
+        pm.registerSource(new DummyPackageSource(getDownloads("remote3.json"), "remote3"), false);
+        compareResolvers(Arrays.asList("nuxeo-dm-5.5.0"), null, null, "5.5.0");
+        // upgrade
+        compareResolvers(null, null, Arrays.asList("nuxeo-content-browser"), "5.5.0");
+
+        // remove with dependent packages
+        ((PackageManagerImpl) pm).resetSources();
+        pm.registerSource(new DummyPackageSource(getDownloads("local4.json"), "local4"), true);
+        compareResolvers(null, Arrays.asList("nuxeo-content-browser:1.0.0"), null, null);
+    }
+
+    /**
+     * Asserts that the P2CUDF and SAT resolvers give the same packages to install, remove and upgrade.
+     *
+     * @return the SAT resolution
+     */
+    protected DependencyResolution compareResolvers(List<String> install, List<String> remove, List<String> upgrade,
+            String targetPlatform) {
+        String scenario = String.format("install: %s, remove: %s, upgrade: %s", install, remove, upgrade);
+        DependencyResolution[] resolutions = new DependencyResolution[2];
+        String[] resolverTypes = { PackageManager.P2CUDF_DEPENDENCY_RESOLVER, PackageManager.SAT_DEPENDENCY_RESOLVER };
+        for (int i = 0; i < resolverTypes.length; i++) {
+            ((PackageManagerImpl) pm).setResolver(resolverTypes[i]);
+            long start = System.nanoTime();
+            resolutions[i] = pm.resolveDependencies(install, remove, upgrade, targetPlatform);
+            long duration = (System.nanoTime() - start) / 1000000;
+            log.info(String.format("%s, %s resolver: %s ms, failed: %s, %s packages to install", scenario,
+                    resolverTypes[i], duration, resolutions[i].isFailed(),
+                    resolutions[i].getOrderedPackageIdsToInstall().size()));
+        }
+        DependencyResolution p2cudf = resolutions[0];
+        DependencyResolution sat = resolutions[1];
+        assertEquals(scenario, p2cudf.isFailed(), sat.isFailed());
+        assertEquals(scenario, new TreeSet<>(p2cudf.getInstallPackageIds()),
+                new TreeSet<>(sat.getInstallPackageIds()));
+        assertEquals(scenario, new TreeSet<>(p2cudf.getRemovePackageIds()), new TreeSet<>(sat.getRemovePackageIds()));
+        assertEquals(scenario, new TreeSet<>(p2cudf.getUpgradePackageIds()),
+                new TreeSet<>(sat.getUpgradePackageIds()));
+        return sat;
+    }
+
+}
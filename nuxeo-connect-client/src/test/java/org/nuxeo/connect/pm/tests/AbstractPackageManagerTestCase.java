@@ -48,6 +48,13 @@ public abstract class AbstractPackageManagerTestCase extends TestCase {
 
     public static final String TEST_DATA = "test-data/";
 
+    /**
+     * The resolver set on the package manager before each test.
+     *
+     * @since 1.7.6
+     */
+    protected static String resolverType = PackageManager.DEFAULT_DEPENDENCY_RESOLVER;
+
     protected static List<String> readLines(InputStream in) throws IOException {
         List<String> lines = new ArrayList<>();
         BufferedReader reader = null;
@@ -76,6 +83,7 @@ public abstract class AbstractPackageManagerTestCase extends TestCase {
         pm = NuxeoConnectClient.getPackageManager();
         assertNotNull(pm);
         ((PackageManagerImpl) pm).resetSources();
+        ((PackageManagerImpl) pm).setResolver(resolverType);
         ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(new MockPackageUpdateService(
                 pm));
 
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.dependencies.DependencyResolution;
+import org.nuxeo.connect.packages.dependencies.ResolutionRequest;
+
+/**
+ * @since 1.7.6
+ */
+public class TestBatchResolution extends AbstractPackageManagerTestCase {
+
+    protected static final List<String> TARGET_PLATFORMS = Arrays.asList(null, "cap-5.5", "cap-5.6", "cap-5.6-RC1",
+            "cap-5.6-RC2");
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        pm.registerSource(new DummyPackageSource(getDownloads("local7.json"), "local7"), true);
+    }
+
+    public void testSameAsSequential() {
+        List<String> install = Arrays.asList("nuxeo-poll");
+        List<ResolutionRequest> requests = new ArrayList<>();
+        for (String targetPlatform : TARGET_PLATFORMS) {
+            requests.add(new ResolutionRequest(install, null, null, targetPlatform));
+        }
+        List<DependencyResolution> resolutions = pm.resolveDependencies(requests);
+        assertEquals(requests.size(), resolutions.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String targetPlatform = requests.get(i).getTargetPlatform();
+            PackageManagerImpl view = ((PackageManagerImpl) pm).forTargetPlatform(targetPlatform);
+            DependencyResolution expected = view.resolveDependencies(install, null, null, targetPlatform);
+            DependencyResolution resolution = resolutions.get(i);
+            assertEquals(targetPlatform, expected.isFailed(), resolution.isFailed());
+            assertEquals(targetPlatform, expected.getOrderedPackageIdsToInstall(),
+                    resolution.getOrderedPackageIdsToInstall());
+        }
+        assertFalse(resolutions.get(0).isFailed());
+        assertEquals("nuxeo-poll-1.0.0", resolutions.get(0).getOrderedPackageIdsToInstall().get(2));
+        assertTrue(resolutions.get(2).isFailed());
+    }
+
+    public void testInstalledPackages() {
+        List<String> install = Arrays.asList("nuxeo-poll");
+        ResolutionRequest profile = new ResolutionRequest(install, null, null, null);
+        profile.setInstalledPackageIds(Arrays.asList("nuxeo-jsf-ui-5.6.0-cap"));
+        ResolutionRequest unknown = new ResolutionRequest(install, null, null, null);
+        unknown.setInstalledPackageIds(Arrays.asList("unknown-1.0.0"));
+        List<DependencyResolution> resolutions = pm.resolveDependencies(
+                Arrays.asList(profile, new ResolutionRequest(install, null, null, null), unknown));
+
+        DependencyResolution resolution = resolutions.get(0);
+        assertFalse(resolution.toString(), resolution.isFailed());
+        assertEquals(Arrays.asList("nuxeo-dm-5.6.0", "nuxeo-poll-1.0.0"),
+                resolution.getOrderedPackageIdsToInstall());
+        assertEquals(Arrays.asList("nuxeo-jsf-ui-5.6.0-cap"), resolution.getUnchangedPackageIds());
+        // the package manager is not affected
+        assertTrue(pm.listInstalledPackages().isEmpty());
+        resolution = resolutions.get(1);
+        assertFalse(resolution.toString(), resolution.isFailed());
+        assertEquals(3, resolution.getInstallPackageIds().size());
+        assertTrue(resolutions.get(2).isFailed());
+    }
+
+    public void testFailingRequest() {
+        List<String> install = Arrays.asList("nuxeo-poll");
+        List<DependencyResolution> resolutions = pm.resolveDependencies(
+                Arrays.asList(new ResolutionRequest(Arrays.asList((String) null), null, null, null),
+                        new ResolutionRequest(install, null, null, null)));
+        assertEquals(2, resolutions.size());
+        assertTrue(resolutions.get(0).isFailed());
+        assertFalse(resolutions.get(1).toString(), resolutions.get(1).isFailed());
+    }
+
+}
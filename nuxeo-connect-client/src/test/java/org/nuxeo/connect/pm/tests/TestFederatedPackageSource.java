@@ -0,0 +1,220 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.pm.tests;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.packages.FederatedPackageSource;
+import org.nuxeo.connect.packages.FederatedPackageSource.SourceHealth;
+import org.nuxeo.connect.packages.SnapshotPackageSource;
+
+/**
+ * @since 1.7.6
+ */
+public class TestFederatedPackageSource extends AbstractPackageManagerTestCase {
+
+    protected static class SlowPackageSource extends DummyPackageSource {
+
+        protected final AtomicInteger calls = new AtomicInteger();
+
+        public SlowPackageSource(List<DownloadablePackage> pkgs, String id) {
+            super(pkgs, id);
+        }
+
+        @Override
+        public List<DownloadablePackage> listPackages() {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.listPackages();
+        }
+    }
+
+    protected static class SlowGenerationPackageSource extends DummyPackageSource {
+
+        public SlowGenerationPackageSource(List<DownloadablePackage> pkgs, String id) {
+            super(pkgs, id);
+        }
+
+        @Override
+        public long getGeneration() {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }
+    }
+
+    protected static class FailingPackageSource extends DummyPackageSource {
+
+        protected final AtomicInteger calls = new AtomicInteger();
+
+        public FailingPackageSource(List<DownloadablePackage> pkgs, String id) {
+            super(pkgs, id);
+        }
+
+        @Override
+        public List<DownloadablePackage> listPackages() {
+            calls.incrementAndGet();
+            throw new IllegalStateException("Unreachable");
+        }
+    }
+
+    /**
+     * Answers once the given latch is released by the other sources, tracking the number of concurrent queries.
+     */
+    protected static class ConcurrentPackageSource extends DummyPackageSource {
+
+        protected final CountDownLatch latch;
+
+        protected final AtomicInteger inFlight;
+
+        protected final AtomicInteger maxInFlight;
+
+        protected final AtomicInteger timedOut;
+
+        public ConcurrentPackageSource(List<DownloadablePackage> pkgs, String id, CountDownLatch latch,
+                AtomicInteger inFlight, AtomicInteger maxInFlight, AtomicInteger timedOut) {
+            super(pkgs, id);
+            this.latch = latch;
+            this.inFlight = inFlight;
+            this.maxInFlight = maxInFlight;
+            this.timedOut = timedOut;
+        }
+
+        @Override
+        public List<DownloadablePackage> listPackages() {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                latch.countDown();
+                if (!latch.await(5, TimeUnit.SECONDS)) {
+                    timedOut.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return super.listPackages();
+        }
+    }
+
+    public void testMergeByPriority() throws Exception {
+        List<DownloadablePackage> remote1 = getDownloads("remote1.json");
+        List<DownloadablePackage> remote2 = getDownloads("remote2.json");
+        FederatedPackageSource federated = new FederatedPackageSource("federated", "Federated");
+        federated.addSource(new DummyPackageSource(remote1, "connect"), 1);
+        federated.addSource(new DummyPackageSource(remote2, "mirror"), 10);
+        pm.registerSource(federated, false);
+
+        List<DownloadablePackage> packages = federated.listPackages();
+        assertEquals(7, packages.size());
+        // mirror packages first, and winning on conflicts
+        assertSame(remote2.get(0), packages.get(0));
+        assertSame(remote2.get(1), federated.getPackageById("pkgC-1.0.0"));
+        assertSame(remote1.get(0), federated.getPackageById("pkgA-1.0.2"));
+        assertNull(federated.getPackageById("unknown-1.0.0"));
+        assertEquals(2, federated.listPackagesByName("pkgA").size());
+        assertEquals(7, pm.listRemotePackages().size());
+
+        SourceHealth health = federated.getHealth("mirror");
+        assertTrue(health.getLatencyMs() >= 0);
+        assertEquals(0, health.getTotalFailures());
+        assertNull(federated.getHealth("unknown"));
+    }
+
+    public void testSkipLateAndFailedSources() throws Exception {
+        FederatedPackageSource federated = new FederatedPackageSource("federated", "Federated");
+        SlowPackageSource slow = new SlowPackageSource(getDownloads("remote2.json"), "slow");
+        FailingPackageSource failing = new FailingPackageSource(getDownloads("remote2.json"), "failing");
+        federated.addSource(new DummyPackageSource(getDownloads("remote1.json"), "connect"), 1);
+        federated.addSource(slow, 10, 100);
+        federated.addSource(failing, 10);
+        try {
+            for (int i = 1; i <= FederatedPackageSource.MAX_CONSECUTIVE_FAILURES; i++) {
+                assertEquals(5, federated.listPackages().size());
+                assertEquals(i, federated.getHealth("slow").getConsecutiveFailures());
+                assertEquals(i, federated.getHealth("failing").getConsecutiveFailures());
+            }
+            assertFalse(federated.getHealth("slow").isAvailable());
+            assertFalse(federated.getHealth("failing").isAvailable());
+            assertTrue(federated.getHealth("connect").isAvailable());
+
+            // unhealthy sources are not queried anymore
+            assertEquals(5, federated.listPackages().size());
+            assertEquals(FederatedPackageSource.MAX_CONSECUTIVE_FAILURES, slow.calls.get());
+            assertEquals(FederatedPackageSource.MAX_CONSECUTIVE_FAILURES, failing.calls.get());
+            assertEquals(FederatedPackageSource.MAX_CONSECUTIVE_FAILURES,
+                    federated.getHealth("slow").getConsecutiveFailures());
+        } finally {
+            federated.close();
+        }
+    }
+
+    public void testGenerationQueriesAreBounded() throws Exception {
+        FederatedPackageSource federated = new FederatedPackageSource("federated", "Federated");
+        try {
+            federated.addSource(new SnapshotPackageSource("connect", getDownloads("remote1.json")), 1);
+            federated.addSource(new SlowGenerationPackageSource(getDownloads("remote2.json"), "slow"), 10, 100);
+            long start = System.currentTimeMillis();
+            long generation = federated.getGeneration();
+            assertTrue(generation >= 0);
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(1, federated.getHealth("slow").getTotalFailures());
+
+            // a source without generation
+            federated.addSource(new DummyPackageSource(getDownloads("remote2.json"), "mirror"), 5);
+            assertEquals(-1, federated.getGeneration());
+        } finally {
+            federated.close();
+        }
+    }
+
+    public void testConcurrentAndBoundedQueries() throws Exception {
+        int threads = FederatedPackageSource.MAX_THREADS;
+        // released only if as many sources as threads are queried concurrently
+        CountDownLatch latch = new CountDownLatch(threads);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger timedOut = new AtomicInteger();
+        FederatedPackageSource federated = new FederatedPackageSource("federated", "Federated");
+        for (int i = 0; i < threads + 2; i++) {
+            federated.addSource(new ConcurrentPackageSource(getDownloads("remote1.json"), "source" + i, latch,
+                    inFlight, maxInFlight, timedOut), 1);
+        }
+        try {
+            assertEquals(5, federated.listPackages().size());
+            assertEquals(0, timedOut.get());
+            assertEquals(threads, maxInFlight.get());
+        } finally {
+            federated.close();
+        }
+    }
+
+}
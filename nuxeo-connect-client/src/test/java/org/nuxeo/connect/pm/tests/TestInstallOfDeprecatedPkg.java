@@ -20,6 +20,7 @@ package org.nuxeo.connect.pm.tests;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
 
@@ -69,4 +70,24 @@ public class TestInstallOfDeprecatedPkg extends AbstractPackageManagerTestCase {
         assertFalse(pm.matchesPlatform("nuxeo-flavors-unicolor-1.0.0", "cap-5.6.0"));
     }
 
+    public void testNonCompliantLists() throws PackageException {
+        List<String> packages = Arrays.asList("nuxeo-birt-integration-2.1.0", "nuxeo-flavors-unicolor-1.0.0");
+        Map<String, List<String>> nonCompliant = pm.getNonCompliantLists(packages,
+                Arrays.asList("cap-5.5", "cap-5.6", "cap-5.5.0-HF01"));
+        assertEquals(Arrays.asList("cap-5.5", "cap-5.6", "cap-5.5.0-HF01"),
+                Arrays.asList(nonCompliant.keySet().toArray()));
+        assertTrue(nonCompliant.get("cap-5.5").isEmpty());
+        assertEquals(packages, nonCompliant.get("cap-5.6"));
+        assertEquals(Arrays.asList("nuxeo-birt-integration-2.1.0"), nonCompliant.get("cap-5.5.0-HF01"));
+        for (String targetPlatform : nonCompliant.keySet()) {
+            assertEquals(pm.getNonCompliantList(packages, targetPlatform), nonCompliant.get(targetPlatform));
+        }
+        try {
+            pm.getNonCompliantLists(Arrays.asList("unknown-package"), Arrays.asList("cap-5.5"));
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            // expected
+        }
+    }
+
 }
@@ -0,0 +1,302 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+import org.nuxeo.connect.DefaultCallbackHolder;
+import org.nuxeo.connect.NuxeoConnectClient;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.IndexedPackageSource;
+import org.nuxeo.connect.packages.LocalPackageIndex;
+import org.nuxeo.connect.packages.LocalPackageSource;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.PackageStoreWatcher;
+import org.nuxeo.connect.update.LocalPackage;
+import org.nuxeo.connect.update.MockPackageUpdateService;
+import org.nuxeo.connect.update.ObservablePackageUpdateService;
+import org.nuxeo.connect.update.PackageState;
+import org.nuxeo.connect.update.PackageUpdateListener;
+import org.nuxeo.connect.update.Version;
+
+/**
+ * @since 1.7.6
+ */
+public class TestLocalPackageIndex extends AbstractPackageManagerTestCase {
+
+    protected static class IndexedDummyPackageSource extends DummyPackageSource implements IndexedPackageSource {
+
+        protected final LocalPackageIndex index;
+
+        public IndexedDummyPackageSource(LocalPackageIndex index, String id) {
+            super(index.listPackages(), id);
+            this.index = index;
+        }
+
+        @Override
+        public List<DownloadablePackage> listPackages() {
+            return index.listPackages();
+        }
+
+        @Override
+        public LocalPackageIndex getIndex() {
+            return index;
+        }
+    }
+
+    /**
+     * Changes the state of an indexed descriptor and notifies the index, as a {@link PackageUpdateListener} would.
+     */
+    protected static boolean setState(LocalPackageIndex index, String id, PackageState state) {
+        DownloadablePackage pkg = index.getPackage(id);
+        if (pkg != null) {
+            ((PackageDescriptor) pkg).setPackageState(state);
+        }
+        return index.setState(id, state);
+    }
+
+    public void testIndex() throws Exception {
+        LocalPackageIndex index = new LocalPackageIndex();
+        index.reset(getDownloads("local3.json"));
+        assertEquals(4, index.size());
+        assertEquals(2, index.listInstalledPackages().size());
+        assertTrue(index.isInstalled("nuxeo-cmf-5.5.0"));
+        assertEquals(Arrays.asList(new Version("5.5")), index.getInstalledVersions("nuxeo-cmf"));
+        assertEquals(Arrays.asList(new Version("5.5")), index.getVersions("nuxeo-dm"));
+        assertTrue(index.getInstalledVersions("nuxeo-dm").isEmpty());
+        assertEquals(2, index.listPackagesByName("nuxeo-content-browser").size());
+
+        long generation = index.getGeneration();
+        assertTrue(setState(index, "nuxeo-dm-5.5.0", PackageState.STARTED));
+        assertTrue(index.getGeneration() > generation);
+        assertEquals(Arrays.asList(new Version("5.5")), index.getInstalledVersions("nuxeo-dm"));
+        assertTrue(setState(index, "nuxeo-cmf-5.5.0", PackageState.DOWNLOADED));
+        assertTrue(index.getInstalledVersions("nuxeo-cmf").isEmpty());
+        generation = index.getGeneration();
+        assertFalse(setState(index, "unknown-1.0.0", PackageState.STARTED));
+        assertEquals(generation, index.getGeneration());
+
+        index.remove("nuxeo-dm-5.5.0");
+        assertNull(index.getPackage("nuxeo-dm-5.5.0"));
+        assertFalse(index.isInstalled("nuxeo-dm-5.5.0"));
+        assertTrue(index.getVersions("nuxeo-dm").isEmpty());
+        assertEquals(3, index.size());
+
+        // versions are kept sorted
+        index.reset(getDownloads("remote3.json"));
+        assertEquals(Arrays.asList(new Version("5.6-SNAPSHOT"), new Version("5.6")), index.getVersions("nuxeo-dm"));
+        index.add(getDownloads("local3.json").get(1));
+        assertEquals(Arrays.asList(new Version("5.5"), new Version("5.6-SNAPSHOT"), new Version("5.6")),
+                index.getVersions("nuxeo-dm"));
+    }
+
+    public void testPackageManagerUsesIndex() throws Exception {
+        LocalPackageIndex index = new LocalPackageIndex();
+        index.reset(getDownloads("local3.json"));
+        pm.registerSource(new IndexedDummyPackageSource(index, "localIndexed"), true);
+        assertTrue(pm.isInstalled("nuxeo-cmf-5.5.0"));
+        assertFalse(pm.isInstalled("nuxeo-dm-5.5.0"));
+        assertEquals(2, pm.listInstalledPackages().size());
+
+        // a state change notified to the index is seen by the package manager
+        setState(index, "nuxeo-dm-5.5.0", PackageState.INSTALLED);
+        assertTrue(pm.isInstalled("nuxeo-dm-5.5.0"));
+        assertEquals(PackageState.INSTALLED, pm.getLocalPackage("nuxeo-dm-5.5.0").getPackageState());
+        assertEquals(Arrays.asList(new Version("5.5")), pm.findLocalPackageInstalledVersions("nuxeo-dm"));
+        assertEquals(3, pm.listInstalledPackages().size());
+        assertEquals("nuxeo-dm-5.5.0", pm.getLocalPackage("nuxeo-dm-5.5.0").getId());
+        assertNull(pm.getLocalPackage("nuxeo-dm-5.6.0"));
+    }
+
+    public void testResetSourcesReleasesIndex() throws Exception {
+        List<PackageUpdateListener> listeners = new CopyOnWriteArrayList<>();
+        class ObservableMockPackageUpdateService extends MockPackageUpdateService
+                implements ObservablePackageUpdateService {
+
+            ObservableMockPackageUpdateService() {
+                super(pm);
+            }
+
+            @Override
+            public List<LocalPackage> getPackages() {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public void addPackageUpdateListener(PackageUpdateListener listener) {
+                listeners.add(listener);
+            }
+
+            @Override
+            public void removePackageUpdateListener(PackageUpdateListener listener) {
+                listeners.remove(listener);
+            }
+        }
+        ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(
+                new ObservableMockPackageUpdateService());
+        LocalPackageSource source = new LocalPackageSource();
+        pm.registerSource(source, true);
+        assertNotNull(source.getIndex());
+        assertEquals(1, listeners.size());
+        ((PackageManagerImpl) pm).resetSources();
+        assertTrue(listeners.isEmpty());
+    }
+
+    public void testRegistryGeneration() throws Exception {
+        File registry = File.createTempFile("packages", ".registry");
+        AtomicInteger reads = new AtomicInteger();
+        ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(
+                new MockPackageUpdateService(pm) {
+                    @Override
+                    public File getRegistry() {
+                        return registry;
+                    }
+
+                    @Override
+                    public List<LocalPackage> getPackages() {
+                        reads.incrementAndGet();
+                        return new ArrayList<>();
+                    }
+                });
+        LocalPackageSource source = new LocalPackageSource();
+        pm.registerSource(source, true);
+        try {
+            // the packages are not listed to compute the generation
+            long generation = source.getGeneration();
+            assertTrue(generation >= 0);
+            assertEquals(generation, source.getGeneration());
+            assertEquals(0, reads.get());
+            pm.searchPackages("pkgd");
+            pm.searchPackages("nxphf");
+            assertEquals(1, reads.get());
+
+            // the registry is written on each change
+            FileUtils.writeStringToFile(registry, "changed", "UTF-8");
+            assertTrue(source.getGeneration() != generation);
+            pm.searchPackages("pkgd");
+            assertEquals(2, reads.get());
+        } finally {
+            FileUtils.deleteQuietly(registry);
+        }
+    }
+
+    public void testWatchedLocalSource() throws Exception {
+        File dataDir = Files.createTempDirectory("packages").toFile();
+        AtomicInteger reads = new AtomicInteger();
+        ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(
+                new MockPackageUpdateService(pm) {
+                    @Override
+                    public File getDataDir() {
+                        return dataDir;
+                    }
+
+                    @Override
+                    public List<LocalPackage> getPackages() {
+                        reads.incrementAndGet();
+                        return new ArrayList<>();
+                    }
+                });
+        // the store changes are notified by the test rather than by the asynchronous file system events
+        AtomicBoolean changed = new AtomicBoolean();
+        LocalPackageSource source = new LocalPackageSource() {
+            @Override
+            protected PackageStoreWatcher newStoreWatcher(File dir) throws IOException {
+                return new PackageStoreWatcher(dir) {
+                    @Override
+                    public boolean pollChanges() {
+                        return changed.getAndSet(false);
+                    }
+                };
+            }
+        };
+        try {
+            // not cached unless enabled
+            assertEquals(-1, source.getGeneration());
+            source.listPackages();
+            source.listPackages();
+            assertEquals(2, reads.get());
+
+            System.setProperty(LocalPackageSource.WATCH_STORE_PROPERTY, "true");
+            reads.set(0);
+            long generation = source.getGeneration();
+            assertTrue(generation >= 0);
+            source.listPackages();
+            source.listPackages();
+            assertEquals(1, reads.get());
+            assertEquals(generation, source.getGeneration());
+
+            // a change in the store is detected
+            changed.set(true);
+            assertTrue(source.getGeneration() > generation);
+            assertEquals(2, reads.get());
+            assertEquals(source.getGeneration(), source.getGeneration());
+            assertEquals(2, reads.get());
+        } finally {
+            System.clearProperty(LocalPackageSource.WATCH_STORE_PROPERTY);
+            source.close();
+            FileUtils.deleteDirectory(dataDir);
+        }
+    }
+
+    public void testUnwatchableStore() throws Exception {
+        File dataDir = new File("packages");
+        ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(
+                new MockPackageUpdateService(pm) {
+                    @Override
+                    public File getDataDir() {
+                        return dataDir;
+                    }
+                });
+        AtomicInteger watches = new AtomicInteger();
+        LocalPackageSource source = new LocalPackageSource() {
+            @Override
+            protected PackageStoreWatcher newStoreWatcher(File dir) throws IOException {
+                watches.incrementAndGet();
+                throw new IOException("unwatchable");
+            }
+        };
+        System.setProperty(LocalPackageSource.WATCH_STORE_PROPERTY, "true");
+        try {
+            assertNull(source.getIndex());
+            assertNull(source.getIndex());
+            source.listPackages();
+            assertEquals("The failure is remembered", 1, watches.get());
+
+            // tried again once released
+            source.close();
+            assertNull(source.getIndex());
+            assertEquals(2, watches.get());
+        } finally {
+            System.clearProperty(LocalPackageSource.WATCH_STORE_PROPERTY);
+            source.close();
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.pm.tests;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import org.nuxeo.connect.DefaultCallbackHolder;
+import org.nuxeo.connect.NuxeoConnectClient;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.DownloadingPackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.MirrorPackageIndex;
+import org.nuxeo.connect.packages.MirrorPackageSource;
+import org.nuxeo.connect.update.LocalPackage;
+import org.nuxeo.connect.update.MockPackageUpdateService;
+import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.PackageState;
+
+/**
+ * @since 1.7.6
+ */
+public class TestMirrorPackageSource extends AbstractPackageManagerTestCase {
+
+    protected File mirrorDir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mirrorDir = Files.createTempDirectory("mirror").toFile();
+        MirrorPackageSource.writeIndex(mirrorDir, getDownloads("remote3.json"));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(mirrorDir);
+        super.tearDown();
+    }
+
+    public void testIndex() throws Exception {
+        List<DownloadablePackage> remote = getDownloads("remote3.json");
+        MirrorPackageIndex index = MirrorPackageIndex.open(new File(mirrorDir, MirrorPackageSource.INDEX_FILE_NAME));
+        assertEquals(remote.size(), index.size());
+        for (DownloadablePackage pkg : remote) {
+            int slot = index.find(pkg.getId());
+            assertTrue(slot >= 0);
+            assertEquals(pkg.getId(), index.getId(slot));
+            assertEquals(pkg.getName(), index.getPackage(slot).getName());
+            assertEquals(pkg.getVersion(), index.getPackage(slot).getVersion());
+        }
+        assertEquals(-1, index.find("unknown-1.0.0"));
+
+        FileUtils.writeStringToFile(new File(mirrorDir, "invalid.idx"), "invalid");
+        try {
+            MirrorPackageIndex.open(new File(mirrorDir, "invalid.idx"));
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            // expected
+        }
+    }
+
+    public void testMirrorAsRemoteSource() throws Exception {
+        pm.registerSource(new MirrorPackageSource(mirrorDir), false);
+        List<DownloadablePackage> remote = getDownloads("remote3.json");
+        assertEquals(remote.size(), pm.listRemotePackages().size());
+        for (DownloadablePackage pkg : pm.listRemotePackages()) {
+            assertEquals(PackageState.REMOTE, pkg.getPackageState());
+        }
+        String pkgId = remote.get(0).getId();
+        assertEquals(pkgId, pm.getRemotePackage(pkgId).getId());
+        // target platform filtering applies as for remote packages
+        assertEquals(2, pm.listRemotePackages(null, "5.6").size());
+        // the indexed descriptors are not affected by changes of the returned ones
+        MirrorPackageSource source = new MirrorPackageSource(mirrorDir);
+        ((PackageDescriptor) source.getPackageById(pkgId)).setPackageState(PackageState.INSTALLED);
+        assertEquals(PackageState.REMOTE, source.getPackageById(pkgId).getPackageState());
+    }
+
+    public void testDownloadFromMirror() throws Exception {
+        List<File> added = new ArrayList<>();
+        ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(
+                new MockPackageUpdateService(pm) {
+                    @Override
+                    public LocalPackage addPackage(File file) {
+                        added.add(file);
+                        return null;
+                    }
+                });
+        MirrorPackageSource source = new MirrorPackageSource(mirrorDir);
+        pm.registerSource(source, false);
+        String pkgId = getDownloads("remote3.json").get(0).getId();
+        // no zip in the mirror
+        assertNull(source.download(pkgId));
+
+        FileUtils.writeStringToFile(new File(mirrorDir, pkgId + MirrorPackageSource.PACKAGE_FILE_EXTENSION), "zip");
+        DownloadingPackage download = pm.download(pkgId);
+        assertNotNull(download);
+        assertTrue(download.isCompleted());
+        assertNull(download.getErrorMessage());
+        assertEquals(PackageState.DOWNLOADED, download.getPackageState());
+        assertEquals(1, added.size());
+        assertEquals("zip", FileUtils.readFileToString(added.get(0)));
+        added.get(0).delete();
+    }
+
+    public void testDownloadCorruptedDescriptor() throws Exception {
+        String pkgId = getDownloads("remote3.json").get(0).getId();
+        File indexFile = new File(mirrorDir, MirrorPackageSource.INDEX_FILE_NAME);
+        int slot = MirrorPackageIndex.open(indexFile).find(pkgId);
+        byte[] bytes = Files.readAllBytes(indexFile.toPath());
+        // replace the opening brace of the JSON descriptor, whose offset follows the id offset of the slot
+        bytes[ByteBuffer.wrap(bytes).getInt(12 + slot * 12 + 4)] = ' ';
+        Files.write(indexFile.toPath(), bytes);
+        FileUtils.writeStringToFile(new File(mirrorDir, pkgId + MirrorPackageSource.PACKAGE_FILE_EXTENSION), "zip");
+        MirrorPackageSource source = new MirrorPackageSource(mirrorDir);
+        assertNull(source.getPackageById(pkgId));
+        try {
+            source.download(pkgId);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot download " + pkgId));
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import java.util.List;
+
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.packages.PackageListCache;
+import org.nuxeo.connect.update.PackageType;
+
+/**
+ * @since 1.7.6
+ */
+public class TestPackageListCache extends AbstractPackageManagerTestCase {
+
+    public void testGeneration() throws Exception {
+        PackageListCache cache = new PackageListCache();
+        List<DownloadablePackage> remote = getDownloads("remote1.json");
+        cache.add(remote, PackageType.ADDON.toString());
+        long generation = cache.getGeneration();
+
+        // the same packages fetched again
+        cache.add(getDownloads("remote1.json"), PackageType.ADDON.toString());
+        assertEquals(generation, cache.getGeneration());
+
+        // other packages
+        cache.add(remote.subList(1, remote.size()), PackageType.ADDON.toString());
+        assertTrue(cache.getGeneration() != generation);
+        generation = cache.getGeneration();
+
+        // a package added to a served list
+        cache.add(remote.get(0));
+        assertTrue(cache.getGeneration() != generation);
+    }
+
+    public void testExpiredListsChangeGeneration() throws Exception {
+        PackageListCache cache = new PackageListCache() {
+            {
+                // every list is expired
+                cache_duration = -1;
+            }
+        };
+        long generation = cache.getGeneration();
+        cache.add(getDownloads("remote1.json"), PackageType.ADDON.toString());
+        long expiredGeneration = cache.getGeneration();
+        assertTrue(expiredGeneration != generation);
+        // nothing is fetched again
+        assertEquals(expiredGeneration, cache.getGeneration());
+        assertTrue(cache.getFromCache(PackageType.ADDON.toString()).isEmpty());
+    }
+
+}
@@ -17,12 +17,17 @@
 
 package org.nuxeo.connect.pm.tests;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.apache.commons.collections.CollectionUtils;
 
 import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.UpdateAvailability;
 import org.nuxeo.connect.update.PackageState;
+import org.nuxeo.connect.update.PackageType;
 
 public class TestPackageManager extends AbstractPackageManagerTestCase {
 
@@ -124,4 +129,48 @@ public class TestPackageManager extends AbstractPackageManagerTestCase {
                     || (update.getPackageState() == PackageState.STARTED));
         }
     }
+
+    public void testCheckUpdates() throws Exception {
+        pm.registerSource(new DummyPackageSource(getDownloads("local1.json"), "local1"), true);
+        pm.registerSource(new DummyPackageSource(getDownloads("remote1.json"), "remote1"), false);
+        UpdateAvailability availability = pm.checkUpdates(null, null);
+        dumpPkgList("candidates", availability.getCandidates());
+        assertTrue(availability.isUpdateAvailable());
+        // nothing installed, only the hotfix is listed
+        assertEquals(1, availability.getCandidates().size());
+        assertEquals("nxphf-1.0.0", availability.getCandidates().get(0).getId());
+        assertFalse(pm.checkUpdates(PackageType.ADDON, null).isUpdateAvailable());
+
+        ((PackageManagerImpl) pm).resetSources();
+        pm.registerSource(new DummyPackageSource(getDownloads("localhf1.json"), "localhf1"), true);
+        pm.registerSource(new DummyPackageSource(getDownloads("remotehf1.json"), "remotehf1"), false);
+        availability = pm.checkUpdates(null, null);
+        dumpPkgList("candidates", availability.getCandidates());
+        assertEquals(Arrays.asList("hfA-1.0.0", "hfC-1.0.1", "hfD-1.0.0"),
+                availability.getCandidates().stream().map(DownloadablePackage::getId).collect(Collectors.toList()));
+    }
+
+    public void testRegisterSourceOnce() throws Exception {
+        int nbSources = pm.getAllSources().size();
+        pm.registerSource(new DummyPackageSource(getDownloads("local1.json"), "localOnce"), true);
+        pm.registerSource(new DummyPackageSource(getDownloads("local2.json"), "localOnce"), true);
+        assertEquals(nbSources + 1, pm.getAllSources().size());
+        assertEquals(2, pm.listLocalPackages().size());
+    }
+
+    public void testTargetPlatformViews() throws Exception {
+        pm.registerSource(new DummyPackageSource(getDownloads("remote3.json"), "remote3"), false);
+        PackageManagerImpl pm56 = ((PackageManagerImpl) pm).forTargetPlatform("5.6");
+        assertNotSame(pm, pm56);
+        assertSame(pm56, ((PackageManagerImpl) pm).forTargetPlatform("5.6"));
+        assertSame(pm56, pm56.forTargetPlatform("5.6"));
+        assertSame(pm, pm56.forTargetPlatform(pm.getCurrentTargetPlatform()));
+        assertEquals("5.6", pm56.getCurrentTargetPlatform());
+
+        // sources are shared, target platform is not
+        assertEquals(pm.getAllSources(), pm56.getAllSources());
+        assertEquals(pm.listRemotePackages(null, "5.6"), pm56.listRemotePackages());
+        assertEquals(2, pm56.listRemotePackages().size());
+        assertEquals(6, pm.listRemotePackages(null, null).size());
+    }
 }
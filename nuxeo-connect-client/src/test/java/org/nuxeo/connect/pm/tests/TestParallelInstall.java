@@ -0,0 +1,440 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+
+package org.nuxeo.connect.pm.tests;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+
+import org.nuxeo.connect.DefaultCallbackHolder;
+import org.nuxeo.connect.NuxeoConnectClient;
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.ParallelInstallExecutor;
+import org.nuxeo.connect.packages.PipelinedInstallExecutor;
+import org.nuxeo.connect.packages.dependencies.DependencyResolution;
+import org.nuxeo.connect.update.LocalPackage;
+import org.nuxeo.connect.update.MockPackageUpdateService;
+import org.nuxeo.connect.update.PackageException;
+import org.nuxeo.connect.update.PackageState;
+import org.nuxeo.connect.update.ValidationStatus;
+import org.nuxeo.connect.update.task.Task;
+
+/**
+ * @since 1.7.6
+ */
+public class TestParallelInstall extends AbstractPackageManagerTestCase {
+
+    protected final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    protected class DummyTask implements Task {
+
+        protected final String id;
+
+        protected final boolean uninstall;
+
+        protected String validationError;
+
+        protected boolean failing;
+
+        protected CountDownLatch awaited;
+
+        protected CountDownLatch toRelease;
+
+        protected AtomicInteger running;
+
+        protected AtomicInteger maxRunning;
+
+        protected PackageDescriptor descriptor;
+
+        protected DummyTask(String id) {
+            this(id, false);
+        }
+
+        protected DummyTask(String id, boolean uninstall) {
+            this.id = id;
+            this.uninstall = uninstall;
+        }
+
+        @Override
+        public void initialize(LocalPackage pkg, boolean restart) {
+        }
+
+        @Override
+        public ValidationStatus validate() {
+            events.add("validate " + id);
+            ValidationStatus status = new ValidationStatus();
+            if (validationError != null) {
+                status.addError(validationError);
+            }
+            return status;
+        }
+
+        @Override
+        public void run(Map<String, String> params) throws PackageException {
+            events.add("run " + id);
+            if (running != null) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PackageException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+            if (toRelease != null) {
+                toRelease.countDown();
+            }
+            try {
+                if (awaited != null && !awaited.await(10, TimeUnit.SECONDS)) {
+                    throw new PackageException("Not run concurrently: " + id);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PackageException(e);
+            }
+            if (failing) {
+                throw new PackageException("Failure of " + id);
+            }
+            events.add("done " + id);
+        }
+
+        @Override
+        public void rollback() {
+            events.add("rollback " + id);
+        }
+
+        /**
+         * @return the package pkg&lt;id&gt;-1.0.0, whose opposite task is named after this one and whose other
+         *         {@link org.nuxeo.connect.update.Package} methods are those of the descriptor if any
+         */
+        @Override
+        public LocalPackage getPackage() {
+            return (LocalPackage) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { LocalPackage.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                        case "getId":
+                            return "pkg" + id + "-1.0.0";
+                        case "getInstallTask":
+                            return uninstall ? new DummyTask("install " + id) : this;
+                        case "getUninstallTask":
+                            return uninstall ? this : new DummyTask("uninstall " + id, true);
+                        default:
+                            if (descriptor == null || !method.getDeclaringClass().isInstance(descriptor)) {
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                            return method.invoke(descriptor, args);
+                        }
+                    });
+        }
+
+        @Override
+        public boolean isRestartRequired() {
+            return false;
+        }
+
+        @Override
+        public void setRestartRequired(boolean isRestartRequired) {
+        }
+
+        @Override
+        public String getRelativeFilePath(File file) {
+            return file.getPath();
+        }
+    }
+
+    protected static PackageDescriptor newPackage(String name, String dependencies) throws JSONException {
+        return AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class, "{\"name\":\"" + name
+                + "\",\"version\":\"1.0.0\",\"type\":\"addon\",\"dependencies\":[" + dependencies + "]}");
+    }
+
+    // A and B are independent, C depends on A
+    protected List<PackageDescriptor> getPlan() throws JSONException {
+        return Arrays.asList(newPackage("pkgA", ""), newPackage("pkgB", ""),
+                newPackage("pkgC", "\"pkgA:1.0.0:1.0.0\""));
+    }
+
+    /**
+     * @return A and B, each waiting for the other one to be running
+     */
+    protected List<DummyTask> getConcurrentTasks() {
+        DummyTask taskA = new DummyTask("A");
+        DummyTask taskB = new DummyTask("B");
+        taskA.awaited = new CountDownLatch(1);
+        taskB.toRelease = taskA.awaited;
+        taskB.awaited = new CountDownLatch(1);
+        taskA.toRelease = taskB.awaited;
+        return Arrays.asList(taskA, taskB, new DummyTask("C"));
+    }
+
+    public void testIndependentTasksRunConcurrently() throws Exception {
+        new ParallelInstallExecutor(2).run(getPlan(), new ArrayList<>(getConcurrentTasks()), null);
+        assertEquals(9, events.size());
+        // all the tasks are validated before any is run, C is run once A is installed
+        assertTrue(events.indexOf("validate C") < events.indexOf("run A"));
+        assertTrue(events.indexOf("validate C") < events.indexOf("run B"));
+        assertTrue(events.indexOf("done A") < events.indexOf("run C"));
+        assertTrue(events.contains("done C"));
+    }
+
+    public void testRegistryLockIsNotHeldByRuns() throws Exception {
+        // A and B would not be able to wait for each other under the lock
+        Object registryLock = new Object();
+        new ParallelInstallExecutor(3, registryLock).run(getPlan(), new ArrayList<>(getConcurrentTasks()), null);
+        assertTrue(events.contains("done A"));
+        assertTrue(events.contains("done B"));
+        assertTrue(events.contains("done C"));
+    }
+
+    public void testPackageManagerInstallsConcurrently() throws Exception {
+        List<PackageDescriptor> plan = getPlan();
+        List<DownloadablePackage> local = new ArrayList<>();
+        DependencyResolution res = new DependencyResolution();
+        for (PackageDescriptor pkg : plan) {
+            pkg.setPackageState(PackageState.DOWNLOADED);
+            local.add(pkg);
+            res.addPackage(pkg.getName(), pkg.getVersion(), true);
+        }
+        res.markAsSuccess();
+        pm.registerSource(new DummyPackageSource(local, "parallel"), true);
+        List<DummyTask> tasks = getConcurrentTasks();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < tasks.size(); i++) {
+            DummyTask task = tasks.get(i);
+            task.descriptor = plan.get(i);
+            task.running = running;
+            task.maxRunning = maxRunning;
+        }
+        ((DefaultCallbackHolder) NuxeoConnectClient.getCallBackHolder()).setUpdateService(
+                new MockPackageUpdateService(pm) {
+                    @Override
+                    public LocalPackage getPackage(String id) {
+                        for (DummyTask task : tasks) {
+                            if (task.getPackage().getId().equals(id)) {
+                                return task.getPackage();
+                            }
+                        }
+                        return null;
+                    }
+                });
+        PackageManagerImpl pmi = (PackageManagerImpl) pm;
+        int parallelism = pmi.getInstallParallelism();
+        pmi.setInstallParallelism(2);
+        try {
+            pm.install(res, null);
+        } finally {
+            pmi.setInstallParallelism(parallelism);
+        }
+        assertEquals(2, maxRunning.get());
+        assertTrue(events.indexOf("done A") < events.indexOf("run C"));
+        assertTrue(events.contains("done C"));
+    }
+
+    public void testValidationError() throws Exception {
+        DummyTask taskC = new DummyTask("C");
+        taskC.validationError = "invalid";
+        List<Task> uninstallTasks = Arrays.asList(new DummyTask("X", true));
+        try {
+            new ParallelInstallExecutor(2).run(getPlan(), Arrays.asList(new DummyTask("A"), new DummyTask("B"), taskC),
+                    uninstallTasks, null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertTrue(e.getMessage().contains("pkgC-1.0.0: invalid"));
+        }
+        // nothing is run
+        assertTrue(events.contains("validate A"));
+        assertTrue(events.contains("validate X"));
+        assertFalse(events.contains("run X"));
+        assertFalse(events.contains("run A"));
+        assertFalse(events.contains("run B"));
+    }
+
+    public void testRollback() throws Exception {
+        DummyTask taskA = new DummyTask("A");
+        taskA.failing = true;
+        try {
+            new ParallelInstallExecutor(1).run(getPlan(), Arrays.asList(taskA, new DummyTask("B"), new DummyTask("C")),
+                    null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Failure of A", e.getMessage());
+        }
+        // C depends on A and is skipped, B was installed after A and is uninstalled first, A is rolled back
+        assertFalse(events.contains("run C"));
+        assertFalse(events.contains("rollback B"));
+        assertTrue(events.indexOf("done B") < events.indexOf("done uninstall B"));
+        assertTrue(events.indexOf("done uninstall B") < events.indexOf("rollback A"));
+    }
+
+    public void testRemovedPackagesAreReinstalled() throws Exception {
+        DummyTask taskB = new DummyTask("B");
+        taskB.failing = true;
+        List<Task> uninstallTasks = Arrays.asList(new DummyTask("X", true), new DummyTask("Y", true));
+        try {
+            new ParallelInstallExecutor(1).run(getPlan(), Arrays.asList(new DummyTask("A"), taskB, new DummyTask("C")),
+                    uninstallTasks, null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Failure of B", e.getMessage());
+        }
+        // uninstalled before any install, then installed again in reverse order
+        assertTrue(events.indexOf("done Y") < events.indexOf("run A"));
+        assertTrue(events.indexOf("rollback B") < events.indexOf("done install Y"));
+        assertTrue(events.indexOf("done install Y") < events.indexOf("done install X"));
+    }
+
+    public void testUninstallFailure() throws Exception {
+        DummyTask taskY = new DummyTask("Y", true);
+        taskY.failing = true;
+        try {
+            new ParallelInstallExecutor(2).run(getPlan(), Arrays.asList(new DummyTask("A"), new DummyTask("B"),
+                    new DummyTask("C")), Arrays.asList(new DummyTask("X", true), taskY), null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Failure of Y", e.getMessage());
+        }
+        assertTrue(events.indexOf("rollback Y") < events.indexOf("done install X"));
+        assertFalse(events.contains("run A"));
+    }
+
+    public void testPipelinedInstall() throws Exception {
+        List<CompletableFuture<Task>> tasks = Arrays.asList(new CompletableFuture<>(), new CompletableFuture<>(),
+                new CompletableFuture<>());
+        // downloads terminate in reverse order
+        Thread downloader = new Thread(() -> {
+            for (int i = 2; i >= 0; i--) {
+                String id = String.valueOf((char) ('A' + i));
+                events.add("downloaded " + id);
+                tasks.get(i).complete(new DummyTask(id));
+            }
+        });
+        downloader.start();
+        new PipelinedInstallExecutor(2).install(getPlan(), tasks, null);
+        downloader.join();
+        assertEquals(12, events.size());
+        // C waits for A to be installed, B is installed as soon as downloaded
+        assertTrue(events.indexOf("done A") < events.indexOf("run C"));
+        assertTrue(events.indexOf("downloaded B") < events.indexOf("validate B"));
+        assertTrue(events.contains("done B"));
+        assertTrue(events.contains("done C"));
+    }
+
+    public void testPipelinedDownloadFailure() throws Exception {
+        List<CompletableFuture<Task>> tasks = Arrays.asList(new CompletableFuture<>(),
+                CompletableFuture.completedFuture(new DummyTask("B")), new CompletableFuture<>());
+        tasks.get(0).completeExceptionally(new PackageException("Download failed for pkgA"));
+        tasks.get(2).complete(new DummyTask("C"));
+        try {
+            new PipelinedInstallExecutor(2).install(getPlan(), tasks, null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Download failed for pkgA", e.getMessage());
+        }
+        // C depends on A and is skipped
+        assertFalse(events.contains("run C"));
+        assertFalse(events.contains("rollback B"));
+    }
+
+    public void testPipelinedUninstallAfterDownloads() throws Exception {
+        List<CompletableFuture<Task>> tasks = Arrays.asList(new CompletableFuture<>(), new CompletableFuture<>(),
+                new CompletableFuture<>());
+        Thread downloader = new Thread(() -> {
+            for (int i = 2; i >= 0; i--) {
+                String id = String.valueOf((char) ('A' + i));
+                events.add("downloaded " + id);
+                tasks.get(i).complete(new DummyTask(id));
+            }
+        });
+        downloader.start();
+        new PipelinedInstallExecutor(2).install(getPlan(), tasks, Arrays.asList(new DummyTask("X", true)), null);
+        downloader.join();
+        // X is validated up front but only uninstalled once everything is downloaded, before any install
+        assertTrue(events.indexOf("validate X") < events.indexOf("validate A"));
+        assertTrue(events.indexOf("downloaded A") < events.indexOf("run X"));
+        assertTrue(events.indexOf("done X") < events.indexOf("run A"));
+        assertTrue(events.indexOf("done X") < events.indexOf("run B"));
+        assertTrue(events.contains("done C"));
+    }
+
+    public void testPipelinedDownloadFailureKeepsRemovedPackages() throws Exception {
+        List<CompletableFuture<Task>> tasks = Arrays.asList(new CompletableFuture<>(),
+                CompletableFuture.completedFuture(new DummyTask("B")), new CompletableFuture<>());
+        tasks.get(0).completeExceptionally(new PackageException("Download failed for pkgA"));
+        tasks.get(2).complete(new DummyTask("C"));
+        try {
+            new PipelinedInstallExecutor(2).install(getPlan(), tasks, Arrays.asList(new DummyTask("X", true)), null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Download failed for pkgA", e.getMessage());
+        }
+        assertFalse(events.contains("run X"));
+        assertFalse(events.contains("run B"));
+    }
+
+    public void testPipelinedTimeout() throws Exception {
+        // the download of A never terminates
+        List<CompletableFuture<Task>> tasks = Arrays.asList(new CompletableFuture<>(),
+                CompletableFuture.completedFuture(new DummyTask("B")), new CompletableFuture<>());
+        PipelinedInstallExecutor executor = new PipelinedInstallExecutor(2);
+        executor.setTimeout(200);
+        try {
+            executor.install(getPlan(), tasks, null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Installation timed out after 200 ms", e.getMessage());
+        }
+        assertTrue(events.indexOf("done B") < events.indexOf("done uninstall B"));
+        // no task is built for the downloads terminated after the installation
+        assertTrue(tasks.get(0).isCancelled());
+    }
+
+    public void testPipelinedTimeoutAwaitsRunningTasks() throws Exception {
+        // B runs until interrupted
+        DummyTask taskB = new DummyTask("B");
+        taskB.awaited = new CountDownLatch(1);
+        List<CompletableFuture<Task>> tasks = Arrays.asList(new CompletableFuture<>(),
+                CompletableFuture.completedFuture(taskB), new CompletableFuture<>());
+        PipelinedInstallExecutor executor = new PipelinedInstallExecutor(2);
+        executor.setTimeout(200);
+        try {
+            executor.install(getPlan(), tasks, null);
+            fail("PackageException expected");
+        } catch (PackageException e) {
+            assertEquals("Installation timed out after 200 ms", e.getMessage());
+        }
+        assertTrue(events.contains("rollback B"));
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.nuxeo.connect.data.PackageDescriptor;
+import org.nuxeo.connect.packages.PackageManagerImpl;
+import org.nuxeo.connect.packages.dependencies.DependencyResolution;
+import org.nuxeo.connect.packages.dependencies.P2CUDFDependencyResolver;
+import org.nuxeo.connect.packages.dependencies.ResolutionCache;
+import org.nuxeo.connect.update.PackageDependency;
+
+/**
+ * @since 1.7.6
+ */
+public class TestResolutionCache extends AbstractPackageManagerTestCase {
+
+    protected DummyPackageSource remoteSource;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        remoteSource = new DummyPackageSource(getDownloads("remote1.json"), "remoteCache");
+        pm.registerSource(new DummyPackageSource(getDownloads("local1.json"), "localCache"), true);
+        pm.registerSource(remoteSource, false);
+    }
+
+    public void testResolutionIsCached() throws Exception {
+        ResolutionCache cache = ((PackageManagerImpl) pm).getResolutionCache();
+        cache.clear();
+        // the package manager is shared by the tests
+        long hits = cache.getHitCount();
+        List<String> install = Arrays.asList("pkgC");
+        DependencyResolution resolution = pm.resolveDependencies(install, null, null, null);
+        assertEquals(hits, cache.getHitCount());
+        assertEquals(1, cache.size());
+
+        resolution.markAsFailed("altered by the caller");
+        DependencyResolution cached = pm.resolveDependencies(install, null, null, null);
+        assertEquals(hits + 1, cache.getHitCount());
+        assertNotSame(resolution, cached);
+        assertFalse(cached.toString().contains("altered by the caller"));
+        assertNotSame(resolution.getMetrics(), cached.getMetrics());
+
+        // another request
+        pm.resolveDependencies(install, Collections.emptyList(), null, null, true, false);
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(2, cache.size());
+
+        // a package metadata changed, with the same id and state
+        PackageDescriptor pkgA = (PackageDescriptor) remoteSource.getPackageById("pkgA-1.0.2");
+        pkgA.setDependencies(new PackageDependency[] { new PackageDependency("nxphf") });
+        pm.resolveDependencies(install, null, null, null);
+        assertEquals(hits + 1, cache.getHitCount());
+
+        // the resolver configuration changed
+        P2CUDFDependencyResolver resolver = (P2CUDFDependencyResolver) ((PackageManagerImpl) pm).getResolver();
+        boolean fastPath = resolver.isFastPathEnabled();
+        resolver.setFastPathEnabled(!fastPath);
+        try {
+            pm.resolveDependencies(install, null, null, null);
+            assertEquals(hits + 1, cache.getHitCount());
+        } finally {
+            resolver.setFastPathEnabled(fastPath);
+        }
+
+        // the universe changed
+        remoteSource.reset(getDownloads("remote2.json"));
+        pm.resolveDependencies(install, null, null, null);
+        assertEquals(hits + 1, cache.getHitCount());
+
+        pm.flushCache();
+        assertEquals(0, cache.size());
+    }
+
+    public void testBounds() throws Exception {
+        ResolutionCache cache = new ResolutionCache(2, 60000);
+        cache.put(Arrays.asList(1), new DependencyResolution());
+        cache.put(Arrays.asList(2), new DependencyResolution());
+        assertNotNull(cache.get(Arrays.asList(1)));
+        cache.put(Arrays.asList(3), new DependencyResolution());
+        // least recently used is evicted
+        assertNull(cache.get(Arrays.asList(2)));
+        assertNotNull(cache.get(Arrays.asList(1)));
+        assertEquals(2, cache.size());
+
+        cache = new ResolutionCache(2, -1);
+        cache.put(Arrays.asList(1), new DependencyResolution());
+        assertNull(cache.get(Arrays.asList(1)));
+
+        cache = new ResolutionCache(0, 60000);
+        assertFalse(cache.isEnabled());
+        cache.put(Arrays.asList(1), new DependencyResolution());
+        assertNull(cache.get(Arrays.asList(1)));
+    }
+
+}
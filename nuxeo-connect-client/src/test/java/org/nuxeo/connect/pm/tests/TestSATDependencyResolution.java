@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.nuxeo.connect.packages.PackageManager;
+
+/**
+ * Runs the dependency resolution tests with the {@link PackageManager#SAT_DEPENDENCY_RESOLVER}.
+ *
+ * @since 1.7.6
+ */
+public class TestSATDependencyResolution {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(TestSATDependencyResolution.class.getName());
+        suite.addTestSuite(TestPackageDependencyResolutionP2CUDF.class);
+        suite.addTestSuite(TestRemoveP2CUDF.class);
+        suite.addTestSuite(TestConflicts.class);
+        suite.addTestSuite(TestDependencies.class);
+        suite.addTestSuite(TestDowngrade.class);
+        suite.addTestSuite(TestExclusions.class);
+        suite.addTestSuite(TestHotFixes.class);
+        suite.addTestSuite(TestInstallOfDeprecatedPkg.class);
+        suite.addTestSuite(TestNoKeep.class);
+        suite.addTestSuite(TestOptionalDependencies.class);
+        suite.addTestSuite(TestSNAPSHOT.class);
+        suite.addTestSuite(TestUninstallCheck.class);
+        return new TestSetup(suite) {
+
+            @Override
+            protected void setUp() throws Exception {
+                AbstractPackageManagerTestCase.resolverType = PackageManager.SAT_DEPENDENCY_RESOLVER;
+            }
+
+            @Override
+            protected void tearDown() throws Exception {
+                AbstractPackageManagerTestCase.resolverType = PackageManager.DEFAULT_DEPENDENCY_RESOLVER;
+            }
+        };
+    }
+
+}
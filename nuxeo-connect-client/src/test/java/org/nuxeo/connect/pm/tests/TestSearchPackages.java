@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.connect.data.AbstractJSONSerializableData;
+import org.nuxeo.connect.data.DownloadablePackage;
+import org.nuxeo.connect.data.PackageDescriptor;
+
+/**
+ * @since 1.7.6
+ */
+public class TestSearchPackages extends AbstractPackageManagerTestCase {
+
+    protected DummyPackageSource remoteSource;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        remoteSource = new DummyPackageSource(getDownloads("remote1.json"), "remoteSearch");
+        pm.registerSource(new DummyPackageSource(getDownloads("local1.json"), "localSearch"), true);
+        pm.registerSource(remoteSource, false);
+    }
+
+    protected List<String> searchIds(String searchExpr) {
+        List<String> ids = new ArrayList<>();
+        for (DownloadablePackage pkg : pm.searchPackages(searchExpr)) {
+            ids.add(pkg.getId());
+        }
+        return ids;
+    }
+
+    public void testSearch() throws Exception {
+        List<String> ids = searchIds("pkg");
+        assertEquals(4, ids.size());
+        assertTrue(ids.contains("pkgA-1.0.1"));
+        assertTrue(ids.contains("pkgA-1.0.2"));
+        assertTrue(ids.contains("pkgB-1.0.2"));
+        assertTrue(ids.contains("pkgC-1.0.0"));
+
+        ids = searchIds("PkgB");
+        assertEquals(1, ids.size());
+        assertEquals("pkgB-1.0.2", ids.get(0));
+
+        // all terms must match, each of them being a prefix
+        ids = searchIds("stud pr");
+        assertEquals(2, ids.size());
+        assertTrue(ids.contains("studio-myprj-1.0.0"));
+        assertTrue(ids.contains("studio-myprj-1.0.1"));
+        assertTrue(searchIds("studio pkg").isEmpty());
+
+        ids = searchIds("nxp");
+        assertEquals(1, ids.size());
+        assertEquals("nxphf-1.0.0", ids.get(0));
+
+        assertTrue(searchIds("unknown").isEmpty());
+        assertEquals(pm.listPackages().size(), pm.searchPackages(" ").size());
+    }
+
+    public void testRanking() throws Exception {
+        List<DownloadablePackage> remote = getDownloads("remote1.json");
+        remote.add(AbstractJSONSerializableData.loadFromJSON(PackageDescriptor.class,
+                "{\"id\":\"other-1.0.0\",\"name\":\"other\",\"version\":\"1.0.0\",\"title\":\"Other\","
+                        + "\"description\":\"Not a pkgC\",\"type\":\"addon\"}"));
+        remoteSource.reset(remote);
+        List<String> ids = searchIds("pkgc");
+        assertEquals(2, ids.size());
+        // name match ranks before description match
+        assertEquals("pkgC-1.0.0", ids.get(0));
+        assertEquals("other-1.0.0", ids.get(1));
+    }
+
+    public void testIncrementalUpdate() throws Exception {
+        assertEquals(1, searchIds("nxphf").size());
+        assertTrue(searchIds("pkgd").isEmpty());
+
+        // the catalog changes behind the package manager
+        remoteSource.reset(getDownloads("remote2.json"));
+        assertTrue(searchIds("nxphf").isEmpty());
+        List<String> ids = searchIds("pkgd");
+        assertEquals(1, ids.size());
+        assertEquals("pkgD-1.0.0", ids.get(0));
+    }
+
+    public void testCatalogIsListedOnChange() throws Exception {
+        AtomicInteger listings = new AtomicInteger();
+        AtomicLong generation = new AtomicLong();
+        pm.registerSource(new DummyPackageSource(getDownloads("remote2.json"), "generationSearch") {
+            @Override
+            public List<DownloadablePackage> listPackages() {
+                listings.incrementAndGet();
+                return super.listPackages();
+            }
+
+            @Override
+            public long getGeneration() {
+                return generation.get();
+            }
+        }, false);
+        assertEquals(1, searchIds("pkgd").size());
+        int count = listings.get();
+        assertTrue(count > 0);
+        assertEquals(1, searchIds("nxphf").size());
+        assertEquals(count, listings.get());
+
+        generation.incrementAndGet();
+        assertEquals(1, searchIds("pkgd").size());
+        assertTrue(listings.get() > count);
+    }
+
+}
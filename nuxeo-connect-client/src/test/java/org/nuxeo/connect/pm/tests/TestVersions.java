@@ -19,6 +19,8 @@ package org.nuxeo.connect.pm.tests;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
 
@@ -93,4 +95,75 @@ public class TestVersions extends TestCase {
         assertTrue(version2.isSnapshot());
         assertTrue(version2.isSpecialClassifier());
     }
+
+    /**
+     * The regular expression based parsing which was used before 1.7.6.
+     */
+    protected static Version parseWithPatterns(String version) {
+        int major = 0, minor = 0, patch = 0;
+        String classifier = null;
+        boolean snapshot = false;
+        Matcher versionMatcher = Version.VERSION_PATTERN.matcher(version);
+        if (versionMatcher.find()) {
+            String versionNumber = versionMatcher.group();
+            versionMatcher = Pattern.compile("[0-9]+").matcher(versionNumber);
+            if (versionMatcher.find()) {
+                major = Integer.parseInt(versionMatcher.group());
+                if (versionMatcher.find()) {
+                    minor = Integer.parseInt(versionMatcher.group());
+                    if (versionMatcher.find()) {
+                        patch = Integer.parseInt(versionMatcher.group());
+                    }
+                }
+            }
+            String versionClassifier = version.substring(versionNumber.length());
+            if (versionClassifier.contains(Version.SNAPSHOT)) {
+                snapshot = true;
+                versionClassifier = versionClassifier.replaceFirst(Version.SNAPSHOT, "");
+            }
+            if (!versionClassifier.isEmpty()) {
+                classifier = versionClassifier.substring(1);
+            }
+        }
+        Version parsed = new Version(major, minor, patch, classifier);
+        parsed.setSnapshot(snapshot);
+        return parsed;
+    }
+
+    public void testParsingMatchesPatterns() {
+        String[] versions = { "5", "5.0", "5.0.0", "5.2.1-RC1", "5.2.1-SNAPSHOT", "5.0.1-CMF-SNAPSHOT",
+                "7.3.12-SNAPSHOT-BETA", "5.0.1-I20130101", "5.0.1-I2013010", "5.0.1-beta2-SNAPSHOT", "1.0-alphax",
+                "1.2.3.4", "1.", "1..2", "1.2.", "v1.2", "abc", "", "-SNAPSHOT", "1.0-", "1.0-SNAPSHOT-SNAPSHOT",
+                "10.10-HF05", "01.002.0003", "1.0-1-SNAPSHOT", "2.0-rc\n", "2147483647.1" };
+        for (String version : versions) {
+            Version expected = parseWithPatterns(version);
+            // twice to go through the parse cache
+            for (int i = 0; i < 2; i++) {
+                Version parsed = new Version(version);
+                assertEquals(version, expected.major(), parsed.major());
+                assertEquals(version, expected.minor(), parsed.minor());
+                assertEquals(version, expected.patch(), parsed.patch());
+                assertEquals(version, expected.classifier(), parsed.classifier());
+                assertEquals(version, expected.isSnapshot(), parsed.isSnapshot());
+                assertEquals(version, expected.classifier() != null
+                        && Version.SPECIAL_CLASSIFIER.matcher(expected.classifier()).matches(),
+                        parsed.isSpecialClassifier());
+            }
+        }
+        try {
+            new Version("1.99999999999");
+            fail("Expected a NumberFormatException");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    public void testParseCacheReturnsCopies() {
+        Version version = new Version("5.2.1-RC1-SNAPSHOT");
+        version.setSnapshot(false);
+        version.setClassifier("RC2");
+        Version other = new Version("5.2.1-RC1-SNAPSHOT");
+        assertTrue(other.isSnapshot());
+        assertEquals("RC1", other.classifier());
+    }
 }
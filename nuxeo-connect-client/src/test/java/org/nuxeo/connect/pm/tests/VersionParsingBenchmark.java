@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.pm.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.nuxeo.connect.update.Version;
+
+/**
+ * Compares the parsing and sorting of a catalog-like list of versions with the former regular expression based
+ * parsing, see {@link TestVersions#parseWithPatterns(String)}. Not part of the unit tests: run its main method with the
+ * number of versions as argument.
+ * <p>
+ * {@link Version} caches the parsed strings: each timed parsing round uses strings never parsed before, so that the
+ * parser is measured rather than the cache, whose lookups are reported separately.
+ *
+ * @since 1.7.6
+ */
+public class VersionParsingBenchmark {
+
+    protected static final int ROUNDS = 10;
+
+    /**
+     * @param round distinguishes the strings of the rounds, with a different major version
+     */
+    protected static List<String> getStrings(int size, int round) {
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add((100 * round + i % 11) + "." + (i % 7) + "." + (i % 13) + (i % 3 == 0 ? "-SNAPSHOT" : "")
+                    + (i % 5 == 0 ? "-HF0" + (i % 10) : ""));
+        }
+        return strings;
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        List<List<String>> rounds = new ArrayList<>();
+        for (int run = 0; run < 2 * ROUNDS + 1; run++) {
+            rounds.add(getStrings(size, run));
+        }
+        List<Version> versions = new ArrayList<>();
+        // warm up both paths on their own strings
+        for (int run = 0; run < ROUNDS; run++) {
+            for (String string : rounds.get(run)) {
+                TestVersions.parseWithPatterns(string);
+                new Version(string);
+            }
+        }
+        long start = System.nanoTime();
+        for (int run = 0; run < ROUNDS; run++) {
+            versions.clear();
+            for (String string : rounds.get(ROUNDS + run)) {
+                versions.add(TestVersions.parseWithPatterns(string));
+            }
+        }
+        long patternsTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int run = 0; run < ROUNDS; run++) {
+            versions.clear();
+            for (String string : rounds.get(ROUNDS + run)) {
+                versions.add(new Version(string));
+            }
+        }
+        long parseTime = System.nanoTime() - start;
+        // the last strings are parsed twice in case the cache is cleared meanwhile, and stay cached unless there are
+        // more than the cache holds
+        List<String> cached = rounds.get(2 * ROUNDS);
+        for (int run = 0; run < 2; run++) {
+            for (String string : cached) {
+                new Version(string);
+            }
+        }
+        start = System.nanoTime();
+        for (int run = 0; run < ROUNDS; run++) {
+            versions.clear();
+            for (String string : cached) {
+                versions.add(new Version(string));
+            }
+        }
+        long lookupTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int run = 0; run < ROUNDS; run++) {
+            Collections.shuffle(versions);
+            Collections.sort(versions);
+        }
+        long sortTime = System.nanoTime() - start;
+        System.out.println(String.format("%d versions, average of %d rounds", size, ROUNDS));
+        System.out.println(String.format("patterns: %d us", patternsTime / ROUNDS / 1000));
+        System.out.println(String.format("parsing: %d us", parseTime / ROUNDS / 1000));
+        System.out.println(String.format("cached lookups: %d us", lookupTime / ROUNDS / 1000));
+        System.out.println(String.format("sorting: %d us", sortTime / ROUNDS / 1000));
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.update;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * @since 1.7.6
+ */
+public class PackageIdTest {
+
+    @Test
+    public void testCached() {
+        PackageId id = PackageId.of("somePackageName", new Version("1.0.0-SNAPSHOT"));
+        assertSame(id, PackageId.of("somePackageName", new Version("1.0.0-SNAPSHOT")));
+        assertEquals(id.hashCode(), PackageId.of("somePackageName", new Version("1.0.0-SNAPSHOT")).hashCode());
+        assertEquals("somePackageName-1.0.0-SNAPSHOT", id.toString());
+        assertEquals("somePackageName", id.getName());
+        assertEquals(new Version("1.0.0-SNAPSHOT"), id.getVersion());
+        assertFalse(id.equals(PackageId.of("somePackageName", new Version("1.0.0"))));
+        assertFalse(id.equals(PackageId.of("otherPackageName", new Version("1.0.0-SNAPSHOT"))));
+        assertEquals("somePackageName", PackageId.of("somePackageName", null).toString());
+
+        // the cached version is not affected by changes of the given one
+        Version version = new Version("2.0.0");
+        PackageId id2 = PackageId.of("somePackageName", version);
+        version.setClassifier("HF01");
+        assertEquals("somePackageName-2.0.0", id2.toString());
+        assertSame(id2, PackageId.of("somePackageName", new Version("2.0.0")));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        PackageId id = PackageId.of("somePackageName", new Version("1.0.0"));
+        for (int i = 0; i < 100000; i++) {
+            PackageId.of("somePackageName", new Version(0, 0, i));
+        }
+        // evicted, but still equal
+        PackageId other = PackageId.of("somePackageName", new Version("1.0.0"));
+        assertNotSame(id, other);
+        assertEquals(id, other);
+        assertEquals(id.hashCode(), other.hashCode());
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2018 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+
+package org.nuxeo.connect.update;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @since 1.7.6
+ */
+public class VersionIndexTest {
+
+    @Test
+    public void testRanges() {
+        VersionIndex<String> index = new VersionIndex<>();
+        for (String version : Arrays.asList("5.0.1", "5.0.1-SNAPSHOT", "5.0.1-CMF", "5.0.1-beta", "5.0.1-I20130101",
+                "5.2.1-RC1", "5.2.1", "6.0")) {
+            index.put("pkg", new Version(version), version);
+        }
+        index.put("other", new Version("1.0"), "1.0");
+        // special classifiers are alphabetically ordered, before the SNAPSHOT
+        assertEquals(Arrays.asList("5.0.1-beta", "5.0.1-SNAPSHOT", "5.0.1", "5.0.1-CMF"),
+                new ArrayList<>(index.getVersions("pkg", new VersionRange("5.0.1-beta:5.0.1-CMF")).values()));
+        assertEquals(Arrays.asList("5.0.1-SNAPSHOT", "5.0.1", "5.0.1-CMF", "5.2.1-RC1"),
+                new ArrayList<>(index.getVersions("pkg", new VersionRange("5.0.1-SNAPSHOT:5.2.1-RC1")).values()));
+        assertEquals("6.0", index.getLatest("pkg", VersionRange.ANY).getValue());
+        assertEquals("5.0.1-I20130101", index.getEarliest("pkg", VersionRange.ANY).getValue());
+        assertEquals("5.2.1", index.getLatest("pkg", new VersionRange(null, new Version("5.2.1"))).getValue());
+        assertEquals("5.2.1-RC1", index.getEarliest("pkg", new VersionRange("5.0.2")).getValue());
+        assertNull(index.getLatest("pkg", new VersionRange("7.0")));
+        assertNull(index.getLatest("pkg", new VersionRange("6.0:5.0")));
+        assertNull(index.getLatest("missing", VersionRange.ANY));
+        assertTrue(index.getVersions("missing", VersionRange.ANY).isEmpty());
+        assertNull(index.getVersions("missing"));
+
+        assertEquals("6.0", index.remove("pkg", new Version("6.0.0")));
+        assertEquals("5.2.1", index.getLatest("pkg", VersionRange.ANY).getValue());
+        assertEquals("1.0", index.remove("other", new Version("1")));
+        assertEquals(Arrays.asList("pkg"), new ArrayList<>(index.getNames()));
+    }
+
+    /**
+     * Checks the range queries against {@link VersionRange#matchVersion(Version)}.
+     */
+    @Test
+    public void testMatchesVersionRange() {
+        Random random = new Random(42);
+        String[] classifiers = { "", "-SNAPSHOT", "-RC1", "-beta", "-HF01", "-HF01-SNAPSHOT", "-I20180101" };
+        List<Version> versions = new ArrayList<>();
+        VersionIndex<Version> index = new VersionIndex<>();
+        for (int i = 0; i < 200; i++) {
+            Version version = randomVersion(random, classifiers);
+            versions.add(version);
+            index.put("pkg", version, version);
+        }
+        for (int i = 0; i < 500; i++) {
+            Version min = random.nextInt(4) == 0 ? null : randomVersion(random, classifiers);
+            Version max = random.nextInt(4) == 0 ? null : randomVersion(random, classifiers);
+            VersionRange range = new VersionRange(min);
+            range.setMaxVersion(max);
+            List<Version> expected = new ArrayList<>();
+            for (Version version : index.getVersions("pkg").keySet()) {
+                if (range.matchVersion(version)) {
+                    expected.add(version);
+                }
+            }
+            assertEquals(range.toString(), expected, new ArrayList<>(index.getVersions("pkg", range).keySet()));
+        }
+        for (Version version : versions) {
+            assertTrue(index.getVersions("pkg").containsKey(version));
+        }
+    }
+
+    protected static Version randomVersion(Random random, String[] classifiers) {
+        return new Version(random.nextInt(3) + "." + random.nextInt(3) + "." + random.nextInt(3)
+                + classifiers[random.nextInt(classifiers.length)]);
+    }
+
+}